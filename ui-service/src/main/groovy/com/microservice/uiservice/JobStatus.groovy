@@ -0,0 +1,30 @@
+package com.microservice.uiservice
+
+/**
+ * Status of a conversion job of unexcel-service
+ */
+class JobStatus {
+    Long id
+    String fileName
+    FileStatus status
+    List<String> currentSheets
+    Integer sheetsDone
+    Long rowsWritten
+    Long bytesWritten
+    Date queuedAt
+    Date startedAt
+    Date finishedAt
+    List<String> resultFiles
+
+    @Override
+    public String toString() {
+        return "JobStatus{id=$id, fileName='$fileName', status=$status}"
+    }
+}
+
+enum FileStatus {
+    PENDING,
+    IN_PROGRESS,
+    DONE,
+    FAILED
+}
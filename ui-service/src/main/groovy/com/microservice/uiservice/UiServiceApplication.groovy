@@ -1,28 +1,57 @@
 package com.microservice.uiservice
 
+import org.springframework.beans.factory.annotation.Value
 import org.springframework.boot.SpringApplication
 import org.springframework.boot.autoconfigure.SpringBootApplication
 import org.springframework.boot.web.client.RestTemplateBuilder
-import org.springframework.cloud.client.circuitbreaker.EnableCircuitBreaker
 import org.springframework.cloud.client.discovery.EnableDiscoveryClient
 import org.springframework.cloud.client.loadbalancer.LoadBalanced
+import org.springframework.cloud.netflix.ribbon.RibbonClient
 import org.springframework.cloud.netflix.zuul.EnableZuulProxy
 import org.springframework.context.annotation.Bean
-import org.springframework.web.client.RestTemplate
+import org.springframework.http.client.SimpleClientHttpRequestFactory
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor
+import org.springframework.web.client.AsyncRestTemplate
 
 @SpringBootApplication
 @EnableDiscoveryClient
 @EnableZuulProxy
-@EnableCircuitBreaker
+@RibbonClient(name = 'unexcel-service', configuration = UnexcelRibbonConfiguration)
 class UiServiceApplication {
 
 	static void main(String[] args) {
 		SpringApplication.run UiServiceApplication, args
 	}
 
+    /**
+     * Threads of the requests to unexcel-service. Requests only ask for a job's status or queue one, they don't
+     * wait for conversions, so a few threads serve many waiting UI requests.
+     */
+    @Bean
+    ThreadPoolTaskExecutor unexcelClientExecutor(@Value('${unexcel.client.threads:8}') int threads,
+                                                 @Value('${unexcel.client.queue-capacity:100}') int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor()
+        executor.corePoolSize = threads
+        executor.maxPoolSize = threads
+        executor.queueCapacity = queueCapacity
+        executor.threadNamePrefix = 'unexcel-client-'
+        return executor
+    }
+
+    @Bean
+    SimpleClientHttpRequestFactory unexcelRequestFactory(ThreadPoolTaskExecutor unexcelClientExecutor,
+                                                         @Value('${unexcel.client.connect-timeout-ms:3000}') int connectTimeout,
+                                                         @Value('${unexcel.client.read-timeout-ms:10000}') int readTimeout) {
+        SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory()
+        factory.taskExecutor = unexcelClientExecutor
+        factory.connectTimeout = connectTimeout
+        factory.readTimeout = readTimeout
+        return factory
+    }
+
     @LoadBalanced
     @Bean
-    RestTemplate restTemplate() {
-        return new RestTemplate();
+    AsyncRestTemplate asyncRestTemplate(SimpleClientHttpRequestFactory unexcelRequestFactory) {
+        return new AsyncRestTemplate(unexcelRequestFactory);
     }
 }
@@ -1,49 +1,260 @@
 package com.microservice.uiservice
 
-import com.netflix.hystrix.contrib.javanica.annotation.HystrixCommand
+import com.google.common.cache.Cache
+import com.google.common.cache.CacheBuilder
+import groovy.util.logging.Log4j
 import org.springframework.beans.factory.annotation.Autowired
-import org.springframework.core.ParameterizedTypeReference
-import org.springframework.hateoas.Resources
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.core.task.TaskRejectedException
 import org.springframework.http.HttpEntity
 import org.springframework.http.HttpHeaders
-import org.springframework.http.HttpMethod
+import org.springframework.http.HttpStatus
 import org.springframework.http.MediaType
+import org.springframework.http.ResponseEntity
 import org.springframework.util.LinkedMultiValueMap
 import org.springframework.util.MultiValueMap
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory
+import org.springframework.util.concurrent.FailureCallback
+import org.springframework.util.concurrent.ListenableFuture
+import org.springframework.util.concurrent.SuccessCallback
+import org.springframework.web.bind.annotation.PathVariable
 import org.springframework.web.bind.annotation.RequestMapping
 import org.springframework.web.bind.annotation.RequestMethod
 import org.springframework.web.bind.annotation.RequestParam
 import org.springframework.web.bind.annotation.RestController
-import org.springframework.web.client.RestTemplate
+import org.springframework.web.client.AsyncRestTemplate
+import org.springframework.web.client.HttpStatusCodeException
+import org.springframework.web.context.request.async.DeferredResult
+import org.springframework.web.util.UriComponentsBuilder
 
+import javax.annotation.PostConstruct
+import javax.annotation.PreDestroy
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
 
+@Log4j
 @RestController
 @RequestMapping('/unexcel')
 class UnexcelController {
 
+    /**
+     * Request parameters of unexcel-service selecting the part of the workbook to convert and its format
+     */
+    static final List<String> SELECTION_PARAMETERS = ['sheets', 'sheetIndexes', 'rows', 'columns', 'format']
+
+    /**
+     * Request parameters of the file listing of unexcel-service
+     */
+    static final List<String> LISTING_PARAMETERS = ['status', 'since', 'namePrefix', 'page', 'size']
+
+    static final String UNEXCEL_SERVICE = 'http://unexcel-service/unexcel'
+
     @Autowired
-    RestTemplate restTemplate
+    AsyncRestTemplate asyncRestTemplate
+
+    /**
+     * How long a conversion request waits for its job before it is answered with the job's status
+     */
+    @Value('${unexcel.client.wait-seconds:25}')
+    long waitSeconds
+
+    /**
+     * Interval of the status requests while a request waits for a job
+     */
+    @Value('${unexcel.client.poll-interval-ms:500}')
+    long pollIntervalMs
+
+    /**
+     * Retry-After of the 503 answered when unexcel-service cannot be reached
+     */
+    @Value('${unexcel.client.retry-after-seconds:5}')
+    long retryAfterSeconds
+
+    @Value('${unexcel.client.files-cache-seconds:5}')
+    long filesCacheSeconds
+
+    @Value('${unexcel.client.files-cache-size:1000}')
+    long filesCacheSize
+
+    /**
+     * Pages of the file listing by their query, a page is at most files-cache-seconds old
+     */
+    Cache<String, String> filesCache
+
+    /**
+     * Schedules the next status request of waiting requests, no thread waits in between
+     */
+    ScheduledExecutorService pollScheduler
+
+    @PostConstruct
+    void start() {
+        pollScheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory('unexcel-poll-'))
+        filesCache = CacheBuilder.newBuilder()
+                .expireAfterWrite(filesCacheSeconds, TimeUnit.SECONDS)
+                .maximumSize(filesCacheSize)
+                .build()
+    }
 
-    @HystrixCommand(fallbackMethod = 'unexcelFallback')
+    @PreDestroy
+    void stop() {
+        pollScheduler.shutdownNow()
+    }
+
+    /**
+     * Queues the conversion on unexcel-service and waits for it up to wait-seconds without holding a thread.
+     * Answers 200 with the result files if the job is done by then, 202 with the job's status and location
+     * if it is still queued or in progress (see {@link #job}), 422 with the status if it failed.
+     * The optional sheets, sheetIndexes, rows and columns parameters are passed on
+     * to unexcel-service, e.g. rows=1-20 for a preview of the first 20 rows.
+     * The job goes to the least loaded instance, large workbooks to an idle one (see {@link UnexcelLoadRule}).
+     */
     @RequestMapping(method = RequestMethod.POST)
-    def callUnexcel(@RequestParam('filePath') String filePath) {
+    DeferredResult<ResponseEntity<?>> callUnexcel(@RequestParam('filePath') String filePath,
+                                                  @RequestParam MultiValueMap<String, String> params) {
+        MultiValueMap<String, String> form = new LinkedMultiValueMap([filePath: [filePath]])
+        SELECTION_PARAMETERS.each { String name ->
+            if (params.containsKey(name)) {
+                form.put(name, params.get(name))
+            }
+        }
         HttpEntity<MultiValueMap> entity = new HttpEntity<>(
-                new LinkedMultiValueMap([filePath: [filePath]]),
+                form,
                 new HttpHeaders() {{ this.setContentType(MediaType.APPLICATION_FORM_URLENCODED) }}
         )
-        restTemplate.exchange('http://unexcel-service/unexcel', HttpMethod.POST, entity, List).body
+        long size = workbookSize(filePath)
+        DeferredResult<ResponseEntity<?>> result = new DeferredResult<>()
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(waitSeconds)
+        request(result, {
+            UnexcelLoadRule.dispatch(size) { asyncRestTemplate.postForEntity("$UNEXCEL_SERVICE/jobs", entity, JobStatus) }
+        }) { JobStatus job ->
+            await(job, deadline, result) { JobStatus status -> answer(status) }
+        }
+        result
     }
 
-//    Configured to 60 seconds timeout; kinda beats the purpose, but unexcel could take some time
-    def unexcelFallback(String filePath) {
-        []
+    /**
+     * Status of a conversion job, held up to waitSeconds (at most wait-seconds) until the job is finished
+     */
+    @RequestMapping(method = RequestMethod.GET, value = '/jobs/{id}')
+    DeferredResult<ResponseEntity<?>> job(@PathVariable('id') Long id,
+                                          @RequestParam(value = 'waitSeconds', defaultValue = '0') long waitSeconds) {
+        DeferredResult<ResponseEntity<?>> result = new DeferredResult<>()
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(Math.min(waitSeconds, this.waitSeconds))
+        request(result, { asyncRestTemplate.getForEntity("$UNEXCEL_SERVICE/jobs/{id}", JobStatus, id) }) { JobStatus job ->
+            await(job, deadline, result) { JobStatus status -> ResponseEntity.ok(status) }
+        }
+        result
     }
 
+    /**
+     * One page of the files known to unexcel-service, newest first. The optional status, since (a day, e.g.
+     * 2017-06-30), namePrefix, page and size parameters are passed on. Pages are cached for files-cache-seconds,
+     * so a page that is reloaded over and over is only asked for once in that time.
+     */
     @RequestMapping(method = RequestMethod.GET, value = '/files')
-    def test() {
-        ParameterizedTypeReference<Resources<IncomingFile>> res = new ParameterizedTypeReference<Resources<IncomingFile>>() {}
+    DeferredResult<ResponseEntity<?>> files(@RequestParam MultiValueMap<String, String> params) {
+        UriComponentsBuilder uri = UriComponentsBuilder.fromHttpUrl("$UNEXCEL_SERVICE/files")
+        LISTING_PARAMETERS.each { String name ->
+            if (params.getFirst(name)) {
+                uri.queryParam(name, params.getFirst(name))
+            }
+        }
+        URI query = uri.build().encode().toUri()
+        DeferredResult<ResponseEntity<?>> result = new DeferredResult<>()
+        String page = filesCache.getIfPresent(query.toString())
+        if (page != null) {
+            result.setResult(json(page))
+            return result
+        }
+        request(result, { asyncRestTemplate.getForEntity(query, String) }) { String body ->
+            filesCache.put(query.toString(), body)
+            result.setResult(json(body))
+        }
+        result
+    }
+
+    /**
+     * Answers once the job is finished or the deadline is passed, asking for its status every poll interval
+     */
+    private void await(JobStatus job, long deadline, DeferredResult<ResponseEntity<?>> result,
+                       Closure<ResponseEntity<?>> answer) {
+        if (job.status == FileStatus.DONE || job.status == FileStatus.FAILED || System.currentTimeMillis() >= deadline) {
+            result.setResult(answer(job))
+            return
+        }
+        pollScheduler.schedule({
+            request(result, { asyncRestTemplate.getForEntity("$UNEXCEL_SERVICE/jobs/{id}", JobStatus, job.id) }) {
+                JobStatus status -> await(status, deadline, result, answer)
+            }
+        } as Runnable, pollIntervalMs, TimeUnit.MILLISECONDS)
+    }
+
+    /**
+     * Sends the request to unexcel-service and passes the body it answers with on, errors answer the result
+     */
+    private <T> void request(DeferredResult<ResponseEntity<?>> result,
+                             Closure<ListenableFuture<ResponseEntity<T>>> request, Closure<?> onBody) {
+        ListenableFuture<ResponseEntity<T>> response
+        try {
+            response = request()
+        } catch (TaskRejectedException e) {
+            // all client threads are busy
+            result.setResult(failed(e))
+            return
+        }
+        response.addCallback(
+                { ResponseEntity<T> body -> onBody(body.body) } as SuccessCallback<ResponseEntity<T>>,
+                { Throwable e -> result.setResult(failed(e)) } as FailureCallback)
+    }
+
+    /**
+     * @return size of the workbook if this instance can see it, 0 otherwise
+     */
+    private static long workbookSize(String filePath) {
+        try {
+            Path path = Paths.get(filePath)
+            Files.isRegularFile(path) ? Files.size(path) : 0
+        } catch (Exception e) {
+            0
+        }
+    }
 
-        restTemplate.exchange('http://unexcel-service/incomingFiles', HttpMethod.GET, null, res).getBody().getContent()
+    private static ResponseEntity<?> json(String body) {
+        ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).body(body)
     }
 
+    private static ResponseEntity<?> answer(JobStatus job) {
+        switch (job.status) {
+            case FileStatus.DONE:
+                return ResponseEntity.ok(job.resultFiles)
+            case FileStatus.FAILED:
+                return ResponseEntity.unprocessableEntity().body(job)
+            default:
+                return ResponseEntity.accepted().location(URI.create("/unexcel/jobs/${job.id}")).body(job)
+        }
+    }
+
+    /**
+     * Errors of unexcel-service are passed on with their Retry-After, e.g. 503 if its job queue is full.
+     * If it cannot be reached at all the answer is 503 as well.
+     */
+    private ResponseEntity<?> failed(Throwable e) {
+        if (e instanceof HttpStatusCodeException) {
+            HttpStatusCodeException error = (HttpStatusCodeException) e
+            String retryAfter = error.responseHeaders?.getFirst(HttpHeaders.RETRY_AFTER)
+            ResponseEntity.BodyBuilder response = ResponseEntity.status(error.statusCode)
+            if (retryAfter) {
+                response.header(HttpHeaders.RETRY_AFTER, retryAfter)
+            }
+            return response.build()
+        }
+        log.warn("unexcel-service is not available: ${e.message}")
+        ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                .build()
+    }
 }
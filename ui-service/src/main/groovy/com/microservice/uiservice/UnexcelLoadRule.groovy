@@ -0,0 +1,157 @@
+package com.microservice.uiservice
+
+import com.netflix.client.config.IClientConfig
+import com.netflix.loadbalancer.AbstractLoadBalancerRule
+import com.netflix.loadbalancer.ILoadBalancer
+import com.netflix.loadbalancer.RoundRobinRule
+import com.netflix.loadbalancer.Server
+import com.netflix.niws.loadbalancer.DiscoveryEnabledServer
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Chooses the unexcel-service instance with the fewest jobs per job thread, by the load the instances publish
+ * as Eureka metadata. Jobs dispatched to an instance since its last published load are added to it, so that
+ * the instance that looked idle last doesn't get all jobs until it publishes again. Memory rather than threads
+ * limits workbooks of at least large-job-mb, they go to the idle instance with the most free memory,
+ * or to the instance with the most free memory if none is idle. Equal instances take turns. Without load
+ * metadata, e.g. without Eureka, instances are chosen round robin.
+ */
+class UnexcelLoadRule extends AbstractLoadBalancerRule {
+
+    static final String THREADS = 'unexcel.threads'
+    static final String IN_FLIGHT = 'unexcel.in-flight'
+    static final String QUEUE_DEPTH = 'unexcel.queue-depth'
+    static final String FREE_MB = 'unexcel.free-mb'
+    static final String LOAD_VERSION = 'unexcel.load-version'
+
+    /**
+     * Size of the workbook of the job dispatched by this thread, not set for other requests
+     */
+    private static final ThreadLocal<Long> JOB_SIZE = new ThreadLocal<>()
+
+    final long largeJobBytes
+
+    /**
+     * Jobs dispatched to each instance since the load version it published last
+     */
+    final Map<String, Dispatches> dispatches = new ConcurrentHashMap<>()
+
+    private final RoundRobinRule roundRobin = new RoundRobinRule()
+    private final AtomicInteger turn = new AtomicInteger()
+
+    UnexcelLoadRule(long largeJobBytes) {
+        this.largeJobBytes = largeJobBytes
+    }
+
+    /**
+     * Sends a job request, the instance for it is chosen by the size of its workbook
+     *
+     * @param size size of the workbook in bytes, 0 if unknown
+     */
+    static <T> T dispatch(long size, Closure<T> request) {
+        JOB_SIZE.set(size)
+        try {
+            request()
+        } finally {
+            JOB_SIZE.remove()
+        }
+    }
+
+    @Override
+    void initWithNiwsConfig(IClientConfig clientConfig) {
+    }
+
+    @Override
+    void setLoadBalancer(ILoadBalancer loadBalancer) {
+        super.setLoadBalancer(loadBalancer)
+        roundRobin.loadBalancer = loadBalancer
+    }
+
+    @Override
+    Server choose(Object key) {
+        List<Server> servers = loadBalancer?.reachableServers ?: []
+        List<Load> loads = servers.collect { Server server -> load(server) }
+        if (loads.empty || loads.contains(null)) {
+            return roundRobin.choose(key)
+        }
+        Long size = JOB_SIZE.get()
+        List<Load> candidates = loads
+        Comparator<Load> order = Load.LEAST_LOADED
+        if (size != null && size >= largeJobBytes) {
+            candidates = loads.findAll { Load load -> load.idle } ?: loads
+            order = Load.MOST_MEMORY
+        }
+        Load best = candidates.min(order)
+        List<Load> tied = candidates.findAll { Load load -> order.compare(load, best) == 0 }
+        Load chosen = tied[Math.abs(turn.getAndIncrement() % tied.size())]
+        if (size != null) {
+            chosen.dispatches.count.incrementAndGet()
+        }
+        chosen.server
+    }
+
+    /**
+     * @return published load of the instance plus the jobs dispatched to it since, null if it publishes none
+     */
+    Load load(Server server) {
+        if (!(server instanceof DiscoveryEnabledServer)) {
+            return null
+        }
+        Map<String, String> metadata = ((DiscoveryEnabledServer) server).instanceInfo.metadata
+        if (!metadata.containsKey(LOAD_VERSION)) {
+            return null
+        }
+        Dispatches since = dispatches.compute(server.id) { String id, Dispatches previous ->
+            previous?.version == metadata[LOAD_VERSION] ? previous : new Dispatches(metadata[LOAD_VERSION])
+        }
+        int jobs = (metadata[IN_FLIGHT] as int) + (metadata[QUEUE_DEPTH] as int) + since.count.get()
+        new Load(server, Math.max(metadata[THREADS] as int, 1), jobs, metadata[FREE_MB] as long, since)
+    }
+
+    static class Dispatches {
+        final String version
+        final AtomicInteger count = new AtomicInteger()
+
+        Dispatches(String version) {
+            this.version = version
+        }
+    }
+
+    static class Load {
+
+        /**
+         * Fewest jobs per thread first, then the most free memory
+         */
+        static final Comparator<Load> LEAST_LOADED = { Load a, Load b ->
+            // a.jobs / a.threads against b.jobs / b.threads without rounding
+            Long.compare((long) a.jobs * b.threads, (long) b.jobs * a.threads) ?: Long.compare(b.freeMb, a.freeMb)
+        } as Comparator<Load>
+
+        /**
+         * Most free memory first, then the fewest jobs per thread
+         */
+        static final Comparator<Load> MOST_MEMORY = { Load a, Load b ->
+            Long.compare(b.freeMb, a.freeMb) ?: Long.compare((long) a.jobs * b.threads, (long) b.jobs * a.threads)
+        } as Comparator<Load>
+
+        final Server server
+        final int threads
+        final int jobs
+        final long freeMb
+        final Dispatches dispatches
+
+        Load(Server server, int threads, int jobs, long freeMb, Dispatches dispatches) {
+            this.server = server
+            this.threads = threads
+            this.jobs = jobs
+            this.freeMb = freeMb
+            this.dispatches = dispatches
+        }
+
+        boolean isIdle() {
+            jobs == 0
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.microservice.uiservice
+
+import com.netflix.loadbalancer.IRule
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.context.annotation.Bean
+
+/**
+ * Ribbon client configuration of unexcel-service only, so it is no @Configuration that component scan
+ * would pick up for every client
+ */
+class UnexcelRibbonConfiguration {
+
+    @Bean
+    IRule unexcelLoadRule(@Value('${unexcel.client.large-job-mb:64}') long largeJobMb) {
+        new UnexcelLoadRule(largeJobMb * 1024 * 1024)
+    }
+}
@@ -0,0 +1,170 @@
+package com.microservice.uiservice
+
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.springframework.core.task.TaskRejectedException
+import org.springframework.http.HttpEntity
+import org.springframework.http.HttpHeaders
+import org.springframework.http.HttpStatus
+import org.springframework.http.ResponseEntity
+import org.springframework.util.LinkedMultiValueMap
+import org.springframework.util.concurrent.ListenableFuture
+import org.springframework.util.concurrent.SettableListenableFuture
+import org.springframework.web.client.AsyncRestTemplate
+import org.springframework.web.client.HttpServerErrorException
+import org.springframework.web.client.ResourceAccessException
+import org.springframework.web.context.request.async.DeferredResult
+
+import java.nio.charset.StandardCharsets
+
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertTrue
+
+/**
+ * Conversion requests wait for their job by polling its status and answer with what became of it,
+ * errors of unexcel-service are passed on
+ */
+class UnexcelControllerTests {
+
+	UnexcelController controller
+
+	/**
+	 * Answers of unexcel-service in the order they are asked for, a JobStatus or the error it fails with
+	 */
+	final List<Object> answers = Collections.synchronizedList([])
+
+	final List<String> requests = Collections.synchronizedList([])
+
+	@Before
+	void start() {
+		AsyncRestTemplate unexcelService = new AsyncRestTemplate() {
+			@Override
+			<T> ListenableFuture<ResponseEntity<T>> postForEntity(String url, HttpEntity<?> request, Class<T> type,
+																  Object... uriVariables) {
+				requests << "POST $url".toString()
+				answer()
+			}
+
+			@Override
+			<T> ListenableFuture<ResponseEntity<T>> getForEntity(String url, Class<T> type, Object... uriVariables) {
+				requests << "GET $url ${uriVariables.toList()}".toString()
+				answer()
+			}
+		}
+		controller = new UnexcelController(asyncRestTemplate: unexcelService, waitSeconds: 10, pollIntervalMs: 10,
+				retryAfterSeconds: 5, filesCacheSeconds: 5, filesCacheSize: 10)
+		controller.start()
+	}
+
+	@After
+	void stop() {
+		controller.stop()
+	}
+
+	@Test
+	void doneJobAnswersTheFiles() {
+		answers << status(FileStatus.DONE)
+		ResponseEntity<?> response = convert()
+		assertEquals(HttpStatus.OK, response.statusCode)
+		assertEquals(['/out/data.csv'], response.body)
+		assertEquals(['POST http://unexcel-service/unexcel/jobs'], requests)
+	}
+
+	@Test
+	void runningJobIsPolledUntilDone() {
+		answers.addAll([status(FileStatus.PENDING), status(FileStatus.IN_PROGRESS), status(FileStatus.DONE)])
+		ResponseEntity<?> response = convert()
+		assertEquals(HttpStatus.OK, response.statusCode)
+		assertEquals(['POST http://unexcel-service/unexcel/jobs',
+					  'GET http://unexcel-service/unexcel/jobs/{id} [7]',
+					  'GET http://unexcel-service/unexcel/jobs/{id} [7]'], requests)
+	}
+
+	@Test
+	void jobStillRunningAtTheDeadlineIsAccepted() {
+		controller.waitSeconds = 0
+		answers << status(FileStatus.IN_PROGRESS)
+		ResponseEntity<?> response = convert()
+		assertEquals(HttpStatus.ACCEPTED, response.statusCode)
+		assertEquals('/unexcel/jobs/7', response.headers.getFirst(HttpHeaders.LOCATION))
+		assertEquals(FileStatus.IN_PROGRESS, ((JobStatus) response.body).status)
+		assertEquals(1, requests.size())
+	}
+
+	@Test
+	void failedJobIsUnprocessable() {
+		answers.addAll([status(FileStatus.PENDING), status(FileStatus.FAILED)])
+		ResponseEntity<?> response = convert()
+		assertEquals(HttpStatus.UNPROCESSABLE_ENTITY, response.statusCode)
+		assertEquals(FileStatus.FAILED, ((JobStatus) response.body).status)
+	}
+
+	@Test
+	void errorIsPassedOnWithItsRetryAfter() {
+		HttpHeaders headers = new HttpHeaders()
+		headers.set(HttpHeaders.RETRY_AFTER, '30')
+		answers << new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE, 'Service Unavailable', headers,
+				new byte[0], StandardCharsets.UTF_8)
+		ResponseEntity<?> response = convert()
+		assertEquals(HttpStatus.SERVICE_UNAVAILABLE, response.statusCode)
+		assertEquals('30', response.headers.getFirst(HttpHeaders.RETRY_AFTER))
+	}
+
+	@Test
+	void unreachableServiceIsUnavailable() {
+		answers.addAll([status(FileStatus.PENDING), new ResourceAccessException('Connection refused')])
+		ResponseEntity<?> response = convert()
+		assertEquals(HttpStatus.SERVICE_UNAVAILABLE, response.statusCode)
+		assertEquals('5', response.headers.getFirst(HttpHeaders.RETRY_AFTER))
+
+		answers << new TaskRejectedException('All client threads are busy')
+		response = convert()
+		assertEquals(HttpStatus.SERVICE_UNAVAILABLE, response.statusCode)
+		assertEquals('5', response.headers.getFirst(HttpHeaders.RETRY_AFTER))
+	}
+
+	@Test
+	void jobStatusIsHeldUntilDone() {
+		answers.addAll([status(FileStatus.IN_PROGRESS), status(FileStatus.DONE)])
+		ResponseEntity<?> response = await(controller.job(7, 5))
+		assertEquals(HttpStatus.OK, response.statusCode)
+		assertEquals(FileStatus.DONE, ((JobStatus) response.body).status)
+
+		answers << status(FileStatus.IN_PROGRESS)
+		response = await(controller.job(7, 0))
+		assertEquals(FileStatus.IN_PROGRESS, ((JobStatus) response.body).status)
+	}
+
+	private ResponseEntity<?> convert() {
+		await(controller.callUnexcel('/in/workbook.xlsx', new LinkedMultiValueMap<String, String>()))
+	}
+
+	private static ResponseEntity<?> await(DeferredResult<ResponseEntity<?>> result) {
+		long deadline = System.currentTimeMillis() + 10_000
+		while (!result.hasResult() && System.currentTimeMillis() < deadline) {
+			sleep(5)
+		}
+		assertTrue('No answer', result.hasResult())
+		(ResponseEntity<?>) result.result
+	}
+
+	private <T> ListenableFuture<ResponseEntity<T>> answer() {
+		Object answer = answers.remove(0)
+		if (answer instanceof TaskRejectedException) {
+			throw answer
+		}
+		SettableListenableFuture<ResponseEntity<T>> response = new SettableListenableFuture<>()
+		if (answer instanceof Throwable) {
+			response.setException(answer)
+		} else {
+			response.set(ResponseEntity.ok(answer))
+		}
+		response
+	}
+
+	private static JobStatus status(FileStatus status) {
+		new JobStatus(id: 7, fileName: 'workbook.xlsx', status: status,
+				resultFiles: status == FileStatus.DONE ? ['/out/data.csv'] : [])
+	}
+}
@@ -0,0 +1,87 @@
+package com.microservice.uiservice
+
+import com.netflix.appinfo.InstanceInfo
+import com.netflix.loadbalancer.BaseLoadBalancer
+import com.netflix.loadbalancer.Server
+import com.netflix.niws.loadbalancer.DiscoveryEnabledServer
+import org.junit.Before
+import org.junit.Test
+
+import static org.junit.Assert.assertEquals
+
+/**
+ * Jobs go to the instance with the fewest jobs per thread, large ones to idle instances
+ */
+class UnexcelLoadRuleTests {
+
+	static final long MB = 1024 * 1024
+
+	UnexcelLoadRule rule
+
+	BaseLoadBalancer loadBalancer
+
+	@Before
+	void start() {
+		rule = new UnexcelLoadRule(64 * MB)
+		loadBalancer = new BaseLoadBalancer()
+		loadBalancer.rule = rule
+	}
+
+	@Test
+	void leastJobsPerThread() {
+		servers(server(8001, 4, 3, 0, 500), server(8002, 2, 1, 0, 500))
+		// 3/4 against 1/2
+		assertEquals(8002, rule.choose(null).port)
+	}
+
+	@Test
+	void dispatchedJobsCountUntilTheNextLoad() {
+		servers(server(8001, 2, 0, 0, 500), server(8002, 2, 1, 0, 400))
+		List<Integer> ports = (1..4).collect { UnexcelLoadRule.dispatch(MB) { rule.choose(null).port } }
+		assertEquals([8001, 8001, 8002, 8001], ports)
+
+		// 8001 published its load again, the jobs dispatched before are part of it or done
+		servers(server(8001, 2, 0, 0, 500, '2'), server(8002, 2, 1, 0, 400))
+		assertEquals(8001, UnexcelLoadRule.dispatch(MB) { rule.choose(null).port })
+	}
+
+	@Test
+	void largeJobsPreferIdleInstances() {
+		servers(server(8001, 8, 1, 0, 900), server(8002, 1, 0, 0, 100), server(8003, 1, 0, 0, 300))
+		assertEquals(8003, UnexcelLoadRule.dispatch(100 * MB) { rule.choose(null).port })
+	}
+
+	@Test
+	void largeJobsPreferFreeMemory() {
+		servers(server(8001, 2, 1, 0, 900), server(8002, 4, 1, 0, 100))
+		assertEquals(8002, UnexcelLoadRule.dispatch(MB) { rule.choose(null).port })
+		assertEquals(8001, UnexcelLoadRule.dispatch(100 * MB) { rule.choose(null).port })
+	}
+
+	@Test
+	void roundRobinWithoutLoad() {
+		servers(new Server('localhost', 8001), new Server('localhost', 8002))
+		assertEquals([8001, 8002, 8001] as Set, (1..3).collect { rule.choose(null).port } as Set)
+	}
+
+	private void servers(Server... servers) {
+		loadBalancer.setServersList(servers as List)
+	}
+
+	private static Server server(int port, int threads, int inFlight, int queueDepth, long freeMb, String version = '1') {
+		InstanceInfo info = InstanceInfo.Builder.newBuilder()
+				.setAppName('unexcel-service')
+				.setInstanceId("localhost:$port")
+				.setHostName('localhost')
+				.setPort(port)
+				.setMetadata([
+						(UnexcelLoadRule.THREADS)     : "$threads".toString(),
+						(UnexcelLoadRule.IN_FLIGHT)   : "$inFlight".toString(),
+						(UnexcelLoadRule.QUEUE_DEPTH) : "$queueDepth".toString(),
+						(UnexcelLoadRule.FREE_MB)     : "$freeMb".toString(),
+						(UnexcelLoadRule.LOAD_VERSION): version
+				])
+				.build()
+		new DiscoveryEnabledServer(info, false)
+	}
+}
@@ -0,0 +1,62 @@
+package com.microservice.unexcel.unxl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link CustomDataFormatter#formatRawCellContents} per cell for typical number and date formats
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CustomDataFormatterBenchmark {
+
+    private static final int VALUES = 1024;
+
+    /**
+     * Custom formats are numbered from 164 in a workbook
+     */
+    private static final int FORMAT_INDEX = 164;
+
+    @Param({"General", "0.00", "#,##0", "0%", "yyyy-mm-dd", "m/d/yy h:mm", "[h]:mm:ss"})
+    public String formatString;
+
+    private CustomDataFormatter formatter;
+    private double[] values;
+
+    @Setup
+    public void prepare() {
+        formatter = new CustomDataFormatter(Locale.US);
+        Random random = new Random(42);
+        values = new double[VALUES];
+        for (int i = 0; i < VALUES; i++) {
+            values[i] = 36526 + random.nextDouble() * 10000;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void format(Blackhole blackhole) {
+        for (double value : values) {
+            blackhole.consume(formatter.formatRawCellContents(value, FORMAT_INDEX, formatString, false));
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.microservice.unexcel.unxl;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Throws the CSV away, so the benchmarks measure conversion and not the disk
+ */
+public class DiscardingPrintStreamProducer implements PrintStreamProducer {
+
+    public static final OutputStream NULL_OUTPUT = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    @Override
+    public PrintStream getNextPrintStream(String name) {
+        return new PrintStream(NULL_OUTPUT);
+    }
+
+    @Override
+    public PrintStream getPrintStream(int sheetIndex, String name) {
+        return new PrintStream(NULL_OUTPUT);
+    }
+
+    @Override
+    public List<Path> getResultFiles() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public void removeLastFile() {
+    }
+
+    @Override
+    public void removeFile(int sheetIndex) {
+    }
+}
@@ -0,0 +1,64 @@
+package com.microservice.unexcel.unxl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing rows through {@link StreamingCsvBuffer} alone, cells are prepared up front.
+ * Every tenth row is empty to exercise the empty line handling, text cells contain a non-breaking space.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StreamingCsvBufferBenchmark {
+
+    @Param({"10", "250"})
+    public int columns;
+
+    @Param({"10000"})
+    public int rows;
+
+    private char[][] cells;
+
+    @Setup
+    public void prepare() {
+        Random random = new Random(42);
+        cells = new char[columns * 16][];
+        for (int i = 0; i < cells.length; i++) {
+            String cell = i % 3 == 0 ? "\"text\u00a0" + Integer.toHexString(random.nextInt()) + "\"" : "\"" + random.nextInt(100000) / 100d + "\"";
+            cells[i] = cell.toCharArray();
+        }
+    }
+
+    @Benchmark
+    public StreamingCsvBuffer writeRows() {
+        StreamingCsvBuffer buffer = new StreamingCsvBuffer(DiscardingPrintStreamProducer.NULL_OUTPUT);
+        int next = 0;
+        for (int r = 0; r < rows; r++) {
+            if (r % 10 != 9) {
+                for (int c = 0; c < columns; c++) {
+                    char[] cell = cells[next++ % cells.length];
+                    buffer.add(cell, 0, cell.length);
+                }
+            }
+            buffer.newLine();
+        }
+        buffer.finish();
+        return buffer;
+    }
+}
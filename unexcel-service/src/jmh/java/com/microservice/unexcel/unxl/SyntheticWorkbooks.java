@@ -0,0 +1,125 @@
+package com.microservice.unexcel.unxl;
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.CreationHelper;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Generates the workbooks the benchmarks convert. Content is random but reproducible (fixed seed).
+ */
+public final class SyntheticWorkbooks {
+
+    /**
+     * Rows of a XLS sheet are limited to 65536
+     */
+    public static final int MAX_XLS_ROWS = 65535;
+
+    public enum Shape {
+        /**
+         * 20 columns of general-format doubles and integers
+         */
+        NUMERIC,
+        /**
+         * 10 columns of mostly unique strings, so the shared strings table is large
+         */
+        STRINGS,
+        /**
+         * 10 columns of dates and times in several formats
+         */
+        DATES,
+        /**
+         * a few cells scattered over 200 columns, every third row empty
+         */
+        SPARSE,
+        /**
+         * 250 columns (close to the XLS limit) of numbers and repeated strings
+         */
+        WIDE
+    }
+
+    private static final String[] DATE_FORMATS = {"yyyy-mm-dd", "m/d/yy h:mm", "dddd, mmmm dd, yyyy", "h:mm:ss AM/PM", "[h]:mm:ss", "mmm-yy"};
+
+    private SyntheticWorkbooks() {
+    }
+
+    /**
+     * Writes a workbook with one sheet of the given shape into a temporary file
+     */
+    public static Path write(Shape shape, WorkbookFormat format, int rows) throws IOException {
+        Path file = Files.createTempFile("unexcel-jmh-" + shape.name().toLowerCase() + "-", format == WorkbookFormat.XLS ? ".xls" : ".xlsx");
+        // streaming XLSX writer keeping shared strings, so STRINGS gets a real SST
+        Workbook workbook = format == WorkbookFormat.XLS ? new HSSFWorkbook() : new SXSSFWorkbook(new XSSFWorkbook(), 100, false, true);
+        try (OutputStream out = Files.newOutputStream(file)) {
+            fill(workbook, shape, format == WorkbookFormat.XLS ? Math.min(rows, MAX_XLS_ROWS) : rows);
+            workbook.write(out);
+        } finally {
+            if (workbook instanceof SXSSFWorkbook) {
+                ((SXSSFWorkbook) workbook).dispose();
+            }
+            workbook.close();
+        }
+        return file;
+    }
+
+    private static void fill(Workbook workbook, Shape shape, int rows) {
+        Random random = new Random(42);
+        CreationHelper helper = workbook.getCreationHelper();
+        CellStyle[] dateStyles = new CellStyle[DATE_FORMATS.length];
+        for (int i = 0; i < DATE_FORMATS.length; i++) {
+            dateStyles[i] = workbook.createCellStyle();
+            dateStyles[i].setDataFormat(helper.createDataFormat().getFormat(DATE_FORMATS[i]));
+        }
+        Sheet sheet = workbook.createSheet(shape.name());
+        for (int r = 0; r < rows; r++) {
+            if (shape == Shape.SPARSE && r % 3 == 2) {
+                continue;
+            }
+            Row row = sheet.createRow(r);
+            switch (shape) {
+                case NUMERIC:
+                    for (int c = 0; c < 20; c++) {
+                        row.createCell(c).setCellValue(c % 2 == 0 ? random.nextInt(1000000) : random.nextDouble() * 10000);
+                    }
+                    break;
+                case STRINGS:
+                    for (int c = 0; c < 10; c++) {
+                        row.createCell(c).setCellValue("text " + r + "-" + c + " " + Long.toHexString(random.nextLong()));
+                    }
+                    break;
+                case DATES:
+                    for (int c = 0; c < 10; c++) {
+                        Cell cell = row.createCell(c);
+                        cell.setCellValue(36526 + random.nextDouble() * 10000);
+                        cell.setCellStyle(dateStyles[c % dateStyles.length]);
+                    }
+                    break;
+                case SPARSE:
+                    for (int c = random.nextInt(17); c < 200; c += 17 + random.nextInt(17)) {
+                        row.createCell(c).setCellValue(random.nextInt(1000));
+                    }
+                    break;
+                case WIDE:
+                    for (int c = 0; c < 250; c++) {
+                        if (c % 5 == 0) {
+                            row.createCell(c).setCellValue("label " + (c % 50));
+                        } else {
+                            row.createCell(c).setCellValue(random.nextInt(100000) / 100d);
+                        }
+                    }
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.microservice.unexcel.unxl;
+
+import org.apache.poi.poifs.filesystem.NPOIFSFileSystem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link XLS2CSVmra#process()} of a whole workbook, including opening the file system
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class XlsConversionBenchmark {
+
+    @Param({"NUMERIC", "STRINGS", "DATES", "SPARSE", "WIDE"})
+    public SyntheticWorkbooks.Shape shape;
+
+    @Param({"20000"})
+    public int rows;
+
+    /**
+     * true formats and writes the cells on a second thread while the sheet is parsed
+     */
+    @Param({"false", "true"})
+    public boolean pipelined;
+
+    private Path workbook;
+    private ExecutorService formatters;
+
+    @Setup(Level.Trial)
+    public void generate() throws Exception {
+        workbook = SyntheticWorkbooks.write(shape, WorkbookFormat.XLS, rows);
+        formatters = pipelined ? Executors.newSingleThreadExecutor() : null;
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws Exception {
+        Files.deleteIfExists(workbook);
+        if (formatters != null) {
+            formatters.shutdownNow();
+        }
+    }
+
+    @Benchmark
+    public void process() throws Exception {
+        try (NPOIFSFileSystem fs = new NPOIFSFileSystem(workbook.toFile(), true)) {
+            XLS2CSVmra xls2csv = new XLS2CSVmra(fs, new DiscardingPrintStreamProducer(), -1);
+            xls2csv.setFormatExecutor(formatters);
+            xls2csv.process();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.microservice.unexcel.unxl;
+
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link XLSX2CSV#process()} of a whole workbook, including opening the package
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class XlsxConversionBenchmark {
+
+    @Param({"NUMERIC", "STRINGS", "DATES", "SPARSE", "WIDE"})
+    public SyntheticWorkbooks.Shape shape;
+
+    @Param({"20000"})
+    public int rows;
+
+    /**
+     * Shared strings tables above this size are memory-mapped, -1 maps all of them
+     */
+    @Param({"67108864", "-1"})
+    public long mappedSharedStringsThreshold;
+
+    /**
+     * zip reads the parts from the zip file, opc through POI's OPCPackage
+     */
+    @Param({"zip", "opc"})
+    public String container;
+
+    /**
+     * true formats and writes the cells on a second thread while the sheet is parsed
+     */
+    @Param({"false", "true"})
+    public boolean pipelined;
+
+    private Path workbook;
+    private ExecutorService formatters;
+
+    @Setup(Level.Trial)
+    public void generate() throws Exception {
+        workbook = SyntheticWorkbooks.write(shape, WorkbookFormat.XLSX, rows);
+        formatters = pipelined ? Executors.newSingleThreadExecutor() : null;
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws Exception {
+        Files.deleteIfExists(workbook);
+        if (formatters != null) {
+            formatters.shutdownNow();
+        }
+    }
+
+    @Benchmark
+    public void process() throws Exception {
+        if ("opc".equals(container)) {
+            OPCPackage pkg = OPCPackage.open(workbook.toFile(), PackageAccess.READ);
+            try {
+                process(new PackageXlsxParts(pkg));
+            } finally {
+                pkg.revert();
+            }
+        } else {
+            try (XlsxParts parts = new ZipXlsxParts(workbook)) {
+                process(parts);
+            }
+        }
+    }
+
+    private void process(XlsxParts parts) throws Exception {
+        XLSX2CSV xlsx2csv = new XLSX2CSV(parts, new DiscardingPrintStreamProducer(), -1);
+        xlsx2csv.setMappedSharedStringsThreshold(mappedSharedStringsThreshold);
+        xlsx2csv.setFormatExecutor(formatters);
+        xlsx2csv.process();
+    }
+}
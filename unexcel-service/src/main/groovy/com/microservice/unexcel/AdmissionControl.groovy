@@ -0,0 +1,165 @@
+package com.microservice.unexcel
+
+import com.codahale.metrics.Gauge
+import groovy.util.logging.Log4j
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.http.HttpStatus
+import org.springframework.stereotype.Service
+
+import javax.annotation.PostConstruct
+import java.nio.file.Path
+import java.util.concurrent.Semaphore
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Global heap budget shared by all conversions. Before a conversion starts its memory is estimated from
+ * the workbook (file size, format, size of the shared strings table) and taken from the budget, it is given back
+ * when the conversion is over. Conversions that don't fit wait in arrival order, so a burst of large uploads
+ * is queued instead of running the service out of memory.
+ * <p>
+ * A conversion that could never fit into the budget runs in the converter's low-memory mode. If it is still
+ * too large it takes the whole budget and runs alone.
+ */
+@Log4j
+@Service
+class AdmissionControl {
+
+    private static final long MB = 1024 * 1024
+
+    @Autowired
+    ConversionMetrics metrics
+
+    @Value('${unexcel.admission.enabled:true}')
+    boolean enabled
+
+    /**
+     * Heap shared by all conversions, 0 for half of the maximum heap
+     */
+    @Value('${unexcel.admission.budget-mb:0}')
+    long budgetMb
+
+    /**
+     * Heap a conversion takes whatever the workbook: parsers, row buffers and output streams
+     */
+    @Value('${unexcel.admission.job-overhead-mb:16}')
+    long jobOverheadMb
+
+    /**
+     * How long a conversion waits for memory before it is rejected with 503
+     */
+    @Value('${unexcel.admission.max-wait-seconds:30}')
+    long maxWaitSeconds
+
+    /**
+     * Conversions waiting for memory at the same time, more are rejected with 429 at once
+     */
+    @Value('${unexcel.admission.max-waiting:20}')
+    int maxWaiting
+
+    @Value('${unexcel.jobs.retry-after-seconds:30}')
+    long retryAfterSeconds
+
+    long budget
+
+    /**
+     * Free part of the budget in KB, fair so that large conversions are not starved by small ones
+     */
+    Semaphore available
+
+    final AtomicInteger waiting = new AtomicInteger()
+
+    @PostConstruct
+    void start() {
+        budget = budgetMb > 0 ? budgetMb * MB : (long) (Runtime.runtime.maxMemory() / 2)
+        available = new Semaphore(kb(budget), true)
+        metrics.gauge('admission.available-mb', { availableMb } as Gauge<Integer>)
+        metrics.gauge('admission.waiting', { waiting.get() } as Gauge<Integer>)
+        log.info("Conversions share a heap budget of ${budget.intdiv(MB)} MB")
+    }
+
+    /**
+     * Takes the estimated memory of the conversion from the budget, waiting for it if necessary
+     *
+     * @return ticket to close when the conversion is over
+     * @throws AdmissionRejectedException if too many conversions are waiting or the wait is over
+     */
+    Ticket admit(WorkbookConverter converter, Path excelFilePath) {
+        if (!enabled) {
+            return new Ticket(0, false)
+        }
+        long overhead = jobOverheadMb * MB
+        long cost = overhead + converter.estimateMemory(excelFilePath, false)
+        boolean lowMemory = false
+        if (cost > budget) {
+            lowMemory = true
+            cost = Math.min(budget, overhead + converter.estimateMemory(excelFilePath, true))
+            log.info("${excelFilePath.toString()} doesn't fit into the memory budget, converting it in low-memory mode")
+        }
+        int permits = kb(cost)
+        // fair even without waiting, a free budget is not taken from conversions that are already waiting
+        if (!available.tryAcquire(permits, 0, TimeUnit.SECONDS)) {
+            if (waiting.incrementAndGet() > maxWaiting) {
+                waiting.decrementAndGet()
+                throw new AdmissionRejectedException(HttpStatus.TOO_MANY_REQUESTS, retryAfterSeconds,
+                        "Too many conversions are waiting for memory")
+            }
+            try {
+                log.debug("Waiting for ${cost.intdiv(MB)} MB to convert ${excelFilePath.toString()}")
+                if (!available.tryAcquire(permits, maxWaitSeconds, TimeUnit.SECONDS)) {
+                    throw new AdmissionRejectedException(HttpStatus.SERVICE_UNAVAILABLE, retryAfterSeconds,
+                            "No memory for the conversion within ${maxWaitSeconds}s")
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt()
+                throw new InterruptedIOException("Interrupted while waiting for memory")
+            } finally {
+                waiting.decrementAndGet()
+            }
+        }
+        new Ticket(permits, lowMemory)
+    }
+
+    /**
+     * @return free part of the budget in MB
+     */
+    int getAvailableMb() {
+        available.availablePermits().intdiv(1024) as int
+    }
+
+    private static int kb(long bytes) {
+        (int) Math.min(Integer.MAX_VALUE, (bytes + 1023).intdiv(1024))
+    }
+
+    /**
+     * Memory taken from the budget for one conversion
+     */
+    class Ticket implements Closeable {
+
+        final int permits
+
+        /**
+         * The conversion has to use the converter's low-memory mode
+         */
+        final boolean lowMemory
+
+        private boolean closed
+
+        Ticket(int permits, boolean lowMemory) {
+            this.permits = permits
+            this.lowMemory = lowMemory
+        }
+
+        /**
+         * Gives the memory back to the budget, only once
+         */
+        @Override
+        void close() {
+            if (!closed && permits > 0) {
+                available.release(permits)
+            }
+            closed = true
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.microservice.unexcel
+
+import org.springframework.http.HttpStatus
+
+/**
+ * The conversion does not fit into the memory budget right now: 429 if too many conversions are already waiting
+ * for memory, 503 if the wait for memory is over. The client should retry after the given number of seconds.
+ */
+class AdmissionRejectedException extends RuntimeException {
+
+    final HttpStatus status
+    final long retryAfterSeconds
+
+    AdmissionRejectedException(HttpStatus status, long retryAfterSeconds, String message) {
+        super(message)
+        this.status = status
+        this.retryAfterSeconds = retryAfterSeconds
+    }
+}
@@ -0,0 +1,134 @@
+package com.microservice.unexcel
+
+import com.microservice.unexcel.unxl.Checkpoint
+import com.microservice.unexcel.unxl.ConversionListener
+import com.microservice.unexcel.unxl.ConversionStage
+import com.microservice.unexcel.unxl.CsvFilePrintStreamProducer
+import com.microservice.unexcel.unxl.OutputFormat
+
+import java.nio.file.Path
+import java.util.concurrent.CopyOnWriteArrayList
+
+/**
+ * Persists the checkpoints of a chunked conversion on its {@link IncomingFile} whenever a part is committed,
+ * together with the part files committed so far. A retry of the conversion resumes after the last committed
+ * parts, and downstream loaders can pick up parts while the rest of the workbook is still being converted.
+ */
+class CheckpointRecorder {
+
+    final IncomingFile file
+    final IncomingFileRepository repository
+
+    /**
+     * Part files committed so far, may be read while the conversion is running
+     */
+    final List<String> committedFiles = new CopyOnWriteArrayList<>()
+
+    private Path directory
+    private OutputFormat format
+
+    CheckpointRecorder(IncomingFile file, IncomingFileRepository repository) {
+        this.file = file
+        this.repository = repository
+    }
+
+    /**
+     * Starts recording a conversion into the directory. Checkpoints of another conversion are dropped.
+     *
+     * @param key    result key of the conversion, see {@link ResultCache#resultKey}
+     * @param format format of the part files
+     * @return checkpoints to resume from, empty to start from scratch
+     */
+    synchronized List<Checkpoint> start(String key, Path directory, OutputFormat format) {
+        this.directory = directory
+        this.format = format
+        if (file.checkpointKey != key) {
+            file.checkpointKey = key
+            file.checkpoints = []
+        }
+        List<Checkpoint> resume = file.checkpoints*.toCheckpoint()
+        committedFiles.clear()
+        resume.each { Checkpoint checkpoint -> addParts(checkpoint.sheetName, 0, checkpoint.parts) }
+        file.resultFiles = new ArrayList<>(committedFiles)
+        repository.saveAndFlush(file)
+        resume
+    }
+
+    /**
+     * @return the listener, recording every checkpoint before it is passed on
+     */
+    ConversionListener wrap(ConversionListener delegate) {
+        new RecordingListener(this, delegate)
+    }
+
+    synchronized void record(Checkpoint checkpoint) {
+        SheetCheckpoint previous = file.checkpoints.find { it.sheetIndex == checkpoint.sheetIndex }
+        addParts(checkpoint.sheetName, previous ? previous.parts : 0, checkpoint.parts)
+        List<SheetCheckpoint> checkpoints = file.checkpoints.findAll { it.sheetIndex != checkpoint.sheetIndex }
+        checkpoints << SheetCheckpoint.of(checkpoint)
+        file.checkpoints = checkpoints.sort { it.sheetIndex }
+        file.resultFiles = new ArrayList<>(committedFiles)
+        repository.saveAndFlush(file)
+    }
+
+    /**
+     * Forgets the checkpoints once the conversion is complete, the caller saves the file
+     */
+    synchronized void clear() {
+        file.checkpointKey = null
+        file.checkpoints = []
+    }
+
+    private void addParts(String sheetName, int from, int to) {
+        for (int part = from; part < to; part++) {
+            committedFiles << directory.resolve(CsvFilePrintStreamProducer.partFileName(sheetName, part, format)).toString()
+        }
+    }
+
+    private static class RecordingListener implements ConversionListener {
+
+        final CheckpointRecorder recorder
+        final ConversionListener delegate
+
+        RecordingListener(CheckpointRecorder recorder, ConversionListener delegate) {
+            this.recorder = recorder
+            this.delegate = delegate
+        }
+
+        @Override
+        void sheetStarted(String sheetName) {
+            delegate.sheetStarted(sheetName)
+        }
+
+        @Override
+        void rowsWritten(int rows) {
+            delegate.rowsWritten(rows)
+        }
+
+        @Override
+        void sheetFinished(String sheetName) {
+            delegate.sheetFinished(sheetName)
+        }
+
+        @Override
+        void cellsWritten(int cells) {
+            delegate.cellsWritten(cells)
+        }
+
+        @Override
+        void bytesWritten(int bytes) {
+            delegate.bytesWritten(bytes)
+        }
+
+        @Override
+        void stageFinished(ConversionStage stage, long nanos) {
+            delegate.stageFinished(stage, nanos)
+        }
+
+        @Override
+        void partCommitted(Checkpoint checkpoint) {
+            recorder.record(checkpoint)
+            delegate.partCommitted(checkpoint)
+        }
+    }
+}
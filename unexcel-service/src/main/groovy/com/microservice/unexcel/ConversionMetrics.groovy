@@ -0,0 +1,124 @@
+package com.microservice.unexcel
+
+import com.codahale.metrics.Counter
+import com.codahale.metrics.Gauge
+import com.codahale.metrics.Meter
+import com.codahale.metrics.MetricRegistry
+import com.codahale.metrics.Timer
+import com.microservice.unexcel.unxl.Checkpoint
+import com.microservice.unexcel.unxl.ConversionListener
+import com.microservice.unexcel.unxl.ConversionStage
+import groovy.transform.CompileStatic
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.stereotype.Component
+
+import javax.annotation.PostConstruct
+import java.util.concurrent.TimeUnit
+
+/**
+ * Conversion throughput and per-stage timings, published on the actuator's /metrics endpoint.
+ * Meters report totals as well as 1, 5 and 15 minute rates (rows/s, cells/s, bytes/s),
+ * timers report counts, rates and latency percentiles.
+ * <ul>
+ *     <li>unexcel.conversions, unexcel.conversions.failed: whole conversions</li>
+ *     <li>unexcel.rows, unexcel.cells, unexcel.bytes.in, unexcel.bytes.out: throughput</li>
+ *     <li>unexcel.stage.&lt;stage&gt;: time spent in each {@link ConversionStage}</li>
+ *     <li>unexcel.jobs.queue-depth, unexcel.jobs.in-flight: job pool gauges</li>
+ * </ul>
+ */
+@CompileStatic
+@Component
+class ConversionMetrics {
+
+    static final String PREFIX = 'unexcel.'
+
+    @Autowired
+    MetricRegistry registry
+
+    Timer conversions
+    Counter failures
+    Meter rows
+    Meter cells
+    Meter bytesIn
+    Meter bytesOut
+    Map<ConversionStage, Timer> stages
+
+    @PostConstruct
+    void start() {
+        conversions = registry.timer(PREFIX + 'conversions')
+        failures = registry.counter(PREFIX + 'conversions.failed')
+        rows = registry.meter(PREFIX + 'rows')
+        cells = registry.meter(PREFIX + 'cells')
+        bytesIn = registry.meter(PREFIX + 'bytes.in')
+        bytesOut = registry.meter(PREFIX + 'bytes.out')
+        stages = new EnumMap<>(ConversionStage)
+        ConversionStage.values().each { ConversionStage stage ->
+            stages[stage] = registry.timer(PREFIX + 'stage.' + stage.metricName)
+        }
+    }
+
+    /**
+     * Registers a gauge, an existing gauge with the same name is replaced
+     */
+    void gauge(String name, Gauge<?> gauge) {
+        registry.remove(PREFIX + name)
+        registry.register(PREFIX + name, gauge)
+    }
+
+    /**
+     * @return listener that records the conversion's metrics and passes every event on to the delegate
+     */
+    ConversionListener wrap(ConversionListener delegate) {
+        new MeteredListener(this, delegate)
+    }
+
+    private static class MeteredListener implements ConversionListener {
+
+        final ConversionMetrics metrics
+        final ConversionListener delegate
+
+        MeteredListener(ConversionMetrics metrics, ConversionListener delegate) {
+            this.metrics = metrics
+            this.delegate = delegate
+        }
+
+        @Override
+        void sheetStarted(String sheetName) {
+            delegate.sheetStarted(sheetName)
+        }
+
+        @Override
+        void rowsWritten(int rows) {
+            metrics.rows.mark(rows)
+            delegate.rowsWritten(rows)
+        }
+
+        @Override
+        void sheetFinished(String sheetName) {
+            delegate.sheetFinished(sheetName)
+        }
+
+        @Override
+        void cellsWritten(int cells) {
+            metrics.cells.mark(cells)
+            delegate.cellsWritten(cells)
+        }
+
+        @Override
+        void bytesWritten(int bytes) {
+            metrics.bytesOut.mark(bytes)
+            delegate.bytesWritten(bytes)
+        }
+
+        @Override
+        void stageFinished(ConversionStage stage, long nanos) {
+            metrics.stages[stage].update(nanos, TimeUnit.NANOSECONDS)
+            delegate.stageFinished(stage, nanos)
+        }
+
+        @Override
+        void partCommitted(Checkpoint checkpoint) {
+            delegate.partCommitted(checkpoint)
+        }
+    }
+}
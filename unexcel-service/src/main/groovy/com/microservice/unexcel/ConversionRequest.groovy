@@ -0,0 +1,84 @@
+package com.microservice.unexcel
+
+import com.microservice.unexcel.unxl.ConversionOptions
+import com.microservice.unexcel.unxl.OutputFormat
+import org.apache.poi.ss.util.CellReference
+
+/**
+ * Optional request parameters selecting the part of a workbook to convert, rows and columns are given
+ * as in Excel:
+ * <ul>
+ *     <li>sheets - sheet names, e.g. sheets=Data,Summary</li>
+ *     <li>sheetIndexes - 0-based sheet indexes in workbook order, e.g. sheetIndexes=0</li>
+ *     <li>rows - 1-based row range, e.g. rows=1-100 for a preview, rows=5- or rows=7</li>
+ *     <li>columns - column letters and ranges, e.g. columns=A,C:E</li>
+ *     <li>format - {@link OutputFormat} of the sheets, e.g. format=ndjson or format=csv-gzip</li>
+ * </ul>
+ * Without any of them the whole workbook is converted in the service's default format.
+ */
+class ConversionRequest {
+    List<String> sheets
+    List<Integer> sheetIndexes
+    String rows
+    String columns
+    String format
+
+    /**
+     * @param defaultFormat format of the sheets unless the request asks for another one
+     */
+    ConversionOptions toOptions(OutputFormat defaultFormat) {
+        OutputFormat outputFormat = defaultFormat
+        if (format) {
+            try {
+                outputFormat = OutputFormat.parse(format)
+            } catch (IllegalArgumentException e) {
+                throw new InvalidConversionRequestException("Invalid format: $format")
+            }
+        }
+        if (!sheets && !sheetIndexes && !rows && !columns) {
+            return ConversionOptions.ALL.withFormat(outputFormat)
+        }
+        if (sheetIndexes?.any { it == null || it < 0 }) {
+            throw new InvalidConversionRequestException("Invalid sheet indexes: $sheetIndexes")
+        }
+        int firstRow = 0
+        int lastRow = Integer.MAX_VALUE
+        if (rows) {
+            def range = rows.trim() =~ /^(\d+)(-(\d*))?$/
+            if (!range.matches()) {
+                throw new InvalidConversionRequestException("Invalid rows: $rows")
+            }
+            firstRow = toRowIndex(range.group(1))
+            lastRow = range.group(2) == null ? firstRow : range.group(3) ? toRowIndex(range.group(3)) : Integer.MAX_VALUE
+            if (lastRow < firstRow) {
+                throw new InvalidConversionRequestException("Invalid rows: $rows")
+            }
+        }
+        new ConversionOptions(sheets, sheetIndexes, firstRow, lastRow, columns ? parseColumns(columns) : null,
+                outputFormat)
+    }
+
+    private int toRowIndex(String row) {
+        if (row.length() > 9 || row.toInteger() < 1) {
+            throw new InvalidConversionRequestException("Invalid rows: $rows")
+        }
+        row.toInteger() - 1
+    }
+
+    private List<Integer> parseColumns(String columns) {
+        List<Integer> indexes = []
+        columns.split(',').each { String part ->
+            def range = part.trim().toUpperCase(Locale.ROOT) =~ /^([A-Z]{1,3})(:([A-Z]{1,3}))?$/
+            if (!range.matches()) {
+                throw new InvalidConversionRequestException("Invalid columns: $columns")
+            }
+            int first = CellReference.convertColStringToIndex(range.group(1))
+            int last = range.group(3) ? CellReference.convertColStringToIndex(range.group(3)) : first
+            if (last < first) {
+                throw new InvalidConversionRequestException("Invalid columns: $columns")
+            }
+            (first..last).each { indexes << it }
+        }
+        indexes
+    }
+}
@@ -0,0 +1,20 @@
+package com.microservice.unexcel
+
+/**
+ * The file is being converted by another instance
+ */
+class FileClaimedException extends InvalidTransitionException {
+
+    final Long fileId
+
+    /**
+     * Instance that owns the file, null if it released the file in the meantime
+     */
+    final String owner
+
+    FileClaimedException(Long fileId, String owner) {
+        super("File $fileId is converted by ${owner ?: 'another instance'}")
+        this.fileId = fileId
+        this.owner = owner
+    }
+}
@@ -0,0 +1,125 @@
+package com.microservice.unexcel
+
+import groovy.util.logging.Log4j
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.jdbc.core.JdbcTemplate
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory
+import org.springframework.stereotype.Service
+
+import javax.annotation.PostConstruct
+import javax.annotation.PreDestroy
+import java.lang.management.ManagementFactory
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+
+/**
+ * Leases on the files this instance converts, so that instances sharing the database never convert the same
+ * file at once. A file is claimed with a conditional update that only succeeds if it has no owner, is owned
+ * by this instance already or its lease ran out, e.g. because its owner died. Leases of the claimed files are
+ * renewed in one batch every third of the lease time, the {@link JobStateStore} claims and releases them.
+ * Lease times are the database's, so the clocks of the instances don't matter.
+ */
+@Log4j
+@Service
+class FileClaims {
+
+    /**
+     * The given number of seconds from now on the database's clock
+     */
+    static final String LEASE_END = '{fn TIMESTAMPADD(SQL_TSI_SECOND, ?, CURRENT_TIMESTAMP)}'
+
+    static final String CLAIM = """update incoming_file set owner = ?, lease_until = $LEASE_END
+            where id = ? and (owner is null or owner = ? or lease_until < CURRENT_TIMESTAMP)"""
+
+    static final String RENEW = "update incoming_file set lease_until = $LEASE_END where id = ? and owner = ?"
+
+    static final String RELEASE = 'update incoming_file set owner = null, lease_until = null where id = ? and owner = ?'
+
+    @Autowired
+    JdbcTemplate jdbcTemplate
+
+    @Value('${unexcel.cluster.lease-seconds:60}')
+    long leaseSeconds
+
+    /**
+     * This instance, pid@host
+     */
+    String instanceId = ManagementFactory.runtimeMXBean.name
+
+    final Set<Long> claimed = ConcurrentHashMap.newKeySet()
+
+    /**
+     * Called with the id of a file whose lease another instance took over
+     */
+    Closure leaseLost = { Long id -> }
+
+    ScheduledExecutorService renewer
+
+    @PostConstruct
+    void start() {
+        long interval = TimeUnit.SECONDS.toMillis(leaseSeconds) / 3 as long
+        renewer = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory('unexcel-lease-'))
+        renewer.scheduleWithFixedDelay({
+            try {
+                renew()
+            } catch (Exception e) {
+                log.error('Failed to renew the file leases', e)
+            }
+        } as Runnable, interval, interval, TimeUnit.MILLISECONDS)
+    }
+
+    /**
+     * Gives up all claims, the files may be converted by other instances right away
+     */
+    @PreDestroy
+    void stop() {
+        renewer.shutdownNow()
+        List<Long> ids = new ArrayList<>(claimed)
+        claimed.clear()
+        if (ids) {
+            jdbcTemplate.batchUpdate(RELEASE, ids.collect { Long id -> [id, instanceId] as Object[] })
+        }
+    }
+
+    /**
+     * @return true if this instance owns the file now
+     */
+    boolean claim(Long id) {
+        boolean owned = jdbcTemplate.update(CLAIM, instanceId, leaseSeconds, id, instanceId) == 1
+        if (owned) {
+            claimed << id
+        }
+        owned
+    }
+
+    void release(Long id) {
+        claimed.remove(id)
+        jdbcTemplate.update(RELEASE, id, instanceId)
+    }
+
+    /**
+     * @return owner of the file, null if nobody owns it
+     */
+    String ownerOf(Long id) {
+        jdbcTemplate.queryForList('select owner from incoming_file where id = ?', String, id).find()
+    }
+
+    void renew() {
+        List<Long> ids = new ArrayList<>(claimed)
+        if (!ids) {
+            return
+        }
+        List<Object[]> leases = ids.collect { Long id -> [leaseSeconds, id, instanceId] as Object[] }
+        int[] renewed = jdbcTemplate.batchUpdate(RENEW, leases)
+        ids.eachWithIndex { Long id, int i ->
+            if (renewed[i] == 0) {
+                log.warn("Lost the lease on file $id, another instance took it over")
+                claimed.remove(id)
+                leaseLost.call(id)
+            }
+        }
+    }
+}
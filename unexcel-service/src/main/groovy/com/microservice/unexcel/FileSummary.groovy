@@ -0,0 +1,25 @@
+package com.microservice.unexcel
+
+/**
+ * Row of the file listing, selected straight from the columns so that listing files
+ * never loads their result files and checkpoints
+ */
+class FileSummary {
+    Long id
+    String fileName
+    FileStatus status
+    Date createdAt
+    Integer sheetsDone
+    Long rowsWritten
+
+    FileSummary() {}
+
+    FileSummary(Long id, String fileName, FileStatus status, Date createdAt, Integer sheetsDone, Long rowsWritten) {
+        this.id = id
+        this.fileName = fileName
+        this.status = status
+        this.createdAt = createdAt
+        this.sheetsDone = sheetsDone
+        this.rowsWritten = rowsWritten
+    }
+}
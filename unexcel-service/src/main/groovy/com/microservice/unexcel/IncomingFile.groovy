@@ -1,20 +1,97 @@
 package com.microservice.unexcel
 
+import org.hibernate.annotations.Fetch
+import org.hibernate.annotations.FetchMode
+
+import javax.persistence.Column
+import javax.persistence.ElementCollection
 import javax.persistence.Entity
+import javax.persistence.FetchType
 import javax.persistence.GeneratedValue
 import javax.persistence.Id
+import javax.persistence.Index
+import javax.persistence.OrderColumn
+import javax.persistence.PrePersist
+import javax.persistence.Table
+import javax.persistence.Temporal
+import javax.persistence.TemporalType
 
+/**
+ * Indexed for the lookup by name before every conversion and for the file listing, which filters by status,
+ * creation time and name prefix and shows the newest files first
+ */
 @Entity
+@Table(indexes = [
+        @Index(name = 'idx_incoming_file_name', columnList = 'fileName'),
+        @Index(name = 'idx_incoming_file_status_created', columnList = 'status, createdAt'),
+        @Index(name = 'idx_incoming_file_created', columnList = 'createdAt')
+])
 class IncomingFile {
     @Id
     @GeneratedValue
     Long id
     String fileName
     String filePath
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(updatable = false)
+    Date createdAt
+    /*
+     * Status, progress and timings are written by the JobStateStore, saving the file never overwrites them
+     */
+    @Column(updatable = false)
     FileStatus status
+    @Column(updatable = false)
+    Integer sheetsDone
+    @Column(updatable = false)
+    Long rowsWritten
+    @Column(updatable = false)
+    Long bytesWritten
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(updatable = false)
+    Date queuedAt
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(updatable = false)
+    Date startedAt
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(updatable = false)
+    Date finishedAt
+    /**
+     * Instance converting the file and until when, written by {@link FileClaims}
+     */
+    @Column(updatable = false)
+    String owner
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(updatable = false)
+    Date leaseUntil
+    /**
+     * SHA-256 of the workbook, the key of its result in the {@link ResultCache}
+     */
+    String contentHash
+    @ElementCollection(fetch = FetchType.EAGER)
+    List<String> resultFiles = []
+    /**
+     * Result key (see {@link ResultCache#resultKey}) of the chunked conversion the checkpoints belong to,
+     * a retry only resumes from them if it converts the same content with the same options
+     */
+    String checkpointKey
+    /**
+     * Latest checkpoint of every sheet of an unfinished chunked conversion, cleared when it is done.
+     * Fetched by a separate select, a join would repeat the result files for every checkpoint.
+     */
+    @ElementCollection(fetch = FetchType.EAGER)
+    @Fetch(FetchMode.SELECT)
+    @OrderColumn
+    List<SheetCheckpoint> checkpoints = []
 
     IncomingFile() {}
 
+    @PrePersist
+    void created() {
+        if (createdAt == null) {
+            createdAt = new Date()
+        }
+    }
+
     @Override
     public String toString() {
         return "IncomingFile{id=$id, fileName='$fileName', status=$status}"
@@ -23,6 +100,7 @@ class IncomingFile {
 
 enum FileStatus {
     PENDING,
+    IN_PROGRESS,
     DONE,
     FAILED
 }
@@ -1,6 +1,9 @@
 package com.microservice.unexcel
 
+import org.springframework.data.domain.Page
+import org.springframework.data.domain.Pageable
 import org.springframework.data.jpa.repository.JpaRepository
+import org.springframework.data.jpa.repository.Query
 import org.springframework.data.repository.query.Param
 import org.springframework.data.rest.core.annotation.RepositoryRestResource
 import org.springframework.data.rest.core.annotation.RestResource
@@ -9,4 +12,34 @@ import org.springframework.data.rest.core.annotation.RestResource
 interface IncomingFileRepository extends JpaRepository<IncomingFile, Long> {
     @RestResource(path = 'by-name')
     IncomingFile findByFileName(@Param('name') String name)
+
+    /**
+     * Summaries of the files, only the summary columns are selected
+     *
+     * @param status null for any status
+     * @param since null for any creation time
+     * @param namePattern LIKE pattern of the file name, '!' escapes
+     */
+    @RestResource(exported = false)
+    @Query(value = '''select new com.microservice.unexcel.FileSummary(
+                    f.id, f.fileName, f.status, f.createdAt, f.sheetsDone, f.rowsWritten)
+                from IncomingFile f
+                where (:status is null or f.status = :status) and (:since is null or f.createdAt >= :since)
+                    and f.fileName like :namePattern escape '!'
+            ''',
+            countQuery = '''select count(f) from IncomingFile f
+                where (:status is null or f.status = :status) and (:since is null or f.createdAt >= :since)
+                    and f.fileName like :namePattern escape '!'
+            ''')
+    Page<FileSummary> findSummaries(@Param('status') FileStatus status, @Param('since') Date since,
+                                    @Param('namePattern') String namePattern, Pageable pageable)
+
+    /**
+     * @param directory path of a directory ending with the separator
+     * @return number of files with a result file in the directory
+     */
+    @RestResource(exported = false)
+    @Query('''select count(distinct f) from IncomingFile f join f.resultFiles r
+                where r like concat(:directory, '%')''')
+    long countByResultDirectory(@Param('directory') String directory)
 }
@@ -0,0 +1,15 @@
+package com.microservice.unexcel
+
+import org.springframework.http.HttpStatus
+import org.springframework.web.bind.annotation.ResponseStatus
+
+/**
+ * Malformed sheet, row or column selection of a conversion request
+ */
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+class InvalidConversionRequestException extends IllegalArgumentException {
+
+    InvalidConversionRequestException(String message) {
+        super(message)
+    }
+}
@@ -0,0 +1,15 @@
+package com.microservice.unexcel
+
+import org.springframework.http.HttpStatus
+import org.springframework.web.bind.annotation.ResponseStatus
+
+/**
+ * Status change a file cannot make, e.g. queueing a file that is being converted
+ */
+@ResponseStatus(HttpStatus.CONFLICT)
+class InvalidTransitionException extends IllegalStateException {
+
+    InvalidTransitionException(String message) {
+        super(message)
+    }
+}
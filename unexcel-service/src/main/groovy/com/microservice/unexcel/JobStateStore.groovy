@@ -0,0 +1,309 @@
+package com.microservice.unexcel
+
+import com.codahale.metrics.Gauge
+import groovy.util.logging.Log4j
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.jdbc.core.JdbcTemplate
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory
+import org.springframework.stereotype.Service
+
+import javax.annotation.PostConstruct
+import javax.annotation.PreDestroy
+import java.sql.Timestamp
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+
+/**
+ * Status, progress and timing columns of the files being converted. Transitions are checked and kept in memory,
+ * a background writer saves all files that changed since its last run in one JDBC batch every flush interval.
+ * Progress is read from the job when the writer runs, so any number of progress events of a job between two
+ * runs costs a single row update, and no request or conversion thread waits for the database.
+ * <p>
+ * The store owns these columns, JPA never updates them (see {@link IncomingFile}). Until a file is written
+ * {@link #apply} gives its current state, lists read from the table may be a flush interval behind.
+ * <p>
+ * Queueing a file claims it (see {@link FileClaims}), the claim is released once the file's final state is written.
+ * States are only written to files this instance owns, the job of a file whose lease is lost is cancelled.
+ */
+@Log4j
+@Service
+class JobStateStore {
+
+    /**
+     * Status each status may change to, a file that is DONE or FAILED is converted again by queueing it
+     */
+    static final Map<FileStatus, Set<FileStatus>> TRANSITIONS = [
+            (FileStatus.PENDING)    : EnumSet.of(FileStatus.IN_PROGRESS, FileStatus.FAILED),
+            (FileStatus.IN_PROGRESS): EnumSet.of(FileStatus.DONE, FileStatus.FAILED),
+            (FileStatus.DONE)       : EnumSet.of(FileStatus.PENDING),
+            (FileStatus.FAILED)     : EnumSet.of(FileStatus.PENDING)
+    ]
+
+    static final String UPDATE = '''update incoming_file set status = ?, sheets_done = ?, rows_written = ?,
+            bytes_written = ?, queued_at = ?, started_at = ?, finished_at = ?
+            where id = ? and (owner is null or owner = ?)'''
+
+    @Autowired
+    JdbcTemplate jdbcTemplate
+
+    @Autowired
+    ConversionMetrics metrics
+
+    @Autowired
+    FileClaims claims
+
+    @Value('${unexcel.state.flush-interval-ms:200}')
+    long flushIntervalMs
+
+    /**
+     * States of the files that are queued or running, and of finished files until they are written
+     */
+    final Map<Long, JobState> states = new ConcurrentHashMap<>()
+
+    ScheduledExecutorService writer
+
+    @PostConstruct
+    void start() {
+        writer = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory('unexcel-state-'))
+        writer.scheduleWithFixedDelay({
+            try {
+                flush()
+            } catch (Exception e) {
+                log.error('Failed to write job states, retrying with the next flush', e)
+            }
+        } as Runnable, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS)
+        metrics.gauge('state.unwritten', { unwritten } as Gauge<Integer>)
+        claims.leaseLost = this.&leaseLost
+    }
+
+    /**
+     * Writes what is left, conversions still running are written as they are
+     */
+    @PreDestroy
+    void stop() {
+        writer.shutdown()
+        writer.awaitTermination(flushIntervalMs * 10, TimeUnit.MILLISECONDS)
+        flush()
+    }
+
+    /**
+     * The file is PENDING from now on, its progress and timings of a previous conversion are reset
+     *
+     * @throws InvalidTransitionException if the file is already queued or running
+     * @throws FileClaimedException if another instance converts the file
+     */
+    void queued(IncomingFile file) {
+        while (true) {
+            JobState state = states.computeIfAbsent(file.id) { Long id -> new JobState(id) }
+            synchronized (state) {
+                // the writer may have just forgotten a finished state
+                if (!states[file.id].is(state)) {
+                    continue
+                }
+                check(state, FileStatus.PENDING)
+                // a finished file is still claimed until it is written, unless another instance took it over
+                if ((!state.finished || state.leaseLost) && !claims.claim(file.id)) {
+                    states.remove(file.id, state)
+                    throw new FileClaimedException(file.id, claims.ownerOf(file.id))
+                }
+                transition(state, FileStatus.PENDING)
+                state.leaseLost = false
+                state.job = null
+                state.sheets = 0
+                state.rows = 0
+                state.bytes = 0
+                state.queuedAt = new Date()
+                state.startedAt = null
+                state.finishedAt = null
+                return
+            }
+        }
+    }
+
+    /**
+     * The job is IN_PROGRESS from now on, its progress is written with the state until it is finished
+     */
+    void started(UnexcelJob job) {
+        JobState state = active(job.id)
+        synchronized (state) {
+            transition(state, FileStatus.IN_PROGRESS)
+            state.job = job
+            state.startedAt = new Date()
+            if (state.leaseLost) {
+                job.cancel()
+            }
+        }
+    }
+
+    /**
+     * The job is finished with its status, DONE or FAILED, and its final progress
+     */
+    void finished(UnexcelJob job) {
+        JobState state = active(job.id)
+        synchronized (state) {
+            transition(state, job.status)
+            state.job = null
+            state.progress(job)
+            state.finishedAt = new Date()
+        }
+    }
+
+    /**
+     * A queued file that never ran, e.g. because the queue is full
+     */
+    void failed(Long id) {
+        JobState state = active(id)
+        synchronized (state) {
+            transition(state, FileStatus.FAILED)
+            state.finishedAt = new Date()
+        }
+    }
+
+    /**
+     * Another instance took the file over: its running job is cancelled, a queued one as soon as it starts.
+     * Its states are no longer written, the file is the other instance's.
+     */
+    void leaseLost(Long id) {
+        JobState state = states[id]
+        if (state != null) {
+            synchronized (state) {
+                state.leaseLost = true
+                state.job?.cancel()
+            }
+        }
+    }
+
+    /**
+     * Copies the current state of the file onto it if it has not been written yet
+     *
+     * @return the file
+     */
+    IncomingFile apply(IncomingFile file) {
+        JobState state = file ? states[file.id] : null
+        if (state != null) {
+            synchronized (state) {
+                state.progress(state.job)
+                file.status = state.status
+                file.sheetsDone = state.sheets
+                file.rowsWritten = state.rows
+                file.bytesWritten = state.bytes
+                file.queuedAt = state.queuedAt
+                file.startedAt = state.startedAt
+                file.finishedAt = state.finishedAt
+            }
+        }
+        file
+    }
+
+    /**
+     * Writes every state that changed since the last flush in one batch, finished files are forgotten then
+     */
+    void flush() {
+        Map<JobState, Long> versions = [:]
+        List<Object[]> rows = []
+        states.values().each { JobState state ->
+            synchronized (state) {
+                state.progress(state.job)
+                if (state.version != state.writtenVersion) {
+                    versions[state] = state.version
+                    rows << ([state.status.ordinal(), state.sheets, state.rows, state.bytes, timestamp(state.queuedAt),
+                              timestamp(state.startedAt), timestamp(state.finishedAt), state.id, claims.instanceId] as Object[])
+                }
+            }
+        }
+        if (rows.empty) {
+            return
+        }
+        jdbcTemplate.batchUpdate(UPDATE, rows)
+        versions.each { JobState state, Long version ->
+            synchronized (state) {
+                state.writtenVersion = version
+                if (state.version == version && state.finished) {
+                    claims.release(state.id)
+                    states.remove(state.id, state)
+                }
+            }
+        }
+    }
+
+    int getUnwritten() {
+        states.values().count { JobState state -> state.version != state.writtenVersion } as int
+    }
+
+    private JobState active(Long id) {
+        JobState state = states[id]
+        if (state == null) {
+            throw new InvalidTransitionException("File $id is not queued")
+        }
+        state
+    }
+
+    private static void check(JobState state, FileStatus status) {
+        if (state.status != null && !TRANSITIONS[state.status].contains(status)) {
+            throw new InvalidTransitionException("File ${state.id} is ${state.status}, it cannot become $status")
+        }
+    }
+
+    private static void transition(JobState state, FileStatus status) {
+        check(state, status)
+        state.status = status
+        state.version++
+    }
+
+    private static Timestamp timestamp(Date date) {
+        date ? new Timestamp(date.time) : null
+    }
+
+    /**
+     * State of one file, guarded by its own monitor
+     */
+    static class JobState {
+        final Long id
+        FileStatus status
+        /**
+         * Job whose progress is read on every flush while it is running
+         */
+        UnexcelJob job
+        int sheets
+        long rows
+        long bytes
+        Date queuedAt
+        Date startedAt
+        Date finishedAt
+        long version
+        long writtenVersion
+        /**
+         * True once another instance took the file over
+         */
+        boolean leaseLost
+
+        JobState(Long id) {
+            this.id = id
+        }
+
+        boolean isFinished() {
+            status == FileStatus.DONE || status == FileStatus.FAILED
+        }
+
+        /**
+         * Takes over the progress of the job, a new version only if it changed
+         */
+        void progress(UnexcelJob job) {
+            if (job == null) {
+                return
+            }
+            int sheets = job.sheets.get()
+            long rows = job.rows.get()
+            long bytes = job.bytes.get()
+            if (sheets != this.sheets || rows != this.rows || bytes != this.bytes) {
+                this.sheets = sheets
+                this.rows = rows
+                this.bytes = bytes
+                version++
+            }
+        }
+    }
+}
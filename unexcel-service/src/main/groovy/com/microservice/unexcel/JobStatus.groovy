@@ -0,0 +1,32 @@
+package com.microservice.unexcel
+
+/**
+ * Response body of the job endpoints
+ */
+class JobStatus {
+    Long id
+    String fileName
+    FileStatus status
+    List<String> currentSheets
+    Integer sheetsDone
+    Long rowsWritten
+    Long bytesWritten
+    Date queuedAt
+    Date startedAt
+    Date finishedAt
+    List<String> resultFiles
+
+    static JobStatus of(UnexcelJob job) {
+        new JobStatus(id: job.id, fileName: job.fileName, status: job.status,
+                currentSheets: new ArrayList<>(job.currentSheets),
+                sheetsDone: job.sheets.get(), rowsWritten: job.rows.get(), bytesWritten: job.bytes.get(),
+                resultFiles: job.resultFiles)
+    }
+
+    static JobStatus of(IncomingFile file) {
+        new JobStatus(id: file.id, fileName: file.fileName, status: file.status,
+                sheetsDone: file.sheetsDone, rowsWritten: file.rowsWritten, bytesWritten: file.bytesWritten,
+                queuedAt: file.queuedAt, startedAt: file.startedAt, finishedAt: file.finishedAt,
+                resultFiles: file.resultFiles)
+    }
+}
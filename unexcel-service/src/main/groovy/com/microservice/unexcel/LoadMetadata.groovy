@@ -0,0 +1,61 @@
+package com.microservice.unexcel
+
+import com.netflix.appinfo.ApplicationInfoManager
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.scheduling.annotation.Scheduled
+import org.springframework.stereotype.Component
+
+/**
+ * Publishes the load of this instance as Eureka metadata, clients choose the least loaded instance by it
+ * (see UnexcelLoadRule of ui-service). Eureka takes the metadata with the next instance info replication,
+ * eureka.client.instance-info-replication-interval-seconds.
+ * <ul>
+ *     <li>unexcel.threads: job threads</li>
+ *     <li>unexcel.in-flight, unexcel.queue-depth: jobs running and waiting</li>
+ *     <li>unexcel.free-mb: free part of the memory budget, see {@link AdmissionControl}</li>
+ *     <li>unexcel.load-version: changes with every update, clients count their own dispatches since</li>
+ * </ul>
+ */
+@Component
+class LoadMetadata {
+
+    static final String THREADS = 'unexcel.threads'
+    static final String IN_FLIGHT = 'unexcel.in-flight'
+    static final String QUEUE_DEPTH = 'unexcel.queue-depth'
+    static final String FREE_MB = 'unexcel.free-mb'
+    static final String LOAD_VERSION = 'unexcel.load-version'
+
+    /**
+     * Missing if Eureka is disabled
+     */
+    @Autowired(required = false)
+    ApplicationInfoManager infoManager
+
+    @Autowired
+    UnexcelJobService jobService
+
+    @Autowired
+    AdmissionControl admission
+
+    Map<String, String> published = [:]
+
+    long version
+
+    @Scheduled(fixedDelayString = '${unexcel.cluster.publish-interval-ms:5000}')
+    void publish() {
+        if (infoManager == null) {
+            return
+        }
+        Map<String, String> load = [
+                (THREADS)    : String.valueOf(jobService.threads),
+                (IN_FLIGHT)  : String.valueOf(jobService.inFlight),
+                (QUEUE_DEPTH): String.valueOf(jobService.queueDepth),
+                (FREE_MB)    : String.valueOf(admission.availableMb)
+        ]
+        // an unchanged load doesn't make the instance info dirty, Eureka isn't asked to register it again
+        if (load != published) {
+            published = load
+            infoManager.registerAppMetadata(load + [(LOAD_VERSION): String.valueOf(++version)])
+        }
+    }
+}
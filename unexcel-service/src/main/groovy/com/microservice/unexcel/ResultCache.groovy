@@ -0,0 +1,501 @@
+package com.microservice.unexcel
+
+import com.microservice.unexcel.unxl.Checkpoint
+import com.microservice.unexcel.unxl.ConversionListener
+import com.microservice.unexcel.unxl.ConversionOptions
+import com.microservice.unexcel.unxl.ConversionStage
+import com.microservice.unexcel.unxl.OutputFormat
+import groovy.util.logging.Log4j
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.scheduling.annotation.Scheduled
+import org.springframework.stereotype.Service
+
+import javax.annotation.PostConstruct
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.charset.StandardCharsets
+import java.nio.file.DirectoryNotEmptyException
+import java.nio.file.FileAlreadyExistsException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.nio.file.StandardCopyOption
+import java.nio.file.StandardOpenOption
+import java.nio.file.attribute.FileTime
+import java.security.MessageDigest
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Content addressed cache of conversion results. The CSV files of a workbook are kept in a directory
+ * named after the SHA-256 of the workbook, so resubmitting the same content (under any name) costs
+ * one hash pass instead of a conversion.
+ * <p>
+ * A result directory only appears, by an atomic move, once its conversion is complete. It lists its files
+ * in workbook order in a manifest, followed by the counts of its conversion, which a cache hit reports to
+ * its listener. Old and least recently used results are evicted on a schedule, except for the newest one,
+ * results that are being read (see {@link Result#close()}) and results an {@link IncomingFile} refers to.
+ * <p>
+ * Partial conversions and other output formats (see {@link ConversionOptions}) are cached next to the full CSV
+ * one, their directory name adds a digest of the options to the hash.
+ * <p>
+ * With chunked output (see {@link Unexcel#chunkPolicy}) and a {@link CheckpointRecorder}, a conversion works
+ * in a directory that survives a failure, so that a retry continues with the parts committed in it.
+ */
+@Log4j
+@Service
+class ResultCache {
+
+    static final String MANIFEST = '.manifest'
+    static final String TEMP_MARKER = '.tmp-'
+    static final String RESUMABLE = 'resumable'
+    static final int HASH_BUFFER_SIZE = 1 << 16
+
+    @Autowired
+    Unexcel unexcel
+
+    @Autowired
+    IncomingFileRepository repository
+
+    @Value('${unexcel.cache.enabled:false}')
+    boolean enabled
+
+    @Value('${unexcel.cache.directory:${java.io.tmpdir}/unexcel-cache}')
+    String directory
+
+    @Value('${unexcel.cache.max-size-mb:1024}')
+    long maxSizeMb
+
+    @Value('${unexcel.cache.max-age-hours:24}')
+    long maxAgeHours
+
+    Path root
+
+    /**
+     * Conversions running right now by result key, identical submissions wait for the first one
+     */
+    final Map<String, CompletableFuture<Manifest>> inFlight = new ConcurrentHashMap<>()
+
+    /**
+     * Number of readers by result key, results with readers are not evicted
+     */
+    final Map<String, Integer> readers = new ConcurrentHashMap<>()
+
+    @PostConstruct
+    void start() {
+        if (enabled) {
+            root = Files.createDirectories(Paths.get(directory))
+        }
+    }
+
+    /**
+     * Converts the selected part of the workbook unless a result for the same content and options is cached
+     * already. With the cache disabled the workbook is simply converted next to itself.
+     * <p>
+     * The files of the result are not evicted until it is closed.
+     */
+    Result convert(Path excelFilePath, ConversionOptions options, ConversionListener listener) {
+        convert(excelFilePath, options, listener, null)
+    }
+
+    /**
+     * Same as {@link #convert(Path, ConversionOptions, ConversionListener)}, a chunked conversion records
+     * its checkpoints and resumes from those of an earlier attempt
+     *
+     * @param checkpoints null to convert from scratch without recording anything
+     */
+    Result convert(Path excelFilePath, ConversionOptions options, ConversionListener listener,
+                   CheckpointRecorder checkpoints) {
+        if (!enabled) {
+            Path directory = unexcel.getUnexcelDirectory(excelFilePath)
+            if (!isResumable(checkpoints, options)) {
+                return new Result(files: unexcel.unexcel(excelFilePath, directory, options, listener))
+            }
+            String contentHash = hash(excelFilePath)
+            List<Checkpoint> resume = checkpoints.start(resultKey(contentHash, options), directory, options.format)
+            List<Path> files = unexcel.unexcel(excelFilePath, directory, options, resume, checkpoints.wrap(listener))
+            checkpoints.clear()
+            return new Result(contentHash: contentHash, files: files)
+        }
+        convert(excelFilePath, hash(excelFilePath), options, listener, checkpoints)
+    }
+
+    /**
+     * Same as {@link #convert(Path, ConversionOptions, ConversionListener)} for a workbook whose hash
+     * is already known, e.g. computed while it was uploaded
+     */
+    Result convert(Path excelFilePath, String contentHash, ConversionOptions options, ConversionListener listener) {
+        convert(excelFilePath, contentHash, options, listener, null)
+    }
+
+    Result convert(Path excelFilePath, String contentHash, ConversionOptions options, ConversionListener listener,
+                   CheckpointRecorder checkpoints) {
+        String key = resultKey(contentHash, options)
+        pin(key)
+        try {
+            Manifest cached = find(key)
+            if (cached != null) {
+                log.debug("Cache hit for ${excelFilePath.toString()} ($key)")
+                return hit(contentHash, key, cached, listener)
+            }
+            CompletableFuture<Manifest> conversion = new CompletableFuture<>()
+            CompletableFuture<Manifest> running = inFlight.putIfAbsent(key, conversion)
+            if (running) {
+                return hit(contentHash, key, await(running), listener)
+            }
+            try {
+                // it may have been finished while we were looking
+                Manifest manifest = find(key)
+                if (manifest != null) {
+                    conversion.complete(manifest)
+                    return hit(contentHash, key, manifest, listener)
+                }
+                manifest = convertInto(excelFilePath, key, options, listener, checkpoints)
+                conversion.complete(manifest)
+                return new Result(contentHash: contentHash, files: manifest.files, cache: this, key: key)
+            } catch (Exception e) {
+                conversion.completeExceptionally(e)
+                throw e
+            } finally {
+                inFlight.remove(key, conversion)
+            }
+        } catch (Throwable e) {
+            unpin(key)
+            throw e
+        }
+    }
+
+    /**
+     * @return name of the result directory, the content hash itself for the whole workbook as CSV
+     */
+    String resultKey(String contentHash, ConversionOptions options) {
+        if (options.all && options.format == OutputFormat.CSV) {
+            return contentHash
+        }
+        byte[] digest = newDigest().digest(options.key.getBytes(StandardCharsets.UTF_8))
+        contentHash + '-' + toHex(digest).substring(0, 16)
+    }
+
+    /**
+     * @return cached files in workbook order and the counts of their conversion,
+     * or null if there is no complete result for the key
+     */
+    Manifest find(String key) {
+        Path resultDirectory = root.resolve(key)
+        Path manifest = resultDirectory.resolve(MANIFEST)
+        if (!Files.exists(manifest)) {
+            return null
+        }
+        try {
+            Manifest cached = Manifest.read(resultDirectory, Files.readAllLines(manifest, StandardCharsets.UTF_8))
+            if (!cached.files.every { Files.exists(it) }) {
+                return null
+            }
+            // recently used results are evicted last
+            Files.setLastModifiedTime(resultDirectory, FileTime.fromMillis(System.currentTimeMillis()))
+            return cached
+        } catch (IOException e) {
+            // evicted meanwhile
+            log.debug("Cached result $key is gone: ${e.message}")
+            return null
+        }
+    }
+
+    /**
+     * The result is not evicted until it is unpinned as often as it was pinned
+     */
+    void pin(String key) {
+        readers.merge(key, 1, Integer.&sum)
+    }
+
+    void unpin(String key) {
+        readers.computeIfPresent(key) { String k, Integer count -> count > 1 ? count - 1 : null }
+    }
+
+    MessageDigest newDigest() {
+        MessageDigest.getInstance('SHA-256')
+    }
+
+    String hash(Path file) {
+        MessageDigest digest = newDigest()
+        FileChannel.open(file, StandardOpenOption.READ).withCloseable { FileChannel channel ->
+            ByteBuffer buffer = ByteBuffer.allocateDirect(HASH_BUFFER_SIZE)
+            while (channel.read(buffer) > 0) {
+                buffer.flip()
+                digest.update(buffer)
+                buffer.clear()
+            }
+        }
+        toHex(digest.digest())
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2)
+        bytes.each { byte b -> hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16)) }
+        hex.toString()
+    }
+
+    /**
+     * Removes results older than max-age-hours, then the least recently used ones until the cache
+     * fits into max-size-mb. The most recently used result is kept even if it doesn't fit, so are results
+     * that are being read or are listed as the result files of an {@link IncomingFile}.
+     */
+    @Scheduled(fixedDelayString = '${unexcel.cache.eviction-interval-ms:600000}')
+    void evict() {
+        if (!enabled) {
+            return
+        }
+        long now = System.currentTimeMillis()
+        long maxAge = TimeUnit.HOURS.toMillis(maxAgeHours)
+        List<Entry> entries = []
+        Files.newDirectoryStream(root).withCloseable { stream ->
+            stream.each { Path path ->
+                if (Files.isDirectory(path)) {
+                    entries << new Entry(path: path, lastUsed: Files.getLastModifiedTime(path).toMillis(), size: sizeOf(path))
+                }
+            }
+        }
+        long total = entries.sum(0L) { Entry entry -> entry.size } as long
+        long maxSize = maxSizeMb * 1024 * 1024
+        entries.sort { Entry entry -> entry.lastUsed }
+        Entry newest = entries.reverse().find { Entry entry -> !entry.running }
+        entries.each { Entry entry ->
+            boolean expired = now - entry.lastUsed > maxAge
+            // conversions in progress are only removed when they are left over from a crash
+            if (!entry.is(newest) && (expired || (total > maxSize && !entry.running)) && !isReferenced(entry)
+                    && delete(entry)) {
+                total -= entry.size
+            }
+        }
+    }
+
+    /**
+     * @return true if a file lists one of the entry's files as its result
+     */
+    private boolean isReferenced(Entry entry) {
+        !entry.running && repository.countByResultDirectory(entry.path.toString() + File.separator) > 0
+    }
+
+    /**
+     * Deletes the entry unless it has readers, a reader that comes in meanwhile waits for the deletion
+     * and finds no result
+     */
+    private boolean delete(Entry entry) {
+        boolean deleted = false
+        readers.compute(entry.key) { String key, Integer count ->
+            if (count == null) {
+                log.info("Evicting cached result ${entry.path.fileName} (${entry.size} bytes)")
+                deleted = entry.path.toFile().deleteDir()
+            }
+            count
+        }
+        deleted
+    }
+
+    private boolean isResumable(CheckpointRecorder checkpoints, ConversionOptions options) {
+        checkpoints != null && unexcel.chunkPolicy.enabled && options.format.supportsParts()
+    }
+
+    private Manifest convertInto(Path excelFilePath, String key, ConversionOptions options, ConversionListener listener,
+                                 CheckpointRecorder checkpoints) {
+        boolean resumable = isResumable(checkpoints, options)
+        Counts counts = new Counts(listener)
+        Path work = resumable ? Files.createDirectories(root.resolve(key + TEMP_MARKER + RESUMABLE))
+                : Files.createTempDirectory(root, key + TEMP_MARKER)
+        boolean done = false
+        try {
+            List<Path> files
+            if (resumable) {
+                List<Checkpoint> resume = checkpoints.start(key, work, options.format)
+                if (!resume) {
+                    // left over from an attempt whose checkpoints are gone
+                    work.toFile().eachFile { File leftover -> leftover.delete() }
+                }
+                files = unexcel.unexcel(excelFilePath, work, options, resume, checkpoints.wrap(counts))
+            } else {
+                files = unexcel.unexcel(excelFilePath, work, options, counts)
+            }
+            Path resultDirectory = root.resolve(key)
+            Manifest manifest = new Manifest(files: files.collect { resultDirectory.resolve(it.fileName.toString()) },
+                    sheets: counts.sheets, rows: counts.rows.get(), bytes: counts.bytes.get())
+            Files.write(work.resolve(MANIFEST), manifest.lines(), StandardCharsets.UTF_8)
+            try {
+                Files.move(work, resultDirectory, StandardCopyOption.ATOMIC_MOVE)
+            } catch (FileAlreadyExistsException | DirectoryNotEmptyException e) {
+                // another node sharing the directory was faster, its result is as good as ours
+                log.debug("Result $key already exists")
+            }
+            done = true
+            checkpoints?.clear()
+            return manifest
+        } finally {
+            // the committed parts of a failed chunked conversion are kept for the retry
+            if ((done || !resumable) && Files.exists(work)) {
+                work.toFile().deleteDir()
+            }
+        }
+    }
+
+    private Result hit(String contentHash, String key, Manifest manifest, ConversionListener listener) {
+        manifest.replay(listener)
+        new Result(contentHash: contentHash, files: manifest.files, hit: true, cache: this, key: key)
+    }
+
+    private static Manifest await(CompletableFuture<Manifest> conversion) {
+        try {
+            return conversion.get()
+        } catch (ExecutionException e) {
+            throw e.cause
+        }
+    }
+
+    private static long sizeOf(Path directory) {
+        long size = 0
+        directory.toFile().eachFileRecurse { File file -> size += file.length() }
+        size
+    }
+
+    /**
+     * Files of a conversion, closing the result lets the cache evict them
+     */
+    static class Result implements Closeable {
+        String contentHash
+        List<Path> files
+        boolean hit
+        ResultCache cache
+        String key
+
+        @Override
+        void close() {
+            if (cache != null) {
+                cache.unpin(key)
+                cache = null
+            }
+        }
+    }
+
+    /**
+     * Files of a result followed by an empty line and the counts of the conversion that wrote them.
+     * Counts of a resumed conversion only cover its last attempt.
+     */
+    static class Manifest {
+        List<Path> files
+        List<String> sheets = []
+        long rows
+        long bytes
+
+        static Manifest read(Path resultDirectory, List<String> lines) {
+            int end = lines.indexOf('')
+            Manifest manifest = new Manifest(files: lines.subList(0, end < 0 ? lines.size() : end)
+                    .collect { String file -> resultDirectory.resolve(file) })
+            if (end >= 0) {
+                lines.subList(end + 1, lines.size()).each { String line ->
+                    String[] count = line.split('\t', 2)
+                    switch (count[0]) {
+                        case 'sheet': manifest.sheets << count[1]; break
+                        case 'rows': manifest.rows = count[1] as long; break
+                        case 'bytes': manifest.bytes = count[1] as long; break
+                    }
+                }
+            }
+            manifest
+        }
+
+        List<String> lines() {
+            files*.fileName*.toString() + [''] + sheets.collect { "sheet\t$it".toString() } +
+                    ["rows\t$rows".toString(), "bytes\t$bytes".toString()]
+        }
+
+        /**
+         * Reports the counts as if the result had just been converted
+         */
+        void replay(ConversionListener listener) {
+            sheets.each { String sheet ->
+                listener.sheetStarted(sheet)
+                listener.sheetFinished(sheet)
+            }
+            for (long left = rows; left > 0; left -= Integer.MAX_VALUE) {
+                listener.rowsWritten(Math.min(left, Integer.MAX_VALUE) as int)
+            }
+            for (long left = bytes; left > 0; left -= Integer.MAX_VALUE) {
+                listener.bytesWritten(Math.min(left, Integer.MAX_VALUE) as int)
+            }
+        }
+    }
+
+    /**
+     * Counts what a conversion writes for its manifest and passes everything on
+     */
+    private static class Counts implements ConversionListener {
+
+        final ConversionListener delegate
+        final List<String> sheets = Collections.synchronizedList([])
+        final AtomicLong rows = new AtomicLong()
+        final AtomicLong bytes = new AtomicLong()
+
+        Counts(ConversionListener delegate) {
+            this.delegate = delegate
+        }
+
+        @Override
+        void sheetStarted(String sheetName) {
+            delegate.sheetStarted(sheetName)
+        }
+
+        @Override
+        void rowsWritten(int count) {
+            rows.addAndGet(count)
+            delegate.rowsWritten(count)
+        }
+
+        @Override
+        void sheetFinished(String sheetName) {
+            sheets << sheetName
+            delegate.sheetFinished(sheetName)
+        }
+
+        @Override
+        void cellsWritten(int cells) {
+            delegate.cellsWritten(cells)
+        }
+
+        @Override
+        void bytesWritten(int count) {
+            bytes.addAndGet(count)
+            delegate.bytesWritten(count)
+        }
+
+        @Override
+        void stageFinished(ConversionStage stage, long nanos) {
+            delegate.stageFinished(stage, nanos)
+        }
+
+        @Override
+        void partCommitted(Checkpoint checkpoint) {
+            delegate.partCommitted(checkpoint)
+        }
+    }
+
+    private static class Entry {
+        Path path
+        long lastUsed
+        long size
+
+        String getKey() {
+            String name = path.fileName.toString()
+            int temp = name.indexOf(TEMP_MARKER)
+            temp < 0 ? name : name.substring(0, temp)
+        }
+
+        /**
+         * A conversion in progress, or left over from a crash
+         */
+        boolean isRunning() {
+            path.fileName.toString().contains(TEMP_MARKER)
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.microservice.unexcel
+
+import com.microservice.unexcel.unxl.Checkpoint
+
+import javax.persistence.Embeddable
+
+/**
+ * Persistent form of a {@link Checkpoint}: the latest committed part of a sheet
+ */
+@Embeddable
+class SheetCheckpoint {
+    Integer sheetIndex
+    String sheetName
+    Integer parts
+    Integer lastRow
+    Integer maxColumns
+    Boolean sheetDone
+
+    SheetCheckpoint() {}
+
+    static SheetCheckpoint of(Checkpoint checkpoint) {
+        new SheetCheckpoint(sheetIndex: checkpoint.sheetIndex, sheetName: checkpoint.sheetName,
+                parts: checkpoint.parts, lastRow: checkpoint.lastRow, maxColumns: checkpoint.maxColumns,
+                sheetDone: checkpoint.sheetDone)
+    }
+
+    Checkpoint toCheckpoint() {
+        new Checkpoint(sheetIndex, sheetName, parts, lastRow, maxColumns, sheetDone)
+    }
+}
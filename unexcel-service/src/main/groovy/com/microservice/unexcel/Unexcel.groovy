@@ -1,40 +1,134 @@
 package com.microservice.unexcel
 
+import com.codahale.metrics.Timer
+import com.microservice.unexcel.unxl.Checkpoint
+import com.microservice.unexcel.unxl.ChunkPolicy
+import com.microservice.unexcel.unxl.ConversionListener
+import com.microservice.unexcel.unxl.ConversionOptions
 import com.microservice.unexcel.unxl.CsvFilePrintStreamProducer
-import com.microservice.unexcel.unxl.XLS2CSVmra
-import com.microservice.unexcel.unxl.XLSX2CSV
+import com.microservice.unexcel.unxl.OutputFormat
+import com.microservice.unexcel.unxl.WorkbookFormat
 import groovy.util.logging.Log4j
-import org.apache.poi.openxml4j.opc.OPCPackage
-import org.apache.poi.openxml4j.opc.PackageAccess
-import org.apache.poi.poifs.filesystem.OfficeXmlFileException
-import org.apache.poi.poifs.filesystem.POIFSFileSystem
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Qualifier
+import org.springframework.beans.factory.annotation.Value
 import org.springframework.stereotype.Service
 
+import javax.annotation.PostConstruct
 import javax.validation.constraints.NotNull
 import java.nio.file.Files
 import java.nio.file.Path
 import java.nio.file.Paths
+import java.util.concurrent.ExecutorService
 
 @Log4j
 @Service
 // Somewhere stream is not closed, won't fix as it's a demo project
 class Unexcel {
+
+    @Autowired
+    List<WorkbookConverter> converterBeans
+
+    @Autowired
+    ConversionMetrics metrics
+
+    @Autowired
+    AdmissionControl admission
+
+    @Autowired
+    @Qualifier('compressExecutor')
+    ExecutorService compressExecutor
+
+    /**
+     * Converters by the format they read, the format of a file is detected by its header
+     */
+    Map<WorkbookFormat, WorkbookConverter> converters
+
+    /**
+     * Sheets are split into parts of at most that many lines, 0 for no limit
+     */
+    @Value('${unexcel.chunk.max-rows:0}')
+    int chunkMaxRows
+
+    /**
+     * Sheets are split into parts of about that many bytes, 0 for no limit
+     */
+    @Value('${unexcel.chunk.max-bytes:0}')
+    long chunkMaxBytes
+
+    ChunkPolicy chunkPolicy
+
+    /**
+     * Format of the sheets unless a request asks for another one: csv, csv-gzip, ndjson or columnar
+     */
+    @Value('${unexcel.output.format:csv}')
+    String outputFormatName
+
+    OutputFormat outputFormat
+
+    @PostConstruct
+    void start() {
+        converters = new EnumMap<>(WorkbookFormat)
+        converterBeans.each { WorkbookConverter converter -> converters[converter.format] = converter }
+        chunkPolicy = new ChunkPolicy(chunkMaxRows, chunkMaxBytes)
+        outputFormat = OutputFormat.parse(outputFormatName)
+    }
+
     List<Path> unexcel(Path excelFilePath) {
-        Path unexcelDirectory = getUnexcelDirectory(excelFilePath)
+        unexcel(excelFilePath, ConversionListener.NONE)
+    }
+
+    List<Path> unexcel(Path excelFilePath, ConversionListener listener) {
+        unexcel(excelFilePath, getUnexcelDirectory(excelFilePath), listener)
+    }
+
+    List<Path> unexcel(Path excelFilePath, Path unexcelDirectory, ConversionListener listener) {
+        unexcel(excelFilePath, unexcelDirectory, ConversionOptions.ALL, listener)
+    }
+
+    List<Path> unexcel(Path excelFilePath, Path unexcelDirectory, ConversionOptions options, ConversionListener listener) {
+        unexcel(excelFilePath, unexcelDirectory, options, [], listener)
+    }
+
+    /**
+     * Converts the selected part of the workbook into files of the options' format (one per sheet with data)
+     * in the given existing directory. If the chunk policy is enabled and the format can be split, sheets are split
+     * into numbered parts and the conversion continues after the checkpoints of an interrupted conversion
+     * into the same directory.
+     * <p>
+     * The conversion starts once its memory is admitted, see {@link AdmissionControl}.
+     *
+     * @throws AdmissionRejectedException if there is no memory for the conversion
+     */
+    List<Path> unexcel(Path excelFilePath, Path unexcelDirectory, ConversionOptions options,
+                       Collection<Checkpoint> resume, ConversionListener listener) {
         CsvFilePrintStreamProducer streamProducer = new CsvFilePrintStreamProducer(unexcelDirectory)
+        streamProducer.chunkPolicy = chunkPolicy
+        streamProducer.outputFormat = options.format
+        streamProducer.compressExecutor = compressExecutor
+        if (resume && streamProducer.chunkPolicy.enabled) {
+            log.info("Resuming ${excelFilePath.toString()} from ${resume.size()} sheet checkpoints")
+            streamProducer.resume(resume)
+        }
         log.debug("Start unexceling: ${excelFilePath.toString()}")
+        WorkbookFormat format = WorkbookFormat.detect(excelFilePath)
+        WorkbookConverter converter = format ? converters[format] : null
+        if (!converter) {
+            throw new UnsupportedWorkbookException("Not a XLS or XLSX workbook: ${excelFilePath.toString()}")
+        }
+        AdmissionControl.Ticket ticket = admission.admit(converter, excelFilePath)
+        Timer.Context timer = metrics.conversions.time()
         try {
-            new FileInputStream(excelFilePath.toFile()).withCloseable { stream ->
-                POIFSFileSystem fs = new POIFSFileSystem(stream)
-                log.debug("Unexcel using XLS2CSVmra (xls files).")
-                XLS2CSVmra xls2csv = new XLS2CSVmra(fs, streamProducer, -1)
-                xls2csv.process()
-            }
-        } catch (OfficeXmlFileException e) {
-            log.debug("Unexcel using XLSX2CSV (xlsx files).")
-            OPCPackage p = OPCPackage.open(excelFilePath.toFile(), PackageAccess.READ);
-            XLSX2CSV xlsx2csv = new XLSX2CSV(p, streamProducer, -1);
-            xlsx2csv.process();
+            metrics.bytesIn.mark(Files.size(excelFilePath))
+            converter.convert(excelFilePath, streamProducer, options, metrics.wrap(listener), ticket.lowMemory)
+        } catch (Exception e) {
+            metrics.failures.inc()
+            throw e
+        } finally {
+            timer.stop()
+            ticket.close()
+            // uploaded files are removed right after the conversion, so don't leave the last sheet open
+            streamProducer.previousPrintStream?.close()
         }
         log.debug("Done unexceling: ${excelFilePath.toString()}")
         streamProducer.getResultFiles()
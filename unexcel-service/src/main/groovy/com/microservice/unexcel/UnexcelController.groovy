@@ -1,13 +1,34 @@
 package com.microservice.unexcel
 
+import com.microservice.unexcel.unxl.ConversionOptions
+import groovy.util.logging.Log4j
 import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.data.domain.Page
+import org.springframework.data.domain.PageRequest
+import org.springframework.data.domain.Sort
+import org.springframework.format.annotation.DateTimeFormat
+import org.springframework.http.HttpHeaders
+import org.springframework.http.HttpStatus
+import org.springframework.http.MediaType
+import org.springframework.http.ResponseEntity
+import org.springframework.web.bind.annotation.ExceptionHandler
+import org.springframework.web.bind.annotation.PathVariable
 import org.springframework.web.bind.annotation.RequestMapping
 import org.springframework.web.bind.annotation.RequestMethod
 import org.springframework.web.bind.annotation.RequestParam
 import org.springframework.web.bind.annotation.RestController
+import org.springframework.web.context.request.async.DeferredResult
+import org.springframework.web.multipart.MultipartFile
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody
+
+import javax.servlet.http.HttpServletRequest
 
 import java.nio.file.Path
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
 
+@Log4j
 @RestController
 @RequestMapping('/unexcel')
 class UnexcelController {
@@ -15,25 +36,174 @@ class UnexcelController {
     @Autowired
     Unexcel unexcel
 
+    @Autowired
+    UnexcelJobService jobService
+
+    @Autowired
+    ResultCache resultCache
+
+    @Autowired
+    UnexcelUploadService uploadService
+
     @Autowired
     IncomingFileRepository repository
 
+    @Autowired
+    JobStateStore states
+
+    @Value('${unexcel.jobs.max-wait-seconds:60}')
+    long maxWaitSeconds
+
+    @Value('${unexcel.jobs.retry-after-seconds:30}')
+    long retryAfterSeconds
+
+    @Value('${unexcel.files.max-page-size:200}')
+    int maxPageSize
+
+    /**
+     * Converts the workbook, or the part of it selected by the {@link ConversionRequest} parameters.
+     * A conversion that fails answers with no files and leaves the file FAILED.
+     */
     @RequestMapping(method = RequestMethod.POST)
-    def unexcel(@RequestParam('filePath') String filePath) {
+    def unexcel(@RequestParam('filePath') String filePath, ConversionRequest conversion) {
+        ConversionOptions options = conversion.toOptions(unexcel.outputFormat)
         Path path = new File(filePath).toPath()
-        IncomingFile file = repository.findByFileName(unexcel.extractNameFromPath(path)) ?:
-                new IncomingFile(filePath: path, fileName: unexcel.extractNameFromPath(path))
-        file.status = FileStatus.PENDING
-        repository.saveAndFlush(file)
+        IncomingFile file = jobService.register(path)
+        UnexcelJob job = new UnexcelJob(file, path, options)
+        states.queued(file)
+        job.status = FileStatus.IN_PROGRESS
+        states.started(job)
         List<Path> csvFiles = []
         try {
-            csvFiles = unexcel.unexcel(new File(filePath).toPath())
+            resultCache.convert(path, options, job, new CheckpointRecorder(file, repository)).withCloseable {
+                ResultCache.Result result ->
+                    file.contentHash = result.contentHash
+                    file.resultFiles = result.files*.toString()
+                    repository.save(file)
+                    csvFiles = result.files
+            }
+            job.status = FileStatus.DONE
+        } catch (AdmissionRejectedException e) {
+            job.status = FileStatus.FAILED
+            throw e
         } catch (Exception e) {
-            file.status = FileStatus.FAILED
-            repository.saveAndFlush(file)
+            log.error("Failed to unexcel $path", e)
+            job.status = FileStatus.FAILED
+        } finally {
+            states.finished(job)
         }
-        file.status = FileStatus.DONE
-        repository.saveAndFlush(file)
         csvFiles
     }
+
+    /**
+     * Converts an uploaded workbook (multipart field 'file') and answers with a ZIP of the CSV files
+     */
+    @RequestMapping(value = '/upload', method = RequestMethod.POST, consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    ResponseEntity<StreamingResponseBody> upload(@RequestParam('file') MultipartFile file, ConversionRequest conversion) {
+        ConversionOptions options = conversion.toOptions(unexcel.outputFormat)
+        zipResponse(uploadService.spool(file), options)
+    }
+
+    /**
+     * Same as {@link #upload(MultipartFile)}, but the workbook is the raw request body
+     */
+    @RequestMapping(value = '/upload', method = RequestMethod.POST, consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    ResponseEntity<StreamingResponseBody> uploadBody(HttpServletRequest request,
+                                                     @RequestParam(value = 'fileName', required = false) String fileName,
+                                                     ConversionRequest conversion) {
+        ConversionOptions options = conversion.toOptions(unexcel.outputFormat)
+        zipResponse(uploadService.spool(request.inputStream, fileName), options)
+    }
+
+    /**
+     * Queues the conversion and answers at once with 202 and the job id, see {@link #job}.
+     * If another instance is converting the file already the answer is its job.
+     */
+    @RequestMapping(value = '/jobs', method = RequestMethod.POST)
+    ResponseEntity<JobStatus> submit(@RequestParam('filePath') String filePath, ConversionRequest conversion) {
+        ConversionOptions options = conversion.toOptions(unexcel.outputFormat)
+        try {
+            UnexcelJob job = jobService.submit(new File(filePath).toPath(), options)
+            ResponseEntity.status(HttpStatus.ACCEPTED)
+                    .location(URI.create("/unexcel/jobs/${job.id}"))
+                    .body(JobStatus.of(job))
+        } catch (FileClaimedException e) {
+            ResponseEntity.status(HttpStatus.ACCEPTED)
+                    .location(URI.create("/unexcel/jobs/${e.fileId}"))
+                    .body(JobStatus.of(repository.findOne(e.fileId)))
+        } catch (RejectedExecutionException e) {
+            ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                    .build()
+        }
+    }
+
+    /**
+     * Job status and progress. With waitSeconds > 0 the request is held (without a servlet thread)
+     * until the job is finished or the wait is over, whichever comes first.
+     */
+    @RequestMapping(value = '/jobs/{id}', method = RequestMethod.GET)
+    DeferredResult<ResponseEntity<JobStatus>> job(@PathVariable('id') Long id,
+                                                  @RequestParam(value = 'waitSeconds', defaultValue = '0') long waitSeconds) {
+        UnexcelJob job = jobService.findActive(id)
+        if (!job || waitSeconds <= 0) {
+            DeferredResult<ResponseEntity<JobStatus>> result = new DeferredResult<>()
+            result.setResult(job ? ResponseEntity.ok(JobStatus.of(job)) : finishedJob(id))
+            return result
+        }
+        DeferredResult<ResponseEntity<JobStatus>> result =
+                new DeferredResult<>(TimeUnit.SECONDS.toMillis(Math.min(waitSeconds, maxWaitSeconds)))
+        result.onTimeout { result.setResult(ResponseEntity.ok(JobStatus.of(job))) }
+        job.completion.thenAccept { UnexcelJob done -> result.setResult(ResponseEntity.ok(JobStatus.of(done))) }
+        result
+    }
+
+    /**
+     * One page of the known files, newest first, without their result files
+     *
+     * @param since only files created on or after that day, e.g. 2017-06-30
+     * @param namePrefix only files whose name starts with it
+     * @param size page size, at most unexcel.files.max-page-size
+     */
+    @RequestMapping(value = '/files', method = RequestMethod.GET)
+    Page<FileSummary> files(@RequestParam(value = 'status', required = false) FileStatus status,
+                            @RequestParam(value = 'since', required = false)
+                            @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Date since,
+                            @RequestParam(value = 'namePrefix', defaultValue = '') String namePrefix,
+                            @RequestParam(value = 'page', defaultValue = '0') int page,
+                            @RequestParam(value = 'size', defaultValue = '20') int size) {
+        PageRequest pageable = new PageRequest(Math.max(page, 0), Math.min(Math.max(size, 1), maxPageSize),
+                new Sort(Sort.Direction.DESC, 'createdAt', 'id'))
+        repository.findSummaries(status, since, likePrefix(namePrefix), pageable)
+    }
+
+    /**
+     * No memory for the conversion right now, 429 or 503 with the time to wait before retrying
+     */
+    @ExceptionHandler(AdmissionRejectedException)
+    ResponseEntity<Void> busy(AdmissionRejectedException e) {
+        ResponseEntity.status(e.status)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.retryAfterSeconds))
+                .build()
+    }
+
+    private ResponseEntity<StreamingResponseBody> zipResponse(UnexcelUploadService.Upload upload, ConversionOptions options) {
+        List<Path> csvFiles = uploadService.convert(upload, options)
+        ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType('application/zip'))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"${upload.name.replace('"', '')}.zip\"")
+                .body(uploadService.zip(upload, csvFiles))
+    }
+
+    /**
+     * @return LIKE pattern matching names that start with the prefix, '!' escapes the wildcards
+     */
+    static String likePrefix(String prefix) {
+        prefix.replaceAll('[!%_]') { String c -> '!' + c } + '%'
+    }
+
+    private ResponseEntity<JobStatus> finishedJob(Long id) {
+        IncomingFile file = states.apply(repository.findOne(id))
+        file ? ResponseEntity.ok(JobStatus.of(file)) : ResponseEntity.notFound().build()
+    }
 }
@@ -0,0 +1,99 @@
+package com.microservice.unexcel
+
+import com.microservice.unexcel.unxl.ConversionListener
+import com.microservice.unexcel.unxl.ConversionOptions
+import groovy.transform.CompileStatic
+
+import java.nio.file.Path
+import java.util.concurrent.CancellationException
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * In-memory state of a queued or running conversion. Progress is updated by the converter thread
+ * and read by status requests, the {@link JobStateStore} writes it to the {@link IncomingFile}.
+ */
+@CompileStatic
+class UnexcelJob implements ConversionListener {
+    final Long id
+    final String fileName
+    final Path filePath
+    final ConversionOptions options
+
+    volatile FileStatus status = FileStatus.PENDING
+    /**
+     * Sheets being converted right now, several if sheets are converted in parallel
+     */
+    final Set<String> currentSheets = ConcurrentHashMap.newKeySet()
+    volatile List<String> resultFiles = []
+
+    final AtomicInteger sheets = new AtomicInteger()
+    final AtomicLong rows = new AtomicLong()
+    final AtomicLong bytes = new AtomicLong()
+
+    /**
+     * Completed with the job itself as soon as it is DONE or FAILED
+     */
+    final CompletableFuture<UnexcelJob> completion = new CompletableFuture<>()
+
+    /**
+     * True once the job is cancelled, its conversion stops at the next progress event
+     */
+    volatile boolean cancelled
+
+    /**
+     * @param filePath workbook as submitted, the file may have been registered with another location before
+     */
+    UnexcelJob(IncomingFile file, Path filePath, ConversionOptions options) {
+        this.id = file.id
+        this.fileName = file.fileName
+        this.filePath = filePath
+        this.options = options
+    }
+
+    void cancel() {
+        cancelled = true
+    }
+
+    /**
+     * @throws CancellationException if the job is cancelled
+     */
+    @Override
+    void sheetStarted(String sheetName) {
+        failIfCancelled()
+        currentSheets << sheetName
+    }
+
+    /**
+     * @throws CancellationException if the job is cancelled
+     */
+    @Override
+    void rowsWritten(int count) {
+        failIfCancelled()
+        rows.addAndGet(count)
+    }
+
+    @Override
+    void bytesWritten(int count) {
+        bytes.addAndGet(count)
+    }
+
+    @Override
+    void sheetFinished(String sheetName) {
+        sheets.incrementAndGet()
+        currentSheets.remove(sheetName)
+    }
+
+    private void failIfCancelled() {
+        if (cancelled) {
+            throw new CancellationException("Job $id is cancelled".toString())
+        }
+    }
+
+    @Override
+    String toString() {
+        return "UnexcelJob{id=$id, fileName='$fileName', status=$status}"
+    }
+}
@@ -0,0 +1,186 @@
+package com.microservice.unexcel
+
+import com.codahale.metrics.Gauge
+import com.microservice.unexcel.unxl.ConversionOptions
+import groovy.util.logging.Log4j
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.http.HttpStatus
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory
+import org.springframework.stereotype.Service
+
+import javax.annotation.PostConstruct
+import javax.annotation.PreDestroy
+import java.nio.file.Path
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.CancellationException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+
+/**
+ * Runs conversions on a bounded worker pool. When all workers are busy and the queue is full
+ * new jobs are rejected instead of piling up threads or memory.
+ */
+@Log4j
+@Service
+class UnexcelJobService {
+
+    @Autowired
+    Unexcel unexcel
+
+    @Autowired
+    ResultCache resultCache
+
+    @Autowired
+    IncomingFileRepository repository
+
+    @Autowired
+    JobStateStore states
+
+    @Autowired
+    ConversionMetrics metrics
+
+    @Value('${unexcel.jobs.threads:2}')
+    int threads
+
+    @Value('${unexcel.jobs.queue-capacity:50}')
+    int queueCapacity
+
+    ThreadPoolExecutor executor
+
+    final Map<Long, UnexcelJob> activeJobs = new ConcurrentHashMap<>()
+
+    @PostConstruct
+    void start() {
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new CustomizableThreadFactory('unexcel-job-'))
+        metrics.gauge('jobs.queue-depth', { queueDepth } as Gauge<Integer>)
+        metrics.gauge('jobs.in-flight', { inFlight } as Gauge<Integer>)
+    }
+
+    @PreDestroy
+    void stop() {
+        executor.shutdownNow()
+    }
+
+    /**
+     * Registers the file as PENDING and queues the conversion of its selected part.
+     * If the file is already queued or running the existing job is returned.
+     *
+     * @throws RejectedExecutionException if the queue is full, the file is marked FAILED then
+     * @throws FileClaimedException if another instance converts the file
+     */
+    UnexcelJob submit(Path excelFilePath, ConversionOptions options) throws RejectedExecutionException {
+        IncomingFile file = register(excelFilePath)
+        UnexcelJob activeJob = activeJobs[file.id]
+        if (activeJob) {
+            return activeJob
+        }
+        states.queued(file)
+
+        UnexcelJob job = new UnexcelJob(file, excelFilePath, options)
+        activeJobs[job.id] = job
+        try {
+            executor.execute { run(job) }
+        } catch (RejectedExecutionException e) {
+            log.warn("Job queue is full, rejecting ${file.fileName}")
+            activeJobs.remove(job.id)
+            states.failed(job.id)
+            throw e
+        }
+        job
+    }
+
+    /**
+     * @return the file of the workbook, inserted if it is new, its status is up to the {@link JobStateStore}.
+     * A known file moves to the location it was submitted from.
+     */
+    IncomingFile register(Path excelFilePath) {
+        String fileName = unexcel.extractNameFromPath(excelFilePath)
+        IncomingFile file = repository.findByFileName(fileName)
+        if (!file) {
+            return repository.save(new IncomingFile(filePath: excelFilePath, fileName: fileName,
+                    status: FileStatus.PENDING))
+        }
+        if (file.filePath != excelFilePath.toString()) {
+            file.filePath = excelFilePath.toString()
+            file = repository.save(file)
+        }
+        file
+    }
+
+    UnexcelJob findActive(Long id) {
+        activeJobs[id]
+    }
+
+    int getQueueDepth() {
+        executor.queue.size()
+    }
+
+    int getInFlight() {
+        executor.activeCount
+    }
+
+    /**
+     * Jobs are already queued, so they keep waiting for memory instead of failing when it is short,
+     * unless they are cancelled meanwhile
+     *
+     * @throws CancellationException if the job is cancelled
+     */
+    private ResultCache.Result convert(UnexcelJob job, CheckpointRecorder checkpoints) {
+        while (true) {
+            if (job.cancelled) {
+                throw new CancellationException("Job ${job.id} is cancelled".toString())
+            }
+            try {
+                return resultCache.convert(job.filePath, job.options, job, checkpoints)
+            } catch (AdmissionRejectedException e) {
+                log.info("Job ${job.id} is waiting for memory: ${e.message}")
+                if (e.status == HttpStatus.TOO_MANY_REQUESTS) {
+                    TimeUnit.SECONDS.sleep(e.retryAfterSeconds)
+                }
+            }
+        }
+    }
+
+    /**
+     * Whatever fails, the job is finished and no longer active afterwards
+     */
+    protected void run(UnexcelJob job) {
+        IncomingFile file = null
+        ResultCache.Result result = null
+        try {
+            file = repository.findOne(job.id)
+            job.status = FileStatus.IN_PROGRESS
+            states.started(job)
+            CheckpointRecorder checkpoints = new CheckpointRecorder(file, repository)
+            // parts of a chunked conversion are listed as soon as they are committed
+            job.resultFiles = checkpoints.committedFiles
+            result = convert(job, checkpoints)
+            file.contentHash = result.contentHash
+            job.resultFiles = result.files*.toString()
+            job.status = FileStatus.DONE
+        } catch (Exception e) {
+            log.error("Failed to unexcel ${job.filePath}", e)
+            job.status = FileStatus.FAILED
+        } finally {
+            try {
+                states.finished(job)
+                // a cancelled job's file may be converted by another instance already
+                if (file != null && !job.cancelled) {
+                    file.resultFiles = new ArrayList<>(job.resultFiles)
+                    repository.save(file)
+                }
+            } catch (Exception e) {
+                log.error("Failed to record the end of job ${job.id}", e)
+            } finally {
+                // the file refers to the result from now on, it is no longer evicted
+                result?.close()
+                activeJobs.remove(job.id)
+                job.completion.complete(job)
+            }
+        }
+    }
+}
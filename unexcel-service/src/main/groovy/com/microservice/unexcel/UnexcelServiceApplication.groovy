@@ -1,19 +1,54 @@
 package com.microservice.unexcel
 
+import com.microservice.unexcel.unxl.AsyncGzipOutputStream
+import com.microservice.unexcel.unxl.XLSX2CSV
 import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Value
 import org.springframework.boot.CommandLineRunner
 import org.springframework.boot.SpringApplication
 import org.springframework.boot.autoconfigure.SpringBootApplication
 import org.springframework.cloud.client.discovery.EnableDiscoveryClient
+import org.springframework.context.annotation.Bean
+import org.springframework.scheduling.annotation.EnableScheduling
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory
 import org.springframework.stereotype.Component
 
+import java.util.concurrent.SynchronousQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+
 @SpringBootApplication
 @EnableDiscoveryClient
+@EnableScheduling
 class UnexcelServiceApplication {
 
 	static void main(String[] args) {
 		SpringApplication.run UnexcelServiceApplication, args
 	}
+
+	/**
+	 * Formatter threads of pipelined sheets, shared by all jobs, see {@link XLSX2CSV#setFormatExecutor}.
+	 * Nothing waits for a thread: sheets started while all threads are busy are not pipelined.
+	 */
+	@Bean(destroyMethod = 'shutdownNow')
+	ThreadPoolExecutor formatExecutor(@Value('${unexcel.pipeline.threads:2}') int threads) {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+				new SynchronousQueue<Runnable>(), new CustomizableThreadFactory('unexcel-format-'))
+		executor.allowCoreThreadTimeOut(true)
+		executor
+	}
+
+	/**
+	 * Threads compressing csv-gzip files, shared by all jobs, see {@link AsyncGzipOutputStream}.
+	 * Files opened while all threads are busy are compressed on the thread writing them.
+	 */
+	@Bean(destroyMethod = 'shutdownNow')
+	ThreadPoolExecutor compressExecutor(@Value('${unexcel.gzip.threads:2}') int threads) {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+				new SynchronousQueue<Runnable>(), new CustomizableThreadFactory('unexcel-gzip-'))
+		executor.allowCoreThreadTimeOut(true)
+		executor
+	}
 }
 
 //@Component
@@ -0,0 +1,158 @@
+package com.microservice.unexcel
+
+import com.microservice.unexcel.unxl.ConversionListener
+import com.microservice.unexcel.unxl.ConversionOptions
+import groovy.util.logging.Log4j
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.stereotype.Service
+import org.springframework.web.multipart.MultipartFile
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.security.DigestInputStream
+import java.security.MessageDigest
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+/**
+ * Converts uploaded workbooks. The upload is spooled to a temporary directory on this node,
+ * so the caller doesn't need a file system shared with the service. Neither the workbook
+ * nor the result is ever held in memory as a whole.
+ * <p>
+ * Results of uploads are kept in the {@link ResultCache} (if enabled), the spooled workbook is removed
+ * right after the conversion. The cached result is not evicted before its ZIP is streamed.
+ */
+@Log4j
+@Service
+class UnexcelUploadService {
+
+    static final String WORKBOOK_NAME = 'workbook'
+    static final String CSV_DIRECTORY = 'csv'
+
+    @Autowired
+    Unexcel unexcel
+
+    @Autowired
+    ResultCache resultCache
+
+    @Value('${unexcel.upload.temp-dir:${java.io.tmpdir}}')
+    String tempDir
+
+    /**
+     * Multipart upload, the servlet container has already put the part on disk and moves it into place.
+     * The file is hashed afterwards, it can't be seen while the container receives it.
+     */
+    Upload spool(MultipartFile file) {
+        Upload upload = newUpload(file.originalFilename)
+        try {
+            file.transferTo(upload.workbook.toFile())
+            if (resultCache.enabled) {
+                upload.contentHash = resultCache.hash(upload.workbook)
+            }
+        } catch (IOException | RuntimeException e) {
+            upload.delete()
+            throw e
+        }
+        upload
+    }
+
+    /**
+     * Raw request body, copied to disk and hashed in one pass
+     */
+    Upload spool(InputStream body, String fileName) {
+        Upload upload = newUpload(fileName)
+        try {
+            MessageDigest digest = resultCache.newDigest()
+            Files.copy(new DigestInputStream(body, digest), upload.workbook)
+            upload.contentHash = ResultCache.toHex(digest.digest())
+        } catch (IOException | RuntimeException e) {
+            upload.delete()
+            throw e
+        }
+        upload
+    }
+
+    /**
+     * Converts the selected part of the spooled workbook, the upload is deleted if the conversion fails
+     */
+    List<Path> convert(Upload upload, ConversionOptions options) {
+        if (resultCache.enabled) {
+            try {
+                upload.result = resultCache.convert(upload.workbook, upload.contentHash, options, ConversionListener.NONE)
+                return upload.result.files
+            } finally {
+                upload.delete()
+            }
+        }
+        try {
+            Path csvDirectory = Files.createDirectory(upload.directory.resolve(CSV_DIRECTORY))
+            return unexcel.unexcel(upload.workbook, csvDirectory, options, ConversionListener.NONE)
+        } catch (Exception e) {
+            upload.delete()
+            throw e
+        }
+    }
+
+    /**
+     * Streams the CSV files as a ZIP archive, one entry per sheet, and releases the upload afterwards
+     */
+    StreamingResponseBody zip(Upload upload, List<Path> csvFiles) {
+        return { OutputStream out ->
+            try {
+                ZipOutputStream zip = new ZipOutputStream(out)
+                csvFiles.each { Path csv ->
+                    zip.putNextEntry(new ZipEntry(csv.fileName.toString()))
+                    Files.copy(csv, zip)
+                    zip.closeEntry()
+                }
+                zip.finish()
+            } finally {
+                upload.release()
+            }
+        } as StreamingResponseBody
+    }
+
+    private Upload newUpload(String fileName) {
+        Path directory = Files.createTempDirectory(Paths.get(tempDir), 'unexcel-upload-')
+        // only the extension of the client's file name is used on disk
+        String name = fileName ? Paths.get(fileName).fileName.toString() : WORKBOOK_NAME
+        int indexOfDot = name.lastIndexOf('.')
+        String extension = indexOfDot > 0 ? name.substring(indexOfDot) : ''
+        new Upload(directory: directory, workbook: directory.resolve(WORKBOOK_NAME + extension),
+                name: unexcel.extractName(name))
+    }
+
+    @Log4j
+    static class Upload {
+        Path directory
+        Path workbook
+        String contentHash
+
+        /**
+         * Client's file name without the extension
+         */
+        String name
+
+        /**
+         * Cached result of the conversion, null if the cache is disabled
+         */
+        ResultCache.Result result
+
+        /**
+         * Lets the cache evict the result and deletes the upload
+         */
+        void release() {
+            result?.close()
+            delete()
+        }
+
+        void delete() {
+            if (Files.exists(directory) && !directory.toFile().deleteDir()) {
+                log.warn("Failed to delete upload directory $directory")
+            }
+        }
+    }
+}
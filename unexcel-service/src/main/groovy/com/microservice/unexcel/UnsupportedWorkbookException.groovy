@@ -0,0 +1,15 @@
+package com.microservice.unexcel
+
+import org.springframework.http.HttpStatus
+import org.springframework.web.bind.annotation.ResponseStatus
+
+/**
+ * The file is neither a XLS nor a XLSX workbook, or no converter is registered for its format
+ */
+@ResponseStatus(HttpStatus.UNSUPPORTED_MEDIA_TYPE)
+class UnsupportedWorkbookException extends IOException {
+
+    UnsupportedWorkbookException(String message) {
+        super(message)
+    }
+}
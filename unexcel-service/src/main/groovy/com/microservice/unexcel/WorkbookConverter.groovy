@@ -0,0 +1,33 @@
+package com.microservice.unexcel
+
+import com.microservice.unexcel.unxl.ConversionListener
+import com.microservice.unexcel.unxl.ConversionOptions
+import com.microservice.unexcel.unxl.PrintStreamProducer
+import com.microservice.unexcel.unxl.WorkbookFormat
+
+import java.nio.file.Path
+
+/**
+ * Converts workbooks of one format to CSV. Every converter bean is registered in {@link Unexcel}
+ * by its format.
+ */
+interface WorkbookConverter {
+
+    WorkbookFormat getFormat()
+
+    /**
+     * Rough upper limit of the heap the conversion of the workbook takes, in bytes, without the fixed overhead
+     * of every conversion. Reads no more of the workbook than its size and headers.
+     *
+     * @param lowMemory estimate for the low-memory mode
+     */
+    long estimateMemory(Path excelFilePath, boolean lowMemory)
+
+    /**
+     * Writes the selected sheets of the workbook to the stream producer
+     *
+     * @param lowMemory trade speed for memory, for workbooks that don't fit into the memory budget otherwise
+     */
+    void convert(Path excelFilePath, PrintStreamProducer streamProducer, ConversionOptions options,
+                 ConversionListener listener, boolean lowMemory)
+}
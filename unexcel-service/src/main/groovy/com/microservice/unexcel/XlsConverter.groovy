@@ -0,0 +1,60 @@
+package com.microservice.unexcel
+
+import com.microservice.unexcel.unxl.ConversionListener
+import com.microservice.unexcel.unxl.ConversionOptions
+import com.microservice.unexcel.unxl.ConversionStage
+import com.microservice.unexcel.unxl.PrintStreamProducer
+import com.microservice.unexcel.unxl.WorkbookFormat
+import com.microservice.unexcel.unxl.XLS2CSVmra
+import groovy.util.logging.Log4j
+import org.apache.poi.poifs.filesystem.NPOIFSFileSystem
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Qualifier
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.stereotype.Component
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.ExecutorService
+
+@Log4j
+@Component
+class XlsConverter implements WorkbookConverter {
+
+    @Value('${unexcel.pipeline.enabled:false}')
+    boolean pipelined
+
+    @Autowired
+    @Qualifier('formatExecutor')
+    ExecutorService formatExecutor
+
+    @Override
+    WorkbookFormat getFormat() {
+        WorkbookFormat.XLS
+    }
+
+    /**
+     * The file system is memory-mapped, but the shared strings table is kept on the heap as Strings, UTF-16 strings
+     * take about twice their size in the file. There is no low-memory mode.
+     */
+    @Override
+    long estimateMemory(Path excelFilePath, boolean lowMemory) {
+        Files.size(excelFilePath) * 2
+    }
+
+    @Override
+    void convert(Path excelFilePath, PrintStreamProducer streamProducer, ConversionOptions options,
+                 ConversionListener listener, boolean lowMemory) {
+        log.debug("Unexcel using XLS2CSVmra (xls files).")
+        // File-backed and read-only: blocks are memory-mapped on demand, the workbook is not loaded on the heap
+        long start = System.nanoTime()
+        new NPOIFSFileSystem(excelFilePath.toFile(), true).withCloseable { NPOIFSFileSystem fs ->
+            listener.stageFinished(ConversionStage.OPEN, System.nanoTime() - start)
+            XLS2CSVmra xls2csv = new XLS2CSVmra(fs, streamProducer, -1)
+            xls2csv.conversionListener = listener
+            xls2csv.options = options
+            xls2csv.formatExecutor = pipelined && !lowMemory ? formatExecutor : null
+            xls2csv.process()
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.microservice.unexcel
+
+import com.microservice.unexcel.unxl.ConversionListener
+import com.microservice.unexcel.unxl.ConversionOptions
+import com.microservice.unexcel.unxl.ConversionStage
+import com.microservice.unexcel.unxl.PrintStreamProducer
+import com.microservice.unexcel.unxl.PackageXlsxParts
+import com.microservice.unexcel.unxl.WorkbookFormat
+import com.microservice.unexcel.unxl.XLSX2CSV
+import com.microservice.unexcel.unxl.XlsxParts
+import com.microservice.unexcel.unxl.ZipXlsxParts
+import groovy.util.logging.Log4j
+import org.apache.poi.openxml4j.opc.OPCPackage
+import org.apache.poi.openxml4j.opc.PackageAccess
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Qualifier
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.stereotype.Component
+
+import javax.annotation.PostConstruct
+import javax.annotation.PreDestroy
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.ForkJoinPool
+
+@Log4j
+@Component
+class XlsxConverter implements WorkbookConverter {
+
+    /**
+     * Number of XLSX sheets converted at the same time, shared by all jobs. 1 or less converts sheets one by one.
+     */
+    @Value('${unexcel.xlsx.sheet-parallelism:1}')
+    int sheetParallelism
+
+    /**
+     * XLSX shared strings tables larger than this (uncompressed sharedStrings.xml, bytes) are memory-mapped
+     * instead of being loaded on the heap
+     */
+    @Value('${unexcel.xlsx.mapped-shared-strings-threshold:67108864}')
+    long mappedSharedStringsThreshold
+
+    /**
+     * Parser of the sheet XML: stax (Aalto pull parser) or sax (JAXP, the reference implementation)
+     */
+    @Value('${unexcel.xlsx.sheet-reader:stax}')
+    String sheetReader
+
+    /**
+     * Reader of the XLSX zip file: zip (only the parts the conversion needs, read straight from the zip file)
+     * or opc (POI's OPCPackage, which loads the whole package structure)
+     */
+    @Value('${unexcel.xlsx.container:zip}')
+    String container
+
+    @Value('${unexcel.pipeline.enabled:false}')
+    boolean pipelined
+
+    @Autowired
+    @Qualifier('formatExecutor')
+    ExecutorService formatExecutor
+
+    ExecutorService sheetExecutor
+
+    @PostConstruct
+    void start() {
+        if (sheetParallelism > 1) {
+            sheetExecutor = new ForkJoinPool(sheetParallelism)
+        }
+    }
+
+    @PreDestroy
+    void stop() {
+        sheetExecutor?.shutdownNow()
+    }
+
+    @Override
+    WorkbookFormat getFormat() {
+        WorkbookFormat.XLSX
+    }
+
+    /**
+     * Only the shared strings table takes memory by the size of the workbook: on the heap its Strings take about
+     * twice the size of sharedStrings.xml, memory-mapped (always in low-memory mode) only an offset per string.
+     */
+    @Override
+    long estimateMemory(Path excelFilePath, boolean lowMemory) {
+        long sharedStrings = new ZipXlsxParts(excelFilePath).withCloseable { XlsxParts parts -> parts.sharedStringsSize }
+        if (sharedStrings < 0) {
+            // unknown, assume the usual compression of XML
+            sharedStrings = Files.size(excelFilePath) * 8
+        }
+        boolean mapped = lowMemory || sharedStrings > mappedSharedStringsThreshold
+        mapped ? sharedStrings.intdiv(8) : sharedStrings * 2
+    }
+
+    /**
+     * In low-memory mode the shared strings table is memory-mapped and the sheets are converted one by one,
+     * without a formatter thread
+     */
+    @Override
+    void convert(Path excelFilePath, PrintStreamProducer streamProducer, ConversionOptions options,
+                 ConversionListener listener, boolean lowMemory) {
+        log.debug("Unexcel using XLSX2CSV (xlsx files).")
+        long start = System.nanoTime()
+        OPCPackage p = null
+        XlsxParts parts
+        if (container == 'opc') {
+            p = OPCPackage.open(excelFilePath.toFile(), PackageAccess.READ)
+            parts = new PackageXlsxParts(p)
+        } else {
+            parts = new ZipXlsxParts(excelFilePath)
+        }
+        listener.stageFinished(ConversionStage.OPEN, System.nanoTime() - start)
+        try {
+            XLSX2CSV xlsx2csv = new XLSX2CSV(parts, streamProducer, -1)
+            xlsx2csv.conversionListener = listener
+            xlsx2csv.options = options
+            xlsx2csv.sheetExecutor = lowMemory ? null : sheetExecutor
+            xlsx2csv.mappedSharedStringsThreshold = lowMemory ? -1 : mappedSharedStringsThreshold
+            xlsx2csv.sheetReader = XLSX2CSV.SheetReader.valueOf(sheetReader.toUpperCase(Locale.ROOT))
+            xlsx2csv.formatExecutor = pipelined && !lowMemory ? formatExecutor : null
+            xlsx2csv.process()
+        } finally {
+            parts.close()
+            // read-only package, closes the zip file without saving anything
+            p?.revert()
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.microservice.unexcel.unxl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip compresses on a separate thread: written blocks are handed over through a small bounded queue,
+ * so the converter keeps parsing while the previous blocks are compressed and written. A full queue
+ * blocks the writer, so a slow disk still slows the conversion down instead of piling up memory.
+ * <p>
+ * Everything is written once the stream is closed; errors of the compressing thread are thrown
+ * by the next write or by close. If close fails the compressing thread stops and closes the underlying
+ * stream without finishing the gzip file.
+ */
+public final class AsyncGzipOutputStream extends OutputStream {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int QUEUED_BLOCKS = 4;
+    private static final byte[] END = new byte[0];
+    private static final byte[] CANCEL = new byte[0];
+
+    private final BlockingQueue<byte[]> blocks = new ArrayBlockingQueue<>(QUEUED_BLOCKS);
+    private final CompletableFuture<Void> compressed = new CompletableFuture<>();
+    private boolean closed;
+
+    /**
+     * @param compressors runs the compressing thread of the stream
+     * @throws RejectedExecutionException if the executor has no thread for it
+     */
+    public AsyncGzipOutputStream(OutputStream out, Executor compressors) {
+        compressors.execute(() -> compress(out));
+    }
+
+    /**
+     * @return a stream compressing on a thread of the executor, or on the writing thread without an executor
+     * or when all of its threads are busy
+     */
+    static OutputStream open(OutputStream out, Executor compressors) throws IOException {
+        if (compressors != null) {
+            try {
+                return new AsyncGzipOutputStream(out, compressors);
+            } catch (RejectedExecutionException e) {
+                // compressed while it is written
+            }
+        }
+        return new GZIPOutputStream(out, BUFFER_SIZE);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (len > 0) {
+            put(Arrays.copyOfRange(b, off, off + len));
+        }
+    }
+
+    /**
+     * Blocks are compressed as soon as the compressing thread gets to them, there is nothing to flush
+     */
+    @Override
+    public void flush() throws IOException {
+        failIfCompressionFailed();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            put(END);
+        } catch (IOException e) {
+            // nothing is queued from now on, so there is room for CANCEL
+            blocks.clear();
+            blocks.add(CANCEL);
+            throw e;
+        }
+        try {
+            compressed.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        } catch (ExecutionException e) {
+            throw asIOException(e.getCause());
+        }
+    }
+
+    /**
+     * The compressing thread: compresses the blocks in order until the end
+     */
+    private void compress(OutputStream out) {
+        try {
+            OutputStream gzip = new GZIPOutputStream(out, BUFFER_SIZE);
+            byte[] block;
+            while ((block = blocks.take()) != END) {
+                if (block == CANCEL) {
+                    throw new InterruptedIOException("Compression cancelled");
+                }
+                gzip.write(block);
+            }
+            gzip.close();
+            compressed.complete(null);
+        } catch (Throwable e) {
+            try {
+                out.close();
+            } catch (IOException closing) {
+                e.addSuppressed(closing);
+            }
+            compressed.completeExceptionally(e);
+            // don't leave the writer blocked on a full queue
+            blocks.clear();
+        }
+    }
+
+    private void put(byte[] block) throws IOException {
+        try {
+            while (!blocks.offer(block, 100, TimeUnit.MILLISECONDS)) {
+                failIfCompressionFailed();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        }
+        failIfCompressionFailed();
+    }
+
+    private void failIfCompressionFailed() throws IOException {
+        if (compressed.isCompletedExceptionally()) {
+            try {
+                compressed.get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw asIOException(e instanceof ExecutionException ? e.getCause() : e);
+            }
+        }
+    }
+
+    private static IOException asIOException(Throwable cause) {
+        return cause instanceof IOException ? (IOException) cause : new IOException("Compression failed", cause);
+    }
+}
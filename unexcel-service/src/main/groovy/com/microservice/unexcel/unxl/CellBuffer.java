@@ -0,0 +1,242 @@
+package com.microservice.unexcel.unxl;
+
+import java.util.Arrays;
+
+/**
+ * Growable char buffer for the text of one cell. It is cleared and reused for every cell,
+ * so values go from the parser's characters to the output without intermediate Strings.
+ */
+public final class CellBuffer {
+
+    /**
+     * Decimals with up to 15 significant digits survive the round trip through a double unchanged,
+     * so they are printed exactly as they are written in the file
+     */
+    private static final int MAX_EXACT_DIGITS = 15;
+
+    private char[] chars = new char[64];
+    private int length;
+
+    public void clear() {
+        length = 0;
+    }
+
+    public char[] chars() {
+        return chars;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public CellBuffer append(char c) {
+        ensureCapacity(1);
+        chars[length++] = c;
+        return this;
+    }
+
+    public CellBuffer append(char[] src, int offset, int count) {
+        ensureCapacity(count);
+        System.arraycopy(src, offset, chars, length, count);
+        length += count;
+        return this;
+    }
+
+    public CellBuffer append(String s) {
+        int count = s.length();
+        ensureCapacity(count);
+        s.getChars(0, count, chars, length);
+        length += count;
+        return this;
+    }
+
+    /**
+     * Appends the value decoding _xHHHH_ escapes the way XSSFRichTextString does for inline and shared strings
+     */
+    public CellBuffer appendUtfDecoded(char[] src, int offset, int count) {
+        ensureCapacity(count);
+        int end = offset + count;
+        for (int i = offset; i < end; i++) {
+            char c = src[i];
+            if (c == '_' && i + 6 < end && src[i + 1] == 'x' && src[i + 6] == '_') {
+                int code = hex(src[i + 2], src[i + 3], src[i + 4], src[i + 5]);
+                if (code >= 0) {
+                    chars[length++] = (char) code;
+                    i += 6;
+                    continue;
+                }
+            }
+            chars[length++] = c;
+        }
+        return this;
+    }
+
+    public CellBuffer appendUtfDecoded(String s) {
+        int count = s.length();
+        ensureCapacity(count);
+        for (int i = 0; i < count; i++) {
+            char c = s.charAt(i);
+            if (c == '_' && i + 6 < count && s.charAt(i + 1) == 'x' && s.charAt(i + 6) == '_') {
+                int code = hex(s.charAt(i + 2), s.charAt(i + 3), s.charAt(i + 4), s.charAt(i + 5));
+                if (code >= 0) {
+                    chars[length++] = (char) code;
+                    i += 6;
+                    continue;
+                }
+            }
+            chars[length++] = c;
+        }
+        return this;
+    }
+
+    /**
+     * Appends a plain decimal such as "-12.50" exactly as a NumberFormat without grouping and with
+     * at most maxFractionDigits would print it, without going through a double.
+     *
+     * @return false, leaving the buffer untouched, if the value needs the real formatter
+     * (exponent, too many digits, negative zero, anything that is not a plain decimal)
+     */
+    public boolean appendPlainNumber(char[] src, int offset, int count, int maxFractionDigits) {
+        int end = offset + count;
+        int i = offset;
+        boolean negative = i < end && src[i] == '-';
+        if (negative) {
+            i++;
+        }
+        int intStart = i;
+        while (i < end && isDigit(src[i])) {
+            i++;
+        }
+        int intDigits = i - intStart;
+        if (intDigits == 0 || (intDigits > 1 && src[intStart] == '0')) {
+            return false;
+        }
+        int fracStart = i;
+        int fracEnd = i;
+        if (i < end) {
+            if (src[i] != '.') {
+                return false;
+            }
+            fracStart = ++i;
+            while (i < end && isDigit(src[i])) {
+                i++;
+            }
+            if (i != end || i == fracStart) {
+                return false;
+            }
+            // trailing zeros are not printed
+            fracEnd = end;
+            while (fracEnd > fracStart && src[fracEnd - 1] == '0') {
+                fracEnd--;
+            }
+        }
+        int fracDigits = fracEnd - fracStart;
+        if (fracDigits > maxFractionDigits || intDigits + fracDigits > MAX_EXACT_DIGITS) {
+            return false;
+        }
+        if (negative && fracDigits == 0 && intDigits == 1 && src[intStart] == '0') {
+            return false;
+        }
+        ensureCapacity(count);
+        if (negative) {
+            chars[length++] = '-';
+        }
+        System.arraycopy(src, intStart, chars, length, intDigits);
+        length += intDigits;
+        if (fracDigits > 0) {
+            chars[length++] = '.';
+            System.arraycopy(src, fracStart, chars, length, fracDigits);
+            length += fracDigits;
+        }
+        return true;
+    }
+
+    /**
+     * Appends a plain integer such as "-125" as it is, as Excel's General format shows integers
+     * of up to maxDigits digits.
+     *
+     * @return false, leaving the buffer untouched, for anything else (fraction, exponent, leading zeros,
+     * negative zero, more digits)
+     */
+    public boolean appendPlainInteger(char[] src, int offset, int count, int maxDigits) {
+        int end = offset + count;
+        int start = offset < end && src[offset] == '-' ? offset + 1 : offset;
+        int digits = end - start;
+        if (digits == 0 || digits > maxDigits || (src[start] == '0' && (digits > 1 || start > offset))) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (!isDigit(src[i])) {
+                return false;
+            }
+        }
+        append(src, offset, count);
+        return true;
+    }
+
+    /**
+     * Appends the decimal digits of the value without creating a String
+     */
+    public CellBuffer append(long value) {
+        if (value == Long.MIN_VALUE) {
+            return append(Long.toString(value));
+        }
+        ensureCapacity(20);
+        if (value < 0) {
+            chars[length++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = length + digits - 1; i >= length; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        length += digits;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return new String(chars, 0, length);
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(chars.length * 2, length + extra));
+        }
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * @return the value of the four hex digits, -1 unless they are all ASCII [0-9A-Fa-f] like XSSFRichTextString wants
+     */
+    private static int hex(char c1, char c2, char c3, char c4) {
+        int d1 = hexDigit(c1);
+        int d2 = hexDigit(c2);
+        int d3 = hexDigit(c3);
+        int d4 = hexDigit(c4);
+        if (d1 < 0 || d2 < 0 || d3 < 0 || d4 < 0) {
+            return -1;
+        }
+        return (d1 << 12) | (d2 << 8) | (d3 << 4) | d4;
+    }
+
+    private static int hexDigit(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,192 @@
+package com.microservice.unexcel.unxl;
+
+import java.text.NumberFormat;
+import java.util.Locale;
+
+/**
+ * Writes typed cells to a sheet sink, formatting them only if the sink wants text.
+ * <p>
+ * A {@link SheetSink#isFormatted() formatted} sink gets every cell as Excel shows it: numbers through their
+ * cell format, plain numbers without a format copied as they are written in the sheet, booleans as TRUE and FALSE.
+ * Integers in the General format, most numbers of most workbooks, are written directly as well.
+ * A raw sink gets the values themselves, only dates are formatted since their value is a day count.
+ * The formatters are created on first use, so raw sheets without dates never load a format.
+ * <p>
+ * Also fills the columns missing between two cells of a row with empty cells and pads rows up to
+ * the minimum number of columns. One stage per sheet, not thread safe.
+ */
+public final class CellFormattingStage implements CellHandler {
+
+    /**
+     * The General format shows integers with up to that many digits as they are, larger ones in scientific notation
+     */
+    private static final int GENERAL_INTEGER_DIGITS = 11;
+    private static final double GENERAL_INTEGER_LIMIT = 1e11;
+
+    private final SheetSink sink;
+    private final boolean formatted;
+    private final int minColumns;
+    private final boolean date1904;
+
+    // Formatters, created when the first cell needs them
+    private CustomDataFormatter formatter;
+    private NumberFormat defaultNumberFormat;
+
+    // Text of a formatted number, reused for every cell
+    private final CellBuffer number = new CellBuffer();
+
+    // The last column written in the current row
+    private int lastColumn = -1;
+
+    // Time spent in the formatters, plain numbers that are copied as they are don't count
+    private long formatNanos;
+
+    /**
+     * @param minColumns minimum number of columns of a row, -1 for no minimum
+     * @param date1904   true if the workbook counts dates from 1904
+     */
+    public CellFormattingStage(SheetSink sink, int minColumns, boolean date1904) {
+        this.sink = sink;
+        this.formatted = sink.isFormatted();
+        this.minColumns = minColumns;
+        this.date1904 = date1904;
+    }
+
+    @Override
+    public void textCell(int column, char[] chars, int offset, int length) {
+        startCell(column);
+        sink.addText(chars, offset, length);
+    }
+
+    @Override
+    public void textCell(int column, String value) {
+        startCell(column);
+        sink.addText(value);
+    }
+
+    @Override
+    public void numberCell(int column, char[] lexical, int offset, int length, NumberStyle style) {
+        startCell(column);
+        if (!formatted && (style == null || !style.isDate())) {
+            sink.addNumber(parse(lexical, offset, length));
+        } else if (style != null && style.getFormatString() != null) {
+            number.clear();
+            if (style.isGeneral() && number.appendPlainInteger(lexical, offset, length, GENERAL_INTEGER_DIGITS)) {
+                sink.addText(number.chars(), 0, number.length());
+            } else {
+                addFormatted(parse(lexical, offset, length), style);
+            }
+        } else {
+            number.clear();
+            if (!number.appendPlainNumber(lexical, offset, length, UnexcelConstants.MAX_FRACTION_DIGITS)) {
+                long start = System.nanoTime();
+                number.append(defaultNumberFormat().format(parse(lexical, offset, length)));
+                formatNanos += System.nanoTime() - start;
+            }
+            sink.addText(number.chars(), 0, number.length());
+        }
+    }
+
+    @Override
+    public void numberCell(int column, double value, NumberStyle style) {
+        startCell(column);
+        if (!formatted && (style == null || !style.isDate())) {
+            sink.addNumber(value);
+        } else if (style != null && style.isGeneral() && isGeneralInteger(value)) {
+            number.clear();
+            number.append((long) value);
+            sink.addText(number.chars(), 0, number.length());
+        } else if (style != null && style.getFormatString() != null) {
+            addFormatted(value, style);
+        } else {
+            long start = System.nanoTime();
+            String text = defaultNumberFormat().format(value);
+            formatNanos += System.nanoTime() - start;
+            sink.addText(text);
+        }
+    }
+
+    @Override
+    public void booleanCell(int column, boolean value) {
+        startCell(column);
+        sink.addBoolean(value);
+    }
+
+    /**
+     * Formatted sinks write the cell as empty text, raw sinks as a cell without a value
+     */
+    @Override
+    public void blankCell(int column) {
+        startCell(column);
+        if (formatted) {
+            sink.addText("");
+        } else {
+            sink.addEmpty();
+        }
+    }
+
+    @Override
+    public void endRow(int row) {
+        // Print out any missing commas if needed
+        if (minColumns > 0) {
+            // Columns are 0 based
+            if (lastColumn == -1) {
+                lastColumn = 0;
+            }
+            for (int i = lastColumn; i < minColumns; i++) {
+                sink.addEmpty();
+            }
+        }
+        sink.setSheetRow(row);
+        sink.newLine();
+        lastColumn = -1;
+    }
+
+    /**
+     * @return time spent in the formatters so far
+     */
+    public long getFormatNanos() {
+        return formatNanos;
+    }
+
+    /**
+     * Emits empty cells for any columns that are missing before the cell
+     */
+    private void startCell(int column) {
+        for (int i = lastColumn + 1; i < column; i++) {
+            sink.addEmpty();
+        }
+        lastColumn = Math.max(column, 0);
+    }
+
+    private void addFormatted(double value, NumberStyle style) {
+        long start = System.nanoTime();
+        if (formatter == null) {
+            formatter = new CustomDataFormatter(Locale.US);
+        }
+        String text = formatter.formatRawCellContents(value, style.getFormatIndex(), style.getFormatString(),
+                style.isDate(), date1904);
+        formatNanos += System.nanoTime() - start;
+        sink.addText(text);
+    }
+
+    private NumberFormat defaultNumberFormat() {
+        if (defaultNumberFormat == null) {
+            defaultNumberFormat = NumberFormat.getInstance(Locale.US);
+            defaultNumberFormat.setMaximumFractionDigits(UnexcelConstants.MAX_FRACTION_DIGITS);
+            defaultNumberFormat.setGroupingUsed(false);
+        }
+        return defaultNumberFormat;
+    }
+
+    /**
+     * @return true if the General format shows the value as a plain integer, negative zero included
+     */
+    private static boolean isGeneralInteger(double value) {
+        return Math.abs(value) < GENERAL_INTEGER_LIMIT && value == Math.rint(value);
+    }
+
+    private static double parse(char[] lexical, int offset, int length) {
+        return Double.parseDouble(new String(lexical, offset, length));
+    }
+}
@@ -0,0 +1,43 @@
+package com.microservice.unexcel.unxl;
+
+/**
+ * Typed cells of one sheet as the engines decode them. Nothing is formatted at this point: numbers keep
+ * their value and the {@link NumberStyle} of their cell, see {@link CellFormattingStage} for turning them into
+ * what a {@link SheetSink} takes.
+ * <p>
+ * Cells of a row come in column order and {@link #endRow(int)} ends every row, empty rows included.
+ * Columns are 0-based output columns, i.e. after the columns that are left out are removed.
+ */
+public interface CellHandler {
+
+    /**
+     * Text cell, the characters are only valid during the call
+     */
+    void textCell(int column, char[] chars, int offset, int length);
+
+    void textCell(int column, String value);
+
+    /**
+     * Number cell as written in the sheet XML, e.g. "1.5" or "1E-3", parsed only if its value is needed
+     *
+     * @param style number format of the cell, null if it has none
+     */
+    void numberCell(int column, char[] lexical, int offset, int length, NumberStyle style);
+
+    /**
+     * @param style number format of the cell, null if it has none
+     */
+    void numberCell(int column, double value, NumberStyle style);
+
+    void booleanCell(int column, boolean value);
+
+    /**
+     * Cell that exists without a value
+     */
+    void blankCell(int column);
+
+    /**
+     * @param row 0-based sheet row that just ended
+     */
+    void endRow(int row);
+}
@@ -0,0 +1,64 @@
+package com.microservice.unexcel.unxl;
+
+/**
+ * Progress of a sheet converted into parts, reported whenever a part is committed (complete and closed).
+ * A conversion into the same output can resume from it: sheets that are done are skipped, other sheets
+ * continue after the last committed row with the next part.
+ * Immutable.
+ */
+public final class Checkpoint {
+
+    private final int sheetIndex;
+    private final String sheetName;
+    private final int parts;
+    private final int lastRow;
+    private final int maxColumns;
+    private final boolean sheetDone;
+
+    /**
+     * @param sheetIndex 0-based index of the sheet in workbook order
+     * @param sheetName  name of the sheet, the parts are named after it
+     * @param parts      number of committed parts of the sheet
+     * @param lastRow    0-based row of the sheet that is the last line of the last committed part
+     * @param maxColumns number of columns short lines are padded to, as far as the sheet has been read
+     * @param sheetDone  true if the whole sheet is committed
+     */
+    public Checkpoint(int sheetIndex, String sheetName, int parts, int lastRow, int maxColumns, boolean sheetDone) {
+        this.sheetIndex = sheetIndex;
+        this.sheetName = sheetName;
+        this.parts = parts;
+        this.lastRow = lastRow;
+        this.maxColumns = maxColumns;
+        this.sheetDone = sheetDone;
+    }
+
+    public int getSheetIndex() {
+        return sheetIndex;
+    }
+
+    public String getSheetName() {
+        return sheetName;
+    }
+
+    public int getParts() {
+        return parts;
+    }
+
+    public int getLastRow() {
+        return lastRow;
+    }
+
+    public int getMaxColumns() {
+        return maxColumns;
+    }
+
+    public boolean isSheetDone() {
+        return sheetDone;
+    }
+
+    @Override
+    public String toString() {
+        return "Checkpoint{sheet=" + sheetIndex + " '" + sheetName + "', parts=" + parts + ", lastRow=" + lastRow
+                + ", maxColumns=" + maxColumns + (sheetDone ? ", done" : "") + "}";
+    }
+}
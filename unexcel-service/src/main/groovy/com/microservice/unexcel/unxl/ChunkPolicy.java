@@ -0,0 +1,56 @@
+package com.microservice.unexcel.unxl;
+
+/**
+ * When the CSV of a sheet is continued in a new part: after a number of lines or bytes, whichever comes first.
+ * Parts end after a complete line, so a part can be a little larger than maxBytes.
+ * Immutable.
+ */
+public final class ChunkPolicy {
+
+    /**
+     * Every sheet goes to a single file
+     */
+    public static final ChunkPolicy NONE = new ChunkPolicy(0, 0);
+
+    private final int maxRows;
+    private final long maxBytes;
+
+    /**
+     * @param maxRows  lines per part, 0 for no limit
+     * @param maxBytes bytes per part, 0 for no limit
+     */
+    public ChunkPolicy(int maxRows, long maxBytes) {
+        if (maxRows < 0 || maxBytes < 0) {
+            throw new IllegalArgumentException("Invalid chunk size " + maxRows + " rows, " + maxBytes + " bytes");
+        }
+        this.maxRows = maxRows;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return true if sheets are split into parts at all
+     */
+    public boolean isEnabled() {
+        return maxRows > 0 || maxBytes > 0;
+    }
+
+    /**
+     * @return true if a part with that many lines and bytes is complete
+     */
+    public boolean isFull(int rows, long bytes) {
+        return (maxRows > 0 && rows >= maxRows) || (maxBytes > 0 && bytes >= maxBytes);
+    }
+
+    public int getMaxRows() {
+        return maxRows;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "ChunkPolicy{maxRows=" + maxRows + ", maxBytes=" + maxBytes + "}";
+    }
+}
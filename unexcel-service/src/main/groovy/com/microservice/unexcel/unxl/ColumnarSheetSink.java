@@ -0,0 +1,273 @@
+package com.microservice.unexcel.unxl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes a sheet in a compact binary columnar format: rows are collected in groups, and every group is
+ * written column by column, so a loader reads a column as one block of type tags, one block of doubles
+ * and one block of strings instead of parsing quoted text. Numbers keep their raw double value and are
+ * not formatted; dates are text as Excel shows them.
+ * <p>
+ * Layout, all numbers big-endian:
+ * <pre>
+ * file   := "UXC1" group* int 0
+ * group  := int rowCount, int columnCount, column[columnCount]
+ * column := byte type[rowCount]            0 empty, 1 number, 2 text, 3 false, 4 true
+ *           int numberCount, double number[numberCount]
+ *           int textCount, (int byteLength, byte utf8[byteLength])[textCount]
+ * </pre>
+ * Rows follow the CSV rules: leading empty rows are skipped, trailing empty rows are dropped and
+ * short rows are padded with empty cells. Non-breaking spaces become simple spaces.
+ */
+public final class ColumnarSheetSink implements SheetSink {
+
+    static final byte[] MAGIC = {'U', 'X', 'C', '1'};
+    static final byte EMPTY = 0;
+    static final byte NUMBER = 1;
+    static final byte TEXT = 2;
+    static final byte FALSE = 3;
+    static final byte TRUE = 4;
+
+    private static final int ROWS_PER_GROUP = 8192;
+
+    private final OutputStream stream;
+    private ConversionListener listener = ConversionListener.NONE;
+
+    private boolean started;
+    private boolean hasData;
+    private int numberOfEmptyRows;
+    private int maxNumberOfColumns;
+
+    // Cells of the current row
+    private byte[] rowTypes = new byte[64];
+    private double[] rowNumbers = new double[64];
+    private String[] rowTexts = new String[64];
+    private int rowColumns;
+
+    // Columns of the current group
+    private Column[] columns = new Column[0];
+    private int groupRows;
+
+    public ColumnarSheetSink(OutputStream stream) {
+        this.stream = stream;
+    }
+
+    @Override
+    public boolean isFormatted() {
+        return false;
+    }
+
+    @Override
+    public SheetSink addText(char[] chars, int offset, int length) {
+        String text = new String(chars, offset, length);
+        rowTexts[startCell(TEXT)] = text.indexOf(StreamingCsvBuffer.nbsp) >= 0
+                ? text.replace(StreamingCsvBuffer.nbsp, StreamingCsvBuffer.space) : text;
+        return this;
+    }
+
+    @Override
+    public SheetSink addText(String value) {
+        return addText(value.toCharArray(), 0, value.length());
+    }
+
+    @Override
+    public SheetSink addNumber(double value) {
+        rowNumbers[startCell(NUMBER)] = value;
+        return this;
+    }
+
+    @Override
+    public SheetSink addBoolean(boolean value) {
+        startCell(value ? TRUE : FALSE);
+        return this;
+    }
+
+    @Override
+    public SheetSink addEmpty() {
+        startCell(EMPTY);
+        return this;
+    }
+
+    @Override
+    public SheetSink newLine() {
+        maxNumberOfColumns = Math.max(maxNumberOfColumns, rowColumns);
+        if (rowColumns > 0) {
+            // empty rows between rows with data are kept
+            for (int i = 0; i < numberOfEmptyRows; i++) {
+                addRow(0);
+            }
+            addRow(rowColumns);
+            listener.rowsWritten(numberOfEmptyRows + 1);
+            listener.cellsWritten(rowColumns);
+            hasData = true;
+            numberOfEmptyRows = 0;
+        } else if (hasData) {
+            numberOfEmptyRows++;
+        }
+        rowColumns = 0;
+        return this;
+    }
+
+    @Override
+    public void setSheetRow(int sheetRow) {
+        // parts are not supported, the row is not needed
+    }
+
+    @Override
+    public int getMaxNumberOfColumns() {
+        return maxNumberOfColumns;
+    }
+
+    @Override
+    public void setMaxNumberOfColumns(int maxNumberOfColumns) {
+        this.maxNumberOfColumns = maxNumberOfColumns;
+    }
+
+    @Override
+    public boolean getHasData() {
+        return hasData;
+    }
+
+    @Override
+    public void setListener(ConversionListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void finish() {
+        try {
+            writeGroup();
+            write(new byte[4]);
+            long start = System.nanoTime();
+            stream.flush();
+            listener.stageFinished(ConversionStage.WRITE, System.nanoTime() - start);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return position of the new cell in the row
+     */
+    private int startCell(byte type) {
+        if (rowColumns == rowTypes.length) {
+            int size = rowColumns * 2;
+            rowTypes = Arrays.copyOf(rowTypes, size);
+            rowNumbers = Arrays.copyOf(rowNumbers, size);
+            rowTexts = Arrays.copyOf(rowTexts, size);
+        }
+        rowTypes[rowColumns] = type;
+        return rowColumns++;
+    }
+
+    private void addRow(int cells) {
+        if (cells > columns.length) {
+            int previous = columns.length;
+            columns = Arrays.copyOf(columns, cells);
+            for (int i = previous; i < cells; i++) {
+                columns[i] = new Column();
+            }
+        }
+        for (int i = 0; i < cells; i++) {
+            columns[i].add(groupRows, rowTypes[i], rowNumbers[i], rowTexts[i]);
+            rowTexts[i] = null;
+        }
+        groupRows++;
+        if (groupRows == ROWS_PER_GROUP) {
+            try {
+                writeGroup();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private void writeGroup() throws IOException {
+        if (!started) {
+            write(MAGIC);
+            started = true;
+        }
+        if (groupRows == 0) {
+            return;
+        }
+        int columnCount = Math.max(maxNumberOfColumns, columns.length);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(groupRows * columnCount * 2 + 64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(groupRows);
+        out.writeInt(columnCount);
+        for (int i = 0; i < columnCount; i++) {
+            if (i < columns.length) {
+                columns[i].write(out, groupRows);
+                columns[i].clear();
+            } else {
+                // padding column, empty in every row
+                out.write(new byte[groupRows]);
+                out.writeInt(0);
+                out.writeInt(0);
+            }
+        }
+        groupRows = 0;
+        write(bytes.toByteArray());
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        long start = System.nanoTime();
+        stream.write(bytes);
+        listener.stageFinished(ConversionStage.WRITE, System.nanoTime() - start);
+        listener.bytesWritten(bytes.length);
+    }
+
+    /**
+     * Cells of one column in the current group
+     */
+    private static final class Column {
+        private final byte[] types = new byte[ROWS_PER_GROUP];
+        private double[] numbers = new double[16];
+        private int numberCount;
+        private final ByteArrayOutputStream texts = new ByteArrayOutputStream();
+        private final DataOutputStream textOut = new DataOutputStream(texts);
+        private int textCount;
+
+        void add(int row, byte type, double number, String text) {
+            types[row] = type;
+            if (type == NUMBER) {
+                if (numberCount == numbers.length) {
+                    numbers = Arrays.copyOf(numbers, numberCount * 2);
+                }
+                numbers[numberCount++] = number;
+            } else if (type == TEXT) {
+                byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+                try {
+                    textOut.writeInt(utf8.length);
+                    textOut.write(utf8);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                textCount++;
+            }
+        }
+
+        void write(DataOutputStream out, int rows) throws IOException {
+            out.write(types, 0, rows);
+            out.writeInt(numberCount);
+            for (int i = 0; i < numberCount; i++) {
+                out.writeDouble(numbers[i]);
+            }
+            out.writeInt(textCount);
+            texts.writeTo(out);
+        }
+
+        void clear() {
+            Arrays.fill(types, EMPTY);
+            numberCount = 0;
+            texts.reset();
+            textCount = 0;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.microservice.unexcel.unxl;
+
+/**
+ * Receives progress notifications while a workbook is being converted.
+ * All methods are optional; {@link #NONE} ignores everything.
+ */
+public interface ConversionListener {
+
+    ConversionListener NONE = new ConversionListener() {
+    };
+
+    default void sheetStarted(String sheetName) {
+    }
+
+    /**
+     * @param rows number of lines just written to the output, including padding empty lines
+     */
+    default void rowsWritten(int rows) {
+    }
+
+    default void sheetFinished(String sheetName) {
+    }
+
+    /**
+     * @param cells number of cells in the line just written
+     */
+    default void cellsWritten(int cells) {
+    }
+
+    /**
+     * @param bytes number of CSV bytes just handed to the output stream
+     */
+    default void bytesWritten(int bytes) {
+    }
+
+    /**
+     * Time spent in a stage: once per workbook for OPEN, WORKBOOK, STYLES and SHARED_STRINGS,
+     * once per sheet for PARSE and FORMAT, once per output block for WRITE.
+     * May be called from several threads when sheets are converted in parallel.
+     */
+    default void stageFinished(ConversionStage stage, long nanos) {
+    }
+
+    /**
+     * A part of a sheet has been closed, or a sheet converted into parts is done.
+     * Only called when sheets are split into parts, see {@link PrintStreamProducer#getChunkPolicy()};
+     * may be called from several threads when sheets are converted in parallel.
+     */
+    default void partCommitted(Checkpoint checkpoint) {
+    }
+}
@@ -0,0 +1,215 @@
+package com.microservice.unexcel.unxl;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * Part of a workbook to convert: sheets by name or index, a range of rows and a set of columns,
+ * and the {@link OutputFormat} to write it in.
+ * The engines skip everything else before it is formatted, unselected XLSX sheets are not even opened
+ * and a sheet is no longer parsed once the last selected row is passed.
+ * <p>
+ * Rows and columns are 0-based. Selected columns are written next to each other in sheet order,
+ * e.g. columns B and D of the sheet become the first and second column of the CSV.
+ * Immutable.
+ */
+public final class ConversionOptions {
+
+    /**
+     * The whole workbook
+     */
+    public static final ConversionOptions ALL = new ConversionOptions(null, null, 0, Integer.MAX_VALUE, null);
+
+    private final Set<String> sheetNames;
+    private final Set<Integer> sheetIndexes;
+    private final int firstRow;
+    private final int lastRow;
+
+    /**
+     * Selected columns in ascending order, null for all
+     */
+    private final int[] columns;
+
+    /**
+     * CSV column by sheet column up to the last selected one, -1 for columns that are skipped
+     */
+    private final int[] outputColumns;
+
+    private final OutputFormat format;
+
+    /**
+     * @param sheetNames   names of the sheets to convert, the sheets are selected by name or by index
+     * @param sheetIndexes 0-based indexes of the sheets to convert in workbook order,
+     *                     all sheets if neither names nor indexes are given
+     * @param firstRow     first row to convert, 0-based
+     * @param lastRow      last row to convert (inclusive), Integer.MAX_VALUE for no limit
+     * @param columns      0-based columns to convert, null or empty for all
+     */
+    public ConversionOptions(Collection<String> sheetNames, Collection<Integer> sheetIndexes,
+                             int firstRow, int lastRow, Collection<Integer> columns) {
+        this(sheetNames, sheetIndexes, firstRow, lastRow, columns, OutputFormat.CSV);
+    }
+
+    /**
+     * @param format format of the converted sheets
+     */
+    public ConversionOptions(Collection<String> sheetNames, Collection<Integer> sheetIndexes,
+                             int firstRow, int lastRow, Collection<Integer> columns, OutputFormat format) {
+        if (format == null) {
+            throw new IllegalArgumentException("No output format");
+        }
+        this.format = format;
+        if (firstRow < 0 || lastRow < firstRow) {
+            throw new IllegalArgumentException("Invalid row range " + firstRow + "-" + lastRow);
+        }
+        this.sheetNames = sheetNames == null ? Collections.<String>emptySet()
+                : Collections.unmodifiableSet(new LinkedHashSet<>(sheetNames));
+        this.sheetIndexes = sheetIndexes == null ? Collections.<Integer>emptySet()
+                : Collections.unmodifiableSet(new TreeSet<>(sheetIndexes));
+        this.firstRow = firstRow;
+        this.lastRow = lastRow;
+        if (columns == null || columns.isEmpty()) {
+            this.columns = null;
+            this.outputColumns = null;
+        } else {
+            this.columns = new TreeSet<>(columns).stream().mapToInt(Integer::intValue).toArray();
+            if (this.columns[0] < 0) {
+                throw new IllegalArgumentException("Invalid column " + this.columns[0]);
+            }
+            this.outputColumns = new int[this.columns[this.columns.length - 1] + 1];
+            Arrays.fill(outputColumns, -1);
+            for (int i = 0; i < this.columns.length; i++) {
+                outputColumns[this.columns[i]] = i;
+            }
+        }
+    }
+
+    /**
+     * @return the same selection written in another format
+     */
+    public ConversionOptions withFormat(OutputFormat format) {
+        if (format == this.format) {
+            return this;
+        }
+        return new ConversionOptions(sheetNames, sheetIndexes, firstRow, lastRow,
+                columns == null ? null : Arrays.stream(columns).boxed().collect(Collectors.toList()), format);
+    }
+
+    public OutputFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * @return true if nothing is left out, whatever the format
+     */
+    public boolean isAll() {
+        return sheetNames.isEmpty() && sheetIndexes.isEmpty() && firstRow == 0 && lastRow == Integer.MAX_VALUE
+                && columns == null;
+    }
+
+    /**
+     * @param index 0-based index of the sheet in workbook order
+     */
+    public boolean isSheetSelected(int index, String name) {
+        if (sheetNames.isEmpty() && sheetIndexes.isEmpty()) {
+            return true;
+        }
+        return sheetIndexes.contains(index) || sheetNames.contains(name);
+    }
+
+    /**
+     * @param names names of all sheets in workbook order
+     * @return index of the last sheet to convert, -1 if none of them is selected
+     */
+    public int getLastSelectedSheet(List<String> names) {
+        for (int i = names.size() - 1; i >= 0; i--) {
+            if (isSheetSelected(i, names.get(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public int getFirstRow() {
+        return firstRow;
+    }
+
+    public int getLastRow() {
+        return lastRow;
+    }
+
+    public boolean isRowSelected(int row) {
+        return row >= firstRow && row <= lastRow;
+    }
+
+    /**
+     * @return true if the row and all rows below it are left out
+     */
+    public boolean isPastLastRow(int row) {
+        return row > lastRow;
+    }
+
+    public boolean isColumnSelected(int column) {
+        return outputColumns == null || getOutputColumn(column) >= 0;
+    }
+
+    /**
+     * @param column 0-based column of the sheet
+     * @return 0-based column of the CSV, -1 if the column is left out
+     */
+    public int getOutputColumn(int column) {
+        if (outputColumns == null) {
+            return column;
+        }
+        return column >= 0 && column < outputColumns.length ? outputColumns[column] : -1;
+    }
+
+    /**
+     * @param sheetColumns number of columns of the sheet
+     * @return number of CSV columns they end up in
+     */
+    public int getOutputColumnCount(int sheetColumns) {
+        if (columns == null) {
+            return sheetColumns;
+        }
+        int index = Arrays.binarySearch(columns, sheetColumns);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * @return canonical description of the options, equal options have equal keys
+     */
+    public String getKey() {
+        StringBuilder key = new StringBuilder();
+        key.append("sheets=").append(sheetNames.isEmpty() ? "" : new TreeSet<>(sheetNames))
+                .append(";sheetIndexes=").append(sheetIndexes.isEmpty() ? "" : sheetIndexes)
+                .append(";rows=").append(firstRow).append('-').append(lastRow == Integer.MAX_VALUE ? "" : lastRow)
+                .append(";columns=").append(columns == null ? "" : Arrays.toString(columns));
+        if (format != OutputFormat.CSV) {
+            // CSV keys stay as they were before there was a choice
+            key.append(";format=").append(format);
+        }
+        return key.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof ConversionOptions && getKey().equals(((ConversionOptions) o).getKey());
+    }
+
+    @Override
+    public int hashCode() {
+        return getKey().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "ConversionOptions{" + getKey() + "}";
+    }
+}
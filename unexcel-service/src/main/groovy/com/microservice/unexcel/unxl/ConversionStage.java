@@ -0,0 +1,52 @@
+package com.microservice.unexcel.unxl;
+
+/**
+ * Parts of a conversion that are timed separately, see {@link ConversionListener#stageFinished}
+ */
+public enum ConversionStage {
+
+    /**
+     * Opening the package (XLSX) or the OLE2 file system (XLS)
+     */
+    OPEN("open"),
+
+    /**
+     * Reading the sheet list from workbook.xml (XLSX only)
+     */
+    WORKBOOK("workbook"),
+
+    /**
+     * Loading the styles table (XLSX only)
+     */
+    STYLES("styles"),
+
+    /**
+     * Loading the shared strings table (XLSX only, XLS reads it while parsing)
+     */
+    SHARED_STRINGS("shared-strings"),
+
+    /**
+     * Parsing a sheet, including formatting the values and writing the CSV
+     */
+    PARSE("parse"),
+
+    /**
+     * Formatting numbers and dates of a sheet with their cell formats
+     */
+    FORMAT("format"),
+
+    /**
+     * Handing a block of CSV output to the output stream
+     */
+    WRITE("write");
+
+    private final String metricName;
+
+    ConversionStage(String metricName) {
+        this.metricName = metricName;
+    }
+
+    public String getMetricName() {
+        return metricName;
+    }
+}
@@ -5,6 +5,7 @@ import groovy.util.logging.Log4j
 
 import java.nio.file.Files
 import java.nio.file.Path
+import java.util.concurrent.Executor
 
 
 @Log4j
@@ -12,39 +13,134 @@ import java.nio.file.Path
 class CsvFilePrintStreamProducer implements PrintStreamProducer {
 
     Path rootDirectory
-    PrintStream previousPrintStream
-    List<Path> resultFiles
+    OutputStream previousPrintStream
+    int previousIndex = -1
+
+    /**
+     * Result files by sheet index, so sheets converted in parallel are still listed in workbook order
+     */
+    SortedMap<Integer, Path> files
+
+    /**
+     * Sheets are split into parts named like "Sheet.part00001.csv" if it is enabled
+     */
+    ChunkPolicy chunkPolicy = ChunkPolicy.NONE
+
+    /**
+     * Format of the files, their extension is the format's
+     */
+    OutputFormat outputFormat = OutputFormat.CSV
+
+    /**
+     * Runs the threads compressing the files of compressed formats, null compresses on the writing thread
+     */
+    Executor compressExecutor
+
+    /**
+     * Part files by sheet index and part number, the parts of a sheet are listed instead of its file
+     */
+    SortedMap<Integer, SortedMap<Integer, Path>> partFiles
+
+    /**
+     * Checkpoints of an interrupted conversion into the root directory by sheet index
+     */
+    private final Map<Integer, Checkpoint> checkpoints = [:]
 
     CsvFilePrintStreamProducer(Path rootDirectory) {
         this.rootDirectory = rootDirectory
-        resultFiles = new ArrayList<>()
+        files = new TreeMap<>()
+        partFiles = new TreeMap<>()
+    }
+
+    /**
+     * Continues an interrupted conversion: the parts committed before are kept and listed as result files,
+     * the engines skip what they contain
+     */
+    synchronized void resume(Collection<Checkpoint> committed) {
+        committed.each { Checkpoint checkpoint ->
+            checkpoints.put(checkpoint.sheetIndex, checkpoint)
+            for (int part = 0; part < checkpoint.parts; part++) {
+                sheetParts(checkpoint.sheetIndex).put(part, partPath(checkpoint.sheetName, part))
+            }
+        }
     }
 
-    PrintStream getNextPrintStream(String sheetName) {
+    synchronized OutputStream getNextPrintStream(String sheetName) {
         if (previousPrintStream) {
             previousPrintStream.close()
         }
+        previousIndex = files.isEmpty() ? 0 : files.lastKey() + 1
+        previousPrintStream = getPrintStream(previousIndex, sheetName)
+        return previousPrintStream
+    }
+
+    synchronized OutputStream getPrintStream(int sheetIndex, String sheetName) {
         log.debug("Getting new PrintStream for sheet: $sheetName")
-        Path csvPath = rootDirectory.resolve(sheetName + ".csv")
-        resultFiles.add(csvPath)
-        PrintStream printStream = new PrintStream(csvPath.toFile())
-        previousPrintStream = printStream
-        return printStream
+        Path csvPath = rootDirectory.resolve(sheetName + outputFormat.extension)
+        files.put(sheetIndex, csvPath)
+        return outputFormat.wrap(Files.newOutputStream(csvPath), compressExecutor)
     }
 
-    List<Path> getResultFiles() {
-        return resultFiles
+    synchronized OutputStream getPartPrintStream(int sheetIndex, String sheetName, int part) {
+        log.debug("Getting new PrintStream for part $part of sheet: $sheetName")
+        Path csvPath = partPath(sheetName, part)
+        sheetParts(sheetIndex).put(part, csvPath)
+        return outputFormat.wrap(Files.newOutputStream(csvPath), compressExecutor)
+    }
+
+    /**
+     * Formats that cannot be split write whole sheets even if a chunk policy is set
+     */
+    ChunkPolicy getChunkPolicy() {
+        outputFormat.supportsParts() ? chunkPolicy : ChunkPolicy.NONE
+    }
+
+    synchronized Checkpoint getCheckpoint(int sheetIndex) {
+        return checkpoints.get(sheetIndex)
+    }
+
+    synchronized List<Path> getResultFiles() {
+        SortedMap<Integer, Collection<Path>> sheets = new TreeMap<>()
+        files.each { Integer sheetIndex, Path csvPath -> sheets.put(sheetIndex, [csvPath]) }
+        partFiles.each { Integer sheetIndex, SortedMap<Integer, Path> parts -> sheets.put(sheetIndex, parts.values()) }
+        return sheets.values().collectMany { it } as List<Path>
     }
 
     /**
      * Remove the latest file from the list of result files.
      * It is necessary for StreamingCsvBufferSpec when we can determine hasData flag only after full file reading
      */
-    void removeLastFile() {
+    synchronized void removeLastFile() {
         if (previousPrintStream) {
             previousPrintStream.close()
         }
-        Files.deleteIfExists(resultFiles.last())
-        resultFiles.remove(resultFiles.last())
+        removeFile(previousIndex)
+    }
+
+    synchronized void removeFile(int sheetIndex) {
+        Path csvPath = files.remove(sheetIndex)
+        if (csvPath) {
+            Files.deleteIfExists(csvPath)
+        }
+    }
+
+    private SortedMap<Integer, Path> sheetParts(int sheetIndex) {
+        SortedMap<Integer, Path> parts = partFiles.get(sheetIndex)
+        if (parts == null) {
+            parts = new TreeMap<>()
+            partFiles.put(sheetIndex, parts)
+        }
+        parts
+    }
+
+    /**
+     * @param part 0-based number of the part, file names count from 1: "Sheet.part00001.csv"
+     */
+    static String partFileName(String sheetName, int part, OutputFormat format) {
+        sheetName + ".part" + String.format('%05d', part + 1) + format.extension
+    }
+
+    private Path partPath(String sheetName, int part) {
+        rootDirectory.resolve(partFileName(sheetName, part, outputFormat))
     }
 }
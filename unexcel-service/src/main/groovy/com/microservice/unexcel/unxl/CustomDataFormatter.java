@@ -1,18 +1,23 @@
 package com.microservice.unexcel.unxl;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.poi.ss.format.CellFormat;
 import org.apache.poi.ss.usermodel.DataFormatter;
 import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.ExcelStyleDateFormatter;
+import org.apache.poi.ss.util.NumberToTextConverter;
+import org.apache.poi.util.LocaleUtil;
 
-import java.lang.reflect.Method;
+import java.math.BigDecimal;
 import java.text.Format;
-import java.text.NumberFormat;
 import java.util.*;
 import java.util.regex.Pattern;
 
 /**
  * This class override maximum number of fraction digits for number formats.
  * It is necessary to prevent loosing fraction part during unexcel if cell style shows only integer digits.
+ * <p>Formats are compiled once per process by the {@link FormatCache}, a formatter only keeps copies of them,
+ * so it must not be shared by threads.</p>
  * <p><a href="https://support.office.com/en-us/article/Create-or-delete-a-custom-number-format-78f2a361-936b-4c03-8772-09fab54be7f4">
  * More information about Excel data formatting </a> </p>
  */
@@ -26,82 +31,160 @@ public class CustomDataFormatter extends DataFormatter {
     public static String DEFAULT_EXCEL_DATE_WITH_DAY_OF_WEEL_FORMAT = "ddd, yyyy-mm-dd"; // default format is ISO one
     public static String DEFAULT_EXCEL_TIME_FORMAT = "hh:mm:ss"; // 24-hours format, no milliseconds. Milliseconds is not supported by POI (it looks so)
 
-    Map<Integer, String> cache;
+    private final FormatCache formatCache;
 
-    Method getFormatMethod;
+    // Copies of the shared compiled formats for this formatter (and thread) only, by format string
+    private final Map<String, LocalFormat> formats = new HashMap<>();
 
     public CustomDataFormatter() {
         super();
-        init();
-
+        formatCache = FormatCache.forLocale(LocaleUtil.getUserLocale());
     }
 
     public CustomDataFormatter(Locale locale) {
         super(locale);
-        init();
+        formatCache = FormatCache.forLocale(locale);
+    }
+
+    @Override
+    public String formatRawCellContents(double value, int formatIndex, final String formatString, boolean use1904Windowing) {
+        LocalFormat format = getLocalFormat(formatString);
+        boolean isDate = format.compiled.isDate() || DateUtil.isInternalDateFormat(formatIndex);
+        return format(value, formatIndex, formatString, format, isDate, use1904Windowing);
+    }
+
+    /**
+     * Same as {@link #formatRawCellContents(double, int, String, boolean)} for callers that know already
+     * whether the format is a date format, e.g. from the {@link StyleFormats} of a workbook
+     *
+     * @param isDate {@link DateUtil#isADateFormat} of the format
+     */
+    public String formatRawCellContents(double value, int formatIndex, String formatString, boolean isDate, boolean use1904Windowing) {
+        return format(value, formatIndex, formatString, getLocalFormat(formatString), isDate, use1904Windowing);
     }
 
-    private void init() {
-        try {
-            /* getFormat() method is private and I need either to copy the whole class source code or use reflection to inkove it */
-            getFormatMethod = getClass().getSuperclass().getDeclaredMethod("getFormat", double.class, int.class, String.class);
-            getFormatMethod.setAccessible(true);
-            cache = new HashMap<>();
-        } catch (NoSuchMethodException e) {
-            e.printStackTrace();
+    private LocalFormat getLocalFormat(String formatString) {
+        LocalFormat format = formats.get(formatString);
+        if (format == null) {
+            format = new LocalFormat(formatCache.get(formatString));
+            formats.put(formatString, format);
         }
+        return format;
     }
 
-    @Override
-    public String formatRawCellContents(double value, int formatIndex, final String formatString, boolean use1904Windowing) {
+    private String format(double value, int formatIndex, String formatString, LocalFormat format, boolean isDate, boolean use1904Windowing) {
+        if (isDate && !format.compiled.isDate()) {
+            // built-in date format with a format string that doesn't look like a date, never seen in practice
+            return super.formatRawCellContents(value, formatIndex, overrideDateFormat(formatString), use1904Windowing);
+        }
         // Is it a date?
-        if (DateUtil.isADateFormat(formatIndex, formatString)) {
-            String overriddenFormat = cache.computeIfAbsent(formatIndex, integer -> {
-                String formatStringLowerCase = formatString.toLowerCase();
-                boolean hasDateCharacters = StringUtils.containsAny(formatStringLowerCase, DATE_CHARS);
-                boolean hasTimeCharacters = StringUtils.containsAny(formatStringLowerCase, TIME_CHARS);
-                // format string may be either date or time or both, but have no prohibited chars
-                if ((hasDateCharacters || hasTimeCharacters) && !ELAPSED_TIME.matcher(formatString).matches()) {
-                    List<String> parts = new ArrayList<String>();
-                    if (hasDateCharacters) {
-                        if (formatStringLowerCase.contains("ddd")) {
-                            parts.add(DEFAULT_EXCEL_DATE_WITH_DAY_OF_WEEL_FORMAT);
-                        } else {
-                            parts.add(DEFAULT_EXCEL_DATE_FORMAT);
-                        }
-                    }
-                    if (hasTimeCharacters) {
-                        parts.add(DEFAULT_EXCEL_TIME_FORMAT);
-                    }
-                    return StringUtils.join(parts, ' ');
+        if (isDate) {
+            if (!DateUtil.isValidExcelDate(value)) {
+                if (format.compiled.getCellFormat() != null) {
+                    return super.formatRawCellContents(value, formatIndex, format.compiled.getPattern(), use1904Windowing);
                 }
-                return formatString;
-            });
-            return super.formatRawCellContents(value, formatIndex, overriddenFormat, use1904Windowing);
+                return format.formatInvalidDate(value);
+            }
+            return format.formatDate(value, use1904Windowing);
         }
         // else Number
-        Format numberFormat = this.getFormatFromParent(value, formatIndex, formatString);
-        if (numberFormat == null) {
+        String result = format.formatNumber(value);
+        if (result == null) {
             return String.valueOf(value);
         }
-        if (numberFormat instanceof NumberFormat) {
-            ((NumberFormat) numberFormat).setMaximumFractionDigits(UnexcelConstants.MAX_FRACTION_DIGITS);
-        }
         // RK: This hack handles scientific notation by adding the missing + back.
-        String result = numberFormat.format(new Double(value));
         if (result.contains("E") && !result.contains("E-")) {
             result = result.replaceFirst("E(\\d{2})", "E+$1");
         }
         return result;
     }
 
+    /**
+     * Dates and times are written in ISO-like formats whatever their format in the workbook is,
+     * elapsed times and formats without date or time parts are kept as they are.
+     */
+    static String overrideDateFormat(String formatString) {
+        String formatStringLowerCase = formatString.toLowerCase();
+        boolean hasDateCharacters = StringUtils.containsAny(formatStringLowerCase, DATE_CHARS);
+        boolean hasTimeCharacters = StringUtils.containsAny(formatStringLowerCase, TIME_CHARS);
+        // format string may be either date or time or both, but have no prohibited chars
+        if ((hasDateCharacters || hasTimeCharacters) && !ELAPSED_TIME.matcher(formatString).matches()) {
+            List<String> parts = new ArrayList<String>();
+            if (hasDateCharacters) {
+                if (formatStringLowerCase.contains("ddd")) {
+                    parts.add(DEFAULT_EXCEL_DATE_WITH_DAY_OF_WEEL_FORMAT);
+                } else {
+                    parts.add(DEFAULT_EXCEL_DATE_FORMAT);
+                }
+            }
+            if (hasTimeCharacters) {
+                parts.add(DEFAULT_EXCEL_TIME_FORMAT);
+            }
+            return StringUtils.join(parts, ' ');
+        }
+        return formatString;
+    }
+
+    /**
+     * Compiled format with its own copy of the java.text format. Applies a format the way
+     * DataFormatter does, without looking it up again.
+     */
+    private static final class LocalFormat {
+
+        final FormatCache.CompiledFormat compiled;
+        final Format format;
+
+        LocalFormat(FormatCache.CompiledFormat compiled) {
+            this.compiled = compiled;
+            this.format = compiled.newFormat();
+        }
+
+        String formatDate(double value, boolean use1904Windowing) {
+            CellFormat cellFormat = compiled.getCellFormat();
+            if (cellFormat != null) {
+                try {
+                    // DataFormatter hands dates to CellFormat without the 1904 windowing
+                    return cellFormat.apply(value != 0.0 ? DateUtil.getJavaDate(value) : (Object) value).text.trim();
+                } catch (Exception e) {
+                    // fall back to the plain format like DataFormatter does
+                }
+            }
+            if (format instanceof ExcelStyleDateFormatter) {
+                // Hint about the raw excel value
+                ((ExcelStyleDateFormatter) format).setDateToBeFormatted(value);
+            }
+            Date date = DateUtil.getJavaDate(value, use1904Windowing);
+            return format != null ? format.format(date) : date.toString();
+        }
+
+        /**
+         * Negative dates take DataFormatter's number path, which applies the date format to the number
+         */
+        String formatInvalidDate(double value) {
+            if (format == null) {
+                return String.valueOf(value);
+            }
+            String textValue = NumberToTextConverter.toText(value);
+            String result = textValue.indexOf('E') > -1 ? format.format(value) : format.format(new BigDecimal(textValue));
+            if (result.indexOf('E') > -1 && !result.contains("E-")) {
+                result = result.replaceFirst("E", "E+");
+            }
+            return result;
+        }
 
-    private Format getFormatFromParent(double cellValue, int formatIndex, String formatStrIn) {
-        try {
-            return (Format) getFormatMethod.invoke(this, cellValue, formatIndex, formatStrIn);
-        } catch (Exception e) {
-            e.printStackTrace();
-            throw new RuntimeException(e);
+        /**
+         * @return formatted value or null if the format string doesn't format numbers
+         */
+        String formatNumber(double value) {
+            CellFormat cellFormat = compiled.getCellFormat();
+            if (cellFormat != null) {
+                try {
+                    return cellFormat.apply((Object) value).text.trim();
+                } catch (Exception e) {
+                    // fall back to the plain format like DataFormatter does
+                }
+            }
+            return format != null ? format.format(value) : null;
         }
     }
 }
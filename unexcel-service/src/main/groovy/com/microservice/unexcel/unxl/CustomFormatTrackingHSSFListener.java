@@ -7,6 +7,7 @@ import org.apache.poi.hssf.record.FormulaRecord;
 import org.apache.poi.hssf.record.NumberRecord;
 
 import java.text.NumberFormat;
+import java.util.Arrays;
 import java.util.Locale;
 
 public class CustomFormatTrackingHSSFListener extends FormatTrackingHSSFListener {
@@ -14,6 +15,9 @@ public class CustomFormatTrackingHSSFListener extends FormatTrackingHSSFListener
     protected NumberFormat defaultFormat;
     protected boolean isDate1904;
 
+    // Number formats by extended format index
+    private NumberStyle[] numberStyles = new NumberStyle[64];
+
     public CustomFormatTrackingHSSFListener(HSSFListener childListener) {
         this(childListener, Locale.getDefault());
     }
@@ -49,6 +53,27 @@ public class CustomFormatTrackingHSSFListener extends FormatTrackingHSSFListener
         return this.formatter.formatRawCellContents(value, formatIndex, formatString, isDate1904);
     }
 
+    /**
+     * @return number format of the cell, null if its extended format is unknown. Looked up once per
+     * extended format, the formats are all read before the first sheet.
+     */
+    public NumberStyle getNumberStyle(CellValueRecordInterface cell) {
+        int xfIndex = cell.getXFIndex() & 0xFFFF;
+        if (xfIndex >= numberStyles.length) {
+            numberStyles = Arrays.copyOf(numberStyles, Math.max(numberStyles.length * 2, xfIndex + 1));
+        }
+        NumberStyle style = numberStyles[xfIndex];
+        if (style == null) {
+            int formatIndex = this.getFormatIndex(cell);
+            if (formatIndex == -1) {
+                return null;
+            }
+            style = new NumberStyle((short) formatIndex, this.getFormatString(formatIndex));
+            numberStyles[xfIndex] = style;
+        }
+        return style;
+    }
+
     public void setDate1904(boolean date1904) {
         isDate1904 = date1904;
     }
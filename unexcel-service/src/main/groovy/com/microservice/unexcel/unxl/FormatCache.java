@@ -0,0 +1,177 @@
+package com.microservice.unexcel.unxl;
+
+import org.apache.poi.ss.format.CellFormat;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.ExcelGeneralNumberFormat;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.text.Format;
+import java.text.NumberFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide cache of compiled cell formats, keyed by the full format string, one cache per locale.
+ * Lookups don't lock; a format is compiled (under a lock) only the first time it is seen.
+ * The cache holds at most {@link #MAX_ENTRIES} formats and starts over when it is full.
+ * <p>
+ * Compiled formats are immutable and can be shared by all threads. The {@link Format} objects of
+ * java.text are not thread-safe though, so a compiled format only keeps a prototype and every
+ * {@link CustomDataFormatter} formats with its own copy, see {@link CompiledFormat#newFormat()}.
+ */
+public final class FormatCache {
+
+    public static final int MAX_ENTRIES = 4096;
+
+    private static final Map<Locale, FormatCache> CACHES = new ConcurrentHashMap<>();
+
+    /**
+     * Any valid Excel date, so that date patterns are compiled as dates
+     */
+    private static final double SAMPLE_DATE = 1.0;
+
+    private static final Method GET_FORMAT;
+    private static final Method CREATE_FORMAT;
+
+    static {
+        try {
+            /* getFormat() and createFormat() are private, they are only called when a format is compiled */
+            GET_FORMAT = DataFormatter.class.getDeclaredMethod("getFormat", double.class, int.class, String.class);
+            GET_FORMAT.setAccessible(true);
+            CREATE_FORMAT = DataFormatter.class.getDeclaredMethod("createFormat", double.class, int.class, String.class);
+            CREATE_FORMAT.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("Unsupported POI version", e);
+        }
+    }
+
+    private final Locale locale;
+    private final Map<String, CompiledFormat> formats = new ConcurrentHashMap<>();
+
+    // Guarded by this, DataFormatter is not thread-safe and caches what it creates
+    private DataFormatter compiler;
+
+    private FormatCache(Locale locale) {
+        this.locale = locale;
+        this.compiler = new DataFormatter(locale);
+    }
+
+    public static FormatCache forLocale(Locale locale) {
+        return CACHES.computeIfAbsent(locale, FormatCache::new);
+    }
+
+    public Locale getLocale() {
+        return locale;
+    }
+
+    public CompiledFormat get(String formatString) {
+        CompiledFormat format = formats.get(formatString);
+        if (format != null) {
+            return format;
+        }
+        return compile(formatString);
+    }
+
+    public int size() {
+        return formats.size();
+    }
+
+    private synchronized CompiledFormat compile(String formatString) {
+        CompiledFormat compiled = formats.get(formatString);
+        if (compiled != null) {
+            // compiled by another thread meanwhile
+            return compiled;
+        }
+        if (formats.size() >= MAX_ENTRIES) {
+            // a workbook with thousands of formats would evict most of them anyway, so simply start over
+            formats.clear();
+            compiler = new DataFormatter(locale);
+        }
+        boolean date = DateUtil.isADateFormat(-1, formatString);
+        String pattern = date ? CustomDataFormatter.overrideDateFormat(formatString) : formatString;
+        Format format = (Format) invoke(GET_FORMAT, SAMPLE_DATE, pattern);
+        if (format != null && format.getClass().getName().endsWith("$CellFormatResultWrapper")) {
+            // Multi-part format, DataFormatter applies it with CellFormat and doesn't cache the result.
+            // The plain format only serves the values CellFormat fails on.
+            Format fallback = (Format) invoke(CREATE_FORMAT, SAMPLE_DATE, pattern);
+            compiled = new CompiledFormat(date, pattern, fallback, CellFormat.getInstance(pattern));
+        } else {
+            compiled = new CompiledFormat(date, pattern, format, null);
+        }
+        formats.put(formatString, compiled);
+        return compiled;
+    }
+
+    private Object invoke(Method method, double value, String pattern) {
+        try {
+            return method.invoke(compiler, value, -1, pattern);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Compiled format string, immutable
+     */
+    public final class CompiledFormat {
+
+        private final boolean date;
+        private final String pattern;
+        private final Format prototype;
+        private final boolean general;
+        private final CellFormat cellFormat;
+
+        private CompiledFormat(boolean date, String pattern, Format format, CellFormat cellFormat) {
+            this.date = date;
+            this.pattern = pattern;
+            // the General format belongs to the compiler and doesn't copy its internal formats when cloned
+            this.general = format instanceof ExcelGeneralNumberFormat;
+            if (format instanceof NumberFormat) {
+                // keep the fraction part even if the style shows only integer digits
+                ((NumberFormat) format).setMaximumFractionDigits(UnexcelConstants.MAX_FRACTION_DIGITS);
+            }
+            this.prototype = general ? null : format;
+            this.cellFormat = cellFormat;
+        }
+
+        /**
+         * @return true if the format string is a date or time format
+         */
+        public boolean isDate() {
+            return date;
+        }
+
+        /**
+         * @return pattern that is actually applied, dates and times are normalized to ISO-like patterns
+         */
+        public String getPattern() {
+            return pattern;
+        }
+
+        /**
+         * @return CellFormat of a multi-part format (e.g. positive;negative;zero), or null
+         */
+        public CellFormat getCellFormat() {
+            return cellFormat;
+        }
+
+        /**
+         * @return new instance of the format for use by a single thread, or null if values are
+         * not formatted with this format string at all
+         */
+        public Format newFormat() {
+            if (prototype != null) {
+                return (Format) prototype.clone();
+            }
+            return general ? new ExcelGeneralNumberFormat(locale) : null;
+        }
+    }
+}
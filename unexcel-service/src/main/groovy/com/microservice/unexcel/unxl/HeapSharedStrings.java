@@ -0,0 +1,108 @@
+package com.microservice.unexcel.unxl;
+
+import org.apache.poi.util.SAXHelper;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shared strings kept on the heap as Strings, parsed the way POI's ReadOnlySharedStringsTable does it
+ * (phonetic runs included). Fastest lookups, but every unique string lives as a Java String for the whole conversion.
+ */
+public class HeapSharedStrings extends DefaultHandler implements SharedStrings {
+
+    private static final String NS_SPREADSHEETML = "http://schemas.openxmlformats.org/spreadsheetml/2006/main";
+
+    private List<String> strings = new ArrayList<>();
+
+    // Parsing state
+    private final StringBuilder characters = new StringBuilder();
+    private boolean tIsOpen;
+
+    /**
+     * @param sharedStringsXml sharedStrings.xml of the workbook, null if it has none
+     */
+    public HeapSharedStrings(InputStream sharedStringsXml) throws IOException, SAXException {
+        if (sharedStringsXml == null) {
+            return;
+        }
+        PushbackInputStream stream = new PushbackInputStream(sharedStringsXml, 1);
+        int firstByte = stream.read();
+        if (firstByte == -1) {
+            return;
+        }
+        stream.unread(firstByte);
+        try {
+            XMLReader reader = SAXHelper.newXMLReader();
+            reader.setContentHandler(this);
+            reader.parse(new InputSource(stream));
+        } catch (ParserConfigurationException e) {
+            throw new RuntimeException("SAX parser appears to be broken - " + e.getMessage());
+        }
+    }
+
+    @Override
+    public int getCount() {
+        return strings.size();
+    }
+
+    @Override
+    public String getEntryAt(int idx) {
+        return strings.get(idx);
+    }
+
+    @Override
+    public void close() {
+        // nothing to release
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String name, Attributes attributes) throws SAXException {
+        if (uri != null && !uri.equals(NS_SPREADSHEETML)) {
+            return;
+        }
+        if ("sst".equals(localName)) {
+            String uniqueCount = attributes.getValue("uniqueCount");
+            if (uniqueCount != null) {
+                strings = new ArrayList<>(Integer.parseInt(uniqueCount));
+            }
+        } else if ("si".equals(localName)) {
+            characters.setLength(0);
+        } else if ("t".equals(localName)) {
+            tIsOpen = true;
+        } else if ("rPh".equals(localName)) {
+            // phonetic run text is kept, separated by a space
+            if (characters.length() > 0) {
+                characters.append(' ');
+            }
+        }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String name) throws SAXException {
+        if (uri != null && !uri.equals(NS_SPREADSHEETML)) {
+            return;
+        }
+        if ("si".equals(localName)) {
+            strings.add(characters.toString());
+        } else if ("t".equals(localName)) {
+            tIsOpen = false;
+        }
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException {
+        if (tIsOpen) {
+            characters.append(ch, start, length);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.microservice.unexcel.unxl;
+
+import org.apache.poi.util.SAXHelper;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Shared strings table for huge, text heavy workbooks.
+ * <p>
+ * sharedStrings.xml is streamed once into a temporary file that holds all strings one after another
+ * as UTF-8, and the file is then memory-mapped. The heap only keeps an int offset per string,
+ * a Java String is created only for the entry that is looked up.
+ * <p>
+ * Text of phonetic runs is included the same way POI's ReadOnlySharedStringsTable does it,
+ * so both tables give the same strings.
+ */
+public class MappedSharedStringsTable extends DefaultHandler implements SharedStrings {
+
+    private static final String NS_SPREADSHEETML = "http://schemas.openxmlformats.org/spreadsheetml/2006/main";
+
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+    private static final char[] SPACE = {' '};
+
+    private final Path arenaFile;
+    private MappedByteBuffer arena;
+
+    /**
+     * String i occupies arena bytes from offsets[i] to offsets[i + 1]
+     */
+    private int[] offsets = new int[1024];
+    private int count;
+
+    private final ThreadLocal<char[]> decodeBuffers = ThreadLocal.withInitial(() -> new char[256]);
+
+    // Parsing state, released as soon as the table is built
+    private FileChannel channel;
+    private ByteBuffer writeBuffer;
+    private long written;
+    private char[] characters = new char[256];
+    private int length;
+    private boolean tIsOpen;
+
+    public MappedSharedStringsTable(InputStream sharedStringsXml) throws IOException, SAXException {
+        arenaFile = Files.createTempFile("unexcel-sst", ".bin");
+        try (FileChannel fileChannel = FileChannel.open(arenaFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            channel = fileChannel;
+            writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+            PushbackInputStream stream = new PushbackInputStream(sharedStringsXml, 1);
+            int firstByte = stream.read();
+            if (firstByte > -1) {
+                stream.unread(firstByte);
+                XMLReader reader = SAXHelper.newXMLReader();
+                reader.setContentHandler(this);
+                reader.parse(new InputSource(stream));
+            }
+            flushWriteBuffer();
+            arena = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, written);
+        } catch (ParserConfigurationException e) {
+            Files.deleteIfExists(arenaFile);
+            throw new RuntimeException("SAX parser appears to be broken - " + e.getMessage());
+        } catch (IOException | SAXException | RuntimeException e) {
+            Files.deleteIfExists(arenaFile);
+            throw e;
+        } finally {
+            channel = null;
+            writeBuffer = null;
+            characters = null;
+        }
+    }
+
+    @Override
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public String getEntryAt(int idx) {
+        if (idx < 0 || idx >= count) {
+            throw new IndexOutOfBoundsException("Shared string index " + idx + " is out of range 0.." + (count - 1));
+        }
+        int start = offsets[idx];
+        int end = offsets[idx + 1];
+        // UTF-8 never takes less bytes than UTF-16 chars
+        char[] chars = decodeBuffers.get();
+        if (chars.length < end - start) {
+            chars = new char[end - start];
+            decodeBuffers.set(chars);
+        }
+        int n = 0;
+        // absolute reads only, so the arena can be read by several threads
+        for (int i = start; i < end; ) {
+            int b = arena.get(i++);
+            if (b >= 0) {
+                chars[n++] = (char) b;
+            } else if ((b & 0xE0) == 0xC0) {
+                chars[n++] = (char) (((b & 0x1F) << 6) | (arena.get(i++) & 0x3F));
+            } else if ((b & 0xF0) == 0xE0) {
+                chars[n++] = (char) (((b & 0x0F) << 12) | ((arena.get(i++) & 0x3F) << 6) | (arena.get(i++) & 0x3F));
+            } else {
+                int codePoint = ((b & 0x07) << 18) | ((arena.get(i++) & 0x3F) << 12)
+                        | ((arena.get(i++) & 0x3F) << 6) | (arena.get(i++) & 0x3F);
+                chars[n++] = Character.highSurrogate(codePoint);
+                chars[n++] = Character.lowSurrogate(codePoint);
+            }
+        }
+        return new String(chars, 0, n);
+    }
+
+    /**
+     * Releases the temporary file. The mapping itself goes away with the last reference to this table.
+     */
+    @Override
+    public void close() throws IOException {
+        arena = null;
+        Files.deleteIfExists(arenaFile);
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String name, Attributes attributes) throws SAXException {
+        if (uri != null && !uri.equals(NS_SPREADSHEETML)) {
+            return;
+        }
+        if ("sst".equals(localName)) {
+            String uniqueCount = attributes.getValue("uniqueCount");
+            if (uniqueCount != null) {
+                offsets = new int[Integer.parseInt(uniqueCount) + 1];
+            }
+        } else if ("si".equals(localName)) {
+            length = 0;
+        } else if ("t".equals(localName)) {
+            tIsOpen = true;
+        } else if ("rPh".equals(localName)) {
+            // phonetic run text is kept, separated by a space
+            if (length > 0) {
+                append(SPACE, 0, 1);
+            }
+        }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String name) throws SAXException {
+        if (uri != null && !uri.equals(NS_SPREADSHEETML)) {
+            return;
+        }
+        if ("si".equals(localName)) {
+            try {
+                addEntry();
+            } catch (IOException e) {
+                throw new SAXException("Failed to write shared string #" + count, e);
+            }
+        } else if ("t".equals(localName)) {
+            tIsOpen = false;
+        }
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException {
+        if (tIsOpen) {
+            append(ch, start, length);
+        }
+    }
+
+    private void append(char[] ch, int start, int count) {
+        if (length + count > characters.length) {
+            characters = Arrays.copyOf(characters, Math.max(characters.length * 2, length + count));
+        }
+        System.arraycopy(ch, start, characters, length, count);
+        length += count;
+    }
+
+    private void addEntry() throws IOException, SAXException {
+        if (count + 2 > offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        for (int i = 0; i < length; i++) {
+            if (writeBuffer.remaining() < 4) {
+                flushWriteBuffer();
+            }
+            char c = characters[i];
+            if (c < 0x80) {
+                writeBuffer.put((byte) c);
+            } else if (c < 0x800) {
+                writeBuffer.put((byte) (0xC0 | (c >> 6)));
+                writeBuffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(characters[i + 1])) {
+                int codePoint = Character.toCodePoint(c, characters[++i]);
+                writeBuffer.put((byte) (0xF0 | (codePoint >> 18)));
+                writeBuffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                writeBuffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                writeBuffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                writeBuffer.put((byte) '?'); // unpaired surrogate cannot be encoded
+            } else {
+                writeBuffer.put((byte) (0xE0 | (c >> 12)));
+                writeBuffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                writeBuffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        long end = written + writeBuffer.position();
+        if (end > Integer.MAX_VALUE) {
+            throw new SAXException("Shared strings table is larger than 2GB");
+        }
+        offsets[++count] = (int) end;
+    }
+
+    private void flushWriteBuffer() throws IOException {
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            written += channel.write(writeBuffer);
+        }
+        writeBuffer.clear();
+    }
+}
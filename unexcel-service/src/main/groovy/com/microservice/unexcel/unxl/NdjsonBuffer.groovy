@@ -0,0 +1,83 @@
+package com.microservice.unexcel.unxl
+
+import groovy.transform.CompileStatic
+
+/**
+ * Writes every row as a JSON array on a line of its own (newline delimited JSON). Text cells are JSON strings,
+ * numbers are JSON numbers with their raw value, booleans are true and false, and cells without
+ * a value are null. Numbers are not formatted, dates are written as the text Excel shows.
+ */
+@CompileStatic
+class NdjsonBuffer extends StreamingCsvBuffer {
+
+    private static final char[] HEX = '0123456789abcdef'.toCharArray()
+
+    NdjsonBuffer(OutputStream stream) {
+        super(stream)
+        json()
+    }
+
+    NdjsonBuffer(SheetParts parts) {
+        super(parts)
+        json()
+    }
+
+    private void json() {
+        delimiter = ','
+        emptyCell = 'null'
+        lineStart = ['['] as char[]
+        lineEnd = [']'] as char[]
+    }
+
+    @Override
+    boolean isFormatted() {
+        false
+    }
+
+    @Override
+    protected void appendText(char[] chars, int offset, int length) {
+        // worst case: every char becomes a unicode escape
+        ensureRowCapacity(length * 6 + 2)
+        char[] target = rowChars
+        int position = rowLength
+        target[position++] = (char) '"'
+        int end = offset + length
+        for (int i = offset; i < end; i++) {
+            char c = chars[i]
+            int code = (int) c
+            if (c == (char) '"' || c == (char) '\\') {
+                target[position++] = (char) '\\'
+                target[position++] = c
+            } else if (code < 0x20) {
+                target[position++] = (char) '\\'
+                if (c == (char) '\n') {
+                    target[position++] = (char) 'n'
+                } else if (c == (char) '\r') {
+                    target[position++] = (char) 'r'
+                } else if (c == (char) '\t') {
+                    target[position++] = (char) 't'
+                } else {
+                    target[position++] = (char) 'u'
+                    target[position++] = (char) '0'
+                    target[position++] = (char) '0'
+                    target[position++] = HEX[code >> 4]
+                    target[position++] = HEX[code & 0xF]
+                }
+            } else {
+                target[position++] = c
+            }
+        }
+        target[position++] = (char) '"'
+        rowLength = position
+    }
+
+    @Override
+    protected void appendNumber(double value) {
+        appendRow(Double.isNaN(value) || Double.isInfinite(value) ? 'null' : NumberText.toString(value))
+    }
+
+    @Override
+    protected void appendBoolean(boolean value) {
+        appendRow(value ? 'true' : 'false')
+    }
+}
@@ -0,0 +1,47 @@
+package com.microservice.unexcel.unxl;
+
+import org.apache.poi.ss.usermodel.DateUtil;
+
+/**
+ * Number format of a cell style: format index, format string and whether it is a date format.
+ * Built once per style, number cells only carry a reference to it. Immutable.
+ */
+public final class NumberStyle {
+
+    private final short formatIndex;
+    private final String formatString;
+    private final boolean date;
+    private final boolean general;
+
+    /**
+     * @param formatString null if the style has no format
+     */
+    public NumberStyle(short formatIndex, String formatString) {
+        this.formatIndex = formatIndex;
+        this.formatString = formatString;
+        this.date = DateUtil.isADateFormat(formatIndex, formatString);
+        this.general = "General".equalsIgnoreCase(formatString);
+    }
+
+    public short getFormatIndex() {
+        return formatIndex;
+    }
+
+    public String getFormatString() {
+        return formatString;
+    }
+
+    /**
+     * @return {@link DateUtil#isADateFormat} of the format
+     */
+    public boolean isDate() {
+        return date;
+    }
+
+    /**
+     * @return true for Excel's General format, which shows integers of up to 11 digits as they are
+     */
+    public boolean isGeneral() {
+        return general;
+    }
+}
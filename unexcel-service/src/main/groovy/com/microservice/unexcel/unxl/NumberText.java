@@ -0,0 +1,21 @@
+package com.microservice.unexcel.unxl;
+
+/**
+ * Plain text of raw numbers for the sinks that keep values: integral values without a fraction,
+ * anything else as the shortest decimal that reads back as the same double
+ */
+final class NumberText {
+
+    // doubles up to 2^53 are exact integers
+    private static final double MAX_EXACT_LONG = 9007199254740992d;
+
+    private NumberText() {
+    }
+
+    static String toString(double value) {
+        if (value == Math.rint(value) && Math.abs(value) <= MAX_EXACT_LONG) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+}
@@ -0,0 +1,106 @@
+package com.microservice.unexcel.unxl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+
+/**
+ * What a sheet is written as, one file per sheet (or per part of a sheet) with the format's extension
+ */
+public enum OutputFormat {
+
+    /**
+     * Quoted CSV as Excel shows the values, the default
+     */
+    CSV(".csv"),
+
+    /**
+     * The same CSV, gzip compressed on a separate thread while the sheet is converted
+     */
+    CSV_GZIP(".csv.gz") {
+        @Override
+        public OutputStream wrap(OutputStream out, Executor compressors) throws IOException {
+            return AsyncGzipOutputStream.open(out, compressors);
+        }
+    },
+
+    /**
+     * A JSON array per row with raw numbers, see {@link NdjsonBuffer}
+     */
+    NDJSON(".ndjson") {
+        @Override
+        SheetSink newSink(OutputStream stream) {
+            return new NdjsonBuffer(stream);
+        }
+
+        @Override
+        SheetSink newSink(SheetParts parts) {
+            return new NdjsonBuffer(parts);
+        }
+    },
+
+    /**
+     * Binary columns with raw numbers, see {@link ColumnarSheetSink}. Sheets are not split into parts.
+     */
+    COLUMNAR(".uxc") {
+        @Override
+        SheetSink newSink(OutputStream stream) {
+            return new ColumnarSheetSink(stream);
+        }
+
+        @Override
+        SheetSink newSink(SheetParts parts) {
+            throw new UnsupportedOperationException("Columnar sheets are not split into parts");
+        }
+
+        @Override
+        public boolean supportsParts() {
+            return false;
+        }
+    };
+
+    private final String extension;
+
+    OutputFormat(String extension) {
+        this.extension = extension;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * @param compressors runs the compressing threads, see {@link AsyncGzipOutputStream}, may be null
+     * @return the stream a sheet file is written through, e.g. a compressing one
+     */
+    public OutputStream wrap(OutputStream out, Executor compressors) throws IOException {
+        return out;
+    }
+
+    SheetSink newSink(OutputStream stream) {
+        return new StreamingCsvBuffer(stream);
+    }
+
+    /**
+     * Sink writing the sheet into numbered parts, see {@link ChunkPolicy}
+     */
+    SheetSink newSink(SheetParts parts) {
+        return new StreamingCsvBuffer(parts);
+    }
+
+    /**
+     * @return true if sheets can be split into parts
+     */
+    public boolean supportsParts() {
+        return true;
+    }
+
+    /**
+     * @param name format name in any case, e.g. "ndjson" or "csv_gzip"
+     * @throws IllegalArgumentException for an unknown format
+     */
+    public static OutputFormat parse(String name) {
+        return valueOf(name.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+    }
+}
@@ -0,0 +1,78 @@
+package com.microservice.unexcel.unxl;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.usermodel.XSSFRelation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * The parts of a XLSX workbook read through a POI {@link OPCPackage}, for callers that already have a package.
+ * The package belongs to the caller, {@link #close()} leaves it open.
+ */
+public final class PackageXlsxParts implements XlsxParts {
+
+    private final OPCPackage pkg;
+    private XSSFReader reader;
+
+    public PackageXlsxParts(OPCPackage pkg) {
+        this.pkg = pkg;
+    }
+
+    @Override
+    public InputStream getWorkbookData() throws IOException {
+        try {
+            return reader().getWorkbookData();
+        } catch (OpenXML4JException e) {
+            throw new IOException("Failed to open workbook.xml", e);
+        }
+    }
+
+    @Override
+    public InputStream getStylesData() throws IOException {
+        PackagePart part = part(XSSFRelation.STYLES);
+        return part != null ? part.getInputStream() : null;
+    }
+
+    @Override
+    public InputStream getSharedStringsData() throws IOException {
+        PackagePart part = part(XSSFRelation.SHARED_STRINGS);
+        return part != null ? part.getInputStream() : null;
+    }
+
+    @Override
+    public long getSharedStringsSize() {
+        PackagePart part = part(XSSFRelation.SHARED_STRINGS);
+        return part != null ? part.getSize() : 0;
+    }
+
+    @Override
+    public InputStream getSheetData(String relationshipId) throws IOException {
+        try {
+            return reader().getSheet(relationshipId);
+        } catch (OpenXML4JException e) {
+            throw new IOException("Failed to open sheet " + relationshipId, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        // the package is closed by its owner
+    }
+
+    private synchronized XSSFReader reader() throws IOException, OpenXML4JException {
+        if (reader == null) {
+            reader = new XSSFReader(pkg);
+        }
+        return reader;
+    }
+
+    private PackagePart part(XSSFRelation relation) {
+        List<PackagePart> parts = pkg.getPartsByContentType(relation.getContentType());
+        return parts.isEmpty() ? null : parts.get(0);
+    }
+}
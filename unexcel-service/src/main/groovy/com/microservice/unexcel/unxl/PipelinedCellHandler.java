@@ -0,0 +1,314 @@
+package com.microservice.unexcel.unxl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands the typed cells of a sheet over to a formatter thread, so that parsing and formatting plus writing
+ * of a single sheet run on two cores. The parser's thread copies the cells into batches of rows, full batches
+ * go through a small ring of reused batches to the formatter thread, which passes them on to the downstream
+ * handler, usually a {@link CellFormattingStage}, in the order they were parsed. When all batches are in use
+ * the parser waits, a slow sink slows parsing down instead of piling up memory.
+ * <p>
+ * {@link #finish()} waits until every cell is written, errors of the formatter thread are thrown by the next
+ * cell or by finish. {@link #close()} stops the formatter thread of a sheet that is given up.
+ * Used by one parser thread, not thread safe.
+ */
+public final class PipelinedCellHandler implements CellHandler, Closeable {
+
+    /**
+     * A batch is handed over after that many rows, or once its text takes that many chars
+     */
+    static final int BATCH_ROWS = 256;
+    static final int BATCH_CHARS = 1 << 16;
+    /**
+     * Batches of a sheet, the ones being filled and written included
+     */
+    static final int BATCHES = 8;
+
+    private static final CellBatch END = new CellBatch();
+
+    private final CellHandler downstream;
+    private final BlockingQueue<CellBatch> full = new ArrayBlockingQueue<>(BATCHES + 1);
+    private final BlockingQueue<CellBatch> free = new ArrayBlockingQueue<>(BATCHES);
+    private final CompletableFuture<Void> written = new CompletableFuture<>();
+    private volatile boolean aborted;
+
+    private CellBatch batch = new CellBatch();
+    private int batches = 1;
+    private boolean finished;
+
+    /**
+     * @param formatters runs the formatter thread of the sheet
+     * @throws RejectedExecutionException if the executor has no thread for it
+     */
+    public PipelinedCellHandler(CellHandler downstream, Executor formatters) {
+        this.downstream = downstream;
+        formatters.execute(this::write);
+    }
+
+    /**
+     * @return the pipeline to the downstream handler, null without an executor or when all of its threads are busy,
+     * the sheet is formatted on the parser's thread then
+     */
+    static PipelinedCellHandler start(CellHandler downstream, Executor formatters) {
+        if (formatters == null) {
+            return null;
+        }
+        try {
+            return new PipelinedCellHandler(downstream, formatters);
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void textCell(int column, char[] chars, int offset, int length) {
+        batch.addChars(CellBatch.TEXT_CHARS, column, chars, offset, length, null);
+    }
+
+    @Override
+    public void textCell(int column, String value) {
+        batch.add(CellBatch.TEXT, column).strings[batch.size - 1] = value;
+    }
+
+    @Override
+    public void numberCell(int column, char[] lexical, int offset, int length, NumberStyle style) {
+        batch.addChars(CellBatch.NUMBER_LEXICAL, column, lexical, offset, length, style);
+    }
+
+    @Override
+    public void numberCell(int column, double value, NumberStyle style) {
+        CellBatch cells = batch.add(CellBatch.NUMBER, column);
+        cells.numbers[cells.size - 1] = value;
+        cells.styles[cells.size - 1] = style;
+    }
+
+    @Override
+    public void booleanCell(int column, boolean value) {
+        batch.add(value ? CellBatch.TRUE : CellBatch.FALSE, column);
+    }
+
+    @Override
+    public void blankCell(int column) {
+        batch.add(CellBatch.BLANK, column);
+    }
+
+    @Override
+    public void endRow(int row) {
+        batch.add(CellBatch.END_ROW, row);
+        if (++batch.rows >= BATCH_ROWS || batch.charLength >= BATCH_CHARS) {
+            handOver();
+        }
+    }
+
+    /**
+     * Waits until the formatter thread has written every cell
+     *
+     * @throws UncheckedIOException if writing failed
+     */
+    public void finish() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        if (batch.size > 0) {
+            full.add(batch);
+        }
+        full.add(END);
+        try {
+            written.get();
+        } catch (InterruptedException e) {
+            aborted = true;
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException("Interrupted while formatting"));
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        }
+    }
+
+    /**
+     * Stops the formatter thread if the sheet wasn't finished, the cells that are left are not written
+     */
+    @Override
+    public void close() {
+        if (!finished) {
+            finished = true;
+            aborted = true;
+            full.add(END);
+        }
+    }
+
+    /**
+     * Passes the full batch on to the formatter thread and continues with a free one
+     */
+    private void handOver() {
+        failIfWritingFailed();
+        // never blocks, there are at most BATCHES batches and END
+        full.add(batch);
+        if (batches < BATCHES) {
+            batches++;
+            batch = new CellBatch();
+            return;
+        }
+        try {
+            CellBatch next;
+            while ((next = free.poll(100, TimeUnit.MILLISECONDS)) == null) {
+                failIfWritingFailed();
+            }
+            batch = next;
+        } catch (InterruptedException e) {
+            aborted = true;
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException("Interrupted while formatting"));
+        }
+    }
+
+    /**
+     * The formatter thread: replays the batches in order until the end
+     */
+    private void write() {
+        try {
+            CellBatch cells;
+            while ((cells = full.take()) != END) {
+                if (!aborted) {
+                    cells.replay(downstream);
+                }
+                cells.clear();
+                free.add(cells);
+            }
+            written.complete(null);
+        } catch (Throwable e) {
+            aborted = true;
+            written.completeExceptionally(e);
+        }
+    }
+
+    private void failIfWritingFailed() {
+        if (written.isCompletedExceptionally()) {
+            try {
+                written.get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw rethrow(e instanceof ExecutionException ? e.getCause() : e);
+            }
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable cause) {
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        if (cause instanceof IOException) {
+            return new UncheckedIOException((IOException) cause);
+        }
+        return new IllegalStateException("Failed to format cells", cause);
+    }
+
+    /**
+     * Cells of a number of rows in parallel arrays, text is copied into one char array. Reused once it is written.
+     */
+    static final class CellBatch {
+        static final byte TEXT_CHARS = 0;
+        static final byte TEXT = 1;
+        static final byte NUMBER_LEXICAL = 2;
+        static final byte NUMBER = 3;
+        static final byte TRUE = 4;
+        static final byte FALSE = 5;
+        static final byte BLANK = 6;
+        static final byte END_ROW = 7;
+
+        byte[] kinds = new byte[1024];
+        // column of a cell, row of END_ROW
+        int[] columns = new int[1024];
+        int[] offsets = new int[1024];
+        int[] lengths = new int[1024];
+        double[] numbers = new double[1024];
+        NumberStyle[] styles = new NumberStyle[1024];
+        String[] strings = new String[1024];
+        char[] chars = new char[BATCH_CHARS];
+        int charLength;
+        int size;
+        int rows;
+
+        CellBatch add(byte kind, int column) {
+            if (size == kinds.length) {
+                int capacity = size * 2;
+                kinds = Arrays.copyOf(kinds, capacity);
+                columns = Arrays.copyOf(columns, capacity);
+                offsets = Arrays.copyOf(offsets, capacity);
+                lengths = Arrays.copyOf(lengths, capacity);
+                numbers = Arrays.copyOf(numbers, capacity);
+                styles = Arrays.copyOf(styles, capacity);
+                strings = Arrays.copyOf(strings, capacity);
+            }
+            kinds[size] = kind;
+            columns[size] = column;
+            size++;
+            return this;
+        }
+
+        void addChars(byte kind, int column, char[] text, int offset, int length, NumberStyle style) {
+            add(kind, column);
+            if (charLength + length > chars.length) {
+                chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charLength + length));
+            }
+            System.arraycopy(text, offset, chars, charLength, length);
+            offsets[size - 1] = charLength;
+            lengths[size - 1] = length;
+            styles[size - 1] = style;
+            charLength += length;
+        }
+
+        void replay(CellHandler handler) {
+            for (int i = 0; i < size; i++) {
+                switch (kinds[i]) {
+                    case TEXT_CHARS:
+                        handler.textCell(columns[i], chars, offsets[i], lengths[i]);
+                        break;
+                    case TEXT:
+                        handler.textCell(columns[i], strings[i]);
+                        break;
+                    case NUMBER_LEXICAL:
+                        handler.numberCell(columns[i], chars, offsets[i], lengths[i], styles[i]);
+                        break;
+                    case NUMBER:
+                        handler.numberCell(columns[i], numbers[i], styles[i]);
+                        break;
+                    case TRUE:
+                        handler.booleanCell(columns[i], true);
+                        break;
+                    case FALSE:
+                        handler.booleanCell(columns[i], false);
+                        break;
+                    case BLANK:
+                        handler.blankCell(columns[i]);
+                        break;
+                    default:
+                        handler.endRow(columns[i]);
+                }
+            }
+        }
+
+        void clear() {
+            // drop the references, the batch may wait a while before it is filled again
+            Arrays.fill(styles, 0, size, null);
+            Arrays.fill(strings, 0, size, null);
+            size = 0;
+            rows = 0;
+            charLength = 0;
+        }
+    }
+}
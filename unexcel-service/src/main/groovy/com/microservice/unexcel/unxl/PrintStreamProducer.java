@@ -1,13 +1,62 @@
 package com.microservice.unexcel.unxl;
 
-import java.io.PrintStream;
+import java.io.OutputStream;
 import java.nio.file.Path;
 import java.util.List;
 
+/**
+ * Where the sheets go: a stream per sheet, or per part of a sheet, written in the producer's
+ * {@link #getOutputFormat() output format}. The engines write the rows through a {@link SheetSink}
+ * of that format.
+ */
 public interface PrintStreamProducer {
-    PrintStream getNextPrintStream(String name);
+    OutputStream getNextPrintStream(String name);
 
+    /**
+     * Stream for the sheet at the given workbook position. May be called from several threads,
+     * each sheet stream is closed by its caller.
+     */
+    OutputStream getPrintStream(int sheetIndex, String name);
+
+    /**
+     * @return result files in workbook order
+     */
     List<Path> getResultFiles();
 
     void removeLastFile();
+
+    void removeFile(int sheetIndex);
+
+    /**
+     * @return what the sheets are written as
+     */
+    default OutputFormat getOutputFormat() {
+        return OutputFormat.CSV;
+    }
+
+    /**
+     * @return when sheets are continued in a new part, {@link ChunkPolicy#NONE} to write every sheet
+     * to a single stream
+     */
+    default ChunkPolicy getChunkPolicy() {
+        return ChunkPolicy.NONE;
+    }
+
+    /**
+     * Stream for a part of a sheet, used instead of the sheet streams when the chunk policy is enabled.
+     * May be called from several threads, each part stream is closed by its caller.
+     *
+     * @param part 0-based number of the part within the sheet
+     */
+    default OutputStream getPartPrintStream(int sheetIndex, String name, int part) {
+        throw new UnsupportedOperationException("Sheets are not split into parts");
+    }
+
+    /**
+     * @return progress of the sheet made by an interrupted conversion into the same output, null to start
+     * the sheet from scratch
+     */
+    default Checkpoint getCheckpoint(int sheetIndex) {
+        return null;
+    }
 }
@@ -0,0 +1,17 @@
+package com.microservice.unexcel.unxl;
+
+import java.io.Closeable;
+
+/**
+ * Read-only access to the shared strings table (sharedStrings.xml) of a XLSX workbook.
+ * Implementations must allow concurrent reads, sheets may be converted in parallel.
+ */
+public interface SharedStrings extends Closeable {
+
+    /**
+     * @return number of unique strings in the table
+     */
+    int getCount();
+
+    String getEntryAt(int idx);
+}
@@ -0,0 +1,68 @@
+package com.microservice.unexcel.unxl;
+
+import java.io.OutputStream;
+
+/**
+ * Numbered parts of the CSV of one sheet. The buffer opens a part when it has something to write and commits it
+ * when it is full and when the sheet is done. Joined with line separators, the parts are the CSV of the whole sheet.
+ */
+final class SheetParts {
+
+    private final PrintStreamProducer producer;
+    private final int sheetIndex;
+    private final String sheetName;
+    private final Checkpoint resumeFrom;
+    private final ConversionListener listener;
+    private final ChunkPolicy policy;
+
+    // Number of committed parts, the next part gets this number
+    private int parts;
+
+    /**
+     * @param resumeFrom checkpoint of the sheet from an interrupted conversion into the same output, or null
+     */
+    SheetParts(PrintStreamProducer producer, int sheetIndex, String sheetName, Checkpoint resumeFrom,
+               ConversionListener listener) {
+        this.producer = producer;
+        this.sheetIndex = sheetIndex;
+        this.sheetName = sheetName;
+        this.resumeFrom = resumeFrom;
+        this.listener = listener;
+        this.policy = producer.getChunkPolicy();
+        this.parts = resumeFrom == null ? 0 : resumeFrom.getParts();
+    }
+
+    /**
+     * @return checkpoint the sheet continues from, or null
+     */
+    Checkpoint getResumeFrom() {
+        return resumeFrom;
+    }
+
+    /**
+     * @return last row of the sheet that is committed already, -1 if the sheet starts from scratch
+     */
+    int getResumeAfterRow() {
+        return resumeFrom == null ? -1 : resumeFrom.getLastRow();
+    }
+
+    boolean isFull(int rows, long bytes) {
+        return policy.isFull(rows, bytes);
+    }
+
+    OutputStream open() {
+        return producer.getPartPrintStream(sheetIndex, sheetName, parts);
+    }
+
+    /**
+     * Reports the progress after the current part has been closed, or at the end of the sheet
+     *
+     * @param closed true if a part has been closed, false if the sheet ended without another part
+     */
+    void commit(boolean closed, int lastRow, int maxColumns, boolean sheetDone) {
+        if (closed) {
+            parts++;
+        }
+        listener.partCommitted(new Checkpoint(sheetIndex, sheetName, parts, lastRow, maxColumns, sheetDone));
+    }
+}
@@ -0,0 +1,63 @@
+package com.microservice.unexcel.unxl;
+
+/**
+ * Receives the cells of one sheet row by row and writes them in an {@link OutputFormat}.
+ * The engines call the add methods for the cells of a row in column order and {@link #newLine()} at the end
+ * of every row, empty rows included. Sinks skip leading empty rows, drop trailing ones and pad short rows
+ * up to {@link #getMaxNumberOfColumns()}.
+ * <p>
+ * Not thread safe, every sheet has its own sink.
+ */
+public interface SheetSink {
+
+    /**
+     * @return true if number cells are written as the text Excel would show, false if the sink keeps
+     * the raw values: numbers are not formatted at all then, except for dates
+     */
+    boolean isFormatted();
+
+    /**
+     * Text cell, the characters are copied
+     */
+    SheetSink addText(char[] chars, int offset, int length);
+
+    SheetSink addText(String value);
+
+    /**
+     * Raw number cell, only used if the sink is not {@link #isFormatted() formatted}
+     */
+    SheetSink addNumber(double value);
+
+    SheetSink addBoolean(boolean value);
+
+    /**
+     * Cell without a value, e.g. a column missing between two cells
+     */
+    SheetSink addEmpty();
+
+    /**
+     * Ends the current row
+     */
+    SheetSink newLine();
+
+    /**
+     * @param sheetRow 0-based sheet row of the current line, committed parts end with it
+     */
+    void setSheetRow(int sheetRow);
+
+    int getMaxNumberOfColumns();
+
+    void setMaxNumberOfColumns(int maxNumberOfColumns);
+
+    /**
+     * @return true if at least one row with data has been written
+     */
+    boolean getHasData();
+
+    void setListener(ConversionListener listener);
+
+    /**
+     * Writes everything buffered so far. Call it when the sheet is done.
+     */
+    void finish();
+}
@@ -0,0 +1,277 @@
+package com.microservice.unexcel.unxl;
+
+import com.fasterxml.aalto.stax.InputFactoryImpl;
+import org.codehaus.stax2.XMLInputFactory2;
+import org.codehaus.stax2.XMLStreamReader2;
+import org.codehaus.stax2.typed.TypedValueDecoder;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import java.io.InputStream;
+
+/**
+ * Reads sheet XML with the Aalto StAX pull parser and feeds it to the sheet handler, as an alternative to
+ * the SAX parser. Element names are the parser's canonical strings, cell references, types and style indexes
+ * are decoded straight from the parser's attribute buffer and cell values are copied from its text buffer,
+ * so no String is created per cell.
+ * <p>
+ * Produces the same CSV as the SAX parser with {@link XLSX2CSV.MyXSSFSheetHandler}, which is kept
+ * as the reference. Elements are matched by local name, so prefixed sheet XML is read as well.
+ */
+final class StaxSheetReader {
+
+    private static final XMLInputFactory2 FACTORY = createFactory();
+
+    private final XLSX2CSV.MyXSSFSheetHandler handler;
+
+    private final CellReferenceDecoder reference = new CellReferenceDecoder();
+    private final CellTypeDecoder type = new CellTypeDecoder();
+    private final IntDecoder number = new IntDecoder();
+
+    StaxSheetReader(XLSX2CSV.MyXSSFSheetHandler handler) {
+        this.handler = handler;
+    }
+
+    private static XMLInputFactory2 createFactory() {
+        XMLInputFactory2 factory = new InputFactoryImpl();
+        // sheets have no DTD, don't resolve anything external
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    void read(InputStream sheet) throws XMLStreamException {
+        XMLStreamReader2 reader = (XMLStreamReader2) FACTORY.createXMLStreamReader(sheet);
+        try {
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        if (!startElement(reader)) {
+                            // the last selected row is done
+                            return;
+                        }
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        endElement(reader);
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                    case XMLStreamConstants.SPACE:
+                        handler.appendValue(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * @return false if the rest of the sheet is left out
+     */
+    private boolean startElement(XMLStreamReader2 reader) throws XMLStreamException {
+        switch (reader.getLocalName()) {
+            case "v":
+            case "inlineStr":
+                handler.startValue();
+                break;
+            case "t":
+                if (handler.isInlineString()) {
+                    handler.startValue();
+                }
+                break;
+            case "row":
+                int r = reader.getAttributeIndex(null, "r");
+                if (r >= 0) {
+                    reader.getAttributeAs(r, number);
+                    return handler.startRow(number.value);
+                }
+                // r is optional, rows without it follow the previous one
+                return handler.startRow(handler.nextRow());
+            case "c":
+                startCell(reader);
+                break;
+            case "dimension":
+                handler.dimension(reader.getAttributeValue(null, "ref"));
+                break;
+            default:
+                break;
+        }
+        return true;
+    }
+
+    private void startCell(XMLStreamReader2 reader) throws XMLStreamException {
+        int column = handler.nextColumn();
+        int r = reader.getAttributeIndex(null, "r");
+        if (r >= 0) {
+            reader.getAttributeAs(r, reference);
+            if (reference.firstDigit != 0) {
+                column = reference.column;
+            }
+        }
+        XLSX2CSV.xssfDataType cellType = XLSX2CSV.xssfDataType.NUMBER;
+        int t = reader.getAttributeIndex(null, "t");
+        if (t >= 0) {
+            reader.getAttributeAs(t, type);
+            cellType = type.type;
+        }
+        int styleIndex = -1;
+        if (cellType == XLSX2CSV.xssfDataType.NUMBER) {
+            int s = reader.getAttributeIndex(null, "s");
+            if (s >= 0) {
+                reader.getAttributeAs(s, number);
+                styleIndex = number.value;
+            }
+        }
+        handler.startCell(column, cellType, styleIndex);
+    }
+
+    private void endElement(XMLStreamReader2 reader) {
+        switch (reader.getLocalName()) {
+            case "v":
+                handler.endValue();
+                break;
+            case "t":
+                if (handler.isInlineString()) {
+                    handler.endValue();
+                }
+                break;
+            case "row":
+                handler.endRow();
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Non-negative decimal int, anything else fails like Integer.parseInt does
+     */
+    private static final class IntDecoder extends TypedValueDecoder {
+
+        int value;
+
+        @Override
+        public void decode(String lexical) {
+            value = Integer.parseInt(lexical);
+        }
+
+        @Override
+        public void decode(char[] lexical, int start, int end) {
+            if (end - start > 9) {
+                // too long to be sure it fits into int
+                decode(new String(lexical, start, end - start));
+                return;
+            }
+            int result = 0;
+            for (int i = start; i < end; i++) {
+                char c = lexical[i];
+                if (c < '0' || c > '9') {
+                    decode(new String(lexical, start, end - start));
+                    return;
+                }
+                result = result * 10 + (c - '0');
+            }
+            value = result;
+        }
+
+        @Override
+        public void handleEmptyValue() {
+            decode("");
+        }
+    }
+
+    /**
+     * Cell reference like "AB12": column of the letters and the position of the first digit,
+     * as the SAX handler reads it
+     */
+    private static final class CellReferenceDecoder extends TypedValueDecoder {
+
+        int column;
+        int firstDigit;
+
+        @Override
+        public void decode(String lexical) {
+            decode(lexical.toCharArray(), 0, lexical.length());
+        }
+
+        @Override
+        public void decode(char[] lexical, int start, int end) {
+            firstDigit = -1;
+            for (int i = start; i < end; i++) {
+                if (Character.isDigit(lexical[i])) {
+                    firstDigit = i - start;
+                    break;
+                }
+            }
+            column = -1;
+            for (int i = start; i < start + firstDigit; i++) {
+                column = (column + 1) * 26 + lexical[i] - 'A';
+            }
+        }
+
+        @Override
+        public void handleEmptyValue() {
+            firstDigit = -1;
+            column = -1;
+        }
+    }
+
+    /**
+     * The "t" attribute of a cell, unknown types are numbers
+     */
+    private static final class CellTypeDecoder extends TypedValueDecoder {
+
+        XLSX2CSV.xssfDataType type;
+
+        @Override
+        public void decode(String lexical) {
+            decode(lexical.toCharArray(), 0, lexical.length());
+        }
+
+        @Override
+        public void decode(char[] lexical, int start, int end) {
+            type = XLSX2CSV.xssfDataType.NUMBER;
+            int length = end - start;
+            if (length == 1) {
+                switch (lexical[start]) {
+                    case 'b':
+                        type = XLSX2CSV.xssfDataType.BOOL;
+                        break;
+                    case 'e':
+                        type = XLSX2CSV.xssfDataType.ERROR;
+                        break;
+                    case 's':
+                        type = XLSX2CSV.xssfDataType.SSTINDEX;
+                        break;
+                    default:
+                        break;
+                }
+            } else if (matches(lexical, start, length, "str")) {
+                type = XLSX2CSV.xssfDataType.FORMULA;
+            } else if (matches(lexical, start, length, "inlineStr")) {
+                type = XLSX2CSV.xssfDataType.INLINESTR;
+            }
+        }
+
+        @Override
+        public void handleEmptyValue() {
+            type = XLSX2CSV.xssfDataType.NUMBER;
+        }
+
+        private static boolean matches(char[] lexical, int start, int length, String expected) {
+            if (length != expected.length()) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (lexical[start + i] != expected.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
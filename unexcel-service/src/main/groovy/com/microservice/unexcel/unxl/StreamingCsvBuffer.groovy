@@ -2,59 +2,188 @@ package com.microservice.unexcel.unxl
 
 import groovy.transform.CompileStatic
 
+/**
+ * Collects the cells of the current row in a reusable char buffer and writes finished rows
+ * as UTF-8 into a large byte buffer, which goes to the output stream in big blocks.
+ * Leading empty rows are skipped, trailing empty rows are dropped and short rows are padded
+ * with delimiters up to maxNumberOfColumns.
+ * <p>
+ * Typed cells are written as quoted CSV text, quotes are doubled and backslashes escaped.
+ * {@link #add(char[], int, int)} takes a cell that is rendered already. Subclasses write other line oriented
+ * text formats by overriding how cells and lines look.
+ * <p>
+ * With sheet parts the output is split: a part is opened when there is something to write and committed
+ * after the line that fills it, empty lines pending at that point go to the next part.
+ */
 @CompileStatic
-class StreamingCsvBuffer {
+class StreamingCsvBuffer implements SheetSink {
     public static final char nbsp = (char) 160.intValue()
     public static final char space = (char) 32.intValue()
 
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16
+    // int copies of nbsp and space, comparing an int with a char boxes both in Groovy
+    private static final int NBSP_CODE = 160
+    private static final int SPACE_CODE = 32
+    private static final char[] LINE_SEPARATOR = System.lineSeparator().toCharArray()
+    private static final char[] NONE = new char[0]
+
     String delimiter = ',' // comma is the default CSV delimeter
 
     /**
-     * Output print stream
+     * Output stream, rows are written to it in blocks of OUTPUT_BUFFER_SIZE bytes
+     */
+    OutputStream stream
+
+    /**
+     * Notified about every line and block written to the stream
      */
-    PrintStream stream
+    ConversionListener listener = ConversionListener.NONE
 
-    List<String> currentRow
+    /**
+     * 0-based sheet row of the current line, set by the engines; a committed part ends with it
+     */
+    int sheetRow = -1
 
     boolean hasData
     boolean hasNotEmptyFirstRow
     int numberOfEmptyRows
     int maxNumberOfColumns;
 
-    StreamingCsvBuffer(PrintStream printStream) {
-        this.stream = printStream
+    /**
+     * Text of a cell without a value, and of a line before and after its cells
+     */
+    protected String emptyCell = ''
+    protected char[] lineStart = NONE
+    protected char[] lineEnd = NONE
+
+    // Cells of the current row, separated by the delimiter
+    private char[] row = new char[1024]
+    private int rowLength
+    private int rowColumns
+
+    // Line of empty cells only, rebuilt when the number of columns grows
+    private char[] emptyLine = new char[0]
+    private int emptyLineColumns = -1
+
+    private final byte[] output = new byte[OUTPUT_BUFFER_SIZE]
+    private int outputLength
+
+    // Parts of the sheet, null if everything goes to stream
+    private final SheetParts parts
+    // Lines and bytes written to the current part, whether a line separator is due before the next line
+    private int partRows
+    private long partBytes
+    private boolean partHasData
+
+    StreamingCsvBuffer(OutputStream stream) {
+        this.stream = stream
+        this.parts = null
         hasData = false
-        currentRow = new ArrayList<>()
+    }
+
+    /**
+     * Writes the sheet into parts, the stream is opened lazily for every part. If the sheet resumes
+     * from a checkpoint, it continues as if the committed rows had just been written.
+     */
+    StreamingCsvBuffer(SheetParts parts) {
+        this.parts = parts
+        Checkpoint resumeFrom = parts.resumeFrom
+        hasData = resumeFrom != null && resumeFrom.parts > 0
+        maxNumberOfColumns = resumeFrom == null ? 0 : resumeFrom.maxColumns
     }
 
     StreamingCsvBuffer add(String value) {
-        currentRow.add(value.replace(nbsp, space)) // replace nbsp to simple space
+        startCell(value.length())
+        value.getChars(0, value.length(), row, rowLength)
+        rowLength += value.length()
+        this
+    }
+
+    StreamingCsvBuffer add(char[] chars, int offset, int length) {
+        startCell(length)
+        System.arraycopy(chars, offset, row, rowLength, length)
+        rowLength += length
         this
     }
 
     StreamingCsvBuffer add(char value) {
-        currentRow.add(String.valueOf(value))
+        startCell(1)
+        row[rowLength++] = value
+        this
+    }
+
+    boolean isFormatted() {
+        true
+    }
+
+    StreamingCsvBuffer addText(char[] chars, int offset, int length) {
+        startCell(length)
+        appendText(chars, offset, length)
+        this
+    }
+
+    StreamingCsvBuffer addText(String value) {
+        addText(value.toCharArray(), 0, value.length())
+    }
+
+    StreamingCsvBuffer addNumber(double value) {
+        startCell(0)
+        appendNumber(value)
+        this
+    }
+
+    StreamingCsvBuffer addBoolean(boolean value) {
+        startCell(0)
+        appendBoolean(value)
         this
     }
 
+    StreamingCsvBuffer addEmpty() {
+        add(emptyCell)
+    }
+
     StreamingCsvBuffer newLine() {
         flush()
-        currentRow = new ArrayList<>()
+        rowLength = 0
+        rowColumns = 0
         this
     }
 
+    /**
+     * Writes everything buffered so far to the stream and flushes it, the stream stays open.
+     * Call it when the sheet is done.
+     */
+    void finish() {
+        if (parts != null) {
+            commitPart(true)
+            return
+        }
+        writeOutput()
+        long start = System.nanoTime()
+        stream.flush()
+        listener.stageFinished(ConversionStage.WRITE, System.nanoTime() - start)
+    }
+
     void close() {
         flush()
-        stream.close()
+        finish()
+        stream?.close()
     }
 
     protected void flush() {
         // as soon as we cannot determine number of columns before start reading Excel, maxNumberOfColumns is optional and may be set during file processing
-        maxNumberOfColumns = Math.max(maxNumberOfColumns, currentRow.size())
-        if (!currentRow.isEmpty()) {
+        maxNumberOfColumns = Math.max(maxNumberOfColumns, rowColumns)
+        if (rowColumns > 0) {
             flushLines()
+            listener.rowsWritten(numberOfEmptyRows + 1)
+            listener.cellsWritten(rowColumns)
             hasData = true // mark that we has written a line at least once
+            partRows += numberOfEmptyRows + 1
+            partHasData = true
             numberOfEmptyRows = 0
+            if (parts != null && parts.isFull(partRows, partBytes + outputLength)) {
+                commitPart(false)
+            }
         } else if (hasData) {
             // keep that we have an empty line. If then there will be any non-empty line, we need to flush these empty lines
             // if there is no such non-empty lines, then do nothing, skip last empty lines completely.
@@ -66,27 +195,185 @@ class StreamingCsvBuffer {
 
     protected void flushLines() {
         // write a new line if there was data before
-        if (hasData) {
-            stream.println()
+        if (parts == null ? hasData : partHasData) {
+            encode(LINE_SEPARATOR, 0, LINE_SEPARATOR.length)
         }
         // write empty lines between lines with data
         if (numberOfEmptyRows) {
-            String emptyLine = delimiter.multiply(maxNumberOfColumns - 1)
+            buildEmptyLine()
             for (int i = 0; i < numberOfEmptyRows; i++) {
-                stream.println(emptyLine)
+                encode(emptyLine, 0, emptyLine.length)
+                encode(LINE_SEPARATOR, 0, LINE_SEPARATOR.length)
+            }
+        }
+        // add missed columns if necessary and write down data from current row
+        for (int i = rowColumns; i < maxNumberOfColumns; i++) {
+            appendDelimiter()
+            appendRow(emptyCell)
+        }
+        encode(lineStart, 0, lineStart.length)
+        encode(row, 0, rowLength)
+        encode(lineEnd, 0, lineEnd.length)
+    }
+
+    /**
+     * Appends a text cell as a quoted CSV value
+     */
+    protected void appendText(char[] chars, int offset, int length) {
+        ensureRowCapacity(length * 2 + 2)
+        char[] target = row
+        int position = rowLength
+        target[position++] = (char) '"'
+        int end = offset + length
+        for (int i = offset; i < end; i++) {
+            char c = chars[i]
+            if (c == (char) '"') {
+                target[position++] = (char) '"'
+            } else if (c == (char) '\\') {
+                target[position++] = (char) '\\'
+            }
+            target[position++] = c
+        }
+        target[position++] = (char) '"'
+        rowLength = position
+    }
+
+    protected void appendNumber(double value) {
+        String text = NumberText.toString(value)
+        appendText(text.toCharArray(), 0, text.length())
+    }
+
+    protected void appendBoolean(boolean value) {
+        appendRow(value ? '"TRUE"' : '"FALSE"')
+    }
+
+    /**
+     * Appends text to the current cell as it is
+     */
+    protected void appendRow(String text) {
+        int length = text.length()
+        ensureRowCapacity(length)
+        text.getChars(0, length, row, rowLength)
+        rowLength += length
+    }
+
+    protected void ensureRowCapacity(int extra) {
+        if (rowLength + extra > row.length) {
+            row = Arrays.copyOf(row, Math.max(row.length * 2, rowLength + extra))
+        }
+    }
+
+    protected char[] getRowChars() {
+        row
+    }
+
+    protected int getRowLength() {
+        rowLength
+    }
+
+    protected void setRowLength(int rowLength) {
+        this.rowLength = rowLength
+    }
+
+    /**
+     * Closes the current part, if anything has been written to it, and reports the checkpoint
+     */
+    private void commitPart(boolean sheetDone) {
+        boolean open = stream != null || outputLength > 0
+        if (open) {
+            writeOutput()
+            long start = System.nanoTime()
+            stream.close()
+            listener.stageFinished(ConversionStage.WRITE, System.nanoTime() - start)
+            stream = null
+        }
+        parts.commit(open, sheetRow, maxNumberOfColumns, sheetDone)
+        partRows = 0
+        partBytes = 0
+        partHasData = false
+    }
+
+    private void startCell(int length) {
+        ensureRowCapacity(length + delimiter.length())
+        if (rowColumns > 0) {
+            appendDelimiter()
+        }
+        rowColumns++
+    }
+
+    private void appendDelimiter() {
+        int length = delimiter.length()
+        ensureRowCapacity(length)
+        delimiter.getChars(0, length, row, rowLength)
+        rowLength += length
+    }
+
+    private void buildEmptyLine() {
+        int columns = maxNumberOfColumns
+        if (columns == emptyLineColumns) {
+            return
+        }
+        StringBuilder line = new StringBuilder().append(lineStart)
+        for (int i = 0; i < columns; i++) {
+            if (i > 0) {
+                line.append(delimiter)
             }
+            line.append(emptyCell)
         }
-        // write down data from current row
-        Iterator<String> iterator = currentRow.iterator()
-        while (iterator.hasNext()) {
-            stream.print(iterator.next())
-            if (iterator.hasNext()) {
-                stream.print(delimiter)
+        line.append(lineEnd)
+        emptyLine = line.toString().toCharArray()
+        emptyLineColumns = columns
+    }
+
+    /**
+     * Encodes the chars as UTF-8 into the output buffer, non-breaking spaces become simple spaces
+     */
+    private void encode(char[] chars, int offset, int length) {
+        byte[] out = output
+        int position = outputLength
+        int end = offset + length
+        for (int i = offset; i < end; i++) {
+            if (position > OUTPUT_BUFFER_SIZE - 4) {
+                outputLength = position
+                writeOutput()
+                position = 0
+            }
+            int c = (int) chars[i]
+            if (c < 0x80) {
+                out[position++] = (byte) c
+            } else if (c == NBSP_CODE) {
+                out[position++] = (byte) SPACE_CODE
+            } else if (c < 0x800) {
+                out[position++] = (byte) (0xC0 | (c >> 6))
+                out[position++] = (byte) (0x80 | (c & 0x3F))
+            } else if (Character.isHighSurrogate((char) c) && i + 1 < end && Character.isLowSurrogate(chars[i + 1])) {
+                int codePoint = Character.toCodePoint((char) c, chars[++i])
+                out[position++] = (byte) (0xF0 | (codePoint >> 18))
+                out[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F))
+                out[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F))
+                out[position++] = (byte) (0x80 | (codePoint & 0x3F))
+            } else if (Character.isSurrogate((char) c)) {
+                out[position++] = (byte) 0x3F // '?', unpaired surrogate cannot be encoded
+            } else {
+                out[position++] = (byte) (0xE0 | (c >> 12))
+                out[position++] = (byte) (0x80 | ((c >> 6) & 0x3F))
+                out[position++] = (byte) (0x80 | (c & 0x3F))
             }
         }
-        // add missed columns if necessary
-        for (int i = currentRow.size(); i < maxNumberOfColumns; i++) {
-            stream.print(delimiter)
+        outputLength = position
+    }
+
+    private void writeOutput() {
+        if (outputLength > 0) {
+            if (stream == null) {
+                stream = parts.open()
+            }
+            long start = System.nanoTime()
+            stream.write(output, 0, outputLength)
+            listener.stageFinished(ConversionStage.WRITE, System.nanoTime() - start)
+            listener.bytesWritten(outputLength)
+            partBytes += outputLength
+            outputLength = 0
         }
     }
 }
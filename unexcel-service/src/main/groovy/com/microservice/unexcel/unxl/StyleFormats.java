@@ -0,0 +1,106 @@
+package com.microservice.unexcel.unxl;
+
+import com.fasterxml.aalto.stax.InputFactoryImpl;
+import org.apache.poi.ss.usermodel.BuiltinFormats;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Number formats of the cell styles of a XLSX workbook by style index. Built once per workbook, read-only
+ * afterwards and shared by all sheets, so cells don't go through the styles table.
+ */
+public final class StyleFormats {
+
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    private final NumberStyle[] styles;
+
+    private StyleFormats(NumberStyle[] styles) {
+        this.styles = styles;
+    }
+
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = new InputFactoryImpl();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    /**
+     * Reads the number formats of the cell styles (cellXfs) from styles.xml, fonts, fills and borders are skipped.
+     * A style without a custom format gets the built-in format of its format index, like POI's StylesTable does.
+     *
+     * @param stylesXml styles.xml of the workbook, null if it has none
+     */
+    public static StyleFormats read(InputStream stylesXml) throws IOException {
+        if (stylesXml == null) {
+            return new StyleFormats(new NumberStyle[0]);
+        }
+        Map<Short, String> formats = new HashMap<>();
+        List<NumberStyle> styles = new ArrayList<>();
+        try {
+            XMLStreamReader reader = FACTORY.createXMLStreamReader(stylesXml);
+            try {
+                // numFmt also appears in the differential formats, xf also in the cell style formats
+                String section = null;
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        String name = reader.getLocalName();
+                        if ("numFmts".equals(name) || "cellXfs".equals(name)) {
+                            section = name;
+                        } else if ("numFmt".equals(name) && "numFmts".equals(section)) {
+                            formats.put(formatIndex(reader), reader.getAttributeValue(null, "formatCode"));
+                        } else if ("xf".equals(name) && "cellXfs".equals(section)) {
+                            short formatIndex = formatIndex(reader);
+                            String formatString = formats.get(formatIndex);
+                            if (formatString == null) {
+                                formatString = BuiltinFormats.getBuiltinFormat(formatIndex);
+                            }
+                            styles.add(new NumberStyle(formatIndex, formatString));
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals(section)) {
+                        section = null;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException | NumberFormatException e) {
+            throw new IOException("Failed to read the styles", e);
+        }
+        return new StyleFormats(styles.toArray(new NumberStyle[styles.size()]));
+    }
+
+    private static short formatIndex(XMLStreamReader reader) {
+        String numFmtId = reader.getAttributeValue(null, "numFmtId");
+        return numFmtId != null ? (short) Long.parseLong(numFmtId) : 0;
+    }
+
+    public int size() {
+        return styles.length;
+    }
+
+    /**
+     * @return true if the workbook has a style with this index
+     */
+    public boolean contains(int styleIndex) {
+        return styleIndex >= 0 && styleIndex < styles.length;
+    }
+
+    /**
+     * @return number format of the style, null if the workbook has no style with this index
+     */
+    public NumberStyle getNumberStyle(int styleIndex) {
+        return contains(styleIndex) ? styles[styleIndex] : null;
+    }
+}
@@ -12,6 +12,17 @@ class SystemOutPrintStreamProducer implements PrintStreamProducer {
         return System.out
     }
 
+    @Override
+    PrintStream getPrintStream(int sheetIndex, String sheetName) {
+        // sheet streams are closed by their callers, System.out must stay open
+        return new PrintStream(getNextPrintStream(sheetName)) {
+            @Override
+            void close() {
+                flush()
+            }
+        }
+    }
+
     @Override
     List<Path> getResultFiles() {
         return []
@@ -21,4 +32,9 @@ class SystemOutPrintStreamProducer implements PrintStreamProducer {
     void removeLastFile() {
         // do nothing
     }
+
+    @Override
+    void removeFile(int sheetIndex) {
+        // do nothing
+    }
 }
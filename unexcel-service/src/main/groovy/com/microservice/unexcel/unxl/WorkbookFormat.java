@@ -0,0 +1,64 @@
+package com.microservice.unexcel.unxl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Container format of a workbook, recognized by the first bytes of the file
+ */
+public enum WorkbookFormat {
+
+    /**
+     * Excel 97-2003, OLE2 compound document
+     */
+    XLS(new byte[]{(byte) 0xD0, (byte) 0xCF, (byte) 0x11, (byte) 0xE0, (byte) 0xA1, (byte) 0xB1, (byte) 0x1A, (byte) 0xE1}),
+
+    /**
+     * Office Open XML, ZIP package
+     */
+    XLSX(new byte[]{'P', 'K', 3, 4});
+
+    private static final int HEADER_SIZE = 8;
+
+    private final byte[] magic;
+
+    WorkbookFormat(byte[] magic) {
+        this.magic = magic;
+    }
+
+    /**
+     * Reads the header of the file, the rest of the file is not touched
+     *
+     * @return format of the file or null if it is neither XLS nor XLSX
+     */
+    public static WorkbookFormat detect(Path file) throws IOException {
+        byte[] header = new byte[HEADER_SIZE];
+        int length = 0;
+        try (InputStream stream = Files.newInputStream(file)) {
+            int read;
+            while (length < HEADER_SIZE && (read = stream.read(header, length, HEADER_SIZE - length)) > 0) {
+                length += read;
+            }
+        }
+        for (WorkbookFormat format : values()) {
+            if (format.matches(header, length)) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    private boolean matches(byte[] header, int length) {
+        if (length < magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if (header[i] != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
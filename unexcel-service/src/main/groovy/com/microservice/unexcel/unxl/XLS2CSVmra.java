@@ -17,26 +17,29 @@
 
 package com.microservice.unexcel.unxl;
 
-import org.apache.commons.lang3.StringUtils;
+import org.apache.poi.hssf.eventusermodel.AbortableHSSFListener;
 import org.apache.poi.hssf.eventusermodel.EventWorkbookBuilder.SheetRecordCollectingListener;
 import org.apache.poi.hssf.eventusermodel.HSSFEventFactory;
 import org.apache.poi.hssf.eventusermodel.HSSFListener;
 import org.apache.poi.hssf.eventusermodel.HSSFRequest;
+import org.apache.poi.hssf.eventusermodel.HSSFUserException;
 import org.apache.poi.hssf.eventusermodel.MissingRecordAwareHSSFListener;
 import org.apache.poi.hssf.eventusermodel.dummyrecord.LastCellOfRowDummyRecord;
 import org.apache.poi.hssf.eventusermodel.dummyrecord.MissingCellDummyRecord;
 import org.apache.poi.hssf.model.HSSFFormulaParser;
 import org.apache.poi.hssf.record.*;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
-import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.apache.poi.poifs.filesystem.DirectoryNode;
+import org.apache.poi.poifs.filesystem.NPOIFSFileSystem;
 
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Executor;
 
 /**
  * A XLS -> CSV processor, that uses the MissingRecordAware
@@ -46,13 +49,19 @@ import java.util.Locale;
  */
 public class XLS2CSVmra implements HSSFListener {
     private int minColumns;
-    private POIFSFileSystem fs;
+    private DirectoryNode root;
     private PrintStream output;
-    private StreamingCsvBuffer csvBuffer;
+    private SheetSink sink;
+    // Typed cells of the current sheet go through it to the sink
+    private CellFormattingStage formatting;
+    // Hands the cells over to the formatting stage on a formatter thread, null if the sheet is not pipelined
+    private PipelinedCellHandler pipeline;
+    // Receiver of the typed cells, the pipeline or the formatting stage
+    private CellHandler cells;
     private PrintStreamProducer printStreamProducer;
-
-    private int lastRowNumber;
-    private int lastColumnNumber;
+    private ConversionListener conversionListener = ConversionListener.NONE;
+    private ConversionOptions options = ConversionOptions.ALL;
+    private Executor formatExecutor;
 
     /**
      * Should we output the formula, or the value it has?
@@ -74,23 +83,38 @@ public class XLS2CSVmra implements HSSFListener {
      */
     private int sheetIndex = -1;
     private String sheetName;
+    private long sheetStart;
+    private boolean date1904;
     private BoundSheetRecord[] orderedBSRs;
     private List<BoundSheetRecord> boundSheetRecords = new ArrayList<BoundSheetRecord>();
 
+    /**
+     * Sheets, rows and columns left out: cells of an unselected sheet are skipped, and reading stops
+     * once the last selected sheet or the last selected row of it is done
+     */
+    private int lastSelectedSheet = Integer.MAX_VALUE;
+    private boolean skipSheet;
+    private boolean done;
+
+    /**
+     * Last row of the current sheet committed by an interrupted conversion, the sheet continues after it
+     */
+    private int resumeAfterRow = -1;
+
     // For handling formulas with string results
-    private int nextRow;
     private int nextColumn;
     private boolean outputNextStringRecord;
 
     /**
      * Creates a new XLS -> CSV converter
      *
-     * @param fs                  The POIFSFileSystem to process
+     * @param fs                  The file system to process, File-backed NPOIFSFileSystem reads the workbook
+     *                            on demand instead of loading it into memory
      * @param printStreamProducer The PrintStream to output the CSV to
      * @param minColumns          The minimum number of columns to output, or -1 for no minimum
      */
-    public XLS2CSVmra(POIFSFileSystem fs, PrintStreamProducer printStreamProducer, int minColumns) {
-        this.fs = fs;
+    public XLS2CSVmra(NPOIFSFileSystem fs, PrintStreamProducer printStreamProducer, int minColumns) {
+        this.root = fs.getRoot();
         this.printStreamProducer = printStreamProducer;
         this.minColumns = minColumns;
     }
@@ -105,11 +129,29 @@ public class XLS2CSVmra implements HSSFListener {
      */
     public XLS2CSVmra(String filename, int minColumns) throws IOException, FileNotFoundException {
         this(
-                new POIFSFileSystem(new FileInputStream(filename)),
+                new NPOIFSFileSystem(new File(filename), true),
                 new SystemOutPrintStreamProducer(), minColumns
         );
     }
 
+    public void setConversionListener(ConversionListener conversionListener) {
+        this.conversionListener = conversionListener;
+    }
+
+    /**
+     * Sheets, rows and columns to convert, the whole workbook by default
+     */
+    public void setOptions(ConversionOptions options) {
+        this.options = options;
+    }
+
+    /**
+     * @see XLSX2CSV#setFormatExecutor
+     */
+    public void setFormatExecutor(Executor formatExecutor) {
+        this.formatExecutor = formatExecutor;
+    }
+
     /**
      * Initiates the processing of the XLS file to CSV
      */
@@ -126,11 +168,86 @@ public class XLS2CSVmra implements HSSFListener {
             workbookBuildingListener = new SheetRecordCollectingListener(formatListener);
             request.addListenerForAllRecords(workbookBuildingListener);
         }
+        // called after the other listeners, stops reading the workbook once the rest of it is left out
+        request.addListenerForAllRecords(new AbortableHSSFListener() {
+            @Override
+            public short abortableProcessRecord(Record record) {
+                return done ? (short) 1 : 0;
+            }
+        });
+
+        try {
+            factory.abortableProcessWorkbookEvents(request, root);
+            if (sink != null) {
+                finishSheet();
+            }
+        } catch (HSSFUserException e) {
+            throw new IOException(e);
+        } finally {
+            if (pipeline != null) {
+                // stops the formatter thread if reading failed
+                pipeline.close();
+            }
+        }
+    }
 
-        factory.processWorkbookEvents(request, fs);
-        if (csvBuffer != null && !csvBuffer.isHasData()) {
+    /**
+     * Writes out the rest of the current sheet and reports its parse and format time.
+     * Records are parsed as they are read, so a sheet's parse time runs from its BOF record to the next one.
+     */
+    private void finishSheet() {
+        if (pipeline != null) {
+            pipeline.finish();
+        }
+        sink.finish();
+        if (!sink.getHasData() && !printStreamProducer.getChunkPolicy().isEnabled()) {
+            // remove current (latest) file because it has not data
             printStreamProducer.removeLastFile();
         }
+        conversionListener.stageFinished(ConversionStage.FORMAT, formatting.getFormatNanos());
+        conversionListener.stageFinished(ConversionStage.PARSE, System.nanoTime() - sheetStart);
+        conversionListener.sheetFinished(sheetName);
+    }
+
+    /**
+     * @return 0-based output column of a selected sheet column
+     */
+    private int outputColumn(int column) {
+        return options.getOutputColumn(column);
+    }
+
+    /**
+     * @return true if the record is a cell or the end of a row that is left out, it is dropped before
+     * anything is formatted
+     */
+    private boolean isLeftOut(Record record) {
+        int row;
+        int column = -1;
+        if (record instanceof CellValueRecordInterface) {
+            row = ((CellValueRecordInterface) record).getRow();
+            column = ((CellValueRecordInterface) record).getColumn();
+        } else if (record instanceof MissingCellDummyRecord) {
+            row = ((MissingCellDummyRecord) record).getRow();
+            column = ((MissingCellDummyRecord) record).getColumn();
+        } else if (record instanceof NoteRecord) {
+            row = ((NoteRecord) record).getRow();
+            column = ((NoteRecord) record).getColumn();
+        } else if (record instanceof LastCellOfRowDummyRecord) {
+            row = ((LastCellOfRowDummyRecord) record).getRow();
+        } else {
+            return false;
+        }
+        if (skipSheet) {
+            return true;
+        }
+        if (options.isPastLastRow(row)) {
+            // rows come in order, the rest of the sheet is left out
+            skipSheet = true;
+            done = sheetIndex >= lastSelectedSheet;
+            return true;
+        }
+        return !options.isRowSelected(row) || row <= resumeAfterRow
+                || (column >= 0 && !options.isColumnSelected(column));
     }
 
     /**
@@ -138,10 +255,9 @@ public class XLS2CSVmra implements HSSFListener {
      * CSV as the file is processed.
      */
     public void processRecord(Record record) {
-        int thisRow = -1;
-        int thisColumn = -1;
-        String thisStr = null;
-
+        if (isLeftOut(record)) {
+            return;
+        }
         switch (record.getSid()) {
             case BoundSheetRecord.sid:
                 boundSheetRecords.add((BoundSheetRecord) record);
@@ -161,13 +277,46 @@ public class XLS2CSVmra implements HSSFListener {
                     sheetIndex++;
                     if (orderedBSRs == null) {
                         orderedBSRs = BoundSheetRecord.orderByBofPosition(boundSheetRecords);
+                        List<String> sheetNames = new ArrayList<String>();
+                        for (BoundSheetRecord bsr : orderedBSRs) {
+                            sheetNames.add(bsr.getSheetname());
+                        }
+                        lastSelectedSheet = options.getLastSelectedSheet(sheetNames);
+                    }
+                    if (sink != null) {
+                        finishSheet();
+                        sink = null;
+                        formatting = null;
+                        pipeline = null;
+                        cells = null;
+                    }
+                    if (sheetIndex > lastSelectedSheet) {
+                        done = true;
+                        break;
                     }
                     sheetName = orderedBSRs[sheetIndex].getSheetname();
-                    if (csvBuffer != null && !csvBuffer.getHasData()) {
-                        // remove current (latest) file because it has not data
-                        printStreamProducer.removeLastFile();
+                    Checkpoint checkpoint = printStreamProducer.getCheckpoint(sheetIndex);
+                    skipSheet = !options.isSheetSelected(sheetIndex, sheetName)
+                            || (checkpoint != null && checkpoint.isSheetDone());
+                    resumeAfterRow = -1;
+                    if (skipSheet) {
+                        break;
+                    }
+                    sheetStart = System.nanoTime();
+                    if (printStreamProducer.getChunkPolicy().isEnabled()) {
+                        SheetParts parts = new SheetParts(printStreamProducer, sheetIndex, sheetName, checkpoint,
+                                conversionListener);
+                        resumeAfterRow = parts.getResumeAfterRow();
+                        sink = printStreamProducer.getOutputFormat().newSink(parts);
+                    } else {
+                        sink = printStreamProducer.getOutputFormat()
+                                .newSink(printStreamProducer.getNextPrintStream(sheetName));
                     }
-                    csvBuffer = new StreamingCsvBuffer(printStreamProducer.getNextPrintStream(sheetName));
+                    sink.setListener(conversionListener);
+                    formatting = new CellFormattingStage(sink, minColumns, date1904);
+                    pipeline = PipelinedCellHandler.start(formatting, formatExecutor);
+                    cells = pipeline != null ? pipeline : formatting;
+                    conversionListener.sheetStarted(sheetName);
                 }
                 break;
 
@@ -177,147 +326,102 @@ public class XLS2CSVmra implements HSSFListener {
 
             case BlankRecord.sid:
                 BlankRecord brec = (BlankRecord) record;
-
-                thisRow = brec.getRow();
-                thisColumn = brec.getColumn();
-                thisStr = "";
+                cells.blankCell(outputColumn(brec.getColumn()));
                 break;
             case BoolErrRecord.sid:
                 BoolErrRecord berec = (BoolErrRecord) record;
-
-                thisRow = berec.getRow();
-                thisColumn = berec.getColumn();
-                thisStr = "";
+                if (berec.isBoolean()) {
+                    cells.booleanCell(outputColumn(berec.getColumn()), berec.getBooleanValue());
+                } else {
+                    // errors are left blank
+                    cells.blankCell(outputColumn(berec.getColumn()));
+                }
                 break;
 
             case FormulaRecord.sid:
                 FormulaRecord frec = (FormulaRecord) record;
 
-                thisRow = frec.getRow();
-                thisColumn = frec.getColumn();
-
                 if (outputFormulaValues) {
                     if (Double.isNaN(frec.getValue())) {
                         // Formula result is a string
                         // This is stored in the next record
                         outputNextStringRecord = true;
-                        nextRow = frec.getRow();
                         nextColumn = frec.getColumn();
                     } else {
-                        thisStr = formatListener.formatNumberDateCell(frec);
+                        cells.numberCell(outputColumn(frec.getColumn()), frec.getValue(),
+                                formatListener.getNumberStyle(frec));
                     }
                 } else {
-                    thisStr = HSSFFormulaParser.toFormulaString(stubWorkbook, frec.getParsedExpression());
+                    cells.textCell(outputColumn(frec.getColumn()),
+                            HSSFFormulaParser.toFormulaString(stubWorkbook, frec.getParsedExpression()));
                 }
                 break;
             case StringRecord.sid:
                 if (outputNextStringRecord) {
                     // String for formula
                     StringRecord srec = (StringRecord) record;
-                    thisStr = srec.getString();
-                    thisRow = nextRow;
-                    thisColumn = nextColumn;
+                    cells.textCell(outputColumn(nextColumn), srec.getString());
                     outputNextStringRecord = false;
                 }
                 break;
 
             case LabelRecord.sid:
                 LabelRecord lrec = (LabelRecord) record;
-
-                thisRow = lrec.getRow();
-                thisColumn = lrec.getColumn();
-                thisStr = lrec.getValue();
+                cells.textCell(outputColumn(lrec.getColumn()), lrec.getValue());
                 break;
             case LabelSSTRecord.sid:
                 LabelSSTRecord lsrec = (LabelSSTRecord) record;
-
-                thisRow = lsrec.getRow();
-                thisColumn = lsrec.getColumn();
                 if (sstRecord == null) {
-                    thisStr = "(No SST Record, can't identify string)";
+                    cells.textCell(outputColumn(lsrec.getColumn()), "(No SST Record, can't identify string)");
                 } else {
-                    thisStr = sstRecord.getString(lsrec.getSSTIndex()).toString();
+                    cells.textCell(outputColumn(lsrec.getColumn()), sstRecord.getString(lsrec.getSSTIndex()).toString());
                 }
                 break;
             case NoteRecord.sid:
                 NoteRecord nrec = (NoteRecord) record;
-
-                thisRow = nrec.getRow();
-                thisColumn = nrec.getColumn();
                 // TODO: Find object to match nrec.getShapeId()
-                thisStr = "(TODO)";
+                cells.textCell(outputColumn(nrec.getColumn()), "(TODO)");
                 break;
             case NumberRecord.sid:
                 NumberRecord numrec = (NumberRecord) record;
-
-                thisRow = numrec.getRow();
-                thisColumn = numrec.getColumn();
-
-                // Format
-                thisStr = formatListener.formatNumberDateCell(numrec);
+                cells.numberCell(outputColumn(numrec.getColumn()), numrec.getValue(),
+                        formatListener.getNumberStyle(numrec));
                 break;
             case RKRecord.sid:
+                // HSSFEventFactory hands RK numbers over as NumberRecords, and MissingRecordAwareHSSFListener
+                // splits MulRK records into them, so this is only for listeners fed with raw records
                 RKRecord rkrec = (RKRecord) record;
-
-                thisRow = rkrec.getRow();
-                thisColumn = rkrec.getColumn();
-                thisStr = "(TODO)";
+                cells.numberCell(outputColumn(rkrec.getColumn()), rkrec.getRKNumber(),
+                        formatListener.getNumberStyle(rkrec));
                 break;
 
             case DateWindow1904Record.sid:
                 DateWindow1904Record date1904Recrod = (DateWindow1904Record) record;
-                formatListener.setDate1904(date1904Recrod.getWindowing() != 0);
+                date1904 = date1904Recrod.getWindowing() != 0;
                 break;
 
             case DimensionsRecord.sid:
                 DimensionsRecord dimensionsRecord = (DimensionsRecord) record;
-                csvBuffer.setMaxNumberOfColumns(dimensionsRecord.getLastCol());
+                if (sink != null) {
+                    // a resumed sheet may have grown wider than its dimension before
+                    sink.setMaxNumberOfColumns(Math.max(sink.getMaxNumberOfColumns(),
+                            options.getOutputColumnCount(dimensionsRecord.getLastCol())));
+                }
                 break;
 
             default:
                 break;
         }
 
-        // Handle new row
-        if (thisRow != -1 && thisRow != lastRowNumber) {
-            lastColumnNumber = -1;
-        }
-
         // Handle missing column
         if (record instanceof MissingCellDummyRecord) {
             MissingCellDummyRecord mc = (MissingCellDummyRecord) record;
-            thisRow = mc.getRow();
-            thisColumn = mc.getColumn();
-            thisStr = "";
-        }
-
-        // If we got something to print out, do so
-        if (thisStr != null) {
-            csvBuffer.add('"' + StringUtils.replaceEach(thisStr, new String[]{"\\", "\""}, new String[]{"\\\\", "\"\""}) + '"');
+            cells.blankCell(outputColumn(mc.getColumn()));
         }
 
-        // Update column and row count
-        if (thisRow > -1)
-            lastRowNumber = thisRow;
-        if (thisColumn > -1)
-            lastColumnNumber = thisColumn;
-
         // Handle end of row
         if (record instanceof LastCellOfRowDummyRecord) {
-            // Print out any missing commas if needed
-            if (minColumns > 0) {
-                // Columns are 0 based
-                if (lastColumnNumber == -1) { lastColumnNumber = 0; }
-                for (int i = lastColumnNumber; i < (minColumns); i++) {
-                    csvBuffer.add("");
-                }
-            }
-
-            // We're onto a new row
-            lastColumnNumber = -1;
-
-            // End the row
-            csvBuffer.newLine();
+            cells.endRow(((LastCellOfRowDummyRecord) record).getRow());
         }
     }
 
@@ -17,19 +17,10 @@
 
 package com.microservice.unexcel.unxl;
 
-import org.apache.commons.lang3.StringUtils;
 import org.apache.poi.hssf.util.CellReference;
-import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
 import org.apache.poi.openxml4j.opc.OPCPackage;
-import org.apache.poi.openxml4j.opc.PackageAccess;
-import org.apache.poi.ss.usermodel.BuiltinFormats;
-import org.apache.poi.ss.usermodel.DataFormatter;
-import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
-import org.apache.poi.xssf.eventusermodel.XSSFReader;
-import org.apache.poi.xssf.model.StylesTable;
-import org.apache.poi.xssf.usermodel.XSSFCellStyle;
-import org.apache.poi.xssf.usermodel.XSSFRichTextString;
 import org.apache.xmlbeans.XmlException;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTSheet;
 import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTWorkbook;
 import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTWorkbookPr;
 import org.openxmlformats.schemas.spreadsheetml.x2006.main.WorkbookDocument;
@@ -42,12 +33,20 @@ import org.xml.sax.helpers.DefaultHandler;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLStreamException;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PrintStream;
-import java.text.NumberFormat;
-import java.util.Locale;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A rudimentary XLSX -> CSV processor modeled on the
@@ -87,6 +86,38 @@ public class XLSX2CSV {
         NUMBER,
     }
 
+    /**
+     * Parser of the sheet XML
+     */
+    public enum SheetReader {
+        /**
+         * JAXP SAX parser, the reference implementation
+         */
+        SAX,
+        /**
+         * Aalto StAX pull parser, see {@link StaxSheetReader}
+         */
+        STAX,
+    }
+
+
+    /**
+     * Thrown by the SAX handler to stop parsing once the rest of the sheet is left out
+     */
+    private static final class SheetDoneException extends SAXException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Thrown at the end of a row of a sheet converted in parallel once another sheet failed
+     */
+    private static final class SheetAbortedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        SheetAbortedException() {
+            super("Another sheet failed");
+        }
+    }
 
     /**
      * Derived from http://poi.apache.org/spreadsheet/how-to.html#xssf_sax_api
@@ -99,26 +130,44 @@ public class XLSX2CSV {
     class MyXSSFSheetHandler extends DefaultHandler {
 
         /**
-         * Table with styles
+         * Number formats of the styles
          */
-        private StylesTable stylesTable;
+        private final StyleFormats styleFormats;
 
         /**
          * Table with unique strings
          */
-        private ReadOnlySharedStringsTable sharedStringsTable;
+        private SharedStrings sharedStringsTable;
 
         /**
          * Destination for data
          */
-        private final StreamingCsvBuffer csvBuffer;
+        private final SheetSink sink;
+
+        /**
+         * Typed cells go through it to the sink, formatted if the sink wants text
+         */
+        private final CellFormattingStage formatting;
+
+        /**
+         * Hands the cells over to the formatting stage on a formatter thread, null if the sheet is not pipelined
+         */
+        private final PipelinedCellHandler pipeline;
+
+        /**
+         * Receiver of the typed cells, the pipeline or the formatting stage
+         */
+        private final CellHandler cells;
 
-        private final boolean isDate1904;
+        /**
+         * Rows and columns to convert
+         */
+        private final ConversionOptions options;
 
         /**
-         * Number of columns to read starting with leftmost
+         * Last row committed by an interrupted conversion, the sheet continues after it
          */
-        private final int minColumnCount;
+        private final int resumeAfterRow;
 
         // Set when V start element is seen
         private boolean vIsOpen;
@@ -127,52 +176,61 @@ public class XLSX2CSV {
         // used when cell close element is seen.
         private xssfDataType nextDataType;
 
-        // Used to format numeric cell values.
-        private short formatIndex;
-        private String formatString;
-        private final DataFormatter formatter;
-        private final NumberFormat defaultNumberFormat;
+        // Number format of a number cell, null if it has none
+        private NumberStyle numberStyle;
 
         private int thisRow = -1;
         private int lastRowNumber = 1;
+        // Set for rows before the first selected one
+        private boolean skipRow;
 
+        // Column of the current cell in the sheet and in the CSV
+        private int sheetColumn = -1;
         private int thisColumn = -1;
-        // The last column printed to the output stream
-        private int lastColumnNumber = -1;
+        // Set for cells that are left out, they are not formatted at all
+        private boolean skipCell;
 
         // Gathers characters as they are seen.
-        private StringBuffer value;
+        private char[] value;
+        private int valueLength;
+
+        // Text of the current cell, reused for every cell
+        private final CellBuffer cell;
 
         /**
          * Accepts objects needed while parsing.
          *
-         * @param printStream output print stream
-         * @param styles      Table of styles
-         * @param strings     Table of shared strings
-         * @param cols        Minimum number of columns to show
-         * @param isDate1904  Flag to process dates as starting from 1904 year
+         * @param sink           Destination for data
+         * @param styles         Number formats of the styles
+         * @param strings        Table of shared strings
+         * @param cols           Minimum number of columns to show
+         * @param options        Rows and columns to convert
+         * @param resumeAfterRow 0-based row the sheet continues after, -1 to convert it from the start
+         * @param isDate1904     Flag to process dates as starting from 1904 year
          */
         public MyXSSFSheetHandler(
-                PrintStream printStream,
-                StylesTable styles,
-                ReadOnlySharedStringsTable strings,
+                SheetSink sink,
+                StyleFormats styles,
+                SharedStrings strings,
                 int cols,
+                ConversionOptions options,
+                int resumeAfterRow,
                 boolean isDate1904) {
-            this.stylesTable = styles;
+            this.styleFormats = styles;
             this.sharedStringsTable = strings;
-            this.minColumnCount = cols;
-            this.csvBuffer = new StreamingCsvBuffer(printStream);
-            this.value = new StringBuffer();
+            this.options = options;
+            this.resumeAfterRow = resumeAfterRow;
+            this.sink = sink;
+            this.formatting = new CellFormattingStage(sink, cols, isDate1904);
+            this.pipeline = PipelinedCellHandler.start(formatting, formatExecutor);
+            this.cells = pipeline != null ? pipeline : formatting;
+            this.value = new char[64];
+            this.cell = new CellBuffer();
             this.nextDataType = xssfDataType.NUMBER;
-            this.formatter = new CustomDataFormatter(Locale.US);
-            this.defaultNumberFormat = NumberFormat.getInstance(Locale.US);
-            this.defaultNumberFormat.setMaximumFractionDigits(UnexcelConstants.MAX_FRACTION_DIGITS);
-            this.defaultNumberFormat.setGroupingUsed(false);
-            this.isDate1904 = isDate1904;
         }
 
-        public StreamingCsvBuffer getCsvBuffer() {
-            return csvBuffer;
+        public SheetSink getSink() {
+            return sink;
         }
 
         /*
@@ -182,21 +240,14 @@ public class XLSX2CSV {
         public void startElement(String uri, String localName, String name,
                                  Attributes attributes) throws SAXException {
 
-            if ("inlineStr".equals(name) || "v".equals(name) || ("t".equals(name) && nextDataType == xssfDataType.INLINESTR)) {
-                vIsOpen = true;
-                // Clear contents cache
-                value.setLength(0);
+            if ("inlineStr".equals(name) || "v".equals(name) || ("t".equals(name) && isInlineString())) {
+                startValue();
             }
             // row
             else if ("row".equals(name)) {
-                thisRow = Integer.parseInt(attributes.getValue("r"));
-                // add missed rows if we got row #4 after row #2
-                if (thisRow > lastRowNumber + 1) {
-                    for (int i = lastRowNumber + 1; i < thisRow; i++) {
-                        csvBuffer.newLine();
-                    }
+                if (!startRow(Integer.parseInt(attributes.getValue("r")))) {
+                    throw new SheetDoneException();
                 }
-                lastRowNumber = thisRow;
             }
             // c => cell
             else if ("c".equals(name)) {
@@ -209,50 +260,116 @@ public class XLSX2CSV {
                         break;
                     }
                 }
+                int column;
                 if (firstDigit != 0) {
-                    thisColumn = nameToColumn(r.substring(0, firstDigit));
+                    column = nameToColumn(r, firstDigit);
                 } else {
-                    thisColumn++; // in some very rare cases, r maybe 237150 instead of D37150, there is no column letter. Treat it as next column
+                    column = nextColumn(); // in some very rare cases, r maybe 237150 instead of D37150, there is no column letter. Treat it as next column
                 }
 
-
-                // Set up defaults.
-                this.nextDataType = xssfDataType.NUMBER;
-                this.formatIndex = -1;
-                this.formatString = null;
+                xssfDataType type = xssfDataType.NUMBER;
+                int styleIndex = -1;
                 String cellType = attributes.getValue("t");
                 String cellStyleStr = attributes.getValue("s");
                 if ("b".equals(cellType))
-                    nextDataType = xssfDataType.BOOL;
+                    type = xssfDataType.BOOL;
                 else if ("e".equals(cellType))
-                    nextDataType = xssfDataType.ERROR;
+                    type = xssfDataType.ERROR;
                 else if ("inlineStr".equals(cellType))
-                    nextDataType = xssfDataType.INLINESTR;
+                    type = xssfDataType.INLINESTR;
                 else if ("s".equals(cellType))
-                    nextDataType = xssfDataType.SSTINDEX;
+                    type = xssfDataType.SSTINDEX;
                 else if ("str".equals(cellType))
-                    nextDataType = xssfDataType.FORMULA;
+                    type = xssfDataType.FORMULA;
                 else if (cellStyleStr != null) {
                     // It's a number, but almost certainly one
                     //  with a special style or format 
-                    int styleIndex = Integer.parseInt(cellStyleStr);
-                    XSSFCellStyle style = stylesTable.getStyleAt(styleIndex);
-                    this.formatIndex = style.getDataFormat();
-                    this.formatString = style.getDataFormatString();
-                    if (this.formatString == null)
-                        this.formatString = BuiltinFormats.getBuiltinFormat(this.formatIndex);
+                    styleIndex = Integer.parseInt(cellStyleStr);
                 }
+                startCell(column, type, styleIndex);
             } else if ("dimension".equals(name)) {
-                String ref = attributes.getValue("ref");
-                String[] dimensionCells = ref.split(":");
-                if (dimensionCells.length == 2) {
-                    // number of cells in ref attribute should 2 (like "A1:NC536"), otherwise it is an empty list (only "A1" in ref)
-                    String lastCell = dimensionCells[1];
-                    CellReference cellReference = new CellReference(lastCell);
-                    csvBuffer.setMaxNumberOfColumns(cellReference.getCol() + 1);
+                dimension(attributes.getValue("ref"));
+            }
+
+        }
+
+        /**
+         * A value starts: "v" element, or "t" element of an inline string
+         */
+        void startValue() {
+            vIsOpen = true;
+            // Clear contents cache
+            valueLength = 0;
+        }
+
+        /**
+         * @param rowNumber 1-based row number, the "r" attribute of the row
+         * @return false if the row is past the last selected one, the rest of the sheet can be skipped then
+         */
+        boolean startRow(int rowNumber) {
+            if (options.isPastLastRow(rowNumber - 1)) {
+                return false;
+            }
+            thisRow = rowNumber;
+            skipRow = !options.isRowSelected(rowNumber - 1) || rowNumber - 1 <= resumeAfterRow;
+            // add missed rows if we got row #4 after row #2
+            if (!skipRow && thisRow > lastRowNumber + 1) {
+                for (int i = lastRowNumber + 1; i < thisRow; i++) {
+                    cells.endRow(i - 1);
                 }
             }
+            lastRowNumber = thisRow;
+            return true;
+        }
 
+        /**
+         * @param column     0-based column of the cell
+         * @param type       type of the cell by its "t" attribute
+         * @param styleIndex "s" attribute of a number cell, -1 if there is none
+         */
+        void startCell(int column, xssfDataType type, int styleIndex) {
+            sheetColumn = column;
+            thisColumn = options.getOutputColumn(column);
+            skipCell = skipRow || !options.isColumnSelected(column);
+            // Set up defaults.
+            this.nextDataType = type;
+            this.numberStyle = null;
+            if (!skipCell && type == xssfDataType.NUMBER) {
+                this.numberStyle = styleFormats.getNumberStyle(styleIndex);
+            }
+        }
+
+        /**
+         * @return number of a row without the "r" attribute
+         */
+        int nextRow() {
+            return thisRow + 1;
+        }
+
+        /**
+         * @return column of a cell without a column letter in its reference
+         */
+        int nextColumn() {
+            return sheetColumn + 1;
+        }
+
+        boolean isInlineString() {
+            return nextDataType == xssfDataType.INLINESTR;
+        }
+
+        /**
+         * @param ref "ref" attribute of the dimension element, like "A1:NC536"
+         */
+        void dimension(String ref) {
+            String[] dimensionCells = ref.split(":");
+            if (dimensionCells.length == 2) {
+                // number of cells in ref attribute should 2 (like "A1:NC536"), otherwise it is an empty list (only "A1" in ref)
+                String lastCell = dimensionCells[1];
+                CellReference cellReference = new CellReference(lastCell);
+                // a resumed sheet may have grown wider than its dimension before
+                sink.setMaxNumberOfColumns(Math.max(sink.getMaxNumberOfColumns(),
+                        options.getOutputColumnCount(cellReference.getCol() + 1)));
+            }
         }
 
         /*
@@ -262,95 +379,81 @@ public class XLSX2CSV {
         public void endElement(String uri, String localName, String name)
                 throws SAXException {
 
-            String thisStr = null;
-
             // v => contents of a cell
-            if ("v".equals(name) || ("t".equals(name) && nextDataType == xssfDataType.INLINESTR)) {
-                // Process the value contents as required.
-                // Do now, as characters() may be called more than once
-                switch (nextDataType) {
-
-                    case BOOL:
-                        char first = value.charAt(0);
-                        thisStr = first == '0' ? "FALSE" : "TRUE";
-                        break;
-
-                    case ERROR:
-                        thisStr = "ERROR:" + escapeQuotesAndSlashes(value.toString());
-                        break;
-
-                    case FORMULA:
-                        // A formula could result in a string value,
-                        // so always add double-quote characters.
-                        thisStr = escapeQuotesAndSlashes(value.toString());
-                        break;
-
-                    case INLINESTR:
-                        // TODO: have seen an example of this, so it's untested.
-                        XSSFRichTextString rtsi = new XSSFRichTextString(value.toString());
-                        thisStr = escapeQuotesAndSlashes(rtsi.toString());
-                        break;
-
-                    case SSTINDEX:
-                        String sstIndex = value.toString();
-                        try {
-                            int idx = Integer.parseInt(sstIndex);
-                            XSSFRichTextString rtss = new XSSFRichTextString(sharedStringsTable.getEntryAt(idx));
-                            thisStr = escapeQuotesAndSlashes(rtss.toString());
-                        } catch (NumberFormatException ex) {
-                            csvBuffer.add("\"Failed to parse SST index '" + sstIndex + "': " + ex.toString() + "\"");
-                            csvBuffer.newLine();
-                        }
-                        break;
-
-                    case NUMBER:
-                        String n = value.toString();
-                        if (this.formatString != null) {
-                            thisStr = formatter.formatRawCellContents(Double.parseDouble(n), this.formatIndex, this.formatString, isDate1904);
-                        } else {
-                            thisStr = defaultNumberFormat.format(Double.parseDouble(n));
-                        }
-                        break;
-
-                    default:
-                        thisStr = "(TODO: Unexpected type: " + nextDataType + ")";
-                        break;
-                }
-
-                // Output after we've seen the string contents
-                // Emit commas for any fields that were missing on this row
-                for (int i = lastColumnNumber + 1; i < thisColumn; ++i) {
-                    csvBuffer.add("");
-                }
-                if (lastColumnNumber == -1) {
-                    lastColumnNumber = 0;
-                }
-
-                // Might be the empty string. Escape with " every value to make it Excel-compatible.
-                csvBuffer.add('"' + thisStr + '"');
-
-                // Update column
-                if (thisColumn > -1)
-                    lastColumnNumber = thisColumn;
-
+            if ("v".equals(name) || ("t".equals(name) && isInlineString())) {
+                endValue();
             } else if ("row".equals(name)) {
+                endRow();
+            }
 
-                // Print out any missing commas if needed
-                if (minColumns > 0) {
-                    // Columns are 0 based
-                    if (lastColumnNumber == -1) {
-                        lastColumnNumber = 0;
-                    }
-                    for (int i = lastColumnNumber; i < (this.minColumnCount); i++) {
-                        csvBuffer.add("");
+        }
+
+        /**
+         * Writes the cell of the value that just ended
+         */
+        void endValue() {
+            if (skipCell) {
+                return;
+            }
+            // Process the value contents as required.
+            // Do now, as characters() may be called more than once.
+            // Might be the empty string. Numbers are formatted later, and only if the sink wants text.
+            switch (nextDataType) {
+
+                case BOOL:
+                    cells.booleanCell(thisColumn, valueLength == 0 || value[0] != '0');
+                    break;
+
+                case ERROR:
+                    cell.clear();
+                    cell.append("ERROR:").append(value, 0, valueLength);
+                    cells.textCell(thisColumn, cell.chars(), 0, cell.length());
+                    break;
+
+                case FORMULA:
+                    // A formula could result in a string value, it is text either way
+                    cells.textCell(thisColumn, value, 0, valueLength);
+                    break;
+
+                case INLINESTR:
+                    // TODO: have seen an example of this, so it's untested.
+                    cell.clear();
+                    cell.appendUtfDecoded(value, 0, valueLength);
+                    cells.textCell(thisColumn, cell.chars(), 0, cell.length());
+                    break;
+
+                case SSTINDEX:
+                    cell.clear();
+                    try {
+                        int idx = parseSstIndex(value, valueLength);
+                        cell.appendUtfDecoded(sharedStringsTable.getEntryAt(idx));
+                    } catch (NumberFormatException ex) {
+                        cells.textCell(thisColumn, "Failed to parse SST index '" + new String(value, 0, valueLength) + "': " + ex.toString());
+                        cells.endRow(thisRow - 1);
+                        cell.append("null");
                     }
-                }
+                    cells.textCell(thisColumn, cell.chars(), 0, cell.length());
+                    break;
 
-                // We're onto a new row
-                csvBuffer.newLine();
-                lastColumnNumber = -1;
+                case NUMBER:
+                    cells.numberCell(thisColumn, value, 0, valueLength, numberStyle);
+                    break;
+
+                default:
+                    cells.textCell(thisColumn, "(TODO: Unexpected type: " + nextDataType + ")");
+                    break;
             }
+        }
 
+        void endRow() {
+            if (aborted) {
+                throw new SheetAbortedException();
+            }
+            if (skipRow) {
+                return;
+            }
+            // We're onto a new row
+            cells.endRow(thisRow - 1);
         }
 
         /**
@@ -359,36 +462,69 @@ public class XLSX2CSV {
          */
         public void characters(char[] ch, int start, int length)
                 throws SAXException {
-            if (vIsOpen)
-                value.append(ch, start, length);
+            appendValue(ch, start, length);
+        }
+
+        void appendValue(char[] ch, int start, int length) {
+            if (vIsOpen) {
+                if (valueLength + length > value.length) {
+                    value = Arrays.copyOf(value, Math.max(value.length * 2, valueLength + length));
+                }
+                System.arraycopy(ch, start, value, valueLength, length);
+                valueLength += length;
+            }
         }
 
         /**
          * Converts an Excel column name like "C" to a zero-based index.
          *
-         * @param name
+         * @param name   cell reference starting with the column name
+         * @param length length of the column name
          * @return Index corresponding to the specified name
          */
-        private int nameToColumn(String name) {
+        private int nameToColumn(String name, int length) {
             int column = -1;
-            for (int i = 0; i < name.length(); ++i) {
+            for (int i = 0; i < length; ++i) {
                 int c = name.charAt(i);
                 column = (column + 1) * 26 + c - 'A';
             }
             return column;
         }
 
+    }
 
-        private String escapeQuotesAndSlashes(String str) {
-            return StringUtils.replaceEach(str, new String[]{"\\", "\""}, new String[]{"\\\\", "\"\""});
+    /**
+     * Parses the value of a shared string cell as an index without creating a String for it
+     */
+    static int parseSstIndex(char[] value, int length) {
+        if (length == 0 || length > 9) {
+            // empty, or too long to be sure it fits into int; let Integer decide
+            return Integer.parseInt(new String(value, 0, length));
+        }
+        int idx = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value[i];
+            if (c < '0' || c > '9') {
+                return Integer.parseInt(new String(value, 0, length));
+            }
+            idx = idx * 10 + (c - '0');
         }
+        return idx;
     }
 
     ///////////////////////////////////////
 
-    private OPCPackage xlsxPackage;
+    private XlsxParts parts;
     private int minColumns;
     private PrintStreamProducer printStreamProducer;
+    private ConversionListener conversionListener = ConversionListener.NONE;
+    private ExecutorService sheetExecutor;
+    private long mappedSharedStringsThreshold = Long.MAX_VALUE;
+    private SheetReader sheetReader = SheetReader.SAX;
+    private ConversionOptions options = ConversionOptions.ALL;
+    private Executor formatExecutor;
+    // set once a sheet converted in parallel failed, the other sheets stop at their next row
+    private volatile boolean aborted;
 
     /**
      * Creates a new XLSX -> CSV converter
@@ -398,11 +534,65 @@ public class XLSX2CSV {
      * @param minColumns          The minimum number of columns to output, or -1 for no minimum
      */
     public XLSX2CSV(OPCPackage pkg, PrintStreamProducer printStreamProducer, int minColumns) {
-        this.xlsxPackage = pkg;
+        this(new PackageXlsxParts(pkg), printStreamProducer, minColumns);
+    }
+
+    /**
+     * Creates a new XLSX -> CSV converter reading the parts of the workbook directly, see {@link ZipXlsxParts}
+     *
+     * @param parts               The parts of the XLSX workbook to process, closed by the caller
+     * @param printStreamProducer The CsvFilePrintStreamProducer to output the CSV to
+     * @param minColumns          The minimum number of columns to output, or -1 for no minimum
+     */
+    public XLSX2CSV(XlsxParts parts, PrintStreamProducer printStreamProducer, int minColumns) {
+        this.parts = parts;
         this.printStreamProducer = printStreamProducer;
         this.minColumns = minColumns;
     }
 
+    public void setConversionListener(ConversionListener conversionListener) {
+        this.conversionListener = conversionListener;
+    }
+
+    /**
+     * Sheets are converted concurrently on the given executor, one task per sheet.
+     * Without an executor sheets are converted one by one on the calling thread.
+     */
+    public void setSheetExecutor(ExecutorService sheetExecutor) {
+        this.sheetExecutor = sheetExecutor;
+    }
+
+    /**
+     * Shared strings tables with sharedStrings.xml larger than the threshold (uncompressed, in bytes)
+     * are kept off the heap in a {@link MappedSharedStringsTable}.
+     */
+    public void setMappedSharedStringsThreshold(long mappedSharedStringsThreshold) {
+        this.mappedSharedStringsThreshold = mappedSharedStringsThreshold;
+    }
+
+    /**
+     * Parser of the sheet XML, SAX by default
+     */
+    public void setSheetReader(SheetReader sheetReader) {
+        this.sheetReader = sheetReader;
+    }
+
+    /**
+     * Sheets, rows and columns to convert, the whole workbook by default
+     */
+    public void setOptions(ConversionOptions options) {
+        this.options = options;
+    }
+
+    /**
+     * Cells of a sheet are formatted and written on a thread of the executor while the sheet is parsed,
+     * see {@link PipelinedCellHandler}. Sheets that find no free thread, and all sheets without an executor,
+     * are parsed and formatted on one thread.
+     */
+    public void setFormatExecutor(Executor formatExecutor) {
+        this.formatExecutor = formatExecutor;
+    }
+
     /**
      * Parses and shows the content of one sheet
      * using the specified styles and shared-strings tables.
@@ -411,58 +601,273 @@ public class XLSX2CSV {
      * @param strings
      * @param sheetInputStream
      */
-    public StreamingCsvBuffer processSheet(
-            StylesTable styles,
-            ReadOnlySharedStringsTable strings,
+    public SheetSink processSheet(
+            StyleFormats styles,
+            SharedStrings strings,
             InputStream sheetInputStream,
-            PrintStream printStream,
+            OutputStream printStream,
             boolean isDate1904)
-            throws IOException, ParserConfigurationException, SAXException {
-
-        InputSource sheetSource = new InputSource(sheetInputStream);
-        SAXParserFactory saxFactory = SAXParserFactory.newInstance();
-        SAXParser saxParser = saxFactory.newSAXParser();
-        XMLReader sheetParser = saxParser.getXMLReader();
-        MyXSSFSheetHandler handler = new MyXSSFSheetHandler(printStream, styles, strings, this.minColumns, isDate1904);
-        sheetParser.setContentHandler(handler);
-        sheetParser.parse(sheetSource);
-        return handler.getCsvBuffer();
+            throws IOException, ParserConfigurationException, SAXException, XMLStreamException {
+
+        return processSheet(styles, strings, sheetInputStream,
+                printStreamProducer.getOutputFormat().newSink(printStream), -1, isDate1904);
+    }
+
+    /**
+     * Parses one sheet into numbered parts, continuing after the checkpoint of the parts if there is one
+     */
+    private void processSheet(
+            StyleFormats styles,
+            SharedStrings strings,
+            InputStream sheetInputStream,
+            SheetParts parts,
+            boolean isDate1904)
+            throws IOException, ParserConfigurationException, SAXException, XMLStreamException {
+
+        processSheet(styles, strings, sheetInputStream, printStreamProducer.getOutputFormat().newSink(parts),
+                parts.getResumeAfterRow(), isDate1904);
+    }
+
+    private SheetSink processSheet(
+            StyleFormats styles,
+            SharedStrings strings,
+            InputStream sheetInputStream,
+            SheetSink sink,
+            int resumeAfterRow,
+            boolean isDate1904)
+            throws IOException, ParserConfigurationException, SAXException, XMLStreamException {
+
+        long start = System.nanoTime();
+        MyXSSFSheetHandler handler = new MyXSSFSheetHandler(sink, styles, strings, this.minColumns, options,
+                resumeAfterRow, isDate1904);
+        handler.getSink().setListener(conversionListener);
+        try {
+            if (sheetReader == SheetReader.STAX) {
+                new StaxSheetReader(handler).read(sheetInputStream);
+            } else {
+                InputSource sheetSource = new InputSource(sheetInputStream);
+                SAXParserFactory saxFactory = SAXParserFactory.newInstance();
+                SAXParser saxParser = saxFactory.newSAXParser();
+                XMLReader sheetParser = saxParser.getXMLReader();
+                sheetParser.setContentHandler(handler);
+                try {
+                    sheetParser.parse(sheetSource);
+                } catch (SheetDoneException e) {
+                    // the last selected row is done
+                }
+            }
+            if (handler.pipeline != null) {
+                handler.pipeline.finish();
+            }
+        } finally {
+            if (handler.pipeline != null) {
+                // stops the formatter thread if parsing failed
+                handler.pipeline.close();
+            }
+        }
+        handler.getSink().finish();
+        conversionListener.stageFinished(ConversionStage.FORMAT, handler.formatting.getFormatNanos());
+        conversionListener.stageFinished(ConversionStage.PARSE, System.nanoTime() - start);
+        return handler.getSink();
     }
 
     /**
      * Initiates the processing of the XLS workbook file to CSV.
      *
      * @throws IOException
-     * @throws OpenXML4JException
      * @throws ParserConfigurationException
      * @throws SAXException
+     * @throws XMLStreamException
      */
     public void process()
-            throws IOException, OpenXML4JException, ParserConfigurationException, SAXException, XmlException {
+            throws IOException, ParserConfigurationException, SAXException, XMLStreamException, XmlException {
 
-        ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(this.xlsxPackage);
-        XSSFReader xssfReader = new XSSFReader(this.xlsxPackage);
-        InputStream workbookXml = xssfReader.getWorkbookData();
-        WorkbookDocument doc = WorkbookDocument.Factory.parse(workbookXml);
+        long start = System.nanoTime();
+        WorkbookDocument doc;
+        try (InputStream workbookXml = parts.getWorkbookData()) {
+            doc = WorkbookDocument.Factory.parse(workbookXml);
+        }
         CTWorkbook wb = doc.getWorkbook();
         CTWorkbookPr prefix = wb.getWorkbookPr();
         boolean isDate1904 = prefix.getDate1904();
-        StylesTable styles = xssfReader.getStylesTable();
-        XSSFReader.SheetIterator iter = (XSSFReader.SheetIterator) xssfReader.getSheetsData();
-        int index = 0;
-        while (iter.hasNext()) {
-            InputStream stream = iter.next();
-            String sheetName = iter.getSheetName();
-            PrintStream printStream = this.printStreamProducer.getNextPrintStream(sheetName);
-            StreamingCsvBuffer csvBuffer = processSheet(styles, strings, stream, printStream, isDate1904);
-            if (!csvBuffer.getHasData()) {
-                this.printStreamProducer.removeLastFile();
+        // Sheets in workbook order, a sheet part is opened only when it is processed
+        CTSheet[] sheets = wb.getSheets().getSheetArray();
+        start = stageFinished(ConversionStage.WORKBOOK, start);
+        // Only the number formats of the styles matter, looked up once per style instead of once per cell
+        StyleFormats styles;
+        try (InputStream stylesXml = parts.getStylesData()) {
+            styles = StyleFormats.read(stylesXml);
+        }
+        start = stageFinished(ConversionStage.STYLES, start);
+        try (SharedStrings strings = loadSharedStrings()) {
+            stageFinished(ConversionStage.SHARED_STRINGS, start);
+            if (sheetExecutor != null) {
+                processInParallel(sheets, styles, strings, isDate1904);
+                return;
+            }
+            for (int i = 0; i < sheets.length; i++) {
+                String sheetName = sheets[i].getName();
+                Checkpoint checkpoint = printStreamProducer.getCheckpoint(i);
+                if (!options.isSheetSelected(i, sheetName) || (checkpoint != null && checkpoint.isSheetDone())) {
+                    // not even opened
+                    continue;
+                }
+                try (InputStream stream = parts.getSheetData(sheets[i].getId())) {
+                    if (printStreamProducer.getChunkPolicy().isEnabled()) {
+                        conversionListener.sheetStarted(sheetName);
+                        processSheet(styles, strings, stream,
+                                new SheetParts(printStreamProducer, i, sheetName, checkpoint, conversionListener),
+                                isDate1904);
+                    } else {
+                        OutputStream printStream = this.printStreamProducer.getNextPrintStream(sheetName);
+                        conversionListener.sheetStarted(sheetName);
+                        SheetSink sink = processSheet(styles, strings, stream, printStream, isDate1904);
+                        if (!sink.getHasData()) {
+                            this.printStreamProducer.removeLastFile();
+                        }
+                    }
+                }
+                conversionListener.sheetFinished(sheetName);
             }
-            stream.close();
-            ++index;
         }
     }
 
+    /**
+     * Reports the time since start to the listener
+     *
+     * @return start of the next stage
+     */
+    private long stageFinished(ConversionStage stage, long start) {
+        long end = System.nanoTime();
+        conversionListener.stageFinished(stage, end - start);
+        return end;
+    }
+
+    /**
+     * Loads the shared strings table, on the heap or memory-mapped depending on its size
+     */
+    private SharedStrings loadSharedStrings() throws IOException, SAXException {
+        try (InputStream stream = parts.getSharedStringsData()) {
+            if (stream != null && parts.getSharedStringsSize() > mappedSharedStringsThreshold) {
+                return new MappedSharedStringsTable(stream);
+            }
+            return new HeapSharedStrings(stream);
+        }
+    }
+
+    /**
+     * Converts every sheet as a separate task on the sheet executor. The style formats and shared strings tables
+     * are only read once they are loaded, so they are shared by all tasks.
+     * <p>
+     * Once a sheet fails the other sheets stop at their next row, and the first failure is thrown after every task
+     * has ended, so that no task reads the tables or parts or writes files after the conversion is over.
+     */
+    private void processInParallel(
+            CTSheet[] sheets,
+            StyleFormats styles,
+            SharedStrings strings,
+            boolean isDate1904)
+            throws IOException, ParserConfigurationException, SAXException, XMLStreamException {
+
+        aborted = false;
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Future<Void>> results = new ArrayList<>();
+        for (int i = 0; i < sheets.length; i++) {
+            Checkpoint checkpoint = printStreamProducer.getCheckpoint(i);
+            if (!options.isSheetSelected(i, sheets[i].getName())
+                    || (checkpoint != null && checkpoint.isSheetDone())) {
+                continue;
+            }
+            final int sheetIndex = i;
+            final String sheetName = sheets[i].getName();
+            final String relId = sheets[i].getId();
+            results.add(sheetExecutor.submit(() -> {
+                if (aborted) {
+                    return null;
+                }
+                try {
+                    processSheet(sheetIndex, sheetName, relId, checkpoint, styles, strings, isDate1904);
+                } catch (Throwable e) {
+                    if (!(e instanceof SheetAbortedException)) {
+                        failure.compareAndSet(null, e);
+                    }
+                    aborted = true;
+                    throw e;
+                }
+                return null;
+            }));
+        }
+        boolean interrupted = false;
+        for (Future<Void> result : results) {
+            while (true) {
+                try {
+                    result.get();
+                    break;
+                } catch (InterruptedException e) {
+                    // keep waiting for the task, it stops at its next row
+                    interrupted = true;
+                    aborted = true;
+                } catch (ExecutionException e) {
+                    // the task recorded its failure, those of the stopped sheets are ignored
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for sheets to be converted");
+        }
+        Throwable cause = failure.get();
+        if (cause == null) {
+            return;
+        } else if (cause instanceof IOException) {
+            throw (IOException) cause;
+        } else if (cause instanceof ParserConfigurationException) {
+            throw (ParserConfigurationException) cause;
+        } else if (cause instanceof SAXException) {
+            throw (SAXException) cause;
+        } else if (cause instanceof XMLStreamException) {
+            throw (XMLStreamException) cause;
+        }
+        throw new IllegalStateException("Failed to convert sheet", cause);
+    }
+
+    /**
+     * Converts one sheet of {@link #processInParallel} into its own file or parts
+     */
+    private void processSheet(
+            int sheetIndex,
+            String sheetName,
+            String relId,
+            Checkpoint checkpoint,
+            StyleFormats styles,
+            SharedStrings strings,
+            boolean isDate1904)
+            throws IOException, ParserConfigurationException, SAXException, XMLStreamException {
+
+        conversionListener.sheetStarted(sheetName);
+        if (printStreamProducer.getChunkPolicy().isEnabled()) {
+            try (InputStream stream = parts.getSheetData(relId)) {
+                processSheet(styles, strings, stream,
+                        new SheetParts(printStreamProducer, sheetIndex, sheetName, checkpoint, conversionListener),
+                        isDate1904);
+            }
+            conversionListener.sheetFinished(sheetName);
+            return;
+        }
+        OutputStream printStream = printStreamProducer.getPrintStream(sheetIndex, sheetName);
+        SheetSink sink;
+        try (InputStream stream = parts.getSheetData(relId)) {
+            sink = processSheet(styles, strings, stream, printStream, isDate1904);
+        } finally {
+            printStream.close();
+        }
+        if (!sink.getHasData()) {
+            printStreamProducer.removeFile(sheetIndex);
+        }
+        conversionListener.sheetFinished(sheetName);
+    }
+
     public static void main(String[] args) throws Exception {
         if (args.length < 1) {
             System.err.println("Use:");
@@ -480,10 +885,10 @@ public class XLSX2CSV {
         if (args.length >= 2)
             minColumns = Integer.parseInt(args[1]);
 
-        // The package open is instantaneous, as it should be.
-        OPCPackage p = OPCPackage.open(xlsxFile.getPath(), PackageAccess.READ);
-        XLSX2CSV xlsx2csv = new XLSX2CSV(p, new SystemOutPrintStreamProducer(), minColumns);
-        xlsx2csv.process();
+        try (XlsxParts parts = new ZipXlsxParts(xlsxFile.toPath())) {
+            XLSX2CSV xlsx2csv = new XLSX2CSV(parts, new SystemOutPrintStreamProducer(), minColumns);
+            xlsx2csv.process();
+        }
     }
 
 }
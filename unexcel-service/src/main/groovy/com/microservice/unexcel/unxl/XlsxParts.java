@@ -0,0 +1,35 @@
+package com.microservice.unexcel.unxl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The parts of a XLSX workbook the conversion reads: workbook.xml, the styles, the shared strings and the sheets.
+ * Streams are opened when they are asked for and must be closed by the caller. Streams of different sheets
+ * may be read by several threads at once.
+ */
+public interface XlsxParts extends Closeable {
+
+    InputStream getWorkbookData() throws IOException;
+
+    /**
+     * @return null if the workbook has no styles
+     */
+    InputStream getStylesData() throws IOException;
+
+    /**
+     * @return null if the workbook has no shared strings table
+     */
+    InputStream getSharedStringsData() throws IOException;
+
+    /**
+     * @return uncompressed size of the shared strings table in bytes, 0 if there is none, -1 if unknown
+     */
+    long getSharedStringsSize() throws IOException;
+
+    /**
+     * @param relationshipId id of the sheet in workbook.xml, e.g. rId1
+     */
+    InputStream getSheetData(String relationshipId) throws IOException;
+}
@@ -0,0 +1,175 @@
+package com.microservice.unexcel.unxl;
+
+import com.fasterxml.aalto.stax.InputFactoryImpl;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Reads the parts of a XLSX workbook straight from its zip file, without building POI's package model.
+ * <p>
+ * Opening reads the zip's central directory and two small relationship parts, the package relationships
+ * to find workbook.xml and the workbook relationships to find the styles, the shared strings and the sheets.
+ * Nothing else is read, the content types, document properties, drawings or the relationships of the sheets
+ * are never looked at. The parts are inflated while they are read.
+ * <p>
+ * {@link #close()} closes the zip file and every stream still open, so an instance must be closed in any case.
+ */
+public final class ZipXlsxParts implements XlsxParts {
+
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    private static final String OFFICE_DOCUMENT = "/officeDocument";
+    private static final String STYLES = "/styles";
+    private static final String SHARED_STRINGS = "/sharedStrings";
+
+    private final ZipFile zip;
+
+    private final ZipEntry workbook;
+    private final ZipEntry styles;
+    private final ZipEntry sharedStrings;
+
+    /**
+     * Entry names of the workbook's parts by relationship id
+     */
+    private final Map<String, String> targets;
+
+    public ZipXlsxParts(Path file) throws IOException {
+        zip = new ZipFile(file.toFile());
+        try {
+            String workbookName = readRelationships("", null).get(OFFICE_DOCUMENT);
+            if (workbookName == null) {
+                throw new IOException("Not a XLSX workbook, no office document in " + file.getFileName());
+            }
+            workbook = entry(workbookName);
+            targets = new HashMap<>();
+            Map<String, String> types = readRelationships(workbookName, targets);
+            styles = optionalEntry(types.get(STYLES));
+            sharedStrings = optionalEntry(types.get(SHARED_STRINGS));
+        } catch (IOException | RuntimeException e) {
+            zip.close();
+            throw e;
+        }
+    }
+
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = new InputFactoryImpl();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    @Override
+    public InputStream getWorkbookData() throws IOException {
+        return zip.getInputStream(workbook);
+    }
+
+    @Override
+    public InputStream getStylesData() throws IOException {
+        return styles != null ? zip.getInputStream(styles) : null;
+    }
+
+    @Override
+    public InputStream getSharedStringsData() throws IOException {
+        return sharedStrings != null ? zip.getInputStream(sharedStrings) : null;
+    }
+
+    @Override
+    public long getSharedStringsSize() {
+        return sharedStrings != null ? sharedStrings.getSize() : 0;
+    }
+
+    @Override
+    public InputStream getSheetData(String relationshipId) throws IOException {
+        String name = targets.get(relationshipId);
+        if (name == null) {
+            throw new IOException("No part with relationship id " + relationshipId);
+        }
+        return zip.getInputStream(entry(name));
+    }
+
+    @Override
+    public void close() throws IOException {
+        zip.close();
+    }
+
+    /**
+     * Reads the relationships of a part, e.g. xl/_rels/workbook.xml.rels for xl/workbook.xml
+     *
+     * @param source  entry name of the part, "" for the package relationships
+     * @param targets receives the entry names of the targets by relationship id, may be null
+     * @return entry names of the targets by the last segment of their relationship type, e.g. /styles.
+     * Relationships with the transitional and with the strict types are both found this way.
+     */
+    private Map<String, String> readRelationships(String source, Map<String, String> targets) throws IOException {
+        int slash = source.lastIndexOf('/');
+        String relationships = source.substring(0, slash + 1) + "_rels/" + source.substring(slash + 1) + ".rels";
+        Map<String, String> types = new HashMap<>();
+        ZipEntry entry = zip.getEntry(relationships);
+        if (entry == null) {
+            return types;
+        }
+        try (InputStream stream = zip.getInputStream(entry)) {
+            XMLStreamReader reader = FACTORY.createXMLStreamReader(stream);
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() == XMLStreamConstants.START_ELEMENT
+                            && "Relationship".equals(reader.getLocalName())
+                            && !"External".equals(reader.getAttributeValue(null, "TargetMode"))) {
+                        String type = reader.getAttributeValue(null, "Type");
+                        String target = resolve(source, reader.getAttributeValue(null, "Target"));
+                        if (type != null) {
+                            types.putIfAbsent(type.substring(type.lastIndexOf('/')), target);
+                        }
+                        if (targets != null) {
+                            targets.put(reader.getAttributeValue(null, "Id"), target);
+                        }
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Failed to read " + relationships, e);
+        }
+        return types;
+    }
+
+    /**
+     * @return entry name of a relationship target, which is either absolute or relative to the source part
+     */
+    private static String resolve(String source, String target) throws IOException {
+        if (target == null) {
+            throw new IOException("Relationship without target in the relationships of " + source);
+        }
+        try {
+            String path = new URI("/" + source).resolve(new URI(target)).getPath();
+            return path.startsWith("/") ? path.substring(1) : path;
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            throw new IOException("Invalid relationship target " + target + " of " + source, e);
+        }
+    }
+
+    private ZipEntry entry(String name) throws IOException {
+        ZipEntry entry = zip.getEntry(name);
+        if (entry == null) {
+            throw new IOException("Missing part " + name);
+        }
+        return entry;
+    }
+
+    private ZipEntry optionalEntry(String name) {
+        return name != null ? zip.getEntry(name) : null;
+    }
+}
@@ -0,0 +1,91 @@
+package com.microservice.unexcel
+
+import com.codahale.metrics.MetricRegistry
+import org.junit.Before
+import org.junit.Test
+import org.springframework.http.HttpStatus
+
+import java.nio.file.Path
+import java.nio.file.Paths
+
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertFalse
+import static org.junit.Assert.assertTrue
+import static org.junit.Assert.fail
+
+/**
+ * Conversions take their estimated memory from the budget, wait for it and run in low-memory mode if they never fit
+ */
+class AdmissionControlTests {
+
+	static final long MB = 1024 * 1024
+
+	static final Path WORKBOOK = Paths.get('workbook.xlsx')
+
+	AdmissionControl admission
+
+	@Before
+	void start() {
+		admission = new AdmissionControl(metrics: new ConversionMetrics(registry: new MetricRegistry()),
+				budgetMb: 100, jobOverheadMb: 10, maxWaitSeconds: 0, maxWaiting: 1, retryAfterSeconds: 7, enabled: true)
+		admission.start()
+	}
+
+	@Test
+	void closeGivesTheMemoryBack() {
+		AdmissionControl.Ticket ticket = admission.admit(converter(50 * MB, MB), WORKBOOK)
+		assertFalse(ticket.lowMemory)
+		assertEquals(40 * 1024, admission.available.availablePermits())
+		ticket.close()
+		ticket.close()
+		assertEquals(100 * 1024, admission.available.availablePermits())
+	}
+
+	@Test
+	void busyIs503() {
+		AdmissionControl.Ticket ticket = admission.admit(converter(60 * MB, MB), WORKBOOK)
+		try {
+			admission.admit(converter(60 * MB, MB), WORKBOOK)
+			fail('Admitted beyond the budget')
+		} catch (AdmissionRejectedException e) {
+			assertEquals(HttpStatus.SERVICE_UNAVAILABLE, e.status)
+			assertEquals(7, e.retryAfterSeconds)
+		} finally {
+			ticket.close()
+		}
+		assertEquals(0, admission.waiting.get())
+		admission.admit(converter(60 * MB, MB), WORKBOOK).close()
+	}
+
+	@Test
+	void tooManyWaitingIs429() {
+		admission.maxWaiting = 0
+		AdmissionControl.Ticket ticket = admission.admit(converter(60 * MB, MB), WORKBOOK)
+		try {
+			admission.admit(converter(60 * MB, MB), WORKBOOK)
+			fail('Admitted beyond the budget')
+		} catch (AdmissionRejectedException e) {
+			assertEquals(HttpStatus.TOO_MANY_REQUESTS, e.status)
+		} finally {
+			ticket.close()
+		}
+	}
+
+	@Test
+	void oversizedRunsInLowMemoryMode() {
+		AdmissionControl.Ticket ticket = admission.admit(converter(500 * MB, 20 * MB), WORKBOOK)
+		assertTrue(ticket.lowMemory)
+		assertEquals(70 * 1024, admission.available.availablePermits())
+		ticket.close()
+
+		// still too large, it takes the whole budget
+		ticket = admission.admit(converter(500 * MB, 200 * MB), WORKBOOK)
+		assertTrue(ticket.lowMemory)
+		assertEquals(0, admission.available.availablePermits())
+		ticket.close()
+	}
+
+	private static WorkbookConverter converter(long memory, long lowMemory) {
+		[estimateMemory: { Path file, boolean low -> low ? lowMemory : memory }] as WorkbookConverter
+	}
+}
@@ -0,0 +1,81 @@
+package com.microservice.unexcel
+
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.springframework.jdbc.core.JdbcTemplate
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType
+
+import java.sql.Timestamp
+
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertFalse
+import static org.junit.Assert.assertTrue
+
+/**
+ * One instance owns a file at a time, until it releases the file or stops renewing its lease
+ */
+class FileClaimsTests {
+
+	EmbeddedDatabase database
+
+	JdbcTemplate jdbcTemplate
+
+	FileClaims here
+
+	FileClaims there
+
+	@Before
+	void start() {
+		database = new EmbeddedDatabaseBuilder().setType(EmbeddedDatabaseType.H2).generateUniqueName(true).build()
+		jdbcTemplate = new JdbcTemplate(database)
+		jdbcTemplate.execute('create table incoming_file (id bigint primary key, owner varchar(255), lease_until timestamp)')
+		jdbcTemplate.update('insert into incoming_file (id) values (1)')
+		here = new FileClaims(jdbcTemplate: jdbcTemplate, instanceId: 'here', leaseSeconds: 60)
+		there = new FileClaims(jdbcTemplate: jdbcTemplate, instanceId: 'there', leaseSeconds: 60)
+	}
+
+	@After
+	void stop() {
+		database.shutdown()
+	}
+
+	@Test
+	void claimedUntilReleased() {
+		assertTrue(here.claim(1))
+		assertTrue(here.claim(1))
+		assertFalse(there.claim(1))
+		assertEquals('here', there.ownerOf(1))
+		here.release(1)
+		assertTrue(there.claim(1))
+	}
+
+	@Test
+	void renewedLeaseIsKept() {
+		assertTrue(here.claim(1))
+		Timestamp claimed = lease()
+		sleep(5)
+		here.renew()
+		assertTrue(lease().after(claimed))
+		assertFalse(there.claim(1))
+	}
+
+	@Test
+	void lostLeaseIsNotRenewed() {
+		List<Long> lost = []
+		here.leaseLost = { Long id -> lost << id }
+		assertTrue(here.claim(1))
+		jdbcTemplate.update('update incoming_file set lease_until = ? where id = 1', new Timestamp(0))
+		assertTrue(there.claim(1))
+		here.renew()
+		assertEquals([] as Set, here.claimed)
+		assertEquals('there', here.ownerOf(1))
+		assertEquals([1L], lost)
+	}
+
+	private Timestamp lease() {
+		jdbcTemplate.queryForObject('select lease_until from incoming_file where id = 1', Timestamp)
+	}
+}
@@ -0,0 +1,102 @@
+package com.microservice.unexcel
+
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager
+import org.springframework.data.domain.Page
+import org.springframework.test.context.junit4.SpringRunner
+
+import static org.junit.Assert.assertEquals
+
+/**
+ * The file listing filters by status, creation time and a literal name prefix and shows the newest files first
+ */
+@RunWith(SpringRunner)
+@DataJpaTest
+class IncomingFileRepositoryTests {
+
+	static final long DAY = 24 * 60 * 60 * 1000L
+
+	@Autowired
+	TestEntityManager entityManager
+
+	@Autowired
+	IncomingFileRepository repository
+
+	UnexcelController controller
+
+	@Before
+	void files() {
+		file('a.xlsx', FileStatus.DONE, 1)
+		file('b_1.xlsx', FileStatus.FAILED, 2)
+		file('b%1.xlsx', FileStatus.DONE, 3)
+		file('b!1.xlsx', FileStatus.PENDING, 3)
+		file('bx1.xlsx', FileStatus.DONE, 4)
+		entityManager.flush()
+		entityManager.clear()
+		controller = new UnexcelController(repository: repository, maxPageSize: 200)
+	}
+
+	@Test
+	void newestFirst() {
+		// files created at the same time newest id first
+		Page<FileSummary> page = controller.files(null, null, '', 0, 20)
+		assertEquals(['bx1.xlsx', 'b!1.xlsx', 'b%1.xlsx', 'b_1.xlsx', 'a.xlsx'], names(page))
+		FileSummary newest = page.content[0]
+		assertEquals(FileStatus.DONE, newest.status)
+		assertEquals(new Date(4 * DAY), newest.createdAt)
+		assertEquals(4, newest.sheetsDone)
+		assertEquals(400L, newest.rowsWritten)
+	}
+
+	@Test
+	void filters() {
+		assertEquals(['bx1.xlsx', 'b%1.xlsx', 'a.xlsx'], names(controller.files(FileStatus.DONE, null, '', 0, 20)))
+		assertEquals(['bx1.xlsx', 'b!1.xlsx', 'b%1.xlsx'], names(controller.files(null, new Date(3 * DAY), '', 0, 20)))
+		assertEquals(['bx1.xlsx', 'b%1.xlsx'],
+				names(controller.files(FileStatus.DONE, new Date(3 * DAY), '', 0, 20)))
+		assertEquals([], names(controller.files(FileStatus.IN_PROGRESS, null, '', 0, 20)))
+	}
+
+	@Test
+	void wildcardsInThePrefixAreLiteral() {
+		assertEquals(['bx1.xlsx', 'b!1.xlsx', 'b%1.xlsx', 'b_1.xlsx'], names(controller.files(null, null, 'b', 0, 20)))
+		assertEquals(['b_1.xlsx'], names(controller.files(null, null, 'b_', 0, 20)))
+		assertEquals(['b%1.xlsx'], names(controller.files(null, null, 'b%', 0, 20)))
+		assertEquals(['b!1.xlsx'], names(controller.files(null, null, 'b!', 0, 20)))
+		assertEquals([], names(controller.files(null, null, '%', 0, 20)))
+		assertEquals('a!%b!_c!!d%', UnexcelController.likePrefix('a%b_c!d'))
+	}
+
+	@Test
+	void pageSizeIsCapped() {
+		controller.maxPageSize = 2
+		Page<FileSummary> page = controller.files(null, null, '', 1, 100)
+		assertEquals(2, page.size)
+		assertEquals(5, page.totalElements)
+		assertEquals(3, page.totalPages)
+		assertEquals(['b%1.xlsx', 'b_1.xlsx'], names(page))
+		assertEquals(1, controller.files(null, null, '', -1, 0).size)
+	}
+
+	@Test
+	void filesByResultDirectory() {
+		assertEquals(5L, repository.countByResultDirectory('/out/'))
+		assertEquals(1L, repository.countByResultDirectory('/out/a.'))
+		assertEquals(0L, repository.countByResultDirectory('/in/'))
+		assertEquals(0L, repository.countByResultDirectory('out/'))
+	}
+
+	private void file(String name, FileStatus status, int day) {
+		entityManager.persist(new IncomingFile(fileName: name, filePath: "/in/$name".toString(), status: status,
+				createdAt: new Date(day * DAY), sheetsDone: day, rowsWritten: day * 100L,
+				resultFiles: ["/out/$name".toString()]))
+	}
+
+	private static List<String> names(Page<FileSummary> page) {
+		page.content*.fileName
+	}
+}
@@ -0,0 +1,236 @@
+package com.microservice.unexcel
+
+import com.codahale.metrics.MetricRegistry
+import com.microservice.unexcel.unxl.ConversionOptions
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.springframework.jdbc.core.JdbcTemplate
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType
+
+import java.nio.file.Paths
+import java.util.concurrent.CancellationException
+
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertFalse
+import static org.junit.Assert.assertNotNull
+import static org.junit.Assert.assertNull
+import static org.junit.Assert.assertTrue
+import static org.junit.Assert.fail
+
+/**
+ * States are checked in memory and written in batches, progress between two flushes is a single update
+ */
+class JobStateStoreTests {
+
+	EmbeddedDatabase database
+
+	JdbcTemplate jdbcTemplate
+
+	JobStateStore store
+
+	@Before
+	void start() {
+		database = new EmbeddedDatabaseBuilder().setType(EmbeddedDatabaseType.H2).generateUniqueName(true).build()
+		jdbcTemplate = new JdbcTemplate(database)
+		jdbcTemplate.execute('''create table incoming_file (id bigint primary key, status int, sheets_done int,
+				rows_written bigint, bytes_written bigint, queued_at timestamp, started_at timestamp,
+				finished_at timestamp, owner varchar(255), lease_until timestamp)''')
+		jdbcTemplate.update('insert into incoming_file (id, status) values (1, 3)')
+		// the writer never runs on its own, the tests flush
+		store = new JobStateStore(jdbcTemplate: jdbcTemplate,
+				metrics: new ConversionMetrics(registry: new MetricRegistry()), flushIntervalMs: 3_600_000,
+				claims: new FileClaims(jdbcTemplate: jdbcTemplate, instanceId: 'here', leaseSeconds: 60))
+		store.start()
+	}
+
+	@After
+	void stop() {
+		store.writer.shutdownNow()
+		database.shutdown()
+	}
+
+	@Test
+	void progressIsWrittenWithTheState() {
+		UnexcelJob job = job()
+		store.queued(file())
+		store.started(job)
+		1000.times {
+			job.rowsWritten(2)
+			job.bytesWritten(10)
+		}
+		// nothing is written before the flush
+		assertEquals(FileStatus.FAILED.ordinal(), fileRow().status)
+		assertEquals(1, store.unwritten)
+		store.flush()
+		assertEquals(0, store.unwritten)
+		Map<String, Object> row = fileRow()
+		assertEquals(FileStatus.IN_PROGRESS.ordinal(), row.status)
+		assertEquals(2000L, row.rows_written)
+		assertEquals(10000L, row.bytes_written)
+		assertNotNull(row.started_at)
+		assertNull(row.finished_at)
+
+		job.sheetFinished('data')
+		job.status = FileStatus.DONE
+		store.finished(job)
+		store.flush()
+		row = fileRow()
+		assertEquals(FileStatus.DONE.ordinal(), row.status)
+		assertEquals(1, row.sheets_done)
+		assertNotNull(row.finished_at)
+		assertEquals(0, store.states.size())
+		// released once the final state is written
+		assertNull(row.owner)
+	}
+
+	@Test
+	void fileOfAnotherInstanceIsNotQueued() {
+		jdbcTemplate.update('update incoming_file set owner = ?, lease_until = ? where id = 1',
+				'there', new Date(System.currentTimeMillis() + 60_000))
+		try {
+			store.queued(file())
+			fail('Queued a file of another instance')
+		} catch (FileClaimedException e) {
+			assertEquals('there', e.owner)
+		}
+		assertEquals(0, store.states.size())
+
+		// a lease that ran out is taken over
+		jdbcTemplate.update('update incoming_file set lease_until = ? where id = 1', new Date(0))
+		store.queued(file())
+		assertEquals('here', fileRow().owner)
+	}
+
+	@Test
+	void applyGivesTheUnwrittenState() {
+		store.queued(file())
+		store.started(job())
+		IncomingFile file = store.apply(file())
+		assertEquals(FileStatus.IN_PROGRESS, file.status)
+		assertNotNull(file.queuedAt)
+	}
+
+	@Test
+	void runningFileCannotBeQueued() {
+		store.queued(file())
+		try {
+			store.queued(file())
+			fail('Queued twice')
+		} catch (InvalidTransitionException expected) {
+		}
+		store.started(job())
+		UnexcelJob pending = job()
+		pending.status = FileStatus.PENDING
+		try {
+			store.finished(pending)
+			fail('Finished as PENDING')
+		} catch (InvalidTransitionException expected) {
+		}
+	}
+
+	@Test
+	void finishedFileIsQueuedAgain() {
+		UnexcelJob job = job()
+		store.queued(file())
+		store.started(job)
+		job.rowsWritten(5)
+		job.status = FileStatus.FAILED
+		store.finished(job)
+		store.queued(file())
+		store.flush()
+		Map<String, Object> row = fileRow()
+		assertEquals(FileStatus.PENDING.ordinal(), row.status)
+		assertEquals(0L, row.rows_written)
+		assertNull(row.finished_at)
+	}
+
+	@Test
+	void lostLeaseCancelsTheJob() {
+		UnexcelJob job = job()
+		store.queued(file())
+		store.started(job)
+		job.rowsWritten(5)
+		takeOver()
+		assertTrue(job.cancelled)
+		try {
+			job.rowsWritten(5)
+			fail('Cancelled job goes on')
+		} catch (CancellationException expected) {
+		}
+		job.status = FileStatus.FAILED
+		store.finished(job)
+		store.flush()
+		// the row is the other instance's, the state of this one is not written to it
+		assertEquals('there', fileRow().owner)
+		assertNull(fileRow().started_at)
+		assertEquals(0, store.states.size())
+	}
+
+	@Test
+	void lostLeaseCancelsTheQueuedJob() {
+		store.queued(file())
+		takeOver()
+		UnexcelJob job = job()
+		assertFalse(job.cancelled)
+		store.started(job)
+		assertTrue(job.cancelled)
+	}
+
+	@Test
+	void requeuedFileIsClaimedAgainAfterALostLease() {
+		lostLeaseOfAFinishedJob()
+		jdbcTemplate.update('update incoming_file set lease_until = ? where id = 1', new Date(0))
+		// queued again before the finished state is written and forgotten
+		store.queued(file())
+		assertEquals('here', fileRow().owner)
+		UnexcelJob retry = job()
+		store.started(retry)
+		assertFalse(retry.cancelled)
+	}
+
+	@Test
+	void requeuedFileOfAnotherInstanceIsNotQueued() {
+		lostLeaseOfAFinishedJob()
+		try {
+			store.queued(file())
+			fail('Queued a file of another instance')
+		} catch (FileClaimedException expected) {
+			assertEquals('there', expected.owner)
+		}
+	}
+
+	private void lostLeaseOfAFinishedJob() {
+		UnexcelJob job = job()
+		store.queued(file())
+		store.started(job)
+		takeOver()
+		job.status = FileStatus.FAILED
+		store.finished(job)
+	}
+
+	/**
+	 * Another instance claims the file once its lease ran out, this one finds out when it renews
+	 */
+	private void takeOver() {
+		jdbcTemplate.update('update incoming_file set lease_until = ? where id = 1', new Date(0))
+		assertTrue(new FileClaims(jdbcTemplate: jdbcTemplate, instanceId: 'there', leaseSeconds: 60).claim(1))
+		store.claims.renew()
+	}
+
+	private Map<String, Object> fileRow() {
+		jdbcTemplate.queryForMap('select * from incoming_file where id = 1').collectEntries { String column, value ->
+			[column.toLowerCase(), value]
+		}
+	}
+
+	private static IncomingFile file() {
+		new IncomingFile(id: 1, fileName: 'workbook.xlsx', filePath: 'workbook.xlsx')
+	}
+
+	private static UnexcelJob job() {
+		new UnexcelJob(file(), Paths.get(file().filePath), ConversionOptions.ALL)
+	}
+}
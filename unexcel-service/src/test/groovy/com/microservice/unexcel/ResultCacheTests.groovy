@@ -0,0 +1,169 @@
+package com.microservice.unexcel
+
+import com.microservice.unexcel.unxl.Checkpoint
+import com.microservice.unexcel.unxl.ConversionListener
+import com.microservice.unexcel.unxl.ConversionOptions
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.attribute.FileTime
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertFalse
+import static org.junit.Assert.assertTrue
+
+/**
+ * Results are converted once per content, reported like a conversion on a hit and only evicted when nobody needs them
+ */
+class ResultCacheTests {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder()
+
+	ResultCache cache
+
+	final AtomicInteger conversions = new AtomicInteger()
+
+	/**
+	 * Conversions wait for it, counted down already unless a test holds them back
+	 */
+	CountDownLatch release = new CountDownLatch(0)
+
+	final Set<String> referenced = []
+
+	@Before
+	void start() {
+		Unexcel unexcel = new Unexcel() {
+			@Override
+			List<Path> unexcel(Path excelFilePath, Path unexcelDirectory, ConversionOptions options,
+							   Collection<Checkpoint> resume, ConversionListener listener) {
+				conversions.incrementAndGet()
+				release.await(10, TimeUnit.SECONDS)
+				['first', 'second'].collect { String sheet ->
+					listener.sheetStarted(sheet)
+					listener.rowsWritten(3)
+					listener.bytesWritten(10)
+					listener.sheetFinished(sheet)
+					Files.write(unexcelDirectory.resolve("${sheet}.csv"), 'a,b\n'.bytes)
+				}
+			}
+		}
+		cache = new ResultCache(unexcel: unexcel, enabled: true, directory: folder.newFolder().toString(),
+				maxSizeMb: 1, maxAgeHours: 24,
+				repository: [countByResultDirectory: { String directory -> referenced.contains(directory) ? 1L : 0L }]
+						as IncomingFileRepository)
+		cache.start()
+	}
+
+	@Test
+	void hitReportsTheCounts() {
+		Path workbook = write('content')
+		Counter converted = new Counter()
+		ResultCache.Result first = cache.convert(workbook, ConversionOptions.ALL, converted)
+		first.close()
+		assertFalse(first.hit)
+
+		Counter cached = new Counter()
+		ResultCache.Result second = cache.convert(write('content'), ConversionOptions.ALL, cached)
+		second.close()
+		assertTrue(second.hit)
+		assertEquals(first.files, second.files)
+		assertEquals(1, conversions.get())
+		assertEquals(['first', 'second'], converted.sheets)
+		assertEquals(converted.sheets, cached.sheets)
+		assertEquals(6L, cached.rows)
+		assertEquals(20L, cached.bytes)
+	}
+
+	@Test
+	void identicalSubmissionsShareTheConversion() {
+		release = new CountDownLatch(1)
+		Path workbook = write('content')
+		Counter waiting = new Counter()
+		ExecutorService executor = Executors.newFixedThreadPool(2)
+		try {
+			Future<ResultCache.Result> running = executor.submit({
+				cache.convert(workbook, ConversionOptions.ALL, new Counter())
+			} as Callable)
+			while (cache.inFlight.isEmpty()) {
+				Thread.sleep(10)
+			}
+			Future<ResultCache.Result> identical = executor.submit({
+				cache.convert(workbook, ConversionOptions.ALL, waiting)
+			} as Callable)
+			release.countDown()
+			assertFalse(running.get(10, TimeUnit.SECONDS).hit)
+			ResultCache.Result result = identical.get(10, TimeUnit.SECONDS)
+			assertTrue(result.hit)
+			assertEquals(running.get().files, result.files)
+		} finally {
+			executor.shutdownNow()
+		}
+		assertEquals(1, conversions.get())
+		assertEquals(['first', 'second'], waiting.sheets)
+		assertEquals(6L, waiting.rows)
+	}
+
+	@Test
+	void evictionKeepsTheNewestAndResultsInUse() {
+		cache.maxSizeMb = 0
+		ResultCache.Result old = cache.convert(write('old'), ConversionOptions.ALL, ConversionListener.NONE)
+		ResultCache.Result read = cache.convert(write('read'), ConversionOptions.ALL, ConversionListener.NONE)
+		ResultCache.Result listed = cache.convert(write('listed'), ConversionOptions.ALL, ConversionListener.NONE)
+		ResultCache.Result newest = cache.convert(write('newest'), ConversionOptions.ALL, ConversionListener.NONE)
+		[old, read, listed, newest].eachWithIndex { ResultCache.Result result, int i ->
+			Files.setLastModifiedTime(result.files[0].parent, FileTime.fromMillis(System.currentTimeMillis() - 1000 * (4 - i)))
+		}
+		old.close()
+		listed.close()
+		newest.close()
+		referenced << listed.files[0].parent.toString() + File.separator
+
+		cache.evict()
+		assertFalse(Files.exists(old.files[0].parent))
+		assertTrue(Files.exists(read.files[0]))
+		assertTrue(Files.exists(listed.files[0]))
+		assertTrue(Files.exists(newest.files[0]))
+
+		read.close()
+		cache.evict()
+		assertFalse(Files.exists(read.files[0].parent))
+		assertTrue(Files.exists(newest.files[0]))
+	}
+
+	private Path write(String content) {
+		Files.write(folder.newFile().toPath(), content.bytes)
+	}
+
+	static class Counter implements ConversionListener {
+		List<String> sheets = Collections.synchronizedList([])
+		long rows
+		long bytes
+
+		@Override
+		void sheetFinished(String sheetName) {
+			sheets << sheetName
+		}
+
+		@Override
+		synchronized void rowsWritten(int count) {
+			rows += count
+		}
+
+		@Override
+		synchronized void bytesWritten(int count) {
+			bytes += count
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package com.microservice.unexcel
+
+import com.codahale.metrics.MetricRegistry
+import com.microservice.unexcel.unxl.ConversionListener
+import com.microservice.unexcel.unxl.ConversionOptions
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.springframework.http.HttpStatus
+
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.util.concurrent.TimeUnit
+
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertFalse
+import static org.junit.Assert.assertNull
+
+/**
+ * Jobs convert the workbook they were submitted with and are finished whatever goes wrong
+ */
+class UnexcelJobServiceTests {
+
+	UnexcelJobService service
+
+	/**
+	 * Files of the repository by name
+	 */
+	final Map<String, IncomingFile> files = [:]
+
+	final List<IncomingFile> saved = []
+
+	final List<Path> converted = []
+
+	/**
+	 * Called with the job instead of converting it, if set
+	 */
+	Closure conversion
+
+	/**
+	 * Thrown when a job starts, if set
+	 */
+	RuntimeException startFailure
+
+	@Before
+	void start() {
+		IncomingFileRepository repository = [
+				findByFileName: { String name -> files[name] },
+				findOne       : { Long id -> files.values().find { IncomingFile file -> file.id == id } },
+				save          : { IncomingFile file ->
+					file.id = file.id ?: files.size() + 1L
+					files[file.fileName] = file
+					saved << file
+					file
+				}
+		] as IncomingFileRepository
+		JobStateStore states = [
+				queued  : { IncomingFile file -> },
+				started : { UnexcelJob job ->
+					if (startFailure) {
+						throw startFailure
+					}
+				},
+				finished: { UnexcelJob job -> },
+				failed  : { Long id -> }
+		] as JobStateStore
+		ResultCache resultCache = [
+				convert: { Path workbook, ConversionOptions options, ConversionListener job, CheckpointRecorder checkpoints ->
+					converted << workbook
+					conversion?.call(job)
+					new ResultCache.Result(contentHash: 'hash', files: [Paths.get('/out/workbook.csv')])
+				}
+		] as ResultCache
+		service = new UnexcelJobService(unexcel: new Unexcel(), repository: repository, states: states,
+				resultCache: resultCache, metrics: new ConversionMetrics(registry: new MetricRegistry()),
+				threads: 1, queueCapacity: 10)
+		service.start()
+	}
+
+	@After
+	void stop() {
+		service.stop()
+	}
+
+	@Test
+	void convertsTheSubmittedWorkbook() {
+		files['workbook.xlsx'] = new IncomingFile(id: 1, fileName: 'workbook.xlsx', filePath: '/old/workbook.xlsx')
+		Path workbook = Paths.get('/new/workbook.xlsx')
+		UnexcelJob job = finished(service.submit(workbook, ConversionOptions.ALL))
+		assertEquals(FileStatus.DONE, job.status)
+		assertEquals([workbook], converted)
+		assertEquals(workbook.toString(), files['workbook.xlsx'].filePath)
+		assertEquals(['/out/workbook.csv'], files['workbook.xlsx'].resultFiles)
+	}
+
+	@Test
+	void failedStartFinishesTheJob() {
+		startFailure = new InvalidTransitionException('File 1 is not queued')
+		Path workbook = Paths.get('/in/workbook.xlsx')
+		UnexcelJob job = finished(service.submit(workbook, ConversionOptions.ALL))
+		assertEquals(FileStatus.FAILED, job.status)
+		assertNull(service.findActive(job.id))
+		assertEquals([], converted)
+
+		startFailure = null
+		UnexcelJob retry = finished(service.submit(workbook, ConversionOptions.ALL))
+		assertFalse(retry.is(job))
+		assertEquals(FileStatus.DONE, retry.status)
+	}
+
+	@Test
+	void cancelledJobStopsWaitingForMemory() {
+		conversion = { UnexcelJob job ->
+			job.cancel()
+			throw new AdmissionRejectedException(HttpStatus.SERVICE_UNAVAILABLE, 0, 'No memory')
+		}
+		UnexcelJob job = finished(service.submit(Paths.get('/in/workbook.xlsx'), ConversionOptions.ALL))
+		assertEquals(FileStatus.FAILED, job.status)
+		assertEquals(1, converted.size())
+		// the file may be another instance's now, only the registration was saved
+		assertEquals(1, saved.size())
+	}
+
+	private static UnexcelJob finished(UnexcelJob job) {
+		job.completion.get(10, TimeUnit.SECONDS)
+	}
+}
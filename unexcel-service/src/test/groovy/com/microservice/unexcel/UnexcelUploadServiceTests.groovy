@@ -0,0 +1,160 @@
+package com.microservice.unexcel
+
+import com.microservice.unexcel.unxl.Checkpoint
+import com.microservice.unexcel.unxl.ConversionListener
+import com.microservice.unexcel.unxl.ConversionOptions
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.springframework.mock.web.MockMultipartFile
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.zip.ZipEntry
+import java.util.zip.ZipInputStream
+
+import static org.junit.Assert.assertArrayEquals
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertFalse
+import static org.junit.Assert.assertNull
+import static org.junit.Assert.assertTrue
+import static org.junit.Assert.fail
+
+/**
+ * Uploads are spooled into their own temporary directory, which is gone once the ZIP is streamed
+ * or the upload failed
+ */
+class UnexcelUploadServiceTests {
+
+	static final byte[] WORKBOOK = 'not really a workbook'.bytes
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder()
+
+	UnexcelUploadService service
+
+	Path tempDir
+
+	/**
+	 * Thrown by the conversion, if set
+	 */
+	Exception failure
+
+	@Before
+	void start() {
+		Unexcel unexcel = new Unexcel() {
+			@Override
+			List<Path> unexcel(Path excelFilePath, Path unexcelDirectory, ConversionOptions options,
+							   Collection<Checkpoint> resume, ConversionListener listener) {
+				if (failure) {
+					throw failure
+				}
+				['first', 'second'].collect { String sheet ->
+					Files.write(unexcelDirectory.resolve("${sheet}.csv"), "$sheet,${excelFilePath.fileName}\n".bytes)
+				}
+			}
+		}
+		tempDir = folder.newFolder().toPath()
+		service = new UnexcelUploadService(unexcel: unexcel, tempDir: tempDir.toString(),
+				resultCache: new ResultCache(unexcel: unexcel, enabled: false))
+	}
+
+	@Test
+	void spoolsTheBody() {
+		UnexcelUploadService.Upload upload = service.spool(new ByteArrayInputStream(WORKBOOK), '../report.v2.xlsx')
+		assertEquals(tempDir, upload.directory.parent)
+		assertEquals('workbook.xlsx', upload.workbook.fileName.toString())
+		assertEquals('report.v2', upload.name)
+		assertArrayEquals(WORKBOOK, Files.readAllBytes(upload.workbook))
+		assertEquals(service.resultCache.hash(upload.workbook), upload.contentHash)
+
+		assertEquals('workbook', service.spool(new ByteArrayInputStream(WORKBOOK), null).workbook.fileName.toString())
+	}
+
+	@Test
+	void spoolsTheMultipartFile() {
+		UnexcelUploadService.Upload upload = service.spool(
+				new MockMultipartFile('file', 'report.xls', 'application/vnd.ms-excel', WORKBOOK))
+		assertEquals('workbook.xls', upload.workbook.fileName.toString())
+		assertEquals('report', upload.name)
+		assertArrayEquals(WORKBOOK, Files.readAllBytes(upload.workbook))
+		// hashed only for the cache
+		assertNull(upload.contentHash)
+	}
+
+	@Test
+	void failedSpoolLeavesNothing() {
+		InputStream broken = new InputStream() {
+			@Override
+			int read() {
+				throw new IOException('Connection reset')
+			}
+		}
+		try {
+			service.spool(broken, 'report.xlsx')
+			fail('Spooled a broken body')
+		} catch (IOException e) {
+			assertEquals([], tempDir.toFile().list().toList())
+		}
+	}
+
+	@Test
+	void failedConversionLeavesNothing() {
+		failure = new IllegalStateException('Broken workbook')
+		UnexcelUploadService.Upload upload = service.spool(new ByteArrayInputStream(WORKBOOK), 'report.xlsx')
+		try {
+			service.convert(upload, ConversionOptions.ALL)
+			fail('Converted a broken workbook')
+		} catch (IllegalStateException e) {
+			assertFalse(Files.exists(upload.directory))
+		}
+	}
+
+	@Test
+	void streamsEverySheetAndDeletesTheUpload() {
+		UnexcelUploadService.Upload upload = service.spool(new ByteArrayInputStream(WORKBOOK), 'report.xlsx')
+		List<Path> files = service.convert(upload, ConversionOptions.ALL)
+		assertTrue(files.every { Path file -> file.startsWith(upload.directory) })
+		assertEquals(['first.csv': 'first,workbook.xlsx\n', 'second.csv': 'second,workbook.xlsx\n'], unzip(upload, files))
+		assertFalse(Files.exists(upload.directory))
+	}
+
+	@Test
+	void cachedResultIsReleasedAfterStreaming() {
+		ResultCache cache = new ResultCache(unexcel: service.unexcel, enabled: true,
+				directory: folder.newFolder().toString(), maxSizeMb: 1, maxAgeHours: 24)
+		cache.start()
+		service.resultCache = cache
+		UnexcelUploadService.Upload upload = service.spool(new ByteArrayInputStream(WORKBOOK), 'report.xlsx')
+		List<Path> files = service.convert(upload, ConversionOptions.ALL)
+		// the workbook is gone right after the conversion, the result stays in the cache
+		assertFalse(Files.exists(upload.directory))
+		assertFalse(cache.readers.isEmpty())
+		assertEquals(['first.csv': 'first,workbook.xlsx\n', 'second.csv': 'second,workbook.xlsx\n'], unzip(upload, files))
+		assertTrue(cache.readers.isEmpty())
+		assertTrue(files.every { Path file -> Files.exists(file) })
+	}
+
+	/**
+	 * @return content of the streamed ZIP by entry name
+	 */
+	private Map<String, String> unzip(UnexcelUploadService.Upload upload, List<Path> files) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream()
+		service.zip(upload, files).writeTo(out)
+		Map<String, String> entries = [:]
+		new ZipInputStream(new ByteArrayInputStream(out.toByteArray())).withCloseable { ZipInputStream zip ->
+			ZipEntry entry
+			while ((entry = zip.nextEntry) != null) {
+				ByteArrayOutputStream content = new ByteArrayOutputStream()
+				byte[] buffer = new byte[1024]
+				int read
+				while ((read = zip.read(buffer)) > 0) {
+					content.write(buffer, 0, read)
+				}
+				entries[entry.name] = content.toString()
+			}
+		}
+		entries
+	}
+}
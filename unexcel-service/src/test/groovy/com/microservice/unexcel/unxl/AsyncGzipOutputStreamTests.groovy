@@ -0,0 +1,71 @@
+package com.microservice.unexcel.unxl
+
+import org.junit.After
+import org.junit.Test
+
+import java.util.concurrent.Executor
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.zip.GZIPInputStream
+import java.util.zip.GZIPOutputStream
+
+import static org.junit.Assert.assertArrayEquals
+import static org.junit.Assert.assertTrue
+import static org.junit.Assert.fail
+
+/**
+ * Blocks compressed on the compressing thread make the same gzip content, a failed close doesn't leave it waiting
+ */
+class AsyncGzipOutputStreamTests {
+
+	final ExecutorService compressors = Executors.newSingleThreadExecutor()
+
+	@After
+	void stop() {
+		compressors.shutdownNow()
+	}
+
+	@Test
+	void compressesEveryBlock() {
+		byte[] content = (0..<200000).collect { int i -> "line $i\n" }.join('').bytes
+		ByteArrayOutputStream out = new ByteArrayOutputStream()
+		OutputStream gzip = AsyncGzipOutputStream.open(out, compressors)
+		assertTrue(gzip instanceof AsyncGzipOutputStream)
+		gzip.write(content, 0, 1000)
+		gzip.write(content, 1000, content.length - 1000)
+		gzip.close()
+		assertArrayEquals(content, new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())).bytes)
+	}
+
+	@Test
+	void compressedOnTheWritingThreadWithoutACompressor() {
+		assertTrue(AsyncGzipOutputStream.open(new ByteArrayOutputStream(), null) instanceof GZIPOutputStream)
+		Executor busy = { throw new RejectedExecutionException() } as Executor
+		assertTrue(AsyncGzipOutputStream.open(new ByteArrayOutputStream(), busy) instanceof GZIPOutputStream)
+	}
+
+	@Test
+	void interruptedCloseStopsTheCompressor() {
+		boolean closed = false
+		OutputStream out = new ByteArrayOutputStream() {
+			@Override
+			void close() {
+				closed = true
+			}
+		}
+		AsyncGzipOutputStream gzip = new AsyncGzipOutputStream(out, compressors)
+		gzip.write('cells'.bytes)
+		Thread.currentThread().interrupt()
+		try {
+			gzip.close()
+			fail('Interrupted close succeeded')
+		} catch (InterruptedIOException e) {
+			assertTrue(Thread.interrupted())
+		}
+		// the compressing thread is free again
+		compressors.submit({}).get(10, TimeUnit.SECONDS)
+		assertTrue(closed)
+	}
+}
@@ -0,0 +1,94 @@
+package com.microservice.unexcel.unxl
+
+import org.apache.poi.xssf.usermodel.XSSFRichTextString
+import org.junit.Test
+
+import java.text.NumberFormat
+
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertTrue
+import static org.junit.Assert.fail
+
+/**
+ * The shortcuts of the cell buffer give what the formatter and POI give for the same value
+ */
+class CellBufferTests {
+
+	static final List<String> NUMBERS = [
+			'0', '-0', '0.0', '-0.0', '7', '-7', '100', '12.50', '-12.5', '0.5', '-0.5', '1.0000000',
+			'0.1234567', '0.12345678', '1.12345678', '3.14159265358979', '0.00000001',
+			// exponents
+			'1e5', '1E-3', '1.5e10', '-2.5E+3', '1E308',
+			// leading zeros
+			'007', '00.5', '-01',
+			// 15 significant digits and more
+			'123456789012345', '1234567890.12345', '1234567890123456', '12345678901234567', '9007199254740993',
+			'99999999999.9999'
+	]
+
+	static final List<String> PLAIN_NUMBERS = ['0', '7', '-7', '100', '12.50', '-12.5', '0.5', '1.0000000',
+											   '0.1234567', '123456789012345']
+
+	static final List<String> ESCAPED = [
+			'plain', '_x0041_', 'a_x000D_b', '_x00e9__x00E9_', '_x0041_x0042_', '__x0041__', '_x0041',
+			'_x004_', '_x00G1_', '_X0041_', '_x', '_x0041_ trailing', 'x_x263A_x',
+			// fullwidth digits are digits, but not hex digits of an escape
+			'_x\uff10\uff10\uff14\uff11_', '_x00\u0661\u0661_'
+	]
+
+	@Test
+	void plainNumbersAsTheNumberFormat() {
+		NumberFormat format = NumberFormat.getInstance(Locale.US)
+		format.maximumFractionDigits = UnexcelConstants.MAX_FRACTION_DIGITS
+		format.groupingUsed = false
+		NUMBERS.each { String lexical ->
+			CellBuffer buffer = new CellBuffer().append('x')
+			char[] chars = " $lexical ".toString().toCharArray()
+			if (buffer.appendPlainNumber(chars, 1, lexical.length(), UnexcelConstants.MAX_FRACTION_DIGITS)) {
+				assertEquals(lexical, 'x' + format.format(Double.parseDouble(lexical)), buffer.toString())
+			} else {
+				assertEquals(lexical, 'x', buffer.toString())
+				assertTrue(lexical, !PLAIN_NUMBERS.contains(lexical))
+			}
+		}
+		PLAIN_NUMBERS.each { String lexical ->
+			assertTrue(lexical, new CellBuffer().appendPlainNumber(lexical.toCharArray(), 0, lexical.length(),
+					UnexcelConstants.MAX_FRACTION_DIGITS))
+		}
+	}
+
+	@Test
+	void notNumbers() {
+		['', '-', '.5', '5.', '1.2.3', '+1', '1,5', ' 1', '\u0661'].each { String lexical ->
+			CellBuffer buffer = new CellBuffer()
+			assertTrue(lexical, !buffer.appendPlainNumber(lexical.toCharArray(), 0, lexical.length(), 7))
+			assertEquals(0, buffer.length())
+		}
+	}
+
+	@Test
+	void escapesAsXssfRichTextString() {
+		ESCAPED.each { String text ->
+			String expected = new XSSFRichTextString(text).string
+			assertEquals(text, expected, new CellBuffer().appendUtfDecoded(text).toString())
+			char[] chars = "[$text]".toString().toCharArray()
+			assertEquals(text, expected, new CellBuffer().appendUtfDecoded(chars, 1, text.length()).toString())
+		}
+	}
+
+	@Test
+	void sstIndexAsIntegerParseInt() {
+		['0', '7', '42', '007', '123456789', '1234567890', '2147483647', '-1', '\uff11'].each { String index ->
+			char[] value = "${index}xx".toString().toCharArray()
+			assertEquals(index, Integer.parseInt(index), XLSX2CSV.parseSstIndex(value, index.length()))
+		}
+		['', 'x', '1x', ' 1', '2147483648', '99999999999'].each { String index ->
+			try {
+				XLSX2CSV.parseSstIndex(index.toCharArray(), index.length())
+				fail("Parsed '$index'")
+			} catch (NumberFormatException e) {
+				// as Integer.parseInt
+			}
+		}
+	}
+}
@@ -0,0 +1,136 @@
+package com.microservice.unexcel.unxl
+
+import org.apache.poi.hssf.record.NumberRecord
+import org.apache.poi.hssf.record.RKRecord
+import org.apache.poi.hssf.record.Record
+import org.apache.poi.hssf.record.RecordInputStream
+import org.apache.poi.hssf.usermodel.HSSFWorkbook
+import org.apache.poi.poifs.filesystem.NPOIFSFileSystem
+import org.apache.poi.ss.usermodel.Sheet
+import org.apache.poi.util.LittleEndian
+import org.junit.Rule
+import org.junit.Test
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.Path
+
+import static org.junit.Assert.assertEquals
+
+/**
+ * Integers in the General format are written without the formatter, exactly as the formatter writes them
+ */
+class CellFormattingStageTests {
+
+	static final NumberStyle GENERAL = new NumberStyle(0 as short, 'General')
+
+	static final List<Double> VALUES = [0d, -0d, 1d, -1d, 42d, 1234567890d, 99999999999d, -99999999999d,
+										100000000000d, -100000000000d, 123456789012d, 1e15d, 0.5d, -2.5d,
+										(double) Integer.MAX_VALUE, (double) Integer.MIN_VALUE]
+
+	static final List<String> LEXICAL = ['0', '-0', '0.0', '7', '-7', '007', '99999999999', '-99999999999',
+										 '100000000000', '-100000000000', '1E5', '1.0', '12.5']
+
+	@Rule
+	public ConversionFolder folder = new ConversionFolder()
+
+	int rkRecords
+
+	@Test
+	void generalIntegersAsTheFormatter() {
+		CustomDataFormatter formatter = new CustomDataFormatter(Locale.US)
+		List<String> expected = VALUES.collect { double value -> general(formatter, value) }
+		assertEquals(expected, csv { CellHandler stage ->
+			VALUES.eachWithIndex { double value, int row ->
+				stage.numberCell(0, value, GENERAL)
+				stage.endRow(row)
+			}
+		})
+		List<String> parsed = LEXICAL.collect { String lexical -> general(formatter, Double.parseDouble(lexical)) }
+		assertEquals(parsed, csv { CellHandler stage ->
+			LEXICAL.eachWithIndex { String lexical, int row ->
+				stage.numberCell(0, lexical.toCharArray(), 0, lexical.length(), GENERAL)
+				stage.endRow(row)
+			}
+		})
+	}
+
+	@Test
+	void rawRkRecords() {
+		HSSFWorkbook workbook = new HSSFWorkbook()
+		Sheet sheet = workbook.createSheet('numbers')
+		(VALUES + [1.25d, 1e-3d]).eachWithIndex { double value, int r ->
+			sheet.createRow(r).createCell(0).setCellValue(value)
+		}
+		Path xls = folder.write(workbook, 'numbers.xls')
+		assertEquals(convert(xls, false), convert(xls, true))
+		// integers and doubles with a short mantissa, negative zero among them
+		assertEquals(9, rkRecords)
+	}
+
+	/**
+	 * @return the lines the stage writes for the cells
+	 */
+	private static List<String> csv(Closure cells) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream()
+		StreamingCsvBuffer sink = new StreamingCsvBuffer(out)
+		cells(new CellFormattingStage(sink, -1, false))
+		sink.finish()
+		new String(out.toByteArray(), StandardCharsets.UTF_8).readLines()
+	}
+
+	private static String general(CustomDataFormatter formatter, double value) {
+		'"' + formatter.formatRawCellContents(value, 0, 'General', false, false) + '"'
+	}
+
+	/**
+	 * @param rk true hands the numbers that fit into an RK value over as raw RKRecords
+	 */
+	private List<String> convert(Path xls, boolean rk) {
+		List<Path> files = folder.convert { PrintStreamProducer producer ->
+			new NPOIFSFileSystem(xls.toFile(), true).withCloseable { NPOIFSFileSystem fs ->
+				XLS2CSVmra xls2csv = new XLS2CSVmra(fs, producer, -1) {
+					@Override
+					void processRecord(Record record) {
+						if (rk && record instanceof NumberRecord) {
+							record = rkRecord((NumberRecord) record)
+						}
+						super.processRecord(record)
+					}
+				}
+				xls2csv.process()
+			}
+		}
+		Files.readAllLines(files[0], StandardCharsets.UTF_8)
+	}
+
+	/**
+	 * @return the number as an RKRecord, as an integer or as the upper bits of the double, or the record
+	 * itself if it doesn't fit
+	 */
+	private Record rkRecord(NumberRecord number) {
+		double value = number.value
+		long bits = Double.doubleToLongBits(value)
+		int rk
+		if (value == Math.rint(value) && Math.abs(value) < (1 << 29) && bits != Double.doubleToLongBits(-0d)) {
+			rk = ((int) value << 2) | 2
+		} else if ((bits & 0x3FFFFFFFFL) == 0) {
+			rk = (int) (bits >>> 32)
+		} else {
+			return number
+		}
+		byte[] bytes = new byte[14]
+		LittleEndian.putShort(bytes, 0, RKRecord.sid)
+		LittleEndian.putShort(bytes, 2, 10 as short)
+		LittleEndian.putUShort(bytes, 4, number.row)
+		LittleEndian.putShort(bytes, 6, number.column)
+		LittleEndian.putShort(bytes, 8, number.XFIndex)
+		LittleEndian.putInt(bytes, 10, rk)
+		RecordInputStream stream = new RecordInputStream(new ByteArrayInputStream(bytes))
+		stream.nextRecord()
+		RKRecord record = new RKRecord(stream)
+		assertEquals(Double.doubleToLongBits(value), Double.doubleToLongBits(record.RKNumber))
+		rkRecords++
+		record
+	}
+}
@@ -0,0 +1,182 @@
+package com.microservice.unexcel.unxl
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook
+import org.apache.poi.ss.usermodel.Row
+import org.apache.poi.ss.usermodel.Sheet
+import org.apache.poi.ss.usermodel.Workbook
+import org.apache.poi.xssf.usermodel.XSSFWorkbook
+import org.junit.Rule
+import org.junit.Test
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertTrue
+import static org.junit.Assert.fail
+
+/**
+ * Parts of a sheet joined together are the CSV of the whole sheet, also when an interrupted conversion is resumed
+ */
+class ChunkedConversionTests {
+
+	static final ChunkPolicy THREE_ROWS = new ChunkPolicy(3, 0)
+
+	@Rule
+	public ConversionFolder folder = new ConversionFolder()
+
+	@Test
+	void xlsx() {
+		Path workbook = write(new XSSFWorkbook(), 'workbook.xlsx')
+		assertChunked { CsvFilePrintStreamProducer producer, ConversionListener listener ->
+			convertXlsx(workbook, producer, listener, null)
+		}
+	}
+
+	@Test
+	void xlsxInParallel() {
+		Path workbook = write(new XSSFWorkbook(), 'workbook.xlsx')
+		// a single thread, so that no sheet is still being written when the interrupted conversion is resumed
+		ExecutorService executor = Executors.newSingleThreadExecutor()
+		try {
+			assertChunked { CsvFilePrintStreamProducer producer, ConversionListener listener ->
+				convertXlsx(workbook, producer, listener, executor)
+			}
+		} finally {
+			executor.shutdown()
+		}
+	}
+
+	@Test
+	void xls() {
+		Path workbook = write(new HSSFWorkbook(), 'workbook.xls')
+		assertChunked { CsvFilePrintStreamProducer producer, ConversionListener listener ->
+			ConversionFolder.convertXls(workbook, producer) { XLS2CSVmra xls2csv -> xls2csv.conversionListener = listener }
+		}
+	}
+
+	@Test
+	void bytePolicy() {
+		ChunkPolicy policy = new ChunkPolicy(0, 100)
+		assertTrue(policy.enabled)
+		assertTrue(policy.isFull(1, 100))
+		assertTrue(!policy.isFull(1000, 99))
+		assertTrue(!ChunkPolicy.NONE.enabled)
+	}
+
+	private static void convertXlsx(Path workbook, CsvFilePrintStreamProducer producer, ConversionListener listener,
+									ExecutorService executor) {
+		ConversionFolder.convertXlsx(workbook, ConversionFolder.OPC, producer) { XLSX2CSV xlsx2csv ->
+			xlsx2csv.sheetExecutor = executor
+			xlsx2csv.conversionListener = listener
+		}
+	}
+
+	/**
+	 * Converts the workbook as a whole, in parts, and in parts that are interrupted after every commit and resumed
+	 */
+	private void assertChunked(Closure conversion) {
+		Map<String, String> expected = csv(convert(conversion, ChunkPolicy.NONE))
+		assertEquals(['values', 'wide'], expected.keySet() as List)
+
+		List<Path> parts = convert(conversion, THREE_ROWS)
+		assertEquals(['values.part00001.csv', 'values.part00002.csv', 'values.part00003.csv',
+					  'values.part00004.csv', 'wide.part00001.csv'], parts*.fileName*.toString())
+		assertEquals(expected, csv(parts))
+
+		Path directory = folder.newFolder().toPath()
+		List<Checkpoint> committed = []
+		int attempts = 0
+		while (true) {
+			CsvFilePrintStreamProducer producer = new CsvFilePrintStreamProducer(directory)
+			producer.chunkPolicy = THREE_ROWS
+			producer.resume(latest(committed))
+			attempts++
+			try {
+				conversion(producer, new Recorder(committed, 1))
+				break
+			} catch (Exception e) {
+				if (!(e instanceof Interrupted || e.cause instanceof Interrupted)) {
+					throw e
+				}
+			}
+			if (attempts > 20) {
+				fail("Conversion makes no progress, checkpoints: $committed")
+			}
+		}
+		// at most one commit per attempt: four parts of "values", the one of "wide", the end of "empty";
+		// sheets converted in parallel may commit more before they are stopped
+		assertTrue(attempts > 1 && attempts <= 7)
+		assertEquals(expected, csv(Files.list(directory).sorted().collect() as List<Path>))
+	}
+
+	private List<Path> convert(Closure conversion, ChunkPolicy policy) {
+		CsvFilePrintStreamProducer producer = new CsvFilePrintStreamProducer(folder.newFolder().toPath())
+		producer.chunkPolicy = policy
+		ConversionFolder.convert(producer) { conversion(producer, new Recorder([], 0)) }
+	}
+
+	private static Collection<Checkpoint> latest(List<Checkpoint> committed) {
+		Map<Integer, Checkpoint> bySheet = [:]
+		committed.each { Checkpoint checkpoint -> bySheet.put(checkpoint.sheetIndex, checkpoint) }
+		bySheet.values()
+	}
+
+	/**
+	 * CSV by sheet name, parts of a sheet joined by line separators
+	 */
+	private static Map<String, String> csv(List<Path> files) {
+		Map<String, List<String>> sheets = [:]
+		files.each { Path file ->
+			String sheet = file.fileName.toString().replaceFirst(/(\.part\d+)?\.csv$/, '')
+			sheets.computeIfAbsent(sheet, { [] }) << new String(Files.readAllBytes(file), StandardCharsets.UTF_8)
+		}
+		sheets.collectEntries { String sheet, List<String> parts -> [(sheet): parts.join(System.lineSeparator())] }
+	}
+
+	/**
+	 * Sheet "values" has 10 rows with gaps, leading and trailing empty rows and a wider row in the middle,
+	 * sheet "wide" has two rows, sheet "empty" none
+	 */
+	private Path write(Workbook workbook, String fileName) {
+		Sheet values = workbook.createSheet('values')
+		[1, 2, 3, 5, 6, 7, 8, 12, 13, 14].each { int r ->
+			Row row = values.createRow(r)
+			int columns = r == 7 ? 6 : 3
+			(0..<columns).each { int c -> row.createCell(c).setCellValue("r${r}c${c}".toString()) }
+		}
+		values.createRow(20)
+		Sheet wide = workbook.createSheet('wide')
+		(0..1).each { int r -> (0..4).each { int c -> wide.createRow(r).createCell(c * 2).setCellValue(r * 10 + c) } }
+		workbook.createSheet('empty')
+		folder.write(workbook, fileName)
+	}
+
+	/**
+	 * Collects the checkpoints and interrupts the conversion after the given number of commits, 0 for never
+	 */
+	static class Recorder implements ConversionListener {
+		private final List<Checkpoint> committed
+		private final int interruptAfter
+		private int commits
+
+		Recorder(List<Checkpoint> committed, int interruptAfter) {
+			this.committed = committed
+			this.interruptAfter = interruptAfter
+		}
+
+		@Override
+		synchronized void partCommitted(Checkpoint checkpoint) {
+			committed << checkpoint
+			if (++commits == interruptAfter) {
+				throw new Interrupted()
+			}
+		}
+	}
+
+	static class Interrupted extends RuntimeException {
+	}
+}
@@ -0,0 +1,85 @@
+package com.microservice.unexcel.unxl
+
+import org.apache.poi.openxml4j.opc.OPCPackage
+import org.apache.poi.openxml4j.opc.PackageAccess
+import org.apache.poi.poifs.filesystem.NPOIFSFileSystem
+import org.apache.poi.ss.usermodel.Workbook
+import org.junit.rules.TemporaryFolder
+
+import java.nio.file.Files
+import java.nio.file.Path
+
+/**
+ * Temporary folder for the workbooks of a conversion test and their output. Tests only build the sheets.
+ */
+class ConversionFolder extends TemporaryFolder {
+
+	/**
+	 * XLSX parts read through POI's OPCPackage or straight from the zip file, see {@link #convertXlsx}
+	 */
+	static final String OPC = 'opc'
+	static final String ZIP = 'zip'
+
+	/**
+	 * @return new file of the folder with the workbook in it
+	 */
+	Path write(Workbook workbook, String fileName) {
+		Path file = newFile(fileName).toPath()
+		Files.newOutputStream(file).withCloseable { OutputStream out -> workbook.write(out) }
+		file
+	}
+
+	/**
+	 * Runs the conversion into a new directory of the folder
+	 *
+	 * @param conversion called with the producer
+	 * @return files written, in workbook order
+	 */
+	List<Path> convert(Closure conversion) {
+		convert(new CsvFilePrintStreamProducer(newFolder().toPath()), conversion)
+	}
+
+	/**
+	 * Runs the conversion into the producer and closes the file written last
+	 */
+	static List<Path> convert(CsvFilePrintStreamProducer producer, Closure conversion) {
+		try {
+			conversion(producer)
+		} finally {
+			producer.previousPrintStream?.close()
+		}
+		producer.resultFiles
+	}
+
+	/**
+	 * Converts an XLSX workbook
+	 *
+	 * @param container {@link #OPC} or {@link #ZIP}
+	 * @param configure called with the converter before it processes the workbook
+	 */
+	static void convertXlsx(Path workbook, String container, PrintStreamProducer producer, Closure configure = {}) {
+		OPCPackage pkg = container == OPC ? OPCPackage.open(workbook.toFile(), PackageAccess.READ) : null
+		XlsxParts parts = pkg != null ? new PackageXlsxParts(pkg) : new ZipXlsxParts(workbook)
+		try {
+			XLSX2CSV xlsx2csv = new XLSX2CSV(parts, producer, -1)
+			configure(xlsx2csv)
+			xlsx2csv.process()
+		} finally {
+			parts.close()
+			pkg?.revert()
+		}
+	}
+
+	/**
+	 * Converts an XLS workbook
+	 *
+	 * @param configure called with the converter before it processes the workbook
+	 */
+	static void convertXls(Path workbook, PrintStreamProducer producer, Closure configure = {}) {
+		new NPOIFSFileSystem(workbook.toFile(), true).withCloseable { NPOIFSFileSystem fs ->
+			XLS2CSVmra xls2csv = new XLS2CSVmra(fs, producer, -1)
+			configure(xls2csv)
+			xls2csv.process()
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package com.microservice.unexcel.unxl
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook
+import org.apache.poi.ss.usermodel.Row
+import org.apache.poi.ss.usermodel.Sheet
+import org.apache.poi.ss.usermodel.Workbook
+import org.apache.poi.xssf.usermodel.XSSFWorkbook
+import org.junit.Rule
+import org.junit.Test
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.Path
+
+import static org.junit.Assert.assertEquals
+
+/**
+ * Both engines convert only the selected sheets, rows and columns
+ */
+class ConversionOptionsTests {
+
+	static final ConversionOptions SECOND_SHEET_PREVIEW = new ConversionOptions(['second'], null, 1, 3, [1, 3, 4])
+
+	@Rule
+	public ConversionFolder folder = new ConversionFolder()
+
+	@Test
+	void xlsx() {
+		Path workbook = write(new XSSFWorkbook(), 'workbook.xlsx')
+		XLSX2CSV.SheetReader.values().each { XLSX2CSV.SheetReader reader ->
+			Map<String, List<String>> csv = convert { PrintStreamProducer producer ->
+				ConversionFolder.convertXlsx(workbook, ConversionFolder.OPC, producer) { XLSX2CSV xlsx2csv ->
+					xlsx2csv.sheetReader = reader
+					xlsx2csv.options = SECOND_SHEET_PREVIEW
+				}
+			}
+			assertEquals(reader.name(), [second: ['"r1c1","r1c3","r1c4"', ',,"r2c4"', '"r3c1","r3c3","r3c4"']], csv)
+		}
+	}
+
+	@Test
+	void xls() {
+		Path workbook = write(new HSSFWorkbook(), 'workbook.xls')
+		Map<String, List<String>> csv = convert { PrintStreamProducer producer ->
+			ConversionFolder.convertXls(workbook, producer) { XLS2CSVmra xls2csv -> xls2csv.options = SECOND_SHEET_PREVIEW }
+		}
+		assertEquals([second: ['"r1c1","r1c3","r1c4"', '"","","r2c4"', '"r3c1","r3c3","r3c4"']], csv)
+	}
+
+	@Test
+	void outputColumns() {
+		assertEquals(-1, SECOND_SHEET_PREVIEW.getOutputColumn(0))
+		assertEquals(1, SECOND_SHEET_PREVIEW.getOutputColumn(3))
+		assertEquals(-1, SECOND_SHEET_PREVIEW.getOutputColumn(5))
+		assertEquals(2, SECOND_SHEET_PREVIEW.getOutputColumnCount(4))
+		assertEquals(3, SECOND_SHEET_PREVIEW.getOutputColumnCount(100))
+		assertEquals(7, ConversionOptions.ALL.getOutputColumn(7))
+	}
+
+	/**
+	 * Two sheets of 10 rows and 6 columns, cells are named after their position. Row 2 has only column 4.
+	 */
+	private Path write(Workbook workbook, String fileName) {
+		['first', 'second'].each { String name ->
+			Sheet sheet = workbook.createSheet(name)
+			(0..9).each { int r ->
+				Row row = sheet.createRow(r)
+				(0..5).each { int c ->
+					if (r != 2 || c == 4) {
+						row.createCell(c).setCellValue("r${r}c${c}".toString())
+					}
+				}
+			}
+		}
+		folder.write(workbook, fileName)
+	}
+
+	private Map<String, List<String>> convert(Closure conversion) {
+		folder.convert(conversion).collectEntries { Path csv ->
+			[(csv.fileName.toString() - '.csv'): Files.readAllLines(csv, StandardCharsets.UTF_8)]
+		}
+	}
+}
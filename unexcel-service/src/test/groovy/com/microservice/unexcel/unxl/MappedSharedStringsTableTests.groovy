@@ -0,0 +1,84 @@
+package com.microservice.unexcel.unxl
+
+import org.apache.poi.openxml4j.opc.OPCPackage
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable
+import org.junit.Test
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.Path
+
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertFalse
+import static org.junit.Assert.assertTrue
+
+/**
+ * The memory-mapped table gives the same strings as the heap table and POI's ReadOnlySharedStringsTable
+ */
+class MappedSharedStringsTableTests {
+
+	static final String NS = 'http://schemas.openxmlformats.org/spreadsheetml/2006/main'
+
+	static final List<String> ENTRIES = [
+			'<si><t>plain</t></si>',
+			// rich text runs are joined
+			'<si><r><rPr><b/></rPr><t>bold</t></r><r><t xml:space="preserve"> and plain</t></r></si>',
+			// phonetic runs follow the text after a space
+			'<si><t>\u6f22\u5b57</t><rPh sb="0" eb="2"><t>\u30ab\u30f3\u30b8</t></rPh><phoneticPr fontId="1"/></si>',
+			'<si/>',
+			'<si><t/></si>',
+			// one, two, three and four UTF-8 bytes, the last ones as surrogate pairs
+			'<si><t>a \u00e9 \u20ac \ud83d\ude00 \ud834\udd1e</t></si>',
+			'<si><t>&lt;escaped&gt; &amp; "quoted"</t></si>'
+	]
+
+	@Test
+	void sameStrings() {
+		assertSameStrings(sst(ENTRIES, " uniqueCount=\"${ENTRIES.size()}\""))
+	}
+
+	@Test
+	void missingUniqueCount() {
+		// more strings than the offsets of a table without uniqueCount start with
+		List<String> entries = (0..<3000).collect { int i -> ENTRIES[i % ENTRIES.size()] }
+		assertSameStrings(sst(entries, ''))
+	}
+
+	@Test
+	void uniqueCountTooSmall() {
+		assertSameStrings(sst(ENTRIES, ' uniqueCount="1"'))
+	}
+
+	@Test
+	void closeRemovesTheFile() {
+		MappedSharedStringsTable table = new MappedSharedStringsTable(stream(sst(ENTRIES, '')))
+		Path file = table.arenaFile
+		assertTrue(Files.exists(file))
+		table.close()
+		assertFalse(Files.exists(file))
+	}
+
+	private static void assertSameStrings(String xml) {
+		ReadOnlySharedStringsTable poi = new ReadOnlySharedStringsTable(OPCPackage.create(new ByteArrayOutputStream()))
+		poi.readFrom(stream(xml))
+		List<String> expected = poi.items
+		assertEquals(expected, strings(new HeapSharedStrings(stream(xml))))
+		assertEquals(expected, strings(new MappedSharedStringsTable(stream(xml))))
+	}
+
+	private static List<String> strings(SharedStrings table) {
+		try {
+			(0..<table.count).collect { int i -> table.getEntryAt(i) }
+		} finally {
+			table.close()
+		}
+	}
+
+	private static String sst(List<String> entries, String attributes) {
+		"<?xml version=\"1.0\" encoding=\"UTF-8\"?><sst xmlns=\"$NS\"$attributes>${entries.join('')}</sst>"
+	}
+
+	private static InputStream stream(String xml) {
+		new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8))
+	}
+}
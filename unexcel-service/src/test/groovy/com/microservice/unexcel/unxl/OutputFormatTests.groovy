@@ -0,0 +1,164 @@
+package com.microservice.unexcel.unxl
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook
+import org.apache.poi.ss.usermodel.CellStyle
+import org.apache.poi.ss.usermodel.Row
+import org.apache.poi.ss.usermodel.Sheet
+import org.apache.poi.ss.usermodel.Workbook
+import org.apache.poi.xssf.usermodel.XSSFWorkbook
+import org.junit.Rule
+import org.junit.Test
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.zip.GZIPInputStream
+
+import static org.junit.Assert.assertArrayEquals
+import static org.junit.Assert.assertEquals
+
+/**
+ * Both engines write every output format, raw formats keep numbers and booleans unformatted
+ */
+class OutputFormatTests {
+
+	static final List<List<Object>> ROWS = [
+			['name', 'value', 'date', 'flag'],
+			['a "quoted"', 12.5d, '2017-01-02', true],
+			[null, 3d, null, false]
+	]
+
+	static final List<String> NDJSON = [
+			'["name","value","date","flag"',
+			'["a \\"quoted\\"",12.5,"2017-01-02",true',
+			'[null,3,null,false'
+	]
+
+	@Rule
+	public ConversionFolder folder = new ConversionFolder()
+
+	@Test
+	void xlsx() {
+		Path workbook = write(new XSSFWorkbook(), 'workbook.xlsx')
+		// POI writes the sheet dimension one column too wide, every format pads rows up to it like CSV does
+		assertFormats(5) { OutputFormat format ->
+			convert(format) { PrintStreamProducer producer ->
+				ConversionFolder.convertXlsx(workbook, ConversionFolder.OPC, producer)
+			}
+		}
+	}
+
+	@Test
+	void xls() {
+		Path workbook = write(new HSSFWorkbook(), 'workbook.xls')
+		assertFormats(4) { OutputFormat format ->
+			convert(format) { PrintStreamProducer producer -> ConversionFolder.convertXls(workbook, producer) }
+		}
+	}
+
+	/**
+	 * @param columns number of columns the rows are padded to
+	 */
+	private void assertFormats(int columns, Closure<Path> convert) {
+		Path csv = convert(OutputFormat.CSV)
+		assertEquals('data.csv', csv.fileName.toString())
+		// both engines write booleans the same way
+		assertEquals('"a ""quoted""","12.5","2017-01-02","TRUE"' + ',' * (columns - 4),
+				Files.readAllLines(csv, StandardCharsets.UTF_8)[1])
+
+		Path gzip = convert(OutputFormat.CSV_GZIP)
+		assertEquals('data.csv.gz', gzip.fileName.toString())
+		InputStream unzipped = new GZIPInputStream(Files.newInputStream(gzip))
+		try {
+			assertArrayEquals(Files.readAllBytes(csv), unzipped.bytes)
+		} finally {
+			unzipped.close()
+		}
+
+		Path ndjson = convert(OutputFormat.NDJSON)
+		assertEquals('data.ndjson', ndjson.fileName.toString())
+		assertEquals(NDJSON.collect { String line -> line + ',null' * (columns - 4) + ']' },
+				Files.readAllLines(ndjson, StandardCharsets.UTF_8))
+
+		Path columnar = convert(OutputFormat.COLUMNAR)
+		assertEquals('data.uxc', columnar.fileName.toString())
+		assertEquals(ROWS.collect { List<Object> row -> row + [null] * (columns - 4) }, readColumnar(columnar))
+	}
+
+	/**
+	 * One sheet with a header, a row of text, number, date and boolean, and a row with gaps
+	 */
+	private Path write(Workbook workbook, String fileName) {
+		CellStyle date = workbook.createCellStyle()
+		date.dataFormat = workbook.creationHelper.createDataFormat().getFormat('yyyy-mm-dd')
+		Sheet sheet = workbook.createSheet('data')
+		Row header = sheet.createRow(0)
+		['name', 'value', 'date', 'flag'].eachWithIndex { String name, int i -> header.createCell(i).setCellValue(name) }
+		Row values = sheet.createRow(1)
+		values.createCell(0).setCellValue('a "quoted"')
+		values.createCell(1).setCellValue(12.5d)
+		values.createCell(2).with {
+			setCellValue(new GregorianCalendar(2017, Calendar.JANUARY, 2).time)
+			cellStyle = date
+		}
+		values.createCell(3).setCellValue(true)
+		Row gaps = sheet.createRow(2)
+		gaps.createCell(1).setCellValue(3d)
+		gaps.createCell(3).setCellValue(false)
+		folder.write(workbook, fileName)
+	}
+
+	/**
+	 * @return the one file the conversion wrote in the format
+	 */
+	private Path convert(OutputFormat format, Closure conversion) {
+		CsvFilePrintStreamProducer producer = new CsvFilePrintStreamProducer(folder.newFolder().toPath())
+		producer.outputFormat = format
+		ConversionFolder.convert(producer, conversion).first()
+	}
+
+	/**
+	 * @return rows of the file with numbers as doubles, booleans and nulls for empty cells
+	 */
+	private static List<List<Object>> readColumnar(Path file) {
+		List<List<Object>> rows = []
+		DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))
+		try {
+			byte[] magic = new byte[4]
+			input.readFully(magic)
+			assertArrayEquals(ColumnarSheetSink.MAGIC, magic)
+			int rowCount
+			while ((rowCount = input.readInt()) > 0) {
+				List<List<Object>> group = (0..<rowCount).collect { [] }
+				int columnCount = input.readInt()
+				columnCount.times {
+					byte[] types = new byte[rowCount]
+					input.readFully(types)
+					double[] numbers = new double[input.readInt()]
+					numbers.length.times { int i -> numbers[i] = input.readDouble() }
+					String[] texts = new String[input.readInt()]
+					texts.length.times { int i ->
+						byte[] utf8 = new byte[input.readInt()]
+						input.readFully(utf8)
+						texts[i] = new String(utf8, StandardCharsets.UTF_8)
+					}
+					int number = 0
+					int text = 0
+					types.eachWithIndex { byte type, int row ->
+						switch (type) {
+							case ColumnarSheetSink.NUMBER: group[row] << numbers[number++]; break
+							case ColumnarSheetSink.TEXT: group[row] << texts[text++]; break
+							case ColumnarSheetSink.TRUE: group[row] << true; break
+							case ColumnarSheetSink.FALSE: group[row] << false; break
+							default: group[row] << null
+						}
+					}
+				}
+				rows.addAll(group)
+			}
+		} finally {
+			input.close()
+		}
+		rows
+	}
+}
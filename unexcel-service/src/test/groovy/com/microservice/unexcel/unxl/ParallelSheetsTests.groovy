@@ -0,0 +1,78 @@
+package com.microservice.unexcel.unxl
+
+import org.apache.poi.ss.usermodel.Sheet
+import org.apache.poi.xssf.streaming.SXSSFWorkbook
+import org.junit.Rule
+import org.junit.Test
+
+import java.nio.file.Path
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertTrue
+import static org.junit.Assert.fail
+
+/**
+ * A failed sheet stops the other sheets, the conversion only ends once none of them runs anymore
+ */
+class ParallelSheetsTests {
+
+	static final int ROWS = 20000
+
+	@Rule
+	public ConversionFolder folder = new ConversionFolder()
+
+	@Test
+	void failedSheetStopsTheOthers() {
+		SXSSFWorkbook workbook = new SXSSFWorkbook()
+		Sheet numbers = workbook.createSheet('numbers')
+		ROWS.times { int i -> numbers.createRow(i).createCell(0).setCellValue(i) }
+		workbook.createSheet('broken').createRow(0).createCell(0).setCellValue('never written')
+		Path xlsx = folder.write(workbook, 'workbook.xlsx')
+		workbook.dispose()
+
+		CountDownLatch converting = new CountDownLatch(1)
+		CountDownLatch failing = new CountDownLatch(1)
+		AtomicLong rows = new AtomicLong()
+		ConversionListener listener = new ConversionListener() {
+			@Override
+			void sheetStarted(String sheetName) {
+				if (sheetName == 'broken') {
+					converting.await(10, TimeUnit.SECONDS)
+					failing.countDown()
+					throw new IOException('Broken sheet')
+				}
+			}
+
+			@Override
+			void rowsWritten(int count) {
+				if (rows.addAndGet(count) == 100) {
+					converting.countDown()
+					// give the broken sheet time to fail
+					failing.await(10, TimeUnit.SECONDS)
+					sleep(100)
+				}
+			}
+		}
+		ForkJoinPool executor = new ForkJoinPool(2)
+		try {
+			folder.convert { PrintStreamProducer producer ->
+				ConversionFolder.convertXlsx(xlsx, ConversionFolder.ZIP, producer) { XLSX2CSV xlsx2csv ->
+					xlsx2csv.sheetExecutor = executor
+					xlsx2csv.conversionListener = listener
+				}
+			}
+			fail('Converted a broken sheet')
+		} catch (IOException e) {
+			assertEquals('Broken sheet', e.message)
+			// no sheet is converted after the conversion failed
+			assertTrue(executor.quiescent)
+			assertTrue(rows.get() < ROWS)
+		} finally {
+			executor.shutdownNow()
+		}
+	}
+}
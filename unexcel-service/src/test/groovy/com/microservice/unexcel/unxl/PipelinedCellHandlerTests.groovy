@@ -0,0 +1,201 @@
+package com.microservice.unexcel.unxl
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook
+import org.apache.poi.ss.usermodel.CellStyle
+import org.apache.poi.ss.usermodel.Row
+import org.apache.poi.ss.usermodel.Sheet
+import org.apache.poi.ss.usermodel.Workbook
+import org.apache.poi.xssf.usermodel.XSSFWorkbook
+import org.junit.After
+import org.junit.Rule
+import org.junit.Test
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.Executor
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
+
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertNull
+import static org.junit.Assert.assertSame
+import static org.junit.Assert.fail
+
+/**
+ * Cells formatted on the formatter thread are written in the order they were parsed, as without the pipeline
+ */
+class PipelinedCellHandlerTests {
+
+	// more rows than the batches of the ring hold
+	static final int ROWS = PipelinedCellHandler.BATCH_ROWS * PipelinedCellHandler.BATCHES * 2 + 7
+
+	@Rule
+	public ConversionFolder folder = new ConversionFolder()
+
+	final ExecutorService formatters = Executors.newFixedThreadPool(1)
+
+	@After
+	void stop() {
+		formatters.shutdownNow()
+	}
+
+	@Test
+	void xlsx() {
+		Path workbook = write(new XSSFWorkbook(), 'workbook.xlsx')
+		XLSX2CSV.SheetReader.values().each { XLSX2CSV.SheetReader reader ->
+			Closure conversion = { PrintStreamProducer producer, boolean pipelined ->
+				ConversionFolder.convertXlsx(workbook, ConversionFolder.ZIP, producer) { XLSX2CSV xlsx2csv ->
+					xlsx2csv.sheetReader = reader
+					xlsx2csv.formatExecutor = pipelined ? formatters : null
+				}
+			}
+			assertEquals(csv(conversion, false), csv(conversion, true))
+		}
+	}
+
+	@Test
+	void xls() {
+		Path workbook = write(new HSSFWorkbook(), 'workbook.xls')
+		Closure conversion = { PrintStreamProducer producer, boolean pipelined ->
+			ConversionFolder.convertXls(workbook, producer) { XLS2CSVmra xls2csv ->
+				xls2csv.formatExecutor = pipelined ? formatters : null
+			}
+		}
+		assertEquals(csv(conversion, false), csv(conversion, true))
+	}
+
+	@Test
+	void cellsInOrder() {
+		List<String> direct = []
+		List<String> pipelined = []
+		cells(new Recorder(direct))
+		PipelinedCellHandler pipeline = new PipelinedCellHandler(new Recorder(pipelined), formatters)
+		cells(pipeline)
+		pipeline.finish()
+		assertEquals(direct, pipelined)
+	}
+
+	@Test
+	void writeErrorIsThrown() {
+		IllegalStateException error = new IllegalStateException('disk full')
+		CellHandler failing = new Recorder([]) {
+			@Override
+			void endRow(int row) {
+				if (row == 100) {
+					throw error
+				}
+			}
+		}
+		PipelinedCellHandler pipeline = new PipelinedCellHandler(failing, formatters)
+		try {
+			cells(pipeline)
+			pipeline.finish()
+			fail('Error of the formatter thread is lost')
+		} catch (IllegalStateException e) {
+			assertSame(error, e)
+		} finally {
+			pipeline.close()
+		}
+	}
+
+	@Test
+	void notPipelinedWithoutAFreeThread() {
+		CellHandler downstream = new Recorder([])
+		assertNull(PipelinedCellHandler.start(downstream, null))
+		assertNull(PipelinedCellHandler.start(downstream, { throw new RejectedExecutionException() } as Executor))
+	}
+
+	/**
+	 * Every kind of cell, text long enough to need more than a batch's chars now and then
+	 */
+	private static void cells(CellHandler handler) {
+		NumberStyle date = new NumberStyle(14 as short, 'm/d/yy')
+		char[] text = ('x' * 300).toCharArray()
+		(0..<ROWS).each { int r ->
+			handler.textCell(0, "row $r".toString())
+			handler.textCell(1, text, r % 7, r % 50 == 0 ? 300 - r % 7 : 10)
+			handler.numberCell(2, "$r.5".toString().toCharArray(), 0, "$r.5".length(), null)
+			handler.numberCell(4, r as double, date)
+			handler.booleanCell(5, r % 2 == 0)
+			handler.blankCell(6)
+			handler.endRow(r)
+		}
+	}
+
+	private List<String> csv(Closure conversion, boolean pipelined) {
+		List<Path> files = folder.convert { PrintStreamProducer producer -> conversion(producer, pipelined) }
+		files.collect { Path file -> new String(Files.readAllBytes(file), StandardCharsets.UTF_8) }
+	}
+
+	/**
+	 * Sheet "values" has rows of text, numbers, dates, booleans, blanks and gaps, sheet "small" two rows
+	 */
+	private Path write(Workbook workbook, String fileName) {
+		CellStyle date = workbook.createCellStyle()
+		date.dataFormat = workbook.createDataFormat().getFormat('yyyy-mm-dd')
+		Sheet values = workbook.createSheet('values')
+		(0..<ROWS).each { int r ->
+			if (r % 97 == 13) {
+				return
+			}
+			Row row = values.createRow(r)
+			row.createCell(0).setCellValue("text $r, \"quoted\"".toString())
+			row.createCell(1).setCellValue(r * 1.25d)
+			row.createCell(3).setCellValue(r % 3 == 0)
+			row.createCell(4).setCellValue(40000 + r)
+			row.getCell(4).cellStyle = date
+			row.createCell(5)
+		}
+		Sheet small = workbook.createSheet('small')
+		(0..1).each { int r -> small.createRow(r).createCell(r).setCellValue(r) }
+		folder.write(workbook, fileName)
+	}
+
+	/**
+	 * Writes down every cell it gets
+	 */
+	static class Recorder implements CellHandler {
+		private final List<String> cells
+
+		Recorder(List<String> cells) {
+			this.cells = cells
+		}
+
+		@Override
+		void textCell(int column, char[] chars, int offset, int length) {
+			cells << "$column text ${new String(chars, offset, length)}".toString()
+		}
+
+		@Override
+		void textCell(int column, String value) {
+			cells << "$column text $value".toString()
+		}
+
+		@Override
+		void numberCell(int column, char[] lexical, int offset, int length, NumberStyle style) {
+			cells << "$column number ${new String(lexical, offset, length)} ${style?.formatString}".toString()
+		}
+
+		@Override
+		void numberCell(int column, double value, NumberStyle style) {
+			cells << "$column number $value ${style?.formatString}".toString()
+		}
+
+		@Override
+		void booleanCell(int column, boolean value) {
+			cells << "$column boolean $value".toString()
+		}
+
+		@Override
+		void blankCell(int column) {
+			cells << "$column blank".toString()
+		}
+
+		@Override
+		void endRow(int row) {
+			cells << "end $row".toString()
+		}
+	}
+}
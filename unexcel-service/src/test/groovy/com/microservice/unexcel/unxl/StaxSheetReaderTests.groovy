@@ -0,0 +1,112 @@
+package com.microservice.unexcel.unxl
+
+import org.apache.poi.ss.usermodel.CellStyle
+import org.apache.poi.ss.usermodel.FormulaError
+import org.apache.poi.ss.usermodel.Row
+import org.apache.poi.ss.usermodel.Sheet
+import org.apache.poi.ss.usermodel.Workbook
+import org.apache.poi.xssf.streaming.SXSSFWorkbook
+import org.apache.poi.xssf.usermodel.XSSFWorkbook
+import org.junit.Rule
+import org.junit.Test
+
+import java.nio.file.Files
+import java.nio.file.Path
+
+import static org.junit.Assert.assertArrayEquals
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertTrue
+
+/**
+ * The StAX sheet reader must produce exactly the same CSV as the SAX reader
+ */
+class StaxSheetReaderTests {
+
+	@Rule
+	public ConversionFolder folder = new ConversionFolder()
+
+	@Test
+	void sharedStrings() {
+		assertSameCsv(fill(new XSSFWorkbook()))
+	}
+
+	@Test
+	void inlineStrings() {
+		// rows are kept in memory until the workbook is written, so that formulas can be evaluated
+		SXSSFWorkbook workbook = new SXSSFWorkbook(-1)
+		try {
+			assertSameCsv(fill(workbook))
+		} finally {
+			workbook.dispose()
+		}
+	}
+
+	private Path fill(Workbook workbook) {
+		CellStyle date = workbook.createCellStyle()
+		date.dataFormat = workbook.creationHelper.createDataFormat().getFormat('dd.mm.yyyy hh:mm')
+		CellStyle money = workbook.createCellStyle()
+		money.dataFormat = workbook.creationHelper.createDataFormat().getFormat('#,##0.00;[Red]-#,##0.00')
+		CellStyle percent = workbook.createCellStyle()
+		percent.dataFormat = workbook.creationHelper.createDataFormat().getFormat('0%')
+
+		Sheet values = workbook.createSheet('values')
+		// leading empty row, gaps between rows and columns
+		for (int i = 1; i < 300; i += (i % 7 == 0 ? 3 : 1)) {
+			Row row = values.createRow(i)
+			row.createCell(0).setCellValue("row $i")
+			row.createCell(1).setCellValue(i * 1.25d)
+			row.createCell(2).setCellValue(-i)
+			row.createCell(3).with {
+				setCellValue(new Date(100000000000L + i * 86400000L))
+				cellStyle = date
+			}
+			row.createCell(4).with {
+				setCellValue(i % 2 == 0 ? -i * 1000.5d : i * 1000.5d)
+				cellStyle = money
+			}
+			if (i % 3 == 0) {
+				row.createCell(6).with {
+					setCellValue(i / 1000d)
+					cellStyle = percent
+				}
+			}
+			if (i % 5 == 0) {
+				row.createCell(8).setCellValue(i % 10 == 0)
+			}
+			if (i % 11 == 0) {
+				row.createCell(9).setCellErrorValue(FormulaError.DIV0.code)
+			}
+		}
+
+		Sheet text = workbook.createSheet('text')
+		['plain', 'with "quotes"', 'comma, separated', 'multi\nline', 'non\u00a0breaking', 'ümlaut €', '', ' '].eachWithIndex { String value, int i ->
+			Row row = text.createRow(i)
+			row.createCell(0).setCellValue(value)
+			row.createCell(2).setCellValue(value.length())
+			row.createCell(3).cellFormula = "A${i + 1}&\"!\""
+		}
+		workbook.creationHelper.createFormulaEvaluator().evaluateAll()
+
+		workbook.createSheet('empty')
+		folder.write(workbook, "workbook-${workbook.class.simpleName}.xlsx")
+	}
+
+	private void assertSameCsv(Path workbook) {
+		List<Path> sax = convert(workbook, XLSX2CSV.SheetReader.SAX)
+		List<Path> stax = convert(workbook, XLSX2CSV.SheetReader.STAX)
+		assertEquals(['values.csv', 'text.csv'], sax*.fileName*.toString())
+		assertEquals(sax*.fileName, stax*.fileName)
+		sax.eachWithIndex { Path expected, int i ->
+			assertTrue(Files.size(expected) > 0)
+			assertArrayEquals(expected.toString(), Files.readAllBytes(expected), Files.readAllBytes(stax[i]))
+		}
+	}
+
+	private List<Path> convert(Path workbook, XLSX2CSV.SheetReader reader) {
+		folder.convert { PrintStreamProducer producer ->
+			ConversionFolder.convertXlsx(workbook, ConversionFolder.OPC, producer) { XLSX2CSV xlsx2csv ->
+				xlsx2csv.sheetReader = reader
+			}
+		}
+	}
+}
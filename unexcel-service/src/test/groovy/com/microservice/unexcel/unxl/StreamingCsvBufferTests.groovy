@@ -0,0 +1,95 @@
+package com.microservice.unexcel.unxl
+
+import org.junit.Test
+
+import java.nio.charset.StandardCharsets
+
+import static org.junit.Assert.assertArrayEquals
+import static org.junit.Assert.assertEquals
+
+/**
+ * Rows are written as before the reusable buffers: without leading and trailing empty rows,
+ * padded to the widest row so far, always as UTF-8
+ */
+class StreamingCsvBufferTests {
+
+	@Test
+	void leadingEmptyRowsAreSkipped() {
+		assertEquals(['"a","b"'], csv { StreamingCsvBuffer sink ->
+			sink.newLine()
+			sink.newLine()
+			sink.addText('a').addText('b').newLine()
+		})
+	}
+
+	@Test
+	void trailingEmptyRowsAreDropped() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream()
+		StreamingCsvBuffer sink = new StreamingCsvBuffer(out)
+		sink.addText('a').newLine()
+		sink.newLine()
+		sink.newLine()
+		sink.finish()
+		assertEquals('"a"', new String(out.toByteArray(), StandardCharsets.UTF_8))
+	}
+
+	@Test
+	void emptyAndShortRowsArePaddedToTheWidestRow() {
+		assertEquals(['"a"', '"b","c","d"', ',,', '"e",,', ',"f",'], csv { StreamingCsvBuffer sink ->
+			sink.addText('a').newLine()
+			sink.addText('b').addText('c').addText('d').newLine()
+			sink.newLine()
+			sink.addText('e').newLine()
+			sink.addEmpty().addText('f').newLine()
+		})
+	}
+
+	@Test
+	void paddedToTheColumnsKnownBefore() {
+		assertEquals(['"a",,', ',,', '1,2,3'], csv { StreamingCsvBuffer sink ->
+			sink.maxNumberOfColumns = 3
+			sink.addText('a').newLine()
+			sink.newLine()
+			sink.add('1').add('2').add('3').newLine()
+		})
+	}
+
+	@Test
+	void quotesAndBackslashesAreEscaped() {
+		assertEquals(['"say ""hi""","C:\\\\temp","TRUE"'], csv { StreamingCsvBuffer sink ->
+			sink.addText('say "hi"').addText('C:\\temp').addBoolean(true).newLine()
+		})
+	}
+
+	@Test
+	void writtenAsUtf8() {
+		String text = 'a \u00e9 \u20ac \ud83d\ude00'
+		assertEquals(["\"$text\",\"non breaking\"".toString()], csv { StreamingCsvBuffer sink ->
+			sink.addText(text).addText('non\u00a0breaking').newLine()
+		})
+		// an unpaired surrogate can't be encoded
+		assertEquals(['"?x"'], csv { StreamingCsvBuffer sink -> sink.addText('\ud83dx').newLine() })
+	}
+
+	@Test
+	void rowsLargerThanTheOutputBuffer() {
+		String cell = 'x\u20ac' * 10000
+		List<String> expected = (0..<10).collect { "\"$cell$it\"".toString() }
+		byte[] written = bytes { StreamingCsvBuffer sink ->
+			10.times { int i -> sink.addText("$cell$i".toString()).newLine() }
+		}
+		assertArrayEquals(expected.join(System.lineSeparator()).getBytes(StandardCharsets.UTF_8), written)
+	}
+
+	private static List<String> csv(Closure rows) {
+		new String(bytes(rows), StandardCharsets.UTF_8).readLines()
+	}
+
+	private static byte[] bytes(Closure rows) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream()
+		StreamingCsvBuffer sink = new StreamingCsvBuffer(out)
+		rows(sink)
+		sink.finish()
+		out.toByteArray()
+	}
+}
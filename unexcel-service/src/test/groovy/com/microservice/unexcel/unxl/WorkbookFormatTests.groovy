@@ -0,0 +1,70 @@
+package com.microservice.unexcel.unxl
+
+import com.microservice.unexcel.Unexcel
+import com.microservice.unexcel.UnsupportedWorkbookException
+import org.apache.poi.hssf.usermodel.HSSFWorkbook
+import org.apache.poi.xssf.usermodel.XSSFWorkbook
+import org.junit.Rule
+import org.junit.Test
+import org.springframework.core.annotation.AnnotationUtils
+import org.springframework.http.HttpStatus
+import org.springframework.web.bind.annotation.ResponseStatus
+
+import java.nio.file.Files
+import java.nio.file.Path
+
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertNull
+import static org.junit.Assert.fail
+
+/**
+ * Workbooks are recognized by their header whatever their name, anything else is answered with 415
+ */
+class WorkbookFormatTests {
+
+	@Rule
+	public ConversionFolder folder = new ConversionFolder()
+
+	@Test
+	void ole2() {
+		HSSFWorkbook workbook = new HSSFWorkbook()
+		workbook.createSheet('sheet')
+		assertEquals(WorkbookFormat.XLS, WorkbookFormat.detect(folder.write(workbook, 'workbook.xlsx')))
+	}
+
+	@Test
+	void zip() {
+		XSSFWorkbook workbook = new XSSFWorkbook()
+		workbook.createSheet('sheet')
+		assertEquals(WorkbookFormat.XLSX, WorkbookFormat.detect(folder.write(workbook, 'workbook.xls')))
+	}
+
+	@Test
+	void shorterThanTheHeader() {
+		// the ZIP signature is shorter than the header that is read
+		assertEquals(WorkbookFormat.XLSX, WorkbookFormat.detect(file('four.xlsx', [0x50, 0x4B, 3, 4])))
+		assertNull(WorkbookFormat.detect(file('three.xlsx', [0x50, 0x4B, 3])))
+		assertNull(WorkbookFormat.detect(file('ole2.xls', [0xD0, 0xCF, 0x11, 0xE0, 0xA1, 0xB1, 0x1A])))
+		assertNull(WorkbookFormat.detect(file('empty.xls', [])))
+	}
+
+	@Test
+	void notAWorkbook() {
+		Path csv = Files.write(folder.newFile('data.xlsx').toPath(), 'a,b\n1,2\n'.bytes)
+		assertNull(WorkbookFormat.detect(csv))
+		Unexcel unexcel = new Unexcel(converters: new EnumMap<>(WorkbookFormat))
+		try {
+			unexcel.unexcel(csv, folder.newFolder().toPath(), null)
+			fail('Converted a CSV file')
+		} catch (UnsupportedWorkbookException e) {
+			ResponseStatus status = AnnotationUtils.findAnnotation(e.class, ResponseStatus)
+			assertEquals(HttpStatus.UNSUPPORTED_MEDIA_TYPE, status.value())
+		}
+	}
+
+	private Path file(String name, List<Integer> bytes) {
+		Path file = folder.newFile(name).toPath()
+		Files.write(file, bytes.collect { int b -> (byte) b } as byte[])
+		file
+	}
+}
@@ -0,0 +1,105 @@
+package com.microservice.unexcel.unxl
+
+import org.apache.poi.ss.usermodel.CellStyle
+import org.apache.poi.ss.usermodel.Row
+import org.apache.poi.ss.usermodel.Sheet
+import org.apache.poi.xssf.usermodel.XSSFWorkbook
+import org.junit.Rule
+import org.junit.Test
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+import static org.junit.Assert.assertArrayEquals
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.fail
+
+/**
+ * Reading the parts straight from the zip file gives the same CSV as reading them through the OPCPackage
+ */
+class ZipXlsxPartsTests {
+
+	@Rule
+	public ConversionFolder folder = new ConversionFolder()
+
+	@Test
+	void sameCsvAsPackage() {
+		Path workbook = write()
+		List<Path> expected = convert(workbook, ConversionFolder.OPC, null)
+		assertEquals(['numbers.csv', 'text.csv', 'dates.csv'], expected*.fileName*.toString())
+		ExecutorService executor = Executors.newFixedThreadPool(3)
+		try {
+			[convert(workbook, ConversionFolder.ZIP, null), convert(workbook, ConversionFolder.ZIP, executor)].each { List<Path> actual ->
+				assertEquals(expected*.fileName, actual*.fileName)
+				expected.eachWithIndex { Path file, int i ->
+					assertArrayEquals(file.toString(), Files.readAllBytes(file), Files.readAllBytes(actual[i]))
+				}
+			}
+		} finally {
+			executor.shutdownNow()
+		}
+	}
+
+	@Test
+	void closeClosesOpenStreams() {
+		ZipXlsxParts parts = new ZipXlsxParts(write())
+		InputStream sheet = parts.getSheetData('rId3')
+		parts.close()
+		try {
+			sheet.read()
+			fail('Sheet is still readable')
+		} catch (IOException expected) {
+			// the zip file is closed
+		}
+	}
+
+	@Test(expected = IOException)
+	void notAWorkbook() {
+		Path file = folder.newFile('plain.zip').toPath()
+		ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(file))
+		try {
+			zip.putNextEntry(new ZipEntry('readme.txt'))
+			zip.write('no workbook'.bytes)
+		} finally {
+			zip.close()
+		}
+		new ZipXlsxParts(file)
+	}
+
+	private Path write() {
+		XSSFWorkbook workbook = new XSSFWorkbook()
+		CellStyle money = workbook.createCellStyle()
+		money.dataFormat = workbook.creationHelper.createDataFormat().getFormat('#,##0.00')
+		CellStyle date = workbook.createCellStyle()
+		date.dataFormat = workbook.creationHelper.createDataFormat().getFormat('yyyy-mm-dd')
+		Sheet numbers = workbook.createSheet('numbers')
+		Sheet text = workbook.createSheet('text')
+		Sheet dates = workbook.createSheet('dates')
+		200.times { int i ->
+			Row row = numbers.createRow(i)
+			row.createCell(0).setCellValue(i)
+			row.createCell(1).with {
+				setCellValue(i * 1000.25d)
+				cellStyle = money
+			}
+			text.createRow(i).createCell(i % 5).setCellValue("text ${i % 17}, \"quoted\"")
+			dates.createRow(i).createCell(0).with {
+				setCellValue(new Date(100000000000L + i * 86400000L))
+				cellStyle = date
+			}
+		}
+		folder.write(workbook, 'workbook.xlsx')
+	}
+
+	private List<Path> convert(Path workbook, String container, ExecutorService executor) {
+		folder.convert { PrintStreamProducer producer ->
+			ConversionFolder.convertXlsx(workbook, container, producer) { XLSX2CSV xlsx2csv ->
+				xlsx2csv.sheetExecutor = executor
+			}
+		}
+	}
+}